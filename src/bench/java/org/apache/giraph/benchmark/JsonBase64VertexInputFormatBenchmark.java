@@ -0,0 +1,154 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.giraph.examples.SimplePageRankVertex;
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BenchmarkUtils;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.VertexReader;
+import org.apache.giraph.lib.JsonBase64VertexFormat;
+import org.apache.giraph.lib.JsonBase64VertexInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Loading of an input split with {@link JsonBase64VertexInputFormat}
+ * from a local file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JsonBase64VertexInputFormatBenchmark
+        implements JsonBase64VertexFormat {
+    /** Number of vertices in the split */
+    @Param({"10000"})
+    public int vertexCount;
+    /** Number of edges per vertex */
+    @Param({"10"})
+    public int edgeCount;
+
+    /** Configuration with the vertex types */
+    private Configuration conf;
+    /** Input file */
+    private File file;
+    /** Input format */
+    private JsonBase64VertexInputFormat<LongWritable, DoubleWritable,
+                                        FloatWritable> inputFormat;
+
+    @Setup(Level.Trial)
+    public void writeInput() throws Exception {
+        conf = VertexBenchmark.createConfiguration(
+            SimplePageRankVertex.class);
+        BenchmarkUtils.createContext(conf);
+        inputFormat = new JsonBase64VertexInputFormat<LongWritable,
+            DoubleWritable, FloatWritable>();
+        file = File.createTempFile("jsonBase64Vertices", ".txt");
+        PrintWriter writer = new PrintWriter(file, "UTF-8");
+        try {
+            for (long i = 0; i < vertexCount; ++i) {
+                JSONObject vertexObject = new JSONObject();
+                vertexObject.put(VERTEX_ID_KEY, Base64.encodeBase64String(
+                    WritableUtils.toByteArray(new LongWritable(i))));
+                vertexObject.put(VERTEX_VALUE_KEY, Base64.encodeBase64String(
+                    WritableUtils.toByteArray(new DoubleWritable(i))));
+                JSONArray edgeArray = new JSONArray();
+                for (int j = 0; j < edgeCount; ++j) {
+                    edgeArray.put(Base64.encodeBase64String(
+                        WritableUtils.toByteArray(
+                            new Edge<LongWritable, FloatWritable>(
+                                new LongWritable((i + j) % vertexCount),
+                                new FloatWritable(j)))));
+                }
+                vertexObject.put(EDGE_ARRAY_KEY, edgeArray);
+                writer.println(vertexObject.toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInput() {
+        if (!file.delete()) {
+            throw new IllegalStateException(
+                "deleteInput: Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Read all the vertices of the split.
+     *
+     * @return Number of vertices read (consumed by JMH)
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Benchmark
+    public long readSplit() throws IOException, InterruptedException {
+        FileSplit split = new FileSplit(
+            new Path(file.toURI()), 0, file.length(), null);
+        TaskAttemptContext context =
+            new TaskAttemptContext(conf, new TaskAttemptID());
+        VertexReader<LongWritable, DoubleWritable, FloatWritable> reader =
+            inputFormat.createVertexReader(split, context);
+        reader.initialize(split, context);
+        long vertices = 0;
+        try {
+            BaseVertex<LongWritable, DoubleWritable, FloatWritable, ?>
+                vertex = BspUtils.<LongWritable, DoubleWritable,
+                                   FloatWritable, DoubleWritable>
+                    createVertex(conf);
+            while (reader.next(vertex)) {
+                ++vertices;
+                vertex = BspUtils.<LongWritable, DoubleWritable,
+                                   FloatWritable, DoubleWritable>
+                    createVertex(conf);
+            }
+        } finally {
+            reader.close();
+        }
+        return vertices;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.graph.Aggregator;
+import org.apache.giraph.graph.BasicVertex;
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.giraph.graph.GraphMapper;
+import org.apache.giraph.graph.VertexRange;
+import org.apache.giraph.graph.VertexRangeStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Worker service without ZooKeeper that owns a single vertex range of
+ * vertices 0 to n - 1, served by the communication service of this
+ * process.  Only what the communication service needs is supported.
+ *
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+class LocalServiceWorker<V extends Writable,
+                         E extends Writable,
+                         M extends Writable>
+        implements CentralizedServiceWorker<LongWritable, V, E, M> {
+    /** Hostname the communication service binds to */
+    private final String hostname;
+    /** Port the communication service binds to */
+    private final int port;
+    /** The only vertex range */
+    private final VertexRange<LongWritable, V, E, M> vertexRange;
+    /** Map with the only vertex range */
+    private final NavigableMap<LongWritable, VertexRange<LongWritable, V, E, M>>
+        vertexRangeMap =
+            new TreeMap<LongWritable, VertexRange<LongWritable, V, E, M>>();
+
+    /**
+     * Constructor.  The communication service must be created with the
+     * same configuration.
+     *
+     * @param conf Configuration (task partition set to 0)
+     * @param vertexCount Number of vertices in the vertex range
+     * @throws Exception
+     */
+    public LocalServiceWorker(Configuration conf, int vertexCount)
+            throws Exception {
+        conf.setInt("mapred.task.partition", 0);
+        hostname = InetAddress.getLocalHost().getHostName();
+        port = conf.getInt(GiraphJob.RPC_INITIAL_PORT,
+                           GiraphJob.RPC_INITIAL_PORT_DEFAULT);
+        LongWritable maxIndex = new LongWritable(vertexCount - 1);
+        vertexRange = new VertexRange<LongWritable, V, E, M>(
+            hostname, port, null, maxIndex, null);
+        vertexRange.setMaxIndex(maxIndex);
+        for (long i = 0; i < vertexCount; ++i) {
+            BaseVertex<LongWritable, V, E, M> vertex =
+                BspUtils.<LongWritable, V, E, M>createVertex(conf);
+            vertex.setVertexId(new LongWritable(i));
+            vertex.setVertexValue(BspUtils.<V>createVertexValue(conf));
+            vertexRange.getVertexMap().put(vertex.getVertexId(), vertex);
+        }
+        vertexRangeMap.put(maxIndex, vertexRange);
+    }
+
+    @Override
+    public String getHostname() {
+        return hostname;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public NavigableMap<LongWritable, VertexRange<LongWritable, V, E, M>>
+            getVertexRangeMap() {
+        return vertexRangeMap;
+    }
+
+    @Override
+    public NavigableMap<LongWritable, VertexRange<LongWritable, V, E, M>>
+            getCurrentVertexRangeMap() {
+        return vertexRangeMap;
+    }
+
+    @Override
+    public VertexRange<LongWritable, V, E, M> getVertexRange(
+            long superstep, LongWritable vertexIndex) {
+        return vertexRange;
+    }
+
+    @Override
+    public VertexRange<LongWritable, V, E, M>[] getHashPartitionOwners(
+            long superstep) {
+        return null;
+    }
+
+    @Override
+    public VertexRangeStore<LongWritable, V, E, M> getVertexRangeStore() {
+        return null;
+    }
+
+    @Override
+    public File getOutOfCoreDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"),
+                        "giraphBenchmark");
+    }
+
+    @Override
+    public long getSuperstep() {
+        return 1;
+    }
+
+    @Override
+    public long getRestartedSuperstep() {
+        return -1;
+    }
+
+    @Override
+    public boolean checkpointFrequencyMet(long superstep) {
+        return false;
+    }
+
+    @Override
+    public long getTotalVertices() {
+        return vertexRange.getVertexMap().size();
+    }
+
+    @Override
+    public long getTotalEdges() {
+        return 0;
+    }
+
+    @Override
+    public boolean useAggregator(String name) {
+        return false;
+    }
+
+    @Override
+    public Aggregator<? extends Writable> getAggregator(String name) {
+        return null;
+    }
+
+    @Override
+    public <A extends Writable> Aggregator<A> registerAggregator(
+            String name, Class<? extends Aggregator<A>> aggregatorClass) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setup() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public BasicVertex<LongWritable, V, E, M> getRepresentativeVertex() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void cleanup() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void storeCheckpoint() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void loadCheckpoint(long superstep) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean startSuperstep() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean finishSuperstep(long workerFinishedVertices,
+                                   long workerVertices,
+                                   long workerEdges,
+                                   long workersSentMessages) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void exchangeVertexRanges() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public GraphMapper<LongWritable, V, E, M> getGraphMapper() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.giraph.comm.RPCCommunications;
+import org.apache.giraph.examples.SimpleCombinerVertex;
+import org.apache.giraph.examples.SimpleSumCombiner;
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BenchmarkUtils;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.giraph.graph.VertexCombiner;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Message path of a worker sending to itself through
+ * {@link RPCCommunications}: sendMessageReq() during a superstep, then
+ * prepareSuperstep() assigning the messages to the vertices, with and
+ * without a combiner.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessagingBenchmark {
+    /**
+     * Communication service of a single local worker.
+     */
+    @State(Scope.Thread)
+    public static class CommState {
+        /** Use {@link SimpleSumCombiner} */
+        @Param({"false", "true"})
+        public boolean useCombiner;
+        /** Number of vertices getting the messages */
+        @Param({"1000"})
+        public int vertexCount;
+        /** Number of messages sent per superstep */
+        @Param({"100000"})
+        public int msgCount;
+
+        /** Context of the worker */
+        Mapper<?, ?, ?, ?>.Context context;
+        /** Communication service */
+        RPCCommunications<LongWritable, IntWritable, FloatWritable,
+                          IntWritable> comm;
+
+        @Setup(Level.Trial)
+        public void setupComm() throws Exception {
+            Configuration conf = new Configuration();
+            conf.setClass(GiraphJob.VERTEX_CLASS, SimpleCombinerVertex.class,
+                          BaseVertex.class);
+            conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                          Writable.class);
+            conf.setClass(GiraphJob.VERTEX_VALUE_CLASS, IntWritable.class,
+                          Writable.class);
+            conf.setClass(GiraphJob.EDGE_VALUE_CLASS, FloatWritable.class,
+                          Writable.class);
+            conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, IntWritable.class,
+                          Writable.class);
+            if (useCombiner) {
+                conf.setClass(GiraphJob.VERTEX_COMBINER_CLASS,
+                              SimpleSumCombiner.class, VertexCombiner.class);
+            }
+            LocalServiceWorker<IntWritable, FloatWritable, IntWritable>
+                service = new LocalServiceWorker<IntWritable, FloatWritable,
+                                                 IntWritable>(
+                    conf, vertexCount);
+            context = BenchmarkUtils.createContext(conf);
+            comm = new RPCCommunications<LongWritable, IntWritable,
+                                         FloatWritable, IntWritable>(
+                context, service);
+        }
+
+        @TearDown(Level.Trial)
+        public void closeComm() throws IOException {
+            comm.closeConnections();
+            comm.close();
+        }
+
+        /**
+         * Send the messages of a superstep.
+         */
+        void sendMessages() {
+            for (int i = 0; i < msgCount; ++i) {
+                comm.sendMessageReq(new LongWritable(i % vertexCount),
+                                    new IntWritable(1));
+            }
+        }
+
+        /**
+         * Deliver the sent messages to the vertices.
+         *
+         * @throws IOException
+         */
+        void flushAndPrepareSuperstep() throws IOException {
+            comm.flush(context);
+            comm.prepareSuperstep();
+        }
+    }
+
+    /**
+     * State for measuring sendMessageReq() only.
+     */
+    public static class SendState extends CommState {
+        @TearDown(Level.Invocation)
+        public void deliver() throws IOException {
+            flushAndPrepareSuperstep();
+        }
+    }
+
+    /**
+     * State for measuring flush() and prepareSuperstep() only.
+     */
+    public static class PrepareState extends CommState {
+        @Setup(Level.Invocation)
+        public void send() {
+            sendMessages();
+        }
+    }
+
+    /**
+     * Send the messages of a superstep.
+     *
+     * @param state Communication service
+     */
+    @Benchmark
+    public void sendMessageReq(SendState state) {
+        state.sendMessages();
+    }
+
+    /**
+     * Flush the sent messages and assign them to the vertices.
+     *
+     * @param state Communication service
+     * @throws IOException
+     */
+    @Benchmark
+    public void prepareSuperstep(PrepareState state) throws IOException {
+        state.flushAndPrepareSuperstep();
+    }
+}
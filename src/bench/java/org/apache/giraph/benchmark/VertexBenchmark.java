@@ -0,0 +1,144 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BenchmarkUtils;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialization of a whole vertex (i.e. checkpoints, vertex range
+ * exchanges and out-of-core spilling) for the map based Vertex
+ * and the array based LongDoubleFloatDoubleVertex.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VertexBenchmark {
+    /** Vertex class to serialize */
+    @Param({"org.apache.giraph.examples.SimplePageRankVertex",
+            "org.apache.giraph.benchmark.PageRankBenchmark"})
+    public String vertexClassName;
+    /** Number of edges of the vertex */
+    @Param({"10", "1000"})
+    public int edgeCount;
+
+    /** Configuration with the vertex types */
+    private Configuration conf;
+    /** Vertex to write */
+    private BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                       DoubleWritable> vertex;
+    /** Reused output of write() */
+    private final DataOutputBuffer output = new DataOutputBuffer();
+    /** Serialized vertex */
+    private byte[] vertexBytes;
+    /** Reused input of readFields() */
+    private final DataInputBuffer input = new DataInputBuffer();
+
+    /**
+     * Get a configuration for long ids, double values, float edges and
+     * double messages.
+     *
+     * @param vertexClass Vertex class
+     * @return Configuration
+     */
+    static Configuration createConfiguration(Class<?> vertexClass) {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_CLASS, vertexClass, BaseVertex.class);
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      Writable.class);
+        conf.setClass(GiraphJob.VERTEX_VALUE_CLASS, DoubleWritable.class,
+                      Writable.class);
+        conf.setClass(GiraphJob.EDGE_VALUE_CLASS, FloatWritable.class,
+                      Writable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      Writable.class);
+        return conf;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        conf = createConfiguration(Class.forName(vertexClassName));
+        BenchmarkUtils.createContext(conf);
+        vertex = BspUtils.<LongWritable, DoubleWritable, FloatWritable,
+                           DoubleWritable>createVertex(conf);
+        vertex.setVertexId(new LongWritable(1));
+        vertex.setVertexValue(new DoubleWritable(0.5));
+        for (int i = 0; i < edgeCount; ++i) {
+            vertex.addEdge(new Edge<LongWritable, FloatWritable>(
+                new LongWritable(i * 7L), new FloatWritable(i)));
+        }
+        vertex.getMsgList().add(new DoubleWritable(1));
+        vertex.write(output);
+        vertexBytes = new byte[output.getLength()];
+        System.arraycopy(output.getData(), 0, vertexBytes, 0,
+                         output.getLength());
+    }
+
+    /**
+     * Serialize the vertex.
+     *
+     * @return Output (consumed by JMH)
+     * @throws IOException
+     */
+    @Benchmark
+    public DataOutputBuffer write() throws IOException {
+        output.reset();
+        vertex.write(output);
+        return output;
+    }
+
+    /**
+     * Deserialize a new vertex.
+     *
+     * @return Vertex (consumed by JMH)
+     * @throws IOException
+     */
+    @Benchmark
+    public BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                      DoubleWritable> readFields() throws IOException {
+        input.reset(vertexBytes, vertexBytes.length);
+        BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                   DoubleWritable> readVertex =
+            BspUtils.<LongWritable, DoubleWritable, FloatWritable,
+                      DoubleWritable>createVertex(conf);
+        readVertex.readFields(input);
+        return readVertex;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.giraph.examples.SimplePageRankVertex;
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BasicVertex;
+import org.apache.giraph.graph.BenchmarkUtils;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.VertexMutations;
+import org.apache.giraph.graph.VertexResolver;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resolution of the graph mutations of a vertex by the default
+ * {@link VertexResolver}, for an existing vertex (edges added and removed)
+ * and for a vertex created by a mutation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VertexResolverBenchmark {
+    /** Number of edges added and removed */
+    @Param({"10", "1000"})
+    public int mutationCount;
+
+    /** Configuration with the vertex types */
+    private Configuration conf;
+    /** Resolver */
+    private VertexResolver<LongWritable, DoubleWritable, FloatWritable,
+                           DoubleWritable> resolver;
+    /** Existing vertex, rebuilt for every invocation */
+    private BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                       DoubleWritable> vertex;
+    /** Edge mutations of the existing vertex */
+    private VertexMutations<LongWritable, DoubleWritable, FloatWritable,
+                            DoubleWritable> edgeMutations;
+    /** Creation of a vertex with edges */
+    private VertexMutations<LongWritable, DoubleWritable, FloatWritable,
+                            DoubleWritable> addVertexMutations;
+
+    @Setup(Level.Trial)
+    public void setupResolver() throws Exception {
+        conf = VertexBenchmark.createConfiguration(
+            SimplePageRankVertex.class);
+        BenchmarkUtils.createContext(conf);
+        resolver = new VertexResolver<LongWritable, DoubleWritable,
+                                      FloatWritable, DoubleWritable>();
+        resolver.setConf(conf);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupMutations() {
+        vertex = BspUtils.<LongWritable, DoubleWritable, FloatWritable,
+                           DoubleWritable>createVertex(conf);
+        vertex.setVertexId(new LongWritable(0));
+        vertex.setVertexValue(new DoubleWritable(0));
+        edgeMutations = new VertexMutations<LongWritable, DoubleWritable,
+                                            FloatWritable, DoubleWritable>();
+        for (int i = 0; i < mutationCount; ++i) {
+            vertex.addEdge(new Edge<LongWritable, FloatWritable>(
+                new LongWritable(i), new FloatWritable(i)));
+            edgeMutations.removeEdge(new LongWritable(i));
+            edgeMutations.addEdge(new Edge<LongWritable, FloatWritable>(
+                new LongWritable(mutationCount + i), new FloatWritable(i)));
+        }
+
+        BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                   DoubleWritable> addedVertex =
+            BspUtils.<LongWritable, DoubleWritable, FloatWritable,
+                      DoubleWritable>createVertex(conf);
+        addedVertex.setVertexId(new LongWritable(1));
+        addedVertex.setVertexValue(new DoubleWritable(0));
+        addVertexMutations = new VertexMutations<LongWritable,
+            DoubleWritable, FloatWritable, DoubleWritable>();
+        addVertexMutations.addVertex(addedVertex);
+        for (int i = 0; i < mutationCount; ++i) {
+            addVertexMutations.addEdge(new Edge<LongWritable, FloatWritable>(
+                new LongWritable(i), new FloatWritable(i)));
+        }
+    }
+
+    /**
+     * Remove and add edges of an existing vertex.
+     *
+     * @return Resolved vertex (consumed by JMH)
+     */
+    @Benchmark
+    public BasicVertex<LongWritable, DoubleWritable, FloatWritable,
+                       DoubleWritable> resolveEdgeMutations() {
+        return resolver.resolve(vertex, edgeMutations, null);
+    }
+
+    /**
+     * Create a vertex and add its edges.
+     *
+     * @return Resolved vertex (consumed by JMH)
+     */
+    @Benchmark
+    public BasicVertex<LongWritable, DoubleWritable, FloatWritable,
+                       DoubleWritable> resolveAddedVertex() {
+        return resolver.resolve(null, addVertexMutations, null);
+    }
+}
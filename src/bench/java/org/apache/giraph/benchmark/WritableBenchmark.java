@@ -0,0 +1,113 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.giraph.comm.MsgList;
+import org.apache.giraph.examples.SimplePageRankVertex;
+import org.apache.giraph.graph.Edge;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serialization round-trips of the Writables sent between workers: a
+ * single {@link Edge} and a {@link MsgList}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WritableBenchmark {
+    /** Number of messages in the message list */
+    @Param({"10", "10000"})
+    public int msgCount;
+
+    /** Configuration with the vertex types */
+    private Configuration conf;
+    /** Edge to serialize */
+    private Edge<LongWritable, FloatWritable> edge;
+    /** Message list to serialize */
+    private MsgList<DoubleWritable> msgList;
+    /** Reused output */
+    private final DataOutputBuffer output = new DataOutputBuffer();
+    /** Reused input */
+    private final DataInputBuffer input = new DataInputBuffer();
+
+    @Setup
+    public void setup() {
+        conf = VertexBenchmark.createConfiguration(SimplePageRankVertex.class);
+        edge = new Edge<LongWritable, FloatWritable>(
+            new LongWritable(12345), new FloatWritable(0.5f));
+        edge.setConf(conf);
+        msgList = new MsgList<DoubleWritable>();
+        msgList.setConf(conf);
+        for (int i = 0; i < msgCount; ++i) {
+            msgList.add(new DoubleWritable(i));
+        }
+    }
+
+    /**
+     * Write an edge and read it back.
+     *
+     * @return Read edge (consumed by JMH)
+     * @throws IOException
+     */
+    @Benchmark
+    public Edge<LongWritable, FloatWritable> edgeRoundTrip()
+            throws IOException {
+        output.reset();
+        edge.write(output);
+        input.reset(output.getData(), output.getLength());
+        Edge<LongWritable, FloatWritable> readEdge =
+            new Edge<LongWritable, FloatWritable>();
+        readEdge.setConf(conf);
+        readEdge.readFields(input);
+        return readEdge;
+    }
+
+    /**
+     * Write a message list and read it back.
+     *
+     * @return Read message list (consumed by JMH)
+     * @throws IOException
+     */
+    @Benchmark
+    public MsgList<DoubleWritable> msgListRoundTrip() throws IOException {
+        output.reset();
+        msgList.write(output);
+        input.reset(output.getData(), output.getLength());
+        MsgList<DoubleWritable> readMsgList = new MsgList<DoubleWritable>();
+        readMsgList.setConf(conf);
+        readMsgList.readFields(input);
+        return readMsgList;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+/**
+ * Helps the micro-benchmarks run parts of a worker outside of a Hadoop job.
+ */
+public class BenchmarkUtils {
+    /** Do not instantiate */
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * Create a mapper context that is not backed by a task (counters are
+     * kept in memory) and make it the context of all the vertices.
+     *
+     * @param conf Configuration of the context
+     * @return Mapper context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Mapper<?, ?, ?, ?>.Context createContext(
+            Configuration conf) throws IOException, InterruptedException {
+        final Counters counters = new Counters();
+        StatusReporter reporter = new StatusReporter() {
+            @Override
+            public Counter getCounter(Enum<?> name) {
+                return counters.findCounter(name);
+            }
+
+            @Override
+            public Counter getCounter(String group, String name) {
+                return counters.findCounter(group, name);
+            }
+
+            @Override
+            public void progress() {
+            }
+
+            @Override
+            public void setStatus(String status) {
+            }
+        };
+        Mapper<Object, Object, Object, Object> mapper =
+            new Mapper<Object, Object, Object, Object>();
+        Mapper<Object, Object, Object, Object>.Context context =
+            mapper.new Context(conf, new TaskAttemptID(), null, null, null,
+                               reporter, null);
+        BaseVertex.setContext(context);
+        return context;
+    }
+}
@@ -22,7 +22,6 @@ import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -32,13 +31,12 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 import org.apache.giraph.graph.GiraphJob;
-import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.graph.LongDoubleFloatDoubleVertex;
 
 /**
  * Benchmark based on the basic Pregel PageRank implementation.
  */
-public class PageRankBenchmark extends
-        Vertex<LongWritable, DoubleWritable, DoubleWritable, DoubleWritable>
+public class PageRankBenchmark extends LongDoubleFloatDoubleVertex
         implements Tool {
     /** Configuration from Configurable */
     private Configuration conf;
@@ -72,7 +70,7 @@ public class PageRankBenchmark extends
         }
 
         if (getSuperstep() < getConf().getInt(SUPERSTEP_COUNT, -1)) {
-            long edges = getOutEdgeMap().size();
+            long edges = getNumOutEdges();
             sentMsgToAllEdges(
                 new DoubleWritable(getVertexValue().get() / edges));
         } else {
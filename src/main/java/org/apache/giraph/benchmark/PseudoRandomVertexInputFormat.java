@@ -25,6 +25,7 @@ import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -44,7 +45,7 @@ import org.apache.giraph.graph.VertexReader;
  * (pseudo-random).
  */
 public class PseudoRandomVertexInputFormat extends
-        VertexInputFormat<LongWritable, DoubleWritable, DoubleWritable> {
+        VertexInputFormat<LongWritable, DoubleWritable, FloatWritable> {
     /** Set the number of aggregate vertices */
     public static final String AGGREGATE_VERTICES =
         "pseduoRandomVertexReader.aggregateVertices";
@@ -65,7 +66,7 @@ public class PseudoRandomVertexInputFormat extends
     }
 
     @Override
-    public VertexReader<LongWritable, DoubleWritable, DoubleWritable>
+    public VertexReader<LongWritable, DoubleWritable, FloatWritable>
             createVertexReader(InputSplit split, TaskAttemptContext context)
             throws IOException {
         return new PseudoRandomVertexReader();
@@ -80,7 +81,7 @@ public class PseudoRandomVertexInputFormat extends
      * @param <E> Edge value
      */
     private static class PseudoRandomVertexReader implements
-            VertexReader<LongWritable, DoubleWritable, DoubleWritable> {
+            VertexReader<LongWritable, DoubleWritable, FloatWritable> {
         /** Logger */
         private static final Logger LOG =
             Logger.getLogger(PseudoRandomVertexReader.class);
@@ -139,7 +140,7 @@ public class PseudoRandomVertexInputFormat extends
 
         @Override
         public boolean next(
-                MutableVertex<LongWritable, DoubleWritable, DoubleWritable, ?>
+                MutableVertex<LongWritable, DoubleWritable, FloatWritable, ?>
                 vertex) throws IOException {
             if (verticesRead >= totalSplitVertices) {
                 return false;
@@ -158,9 +159,9 @@ public class PseudoRandomVertexInputFormat extends
                         new LongWritable(Math.abs(rand.nextLong()) %
                                          aggregateVertices);
                 } while (vertex.getOutEdgeMap().containsKey(destVertexId));
-                Edge<LongWritable, DoubleWritable> edge =
-                    new Edge<LongWritable, DoubleWritable>(
-                        destVertexId, new DoubleWritable(rand.nextDouble()));
+                Edge<LongWritable, FloatWritable> edge =
+                    new Edge<LongWritable, FloatWritable>(
+                        destVertexId, new FloatWritable(rand.nextFloat()));
                 vertex.addEdge(edge);
             }
 
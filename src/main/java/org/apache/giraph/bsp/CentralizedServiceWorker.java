@@ -18,6 +18,7 @@
 
 package org.apache.giraph.bsp;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.NavigableMap;
 import org.apache.hadoop.io.Writable;
@@ -26,6 +27,7 @@ import org.apache.hadoop.io.WritableComparable;
 import org.apache.giraph.graph.AggregatorUsage;
 import org.apache.giraph.graph.GraphMapper;
 import org.apache.giraph.graph.VertexRange;
+import org.apache.giraph.graph.VertexRangeStore;
 import org.apache.giraph.graph.BasicVertexRangeBalancer;
 
 /**
@@ -70,6 +72,21 @@ public interface CentralizedServiceWorker<
      */
     NavigableMap<I, VertexRange<I, V, E, M>> getCurrentVertexRangeMap();
 
+    /**
+     * Get the store that spills the vertex ranges of this worker to disk.
+     *
+     * @return Vertex range store, null if all vertex ranges stay in memory
+     */
+    VertexRangeStore<I, V, E, M> getVertexRangeStore();
+
+    /**
+     * Get the local directory where this worker spills the data that does
+     * not fit in memory.
+     *
+     * @return Local directory (only created when needed)
+     */
+    File getOutOfCoreDirectory();
+
     /**
      *  Both the vertices and the messages need to be checkpointed in order
      *  for them to be used.  This is done after all messages have been
@@ -120,6 +137,17 @@ public interface CentralizedServiceWorker<
      */
     VertexRange<I, V, E, M> getVertexRange(long superstep, I vertexIndex);
 
+    /**
+     * Get the vertex range that owns every hash partition, so that vertex
+     * ranges can be looked up without calling getVertexRange() for every
+     * vertex.
+     *
+     * @param superstep Superstep to look for
+     * @return Owning vertex ranges indexed by hash partition id, null if
+     *         the vertices are not hash partitioned
+     */
+    VertexRange<I, V, E, M>[] getHashPartitionOwners(long superstep);
+
     /**
      * Get the total vertices in the entire application during a given
      * superstep.  Note that this is the number of vertices prior to the
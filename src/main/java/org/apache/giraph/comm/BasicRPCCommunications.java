@@ -18,40 +18,58 @@
 
 package org.apache.giraph.comm;
 
+import java.io.File;
 import java.io.IOException;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.DiskBackedMessageStore.MergedMsgIterator;
 import org.apache.giraph.graph.GiraphJob;
 import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.CsrEdgeStore;
 import org.apache.giraph.graph.VertexCombiner;
 import org.apache.giraph.graph.Edge;
-import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.MutableVertex;
 import org.apache.giraph.graph.BasicVertex;
 import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.graph.VertexRange;
+import org.apache.giraph.graph.VertexRangeStore;
 import org.apache.giraph.graph.VertexResolver;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.ipc.RPC;
-import org.apache.hadoop.ipc.RPC.Server;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 
 @SuppressWarnings("rawtypes")
@@ -65,7 +83,7 @@ public abstract class BasicRPCCommunications<
     /** Class logger */
     private static final Logger LOG =
         Logger.getLogger(BasicRPCCommunications.class);
-    /** Synchronization object (Between this object and peer threads) */
+    /** Synchronization object (Between this object and peer connections) */
     private Object waitingInMain = new Object();
     /** Indicates whether in superstep preparation */
     private boolean inPrepareSuperstep = false;
@@ -73,27 +91,50 @@ public abstract class BasicRPCCommunications<
     private final String localHostname;
     /** Name of RPC server, == myAddress.toString() */
     private final String myName;
-    /** RPC server */
-    private final Server server;
     /** Centralized service, needed to get vertex ranges */
     private final CentralizedServiceWorker<I, V, E, M> service;
     /** Hadoop configuration */
     protected final Configuration conf;
     /** Combiner instance, can be null */
     private final VertexCombiner<I, M> combiner;
+    /** Keep the incoming messages serialized until compute() */
+    private final boolean useByteArrayMessages;
     /** Address of RPC server */
     private final InetSocketAddress myAddress;
-    /** Messages sent during the last superstep */
-    private long totalMsgsSentInSuperstep = 0;
     /**
-     * Map of threads mapping from remote socket address to RPC client threads
+     * Messages sent during the last superstep (updated by all the compute
+     * threads)
      */
-    private final Map<InetSocketAddress, PeerThread> peerThreads =
-        new HashMap<InetSocketAddress, PeerThread>();
+    private final AtomicLong totalMsgsSentInSuperstep = new AtomicLong();
+    /** Bytes of the message buffers sent to the peers since the last flush */
+    private final AtomicLong sentMsgBytes = new AtomicLong();
+    /** Bytes of the message buffers sent to the peers */
+    private final Counter sentMsgBytesCounter;
+    /** Full message buffers per peer that can wait to be sent */
+    private final int msgBufferCredits;
+    /** Msecs the senders waited for a credit since the last flush */
+    private final AtomicLong creditWaitMsecs = new AtomicLong();
+    /** Msecs the senders waited for a credit of a peer */
+    private final Counter creditWaitMsecsCounter;
+    /** Bytes of the payloads given to the compressor */
+    private final Counter compressionInputBytesCounter;
+    /** Bytes of the compressed payloads */
+    private final Counter compressionOutputBytesCounter;
+    /** Msecs spent compressing the payloads */
+    private final Counter compressionMsecsCounter;
+    /** Msecs spent decompressing the payloads */
+    private final Counter decompressionMsecsCounter;
+    /** Compresses the payloads of this worker and keeps its statistics */
+    private final CompressedPayload compressedPayload;
+    /**
+     * Map of connections from remote socket address to RPC client connection
+     */
+    private final Map<InetSocketAddress, PeerConnection> peerConnections =
+        new HashMap<InetSocketAddress, PeerConnection>();
     /**
      * Map of outbound messages, mapping from remote server to
      * destination vertex index to list of messages
-     * (Synchronized between peer threads and main thread for each internal
+     * (Synchronized between peer connections and main thread for each internal
      *  map)
      */
     private final Map<InetSocketAddress, Map<I, MsgList<M>>> outMessages =
@@ -112,13 +153,37 @@ public abstract class BasicRPCCommunications<
      */
     private final Map<I, List<M>> transientInMessages =
         new HashMap<I, List<M>>();
+    /** Number of messages in transientInMessages */
+    private final AtomicLong transientInMsgCount = new AtomicLong();
+    /**
+     * Broadcast messages received during the superstep, kept serialized
+     * until prepareSuperstep() (synchronized with itself)
+     */
+    private final DataOutputBuffer inBroadcasts = new DataOutputBuffer();
+    /** Number of broadcast messages in inBroadcasts */
+    private int numInBroadcasts = 0;
+    /**
+     * Number of destination vertices of the broadcast messages in
+     * inBroadcasts (counted against maxMessagesInMemory)
+     */
+    private long numInBroadcastTargets = 0;
+    /** Maximum number of messages in transientInMessages before spilling */
+    private final long maxMessagesInMemory;
+    /** Spills the incoming messages to disk (null if all kept in memory) */
+    private final DiskBackedMessageStore<I, M> messageStore;
     /**
      * Map of vertex ranges to any incoming vertices from other workers.
      * (Synchronized)
      */
-    private final Map<I, List<Vertex<I, V, E, M>>>
+    private final Map<I, SortedMap<I, BasicVertex<I, V, E, M>>>
         inVertexRangeMap =
-            new TreeMap<I, List<Vertex<I, V, E, M>>>();
+            new TreeMap<I, SortedMap<I, BasicVertex<I, V, E, M>>>();
+    /**
+     * Edge store shared by the incoming vertices of every vertex range, if
+     * the edges are kept in one (synchronized with inVertexRangeMap)
+     */
+    private final Map<I, CsrEdgeStore<I, E>> inEdgeStoreMap =
+        new HashMap<I, CsrEdgeStore<I, E>>();
     /**
      * Map from vertex index to all vertex mutations
      */
@@ -126,32 +191,90 @@ public abstract class BasicRPCCommunications<
         inVertexMutationsMap =
             new TreeMap<I, VertexMutations<I, V, E, M>>();
     /**
-     * Cached map of vertex ranges to remote socket address.  Needs to be
-     * synchronized.
+     * Peer connection owning every vertex index during the current superstep.
+     * Rebuilt when the superstep changes, read without locking.
      */
-    private final Map<I, InetSocketAddress> vertexIndexMapAddressMap =
-        new HashMap<I, InetSocketAddress>();
+    private volatile RoutingTable<I, PeerConnection> routingTable = null;
+    /** Synchronizes the rebuilds of the routing table */
+    private final Object routingTableLock = new Object();
     /** Maximum size of cached message list, before sending it out */
     private final int maxSize;
+    /** Maximum size in bytes of a message buffer, before sending it out */
+    private final int maxBufferSize;
     /** Maximum msecs to hold messages before checking again */
     private static final int MAX_MESSAGE_HOLDING_MSECS = 2000;
+    /** Sender threads shared by all the peer connections */
+    private final ExecutorService senderPool;
     /** Cached job id */
     private final String jobId;
     /** cached job token */
     private final J jobToken;
-    /** maximum number of vertices sent in a single RPC */
-    private static final int MAX_VERTICES_PER_RPC = 1024;
 
     /**
-     * Class describing the RPC client thread for every remote RPC server.
-     * It actually marshals and ships the RPC call to the remote RPC server
-     * for actual execution.
+     * Message buffer being filled by a single sending thread, so that
+     * concurrent senders don't contend on the same buffer.  Only taken over
+     * by the peer connection when flushing (synchronized with itself).
+     */
+    private class MsgBufferSlot {
+        /** Message buffer being filled, null until the next message */
+        private MsgBuffer<I, M> msgBuffer = null;
+
+        /**
+         * Get the message buffer being filled, creating it if needed.
+         *
+         * @return Message buffer to add to
+         */
+        private MsgBuffer<I, M> getMsgBuffer() {
+            if (msgBuffer == null) {
+                msgBuffer = new MsgBuffer<I, M>();
+                msgBuffer.setConf(conf);
+            }
+            return msgBuffer;
+        }
+
+        /**
+         * Remove the message buffer being filled once it is full.
+         *
+         * @return Full message buffer, null if not full yet
+         */
+        private MsgBuffer<I, M> removeMsgBufferIfFull() {
+            if (msgBuffer == null || msgBuffer.getSize() < maxBufferSize) {
+                return null;
+            }
+            MsgBuffer<I, M> fullBuffer = msgBuffer;
+            msgBuffer = null;
+            return fullBuffer;
+        }
+    }
+
+    /**
+     * Messages to this worker gathered by a single sending thread, so that
+     * concurrent senders don't contend on the same map.  Only taken over
+     * by the peer connection when flushing (synchronized with itself).
+     */
+    private class LocalMsgSlot {
+        /**
+         * Map of vertex index to its messages (a single one with a
+         * combiner)
+         */
+        private Map<I, MsgList<M>> msgMap = new HashMap<I, MsgList<M>>();
+    }
+
+    /**
+     * Outgoing requests to every worker (remote, or this one).  A
+     * connection doesn't own a thread: whenever it has something to send,
+     * it schedules itself once on the shared sender pool, which issues the
+     * RPC calls.  Every run only sends what is waiting when it starts and
+     * then goes to the back of the pool queue, so that all the peers get
+     * their turn.
      */
-    private class PeerThread extends Thread {
+    private class PeerConnection implements Runnable {
         /**
          * Map of outbound messages going to a particular remote server,
          * mapping from vertex range (max vertex index) to list of messages.
-         * (Synchronized with itself).
+         * Only used with a combiner, to send a single message per
+         * destination vertex, and never for this worker (see
+         * localMsgSlots).  (Synchronized with itself).
          */
         private final Map<I, MsgList<M>> outMessagesPerPeer;
         /**
@@ -162,103 +285,624 @@ public abstract class BasicRPCCommunications<
         private final int maxSize;
         /** Boolean, set to false when local client (self), true otherwise */
         private final boolean isProxy;
-        /** Boolean, set to true when all messages should be flushed */
-        private boolean flush = false;
-        /** associated synchronization object */
-        private final Object flushObject = new Object();
-        /** Boolean, set to true when client should terminate */
-        private boolean notDone = true;
-        /** associated synchronization object */
-        private final Object notDoneObject = new Object();
-        /** Boolean, set to true when there is a large message list to flush */
-        private boolean flushLargeMsgLists = false;
-        /** associated synchronization object */
-        private final Object flushLargeMsgListsObject = new Object();
-        /** Synchronization object */
-        private final Object waitingInPeer = new Object();
+        /** Set when all messages should be flushed, until they are */
+        private volatile boolean flush = false;
+        /** Set to false when closed or the connection failed */
+        private volatile boolean notDone = true;
+        /** Set when running or waiting to run on the sender pool */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        /** Sender pool thread running this connection, null if none */
+        private volatile Thread runner = null;
         /** Combiner instance, can be null */
         private final VertexCombiner<I, M> combiner;
         /** set of keys of large message list (synchronized with itself) */
         private final Set<I> largeMsgListKeys = new TreeSet<I>();
-
-        PeerThread(Map<I, MsgList<M>> m,
-                   CommunicationsInterface<I, V, E, M> i,
-                   int maxSize,
-                   boolean isProxy,
-                   VertexCombiner<I, M> combiner) {
-            super(PeerThread.class.getName());
+        /** Maximum size in bytes of a message buffer, before sending it */
+        private final int maxBufferSize;
+        /**
+         * Message buffers currently being filled for this peer, one per
+         * sending thread (synchronized with itself)
+         */
+        private final List<MsgBufferSlot> msgBufferSlots =
+            new ArrayList<MsgBufferSlot>();
+        /** Message buffer slot of the current sending thread */
+        private final ThreadLocal<MsgBufferSlot> localMsgBufferSlot =
+            new ThreadLocal<MsgBufferSlot>() {
+                @Override
+                protected MsgBufferSlot initialValue() {
+                    MsgBufferSlot slot = new MsgBufferSlot();
+                    synchronized (msgBufferSlots) {
+                        msgBufferSlots.add(slot);
+                    }
+                    return slot;
+                }
+            };
+        /**
+         * Messages gathered for this worker, one map per sending thread
+         * (synchronized with itself, only used if not a proxy)
+         */
+        private final List<LocalMsgSlot> localMsgSlots =
+            new ArrayList<LocalMsgSlot>();
+        /** Local message slot of the current sending thread */
+        private final ThreadLocal<LocalMsgSlot> localMsgSlot =
+            new ThreadLocal<LocalMsgSlot>() {
+                @Override
+                protected LocalMsgSlot initialValue() {
+                    LocalMsgSlot slot = new LocalMsgSlot();
+                    synchronized (localMsgSlots) {
+                        localMsgSlots.add(slot);
+                    }
+                    return slot;
+                }
+            };
+        /** Filled message buffers waiting to be sent (synchronized) */
+        private final List<MsgBuffer<I, M>> fullMsgBuffers =
+            new ArrayList<MsgBuffer<I, M>>();
+        /**
+         * One credit per full message buffer that can still be handed to
+         * this connection.  Senders block without credits, so that a slow peer
+         * slows down the computation instead of filling the memory.
+         */
+        private final Semaphore fullMsgBufferCredits =
+            new Semaphore(msgBufferCredits);
+        /** Set when the combined messages should be sent before flush() */
+        private final AtomicBoolean streamCombinedMsgs =
+            new AtomicBoolean(false);
+        /**
+         * Mutation buffer currently being filled for this peer
+         * (synchronized with fullMutationBuffers)
+         */
+        private MutationBuffer<I, V, E, M> mutationBuffer = null;
+        /** Filled mutation buffers waiting to be sent (synchronized) */
+        private final List<MutationBuffer<I, V, E, M>> fullMutationBuffers =
+            new ArrayList<MutationBuffer<I, V, E, M>>();
+        /**
+         * Vertex chunks waiting to be sent with the max index of their
+         * vertex range (synchronized)
+         */
+        private final List<Entry<I, VertexChunk<I, V, E, M>>> vertexChunks =
+            new ArrayList<Entry<I, VertexChunk<I, V, E, M>>>();
+        /** One credit per vertex chunk that can still be handed over */
+        private final Semaphore vertexChunkCredits =
+            new Semaphore(msgBufferCredits);
+
+        PeerConnection(Map<I, MsgList<M>> m,
+                       CommunicationsInterface<I, V, E, M> i,
+                       int maxSize,
+                       int maxBufferSize,
+                       boolean isProxy,
+                       VertexCombiner<I, M> combiner) {
             this.outMessagesPerPeer = m;
             this.peer = i;
             this.maxSize = maxSize;
+            this.maxBufferSize = maxBufferSize;
             this.isProxy = isProxy;
             this.combiner = combiner;
         }
 
+        /**
+         * Run this connection on the sender pool, unless it is already
+         * waiting to run.
+         */
+        private void schedule() {
+            if (notDone && scheduled.compareAndSet(false, true)) {
+                senderPool.execute(this);
+            }
+        }
+
+        /**
+         * Check if anything is waiting to be sent.
+         *
+         * @return True if this connection should run
+         */
+        private boolean hasWork() {
+            if (flush || streamCombinedMsgs.get() ||
+                    hasFullMsgBuffers() || hasFullMutationBuffers() ||
+                    hasVertexChunks()) {
+                return true;
+            }
+            synchronized (largeMsgListKeys) {
+                return !largeMsgListKeys.isEmpty();
+            }
+        }
+
+        /**
+         * Send the combined messages gathered so far while the computation
+         * goes on.
+         */
+        public void streamCombinedMsgs() {
+            if (!streamCombinedMsgs.getAndSet(true)) {
+                schedule();
+            }
+        }
+
         public void flushLargeMsgList(I key) {
             synchronized (largeMsgListKeys) {
                 largeMsgListKeys.add(key);
             }
-            synchronized (flushLargeMsgListsObject) {
-                flushLargeMsgLists = true;
+            schedule();
+        }
+
+        /**
+         * Issue all the put() RPCs, getFlushState() is false once done.
+         */
+        public void flush() {
+            flush = true;
+            schedule();
+        }
+
+        public boolean getFlushState() {
+            return flush;
+        }
+
+        public boolean getNotDoneState() {
+            return notDone;
+        }
+
+        /**
+         * Stop sending, anything not sent yet is dropped.
+         */
+        public void close() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("close: Done");
             }
-            synchronized (waitingInPeer) {
-                waitingInPeer.notify();
+            notDone = false;
+        }
+
+        public CommunicationsInterface<I, V, E, M> getRPCProxy() {
+            return peer;
+        }
+
+        public boolean isProxy() {
+            return isProxy;
+        }
+
+        /**
+         * Serialize a message into the message buffer of this peer.  Once
+         * the buffer is full, it is handed to this connection to be sent.
+         *
+         * @param destVertex Destination vertex index
+         * @param msg Message to serialize
+         * @throws IOException
+         */
+        public void addMsg(I destVertex, M msg) throws IOException {
+            MsgBufferSlot slot = localMsgBufferSlot.get();
+            MsgBuffer<I, M> fullBuffer = null;
+            synchronized (slot) {
+                slot.getMsgBuffer().add(destVertex, msg);
+                fullBuffer = slot.removeMsgBufferIfFull();
+            }
+            if (fullBuffer != null) {
+                addFullMsgBuffer(fullBuffer);
             }
         }
 
         /**
-         * Notify this thread to send issue the put() RPCs.
+         * Add a message to this worker to the messages gathered by the
+         * current thread (combined if there is a combiner).  A message list
+         * that grows past maxSize is put right away.
+         *
+         * @param destVertex Destination vertex index
+         * @param msg Message to add
+         * @throws IOException
          */
-        public void flush() {
-            synchronized (flushObject) {
-                flush = true;
+        public void addLocalMsg(I destVertex, M msg) throws IOException {
+            LocalMsgSlot slot = localMsgSlot.get();
+            MsgList<M> largeMsgList = null;
+            synchronized (slot) {
+                MsgList<M> msgList = slot.msgMap.get(destVertex);
+                if (msgList == null) {
+                    msgList = new MsgList<M>();
+                    slot.msgMap.put(destVertex, msgList);
+                }
+                addToMsgList(destVertex, msgList,
+                             Collections.singletonList(msg));
+                if (msgList.size() > maxSize) {
+                    largeMsgList = msgList;
+                    slot.msgMap.remove(destVertex);
+                }
             }
-            synchronized (waitingInPeer) {
-                waitingInPeer.notify();
+            if (largeMsgList != null) {
+                peer.putMsgList(destVertex, largeMsgList);
             }
         }
 
-        public boolean getFlushState() {
-            synchronized(flushObject) {
-                return flush;
+        /**
+         * Put the messages gathered by every sending thread for this
+         * worker.
+         *
+         * @throws IOException
+         */
+        private void putLocalMsgs() throws IOException {
+            List<LocalMsgSlot> slots = null;
+            synchronized (localMsgSlots) {
+                slots = new ArrayList<LocalMsgSlot>(localMsgSlots);
+            }
+            for (LocalMsgSlot slot : slots) {
+                Map<I, MsgList<M>> msgMap = null;
+                synchronized (slot) {
+                    if (slot.msgMap.isEmpty()) {
+                        continue;
+                    }
+                    msgMap = slot.msgMap;
+                    slot.msgMap = new HashMap<I, MsgList<M>>();
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("putLocalMsgs: " + peer.getName() +
+                              " putting messages to " + msgMap.size() +
+                              " vertices");
+                }
+                for (Entry<I, MsgList<M>> entry : msgMap.entrySet()) {
+                    peer.putMsgList(entry.getKey(), entry.getValue());
+                }
             }
         }
 
-        public boolean getNotDoneState() {
-            synchronized(notDoneObject) {
-                return notDone;
+        /**
+         * Hand a full message buffer to this connection to be sent, waiting for
+         * a credit if too many full buffers are already waiting.
+         *
+         * @param fullBuffer Full message buffer
+         * @throws IOException
+         */
+        private void addFullMsgBuffer(MsgBuffer<I, M> fullBuffer)
+                throws IOException {
+            if (Thread.currentThread() == runner) {
+                // Cannot wait for a credit that only this run releases
+                sendMsgBuffer(fullBuffer);
+                return;
+            }
+            long startMsecs = System.currentTimeMillis();
+            acquireCredits(fullMsgBufferCredits, 1, "message buffers");
+            creditWaitMsecs.addAndGet(
+                System.currentTimeMillis() - startMsecs);
+            synchronized (fullMsgBuffers) {
+                fullMsgBuffers.add(fullBuffer);
             }
+            schedule();
         }
 
-        private boolean getFlushMsgListsState() {
-            synchronized (flushLargeMsgListsObject) {
-                return flushLargeMsgLists;
+        /**
+         * Wait for credits, as long as this connection is sending.
+         *
+         * @param credits Credits to take from
+         * @param numCredits Number of credits to take
+         * @param waitingFor What is sent to release the credits (logged)
+         * @throws IOException
+         */
+        private void acquireCredits(Semaphore credits, int numCredits,
+                                    String waitingFor) throws IOException {
+            try {
+                while (!credits.tryAcquire(numCredits,
+                                           MAX_MESSAGE_HOLDING_MSECS,
+                                           TimeUnit.MILLISECONDS)) {
+                    if (!getNotDoneState()) {
+                        throw new IOException("acquireCredits: " +
+                            peer.getName() + " is not sending anymore");
+                    }
+                    if (LOG.isInfoEnabled()) {
+                        LOG.info("acquireCredits: Waiting on " +
+                                 peer.getName() + " to send " +
+                                 waitingFor);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(
+                    "acquireCredits: Interrupted waiting on " +
+                    peer.getName(), e);
             }
         }
 
-        public void close() {
+        /**
+         * Hand a vertex chunk to this connection to be sent, waiting for a
+         * credit if too many chunks are already waiting.
+         *
+         * @param vertexIndexMax Max index of the vertex range
+         * @param vertexChunk Vertex chunk to send
+         * @throws IOException
+         */
+        public void addVertexChunk(I vertexIndexMax,
+                                   VertexChunk<I, V, E, M> vertexChunk)
+                throws IOException {
+            acquireCredits(vertexChunkCredits, 1, "vertex chunks");
+            synchronized (vertexChunks) {
+                vertexChunks.add(
+                    new AbstractMap.SimpleEntry<I, VertexChunk<I, V, E, M>>(
+                        vertexIndexMax, vertexChunk));
+            }
+            schedule();
+        }
+
+        /**
+         * Wait until all the vertex chunks handed to this connection were
+         * sent (not necessarily received yet).
+         *
+         * @throws IOException
+         */
+        public void waitVertexChunksSent() throws IOException {
+            acquireCredits(vertexChunkCredits, msgBufferCredits,
+                           "vertex chunks");
+            vertexChunkCredits.release(msgBufferCredits);
+        }
+
+        private boolean hasVertexChunks() {
+            synchronized (vertexChunks) {
+                return !vertexChunks.isEmpty();
+            }
+        }
+
+        /**
+         * Issue the RPC putVertexChunk() to the peer for every waiting
+         * vertex chunk.
+         *
+         * @throws IOException
+         */
+        private void sendVertexChunks() throws IOException {
+            List<Entry<I, VertexChunk<I, V, E, M>>> sendChunks = null;
+            synchronized (vertexChunks) {
+                sendChunks =
+                    new ArrayList<Entry<I, VertexChunk<I, V, E, M>>>(
+                        vertexChunks);
+                vertexChunks.clear();
+            }
+            // Every taken chunk gives its credit back, even if a put fails,
+            // so that waitVertexChunksSent() cannot wait forever
+            int releasedCredits = 0;
+            try {
+                for (Entry<I, VertexChunk<I, V, E, M>> entry : sendChunks) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("sendVertexChunks: " + peer.getName() +
+                                  " putting " +
+                                  entry.getValue().getNumVertices() +
+                                  " vertices (" +
+                                  entry.getValue().getSize() +
+                                  " bytes) of vertex range " +
+                                  entry.getKey());
+                    }
+                    try {
+                        peer.putVertexChunk(entry.getKey(), entry.getValue());
+                    } finally {
+                        vertexChunkCredits.release();
+                        ++releasedCredits;
+                    }
+                }
+            } finally {
+                vertexChunkCredits.release(
+                    sendChunks.size() - releasedCredits);
+            }
+        }
+
+        private boolean hasFullMsgBuffers() {
+            synchronized (fullMsgBuffers) {
+                return !fullMsgBuffers.isEmpty();
+            }
+        }
+
+        /**
+         * Issue the RPC putMsgBuffer() to the peer for every full message
+         * buffer.
+         *
+         * @param sendPartial Also send the buffer that is not full yet
+         * @throws IOException
+         */
+        private void sendMsgBuffers(boolean sendPartial) throws IOException {
+            List<MsgBuffer<I, M>> sendBuffers = null;
+            synchronized (fullMsgBuffers) {
+                sendBuffers = new ArrayList<MsgBuffer<I, M>>(fullMsgBuffers);
+                fullMsgBuffers.clear();
+            }
+            for (MsgBuffer<I, M> sendBuffer : sendBuffers) {
+                sendMsgBuffer(sendBuffer);
+                fullMsgBufferCredits.release();
+            }
+            if (sendPartial) {
+                List<MsgBufferSlot> slots = null;
+                synchronized (msgBufferSlots) {
+                    slots = new ArrayList<MsgBufferSlot>(msgBufferSlots);
+                }
+                for (MsgBufferSlot slot : slots) {
+                    MsgBuffer<I, M> partialBuffer = null;
+                    synchronized (slot) {
+                        partialBuffer = slot.msgBuffer;
+                        slot.msgBuffer = null;
+                    }
+                    if (partialBuffer != null) {
+                        sendMsgBuffer(partialBuffer);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Issue the RPC putMsgBuffer() to the peer.
+         *
+         * @param sendBuffer Message buffer to send
+         * @throws IOException
+         */
+        private void sendMsgBuffer(MsgBuffer<I, M> sendBuffer)
+                throws IOException {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("close: Done");
+                LOG.debug("sendMsgBuffer: " + peer.getName() +
+                          " putting buffer of " +
+                          sendBuffer.getNumMsgs() + " messages (" +
+                          sendBuffer.getSize() + " bytes)");
             }
-            synchronized (notDoneObject) {
-                notDone = false;
+            peer.putMsgBuffer(sendBuffer);
+            sentMsgBytes.addAndGet(sendBuffer.getSize());
+        }
+
+        /**
+         * Serialize a message to several vertices into the message buffer
+         * of this peer.  Once the buffer is full, it is handed to this
+         * connection to be sent.
+         *
+         * @param destVertices Destination vertex indices
+         * @param msg Message to serialize
+         * @throws IOException
+         */
+        public void addBroadcastMsg(List<I> destVertices, M msg)
+                throws IOException {
+            MsgBufferSlot slot = localMsgBufferSlot.get();
+            MsgBuffer<I, M> fullBuffer = null;
+            synchronized (slot) {
+                slot.getMsgBuffer().addBroadcast(destVertices, msg);
+                fullBuffer = slot.removeMsgBufferIfFull();
             }
-            synchronized (waitingInPeer) {
-                waitingInPeer.notify();
+            if (fullBuffer != null) {
+                addFullMsgBuffer(fullBuffer);
             }
         }
 
-        public CommunicationsInterface<I, V, E, M> getRPCProxy() {
-            return peer;
+        /**
+         * Get the mutation buffer being filled for this peer.  The caller
+         * must hold the lock of fullMutationBuffers.
+         *
+         * @return Mutation buffer to add to
+         */
+        private MutationBuffer<I, V, E, M> getMutationBuffer() {
+            if (mutationBuffer == null) {
+                mutationBuffer = new MutationBuffer<I, V, E, M>();
+                mutationBuffer.setConf(conf);
+            }
+            return mutationBuffer;
+        }
+
+        /**
+         * Hand the mutation buffer to this connection to be sent once it is
+         * full.
+         */
+        private void checkMutationBufferFull() {
+            boolean bufferFull = false;
+            synchronized (fullMutationBuffers) {
+                if (mutationBuffer != null &&
+                        mutationBuffer.getSize() >= maxBufferSize) {
+                    fullMutationBuffers.add(mutationBuffer);
+                    mutationBuffer = null;
+                    bufferFull = true;
+                }
+            }
+            if (bufferFull) {
+                schedule();
+            }
+        }
+
+        /**
+         * Serialize an added edge into the mutation buffer of this peer.
+         *
+         * @param vertexIndex Vertex index where the edge is added
+         * @param edge Edge to add
+         * @throws IOException
+         */
+        public void addEdge(I vertexIndex, Edge<I, E> edge)
+                throws IOException {
+            synchronized (fullMutationBuffers) {
+                getMutationBuffer().addEdge(vertexIndex, edge);
+            }
+            checkMutationBufferFull();
+        }
+
+        /**
+         * Serialize a removed edge into the mutation buffer of this peer.
+         *
+         * @param vertexIndex Vertex index where the edge is removed
+         * @param destVertexIndex Destination vertex index of the edge
+         * @throws IOException
+         */
+        public void removeEdge(I vertexIndex, I destVertexIndex)
+                throws IOException {
+            synchronized (fullMutationBuffers) {
+                getMutationBuffer().removeEdge(vertexIndex, destVertexIndex);
+            }
+            checkMutationBufferFull();
+        }
+
+        /**
+         * Serialize an added vertex into the mutation buffer of this peer.
+         *
+         * @param vertex Vertex to add
+         * @throws IOException
+         */
+        public void addVertex(MutableVertex<I, V, E, M> vertex)
+                throws IOException {
+            synchronized (fullMutationBuffers) {
+                getMutationBuffer().addVertex(vertex);
+            }
+            checkMutationBufferFull();
+        }
+
+        /**
+         * Serialize a removed vertex into the mutation buffer of this peer.
+         *
+         * @param vertexIndex Index of the vertex to remove
+         * @throws IOException
+         */
+        public void removeVertex(I vertexIndex) throws IOException {
+            synchronized (fullMutationBuffers) {
+                getMutationBuffer().removeVertex(vertexIndex);
+            }
+            checkMutationBufferFull();
+        }
+
+        private boolean hasFullMutationBuffers() {
+            synchronized (fullMutationBuffers) {
+                return !fullMutationBuffers.isEmpty();
+            }
+        }
+
+        /**
+         * Issue the RPC putMutationBuffer() to the peer for every full
+         * mutation buffer.
+         *
+         * @param sendPartial Also send the buffer that is not full yet
+         * @throws IOException
+         */
+        private void sendMutationBuffers(boolean sendPartial)
+                throws IOException {
+            List<MutationBuffer<I, V, E, M>> sendBuffers = null;
+            synchronized (fullMutationBuffers) {
+                sendBuffers = new ArrayList<MutationBuffer<I, V, E, M>>(
+                    fullMutationBuffers);
+                fullMutationBuffers.clear();
+                if (sendPartial && mutationBuffer != null) {
+                    sendBuffers.add(mutationBuffer);
+                    mutationBuffer = null;
+                }
+            }
+            for (MutationBuffer<I, V, E, M> sendBuffer : sendBuffers) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("sendMutationBuffers: " + peer.getName() +
+                              " putting buffer of " +
+                              sendBuffer.getNumMutations() + " mutations (" +
+                              sendBuffer.getSize() + " bytes)");
+                }
+                peer.putMutationBuffer(sendBuffer);
+            }
+        }
+
+        /**
+         * Add a message going to a remote peer into the message buffers,
+         * sending any buffer that fills up.
+         *
+         * @param destVertex Destination vertex index
+         * @param msg Message to send
+         * @throws IOException
+         */
+        private void bufferMsg(I destVertex, M msg) throws IOException {
+            addMsg(destVertex, msg);
+            if (hasFullMsgBuffers()) {
+                sendMsgBuffers(false);
+            }
         }
 
         /**
          * Issue all the RPC put() to the peer (local or remote) for normal
          * messages.
          *
+         * @param sendPartial Also send the message buffers that are not
+         *        full yet
          * @throws IOException
          */
-        private void putAllMessages() throws IOException {
+        private void putAllMessages(boolean sendPartial) throws IOException {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("putAllMessages: " + peer.getName() +
                           ": issuing RPCs");
@@ -277,7 +921,15 @@ public abstract class BasicRPCCommunications<
                                         "putAllMessages: Cannot put combined " +
                                         "null message on " + e.getKey());
                                 }
-                                peer.putMsg(e.getKey(), combinedMsg);
+                                if (isProxy) {
+                                    bufferMsg(e.getKey(), combinedMsg);
+                                } else {
+                                    peer.putMsg(e.getKey(), combinedMsg);
+                                }
+                            } else if (isProxy) {
+                                for (M msg : msgList) {
+                                    bufferMsg(e.getKey(), msg);
+                                }
                             } else {
                                 if (LOG.isDebugEnabled()) {
                                     LOG.debug("putAllMessages: " +
@@ -303,123 +955,130 @@ public abstract class BasicRPCCommunications<
                                         "putAllMessages: Cannot put " +
                                         "null message on " + e.getKey());
                                 }
-                                peer.putMsg(e.getKey(), msg);
+                                if (isProxy) {
+                                    bufferMsg(e.getKey(), msg);
+                                } else {
+                                    peer.putMsg(e.getKey(), msg);
+                                }
                             }
                             msgList.clear();
                         }
                     }
                 }
             }
+            if (!isProxy) {
+                putLocalMsgs();
+            }
+            sendMsgBuffers(sendPartial);
         }
 
+        /**
+         * Send the message lists that grew past maxSize.
+         *
+         * @throws IOException
+         */
+        private void putLargeMsgLists() throws IOException {
+            Set<I> largeMsgListKeysValue = null;
+            synchronized (largeMsgListKeys) {
+                if (largeMsgListKeys.isEmpty()) {
+                    return;
+                }
+                largeMsgListKeysValue = new TreeSet<I>(largeMsgListKeys);
+                largeMsgListKeys.clear();
+            }
+            if (LOG.isInfoEnabled()) {
+                LOG.info("putLargeMsgLists: " + peer.getName() + ": " +
+                         largeMsgListKeysValue.size());
+            }
+            for (I destVertex : largeMsgListKeysValue) {
+                synchronized (outMessagesPerPeer) {
+                    MsgList<M> msgList = outMessagesPerPeer.get(destVertex);
+                    if (msgList == null || msgList.size() <= maxSize) {
+                        continue;
+                    }
+                    if (combiner != null) {
+                        M combinedMsg = combiner.combine(destVertex, msgList);
+                        peer.putMsg(destVertex, combinedMsg);
+                    } else {
+                        peer.putMsgList(destVertex, msgList);
+                    }
+                    msgList.clear();
+                }
+            }
+        }
+
+        /**
+         * Send what is waiting, then give the sender thread to the next
+         * connection.  The acknowledgements of a flush are waited for by
+         * flush() in the main thread, not here.
+         */
         @Override
         public void run() {
+            runner = Thread.currentThread();
             try {
-                while (true) {
-                    Set<I> largeMsgListKeysValue = null;
-                    boolean flushValue = getFlushState();
-                    boolean notDoneValue = getNotDoneState();
-                    boolean flushLargeMsgListsValues = getFlushMsgListsState();
-                    while (notDoneValue && !flushValue) {
-                        try {
-                            synchronized (waitingInPeer) {
-                                waitingInPeer.wait(MAX_MESSAGE_HOLDING_MSECS);
-                            }
-                        } catch (InterruptedException e) {
-                            // continue;
-                        }
-                        if (flushLargeMsgListsValues) {
-                            synchronized (largeMsgListKeys) {
-                                largeMsgListKeysValue =
-                                    new TreeSet<I>(largeMsgListKeys);
-                                largeMsgListKeys.clear();
-                            }
-                            synchronized (flushLargeMsgListsObject) {
-                                flushLargeMsgLists = false;
-                            }
-                            LOG.info("run: " + peer.getName() +
-                                     ": flushLargeMsgLists " +
-                                     largeMsgListKeysValue.size());
-                            break;
-                        }
-                        flushValue = getFlushState();
-                        notDoneValue = getNotDoneState();
-                        flushLargeMsgLists = getFlushMsgListsState();
+                if (!notDone) {
+                    return;
+                }
+                sendVertexChunks();
+                if (flush) {
+                    streamCombinedMsgs.set(false);
+                    synchronized (largeMsgListKeys) {
+                        largeMsgListKeys.clear();
                     }
-                    if (!notDoneValue) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("run: NotDone=" + notDone +
-                                      ", flush=" + flush);
-                        }
-                        break;
+                    putAllMessages(true);
+                    sendMutationBuffers(true);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("run: " + peer.getName() +
+                                  ": all messages flushed");
                     }
-
-                    if (flushValue) {
-                        putAllMessages();
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("run: " + peer.getName() +
-                                      ": all messages flushed");
-                        }
-                        synchronized (flushObject) {
-                            flush = false;
-                        }
-                        synchronized (flushLargeMsgListsObject) {
-                            flushLargeMsgLists = false;
-                        }
-                        synchronized (waitingInMain) {
-                            waitingInMain.notify();
-                        }
+                    flush = false;
+                    synchronized (waitingInMain) {
+                        waitingInMain.notify();
                     }
-                    else if (largeMsgListKeysValue != null &&
-                            largeMsgListKeysValue.size() > 0) {
-                        for (I destVertex : largeMsgListKeysValue) {
-                            MsgList<M> msgList = null;
-                            synchronized(outMessagesPerPeer) {
-                                msgList = outMessagesPerPeer.get(destVertex);
-                                if (msgList == null ||
-                                        msgList.size() <= maxSize) {
-                                    continue;
-                                }
-                                if (combiner != null) {
-                                    M combinedMsg = combiner.combine(destVertex,
-                                                                     msgList);
-                                    peer.putMsg(destVertex, combinedMsg);
-                                } else {
-                                    peer.putMsgList(destVertex, msgList);
-                                }
-                                msgList.clear();
-                            }
-                        }
-                    }
-                }
-                if (isProxy) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("run: RPC client thread terminating...");
+                } else {
+                    putLargeMsgLists();
+                    if (streamCombinedMsgs.getAndSet(false)) {
+                        putAllMessages(false);
                     }
-                    RPC.stopProxy(peer);
+                    sendMsgBuffers(false);
+                    sendMutationBuffers(false);
                 }
             } catch (IOException e) {
-                LOG.error(e);
-                synchronized (notDoneObject) {
-                    notDone = false;
-                }
+                LOG.error("run: Failed sending to " + peer.getName(), e);
+                notDone = false;
                 synchronized (waitingInMain) {
                     waitingInMain.notify();
                 }
-                if (isProxy) {
-                    RPC.stopProxy(peer);
-                }
-                throw new RuntimeException(e);
+            } finally {
+                runner = null;
+                scheduled.set(false);
+            }
+            if (hasWork()) {
+                schedule();
             }
         }
     }
 
     protected abstract J createJobToken() throws IOException;
 
-    protected abstract Server getRPCServer(
+    /**
+     * Start the server that receives the requests of the other workers.
+     *
+     * @param addr Address to bind to
+     * @param numHandlers Number of threads handling the requests
+     * @param jobId Stringified job id
+     * @param jobToken Job token, can be null
+     * @throws IOException
+     */
+    protected abstract void startServer(
         InetSocketAddress addr,
         int numHandlers, String jobId, J jobToken) throws IOException;
 
+    /**
+     * Stop the server started by startServer().
+     */
+    protected abstract void stopServer();
+
     public BasicRPCCommunications(Mapper<?, ?, ?, ?>.Context context,
                                   CentralizedServiceWorker<I, V, E, M> service)
             throws IOException, UnknownHostException, InterruptedException {
@@ -427,11 +1086,56 @@ public abstract class BasicRPCCommunications<
         this.conf = context.getConfiguration();
         this.maxSize = conf.getInt(GiraphJob.MSG_SIZE,
                                    GiraphJob.MSG_SIZE_DEFAULT);
+        this.maxBufferSize = conf.getInt(GiraphJob.MSG_BUFFER_SIZE,
+                                         GiraphJob.MSG_BUFFER_SIZE_DEFAULT);
+        this.senderPool = Executors.newFixedThreadPool(
+            conf.getInt(GiraphJob.NUM_SENDER_THREADS,
+                        GiraphJob.NUM_SENDER_THREADS_DEFAULT),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PeerConnectionSender");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         if (BspUtils.getVertexCombinerClass(conf) == null) {
             this.combiner = null;
         } else {
             this.combiner = BspUtils.createVertexCombiner(conf);
         }
+        this.useByteArrayMessages = BspUtils.useByteArrayMessages(conf);
+        this.sentMsgBytesCounter =
+            context.getCounter("Giraph Stats", "Sent message bytes");
+        this.msgBufferCredits =
+            conf.getInt(GiraphJob.MSG_BUFFER_CREDITS,
+                        GiraphJob.MSG_BUFFER_CREDITS_DEFAULT);
+        if (msgBufferCredits < 1) {
+            throw new IllegalArgumentException(
+                "BasicRPCCommunications: " + GiraphJob.MSG_BUFFER_CREDITS +
+                " must be at least 1, not " + msgBufferCredits);
+        }
+        this.creditWaitMsecsCounter = context.getCounter(
+            "Giraph Stats", "Message buffer credit wait msecs");
+        this.compressionInputBytesCounter = context.getCounter(
+            "Giraph Stats", "Compression input bytes");
+        this.compressionOutputBytesCounter = context.getCounter(
+            "Giraph Stats", "Compression output bytes");
+        this.compressionMsecsCounter = context.getCounter(
+            "Giraph Stats", "Compression msecs");
+        this.decompressionMsecsCounter = context.getCounter(
+            "Giraph Stats", "Decompression msecs");
+        this.compressedPayload = CompressedPayload.get(conf);
+        this.maxMessagesInMemory =
+            conf.getLong(GiraphJob.MAX_MESSAGES_IN_MEMORY,
+                         GiraphJob.MAX_MESSAGES_IN_MEMORY_DEFAULT);
+        if (maxMessagesInMemory > 0) {
+            this.messageStore = new DiskBackedMessageStore<I, M>(
+                conf, context,
+                new File(service.getOutOfCoreDirectory(), "messages"));
+        } else {
+            this.messageStore = null;
+        }
 
         this.localHostname = InetAddress.getLocalHost().getHostName();
         int taskId = conf.getInt("mapred.task.partition", -1);
@@ -450,9 +1154,7 @@ public abstract class BasicRPCCommunications<
         }
         this.jobToken = createJobToken();
         this.jobId = context.getJobID().toString();
-        this.server =
-            getRPCServer(myAddress, numHandlers, this.jobId, this.jobToken);
-        this.server.start();
+        startServer(myAddress, numHandlers, this.jobId, this.jobToken);
 
         this.myName = myAddress.toString();
         if (LOG.isInfoEnabled()) {
@@ -467,6 +1169,25 @@ public abstract class BasicRPCCommunications<
         final InetSocketAddress addr, String jobId, J jobToken)
         throws IOException, InterruptedException;
 
+    /**
+     * Release the resources of a proxy created by getRPCProxy().
+     *
+     * @param proxy Proxy to stop
+     */
+    protected abstract void stopProxy(CommunicationsInterface<I, V, E, M> proxy);
+
+    /**
+     * Wait until every request issued on a proxy has been processed by the
+     * remote worker.  Transports that block on every request (i.e. Hadoop
+     * RPC) don't need to override this.
+     *
+     * @param proxy Proxy created by getRPCProxy()
+     * @throws IOException
+     */
+    protected void waitForProxyRequests(
+            CommunicationsInterface<I, V, E, M> proxy) throws IOException {
+    }
+
     /**
      * Establish connections to every RPC proxy server that will be used in
      * the upcoming messaging.  This method is idempotent.
@@ -484,7 +1205,7 @@ public abstract class BasicRPCCommunications<
             int tries = 0;
             while (tries < maxTries) {
                 try {
-                    startPeerConnectionThread(vertexRange, jobId, jobToken);
+                    startPeerConnection(vertexRange, jobId, jobToken);
                     break;
                 } catch (IOException e) {
                     LOG.warn("connectAllRPCProxys: Failed on attempt " +
@@ -497,18 +1218,18 @@ public abstract class BasicRPCCommunications<
     }
 
     /**
-     * Starts a thread for a vertex range if any only if the inet socket
+     * Starts a connection for a vertex range if any only if the inet socket
      * address doesn't already exist.
      *
      * @param vertexRange
      * @throws IOException
      */
-    private void startPeerConnectionThread(VertexRange<I, V, E, M> vertexRange,
+    private void startPeerConnection(VertexRange<I, V, E, M> vertexRange,
                                            String jobId,
                                            J jobToken)
             throws IOException, InterruptedException {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("startPeerConnectionThread: hostname " +
+            LOG.debug("startPeerConnection: hostname " +
                       vertexRange.getHostname() + ", port " +
                       vertexRange.getPort());
         }
@@ -526,7 +1247,7 @@ public abstract class BasicRPCCommunications<
         synchronized (outMessages) {
             outMsgMap = outMessages.get(addrUnresolved);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("startPeerConnectionThread: Connecting to " +
+                LOG.debug("startPeerConnection: Connecting to " +
                           vertexRange.getHostname() + ", port = " +
                           vertexRange.getPort() + ", max index = " +
                           vertexRange.getMaxIndex() + ", addr = " + addr +
@@ -546,10 +1267,10 @@ public abstract class BasicRPCCommunications<
             outMessages.put(addrUnresolved, outMsgMap);
         }
 
-        PeerThread peerThread =
-            new PeerThread(outMsgMap, peer, maxSize, isProxy, combiner);
-        peerThread.start();
-        peerThreads.put(addrUnresolved, peerThread);
+        peerConnections.put(addrUnresolved,
+                            new PeerConnection(outMsgMap, peer, maxSize,
+                                               maxBufferSize, isProxy,
+                                               combiner));
     }
 
     @Override
@@ -560,15 +1281,24 @@ public abstract class BasicRPCCommunications<
 
     @Override
     public void closeConnections() throws IOException {
-        for (PeerThread pt : peerThreads.values()) {
-            pt.close();
+        for (PeerConnection pc : peerConnections.values()) {
+            pc.close();
         }
-
-        for (PeerThread pt : peerThreads.values()) {
-            try {
-                pt.join();
-            } catch (InterruptedException e) {
-                LOG.warn(e.getStackTrace());
+        senderPool.shutdown();
+        try {
+            while (!senderPool.awaitTermination(MAX_MESSAGE_HOLDING_MSECS,
+                                                TimeUnit.MILLISECONDS)) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("closeConnections: Waiting for the sender " +
+                             "threads to finish");
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("closeConnections: Interrupted", e);
+        }
+        for (PeerConnection pc : peerConnections.values()) {
+            if (pc.isProxy()) {
+                stopProxy(pc.getRPCProxy());
             }
         }
     }
@@ -576,7 +1306,10 @@ public abstract class BasicRPCCommunications<
     @Override
     public final void close() {
         LOG.info("close: shutting down RPC server");
-        server.stop();
+        stopServer();
+        if (messageStore != null) {
+            messageStore.cleanup();
+        }
     }
 
     @Override
@@ -587,7 +1320,7 @@ public abstract class BasicRPCCommunications<
             // Called by combiner (main thread) during superstep preparation
             msgs = inMessages.get(vertex);
             if (msgs == null) {
-                msgs = new ArrayList<M>();
+                msgs = BspUtils.<M>createMsgList(conf);
                 inMessages.put(vertex, msgs);
             }
             msgs.add(msg);
@@ -596,56 +1329,326 @@ public abstract class BasicRPCCommunications<
             synchronized(transientInMessages) {
                 msgs = transientInMessages.get(vertex);
                 if (msgs == null) {
-                    msgs = new ArrayList<M>();
+                    msgs = BspUtils.<M>createMsgList(conf);
                     transientInMessages.put(vertex, msgs);
                 }
             }
+            int addedMsgs = 0;
             synchronized (msgs) {
-                msgs.add(msg);
+                addedMsgs =
+                    addToMsgList(vertex, msgs, Collections.singletonList(msg));
+            }
+            addTransientInMsgs(addedMsgs);
+        }
+    }
+
+    @Override
+    public final void putMsgList(I vertex,
+                                 MsgList<M> msgList) throws IOException {
+        List<M> msgs = null;
+        LOG.debug("putMsgList: Adding msgList " + msgList +
+                  " on vertex " + vertex);
+        synchronized(transientInMessages) {
+            msgs = transientInMessages.get(vertex);
+            if (msgs == null) {
+                msgs = BspUtils.<M>createMsgList(conf);
+                transientInMessages.put(vertex, msgs);
+            }
+        }
+        int addedMsgs = 0;
+        synchronized (msgs) {
+            addedMsgs = addToMsgList(vertex, msgs, msgList);
+        }
+        addTransientInMsgs(addedMsgs);
+    }
+
+    @Override
+    public final void putMsgBuffer(MsgBuffer<I, M> msgBuffer)
+            throws IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("putMsgBuffer: Adding buffer of " +
+                      msgBuffer.getNumMsgs() + " messages (" +
+                      msgBuffer.getSize() + " bytes)");
+        }
+        // Deserialize outside of the lock, then merge in bulk
+        Map<I, List<M>> msgMap = useByteArrayMessages ?
+            msgBuffer.getByteArrayMsgMap() : msgBuffer.getMsgMap();
+        int addedMsgs = 0;
+        synchronized(transientInMessages) {
+            for (Entry<I, List<M>> entry : msgMap.entrySet()) {
+                List<M> msgs = transientInMessages.get(entry.getKey());
+                if (msgs == null && combiner == null) {
+                    transientInMessages.put(entry.getKey(), entry.getValue());
+                    addedMsgs += entry.getValue().size();
+                } else {
+                    if (msgs == null) {
+                        msgs = BspUtils.<M>createMsgList(conf);
+                        transientInMessages.put(entry.getKey(), msgs);
+                    }
+                    synchronized (msgs) {
+                        addedMsgs += addToMsgList(entry.getKey(), msgs,
+                                                  entry.getValue());
+                    }
+                }
+            }
+        }
+        addTransientInMsgs(addedMsgs);
+        if (msgBuffer.getNumBroadcasts() > 0) {
+            boolean expand = false;
+            synchronized (inBroadcasts) {
+                msgBuffer.writeBroadcasts(inBroadcasts);
+                numInBroadcasts += msgBuffer.getNumBroadcasts();
+                numInBroadcastTargets += msgBuffer.getNumBroadcastTargets();
+                // Every destination of a broadcast will be a message once
+                // expanded, so they count against the in-memory budget
+                expand = messageStore != null &&
+                    transientInMsgCount.get() + numInBroadcastTargets >
+                    maxMessagesInMemory;
+            }
+            if (expand) {
+                expandBroadcasts(service.getSuperstep());
+            }
+        }
+    }
+
+    /**
+     * Add every received broadcast message to the messages of each of its
+     * destination vertices, combining them if there is a combiner.  The
+     * messages are accounted for after every broadcast, so that they are
+     * spilled as they would have been if sent one by one.
+     *
+     * @param superstep Superstep of the vertex ranges to spill the
+     *        messages by
+     * @throws IOException
+     */
+    private void expandBroadcasts(long superstep) throws IOException {
+        synchronized (inBroadcasts) {
+            if (numInBroadcasts == 0) {
+                return;
+            }
+            if (LOG.isInfoEnabled()) {
+                LOG.info("expandBroadcasts: Expanding " + numInBroadcasts +
+                         " broadcast messages (" + inBroadcasts.getLength() +
+                         " bytes)");
+            }
+            byte[] data = inBroadcasts.getData();
+            MsgBuffer.BroadcastReader<I> reader =
+                new MsgBuffer.BroadcastReader<I>(
+                    conf, data, inBroadcasts.getLength());
+            DataInputBuffer msgInput = new DataInputBuffer();
+            for (int i = 0; i < numInBroadcasts; ++i) {
+                int numVertexIndices = reader.nextBroadcast();
+                int start = reader.getMsgStart();
+                int length = reader.getMsgLength();
+                int addedMsgs = 0;
+                synchronized (transientInMessages) {
+                    for (int j = 0; j < numVertexIndices; ++j) {
+                        // Reused, only copied to become a new key
+                        I vertexIndex = reader.nextVertexIndex();
+                        List<M> msgs = transientInMessages.get(vertexIndex);
+                        if (msgs == null) {
+                            msgs = BspUtils.<M>createMsgList(conf);
+                            transientInMessages.put(
+                                WritableUtils.clone(vertexIndex, conf), msgs);
+                        }
+                        // A combiner must see every message, so only the
+                        // uncombined lists take the serialized bytes as is
+                        if (combiner == null &&
+                                msgs instanceof ByteArrayMsgList) {
+                            ((ByteArrayMsgList<M>) msgs).addSerialized(
+                                data, start, length);
+                            ++addedMsgs;
+                        } else {
+                            M vertexMsg = BspUtils.<M>createMessageValue(conf);
+                            msgInput.reset(data, start, length);
+                            vertexMsg.readFields(msgInput);
+                            addedMsgs += addToMsgList(
+                                vertexIndex, msgs,
+                                Collections.singletonList(vertexMsg));
+                        }
+                    }
+                }
+                addTransientInMsgs(addedMsgs, superstep);
+            }
+            inBroadcasts.reset();
+            numInBroadcasts = 0;
+            numInBroadcastTargets = 0;
+        }
+    }
+
+    @Override
+    public final void putMutationBuffer(
+            MutationBuffer<I, V, E, M> mutationBuffer) throws IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("putMutationBuffer: Adding buffer of " +
+                      mutationBuffer.getNumMutations() + " mutations (" +
+                      mutationBuffer.getSize() + " bytes)");
+        }
+        // Deserialize outside of the lock, then merge in bulk
+        Map<I, VertexMutations<I, V, E, M>> mutationsMap =
+            mutationBuffer.getVertexMutationsMap();
+        synchronized (inVertexMutationsMap) {
+            for (Entry<I, VertexMutations<I, V, E, M>> entry :
+                    mutationsMap.entrySet()) {
+                VertexMutations<I, V, E, M> vertexMutations =
+                    inVertexMutationsMap.get(entry.getKey());
+                if (vertexMutations == null) {
+                    inVertexMutationsMap.put(entry.getKey(),
+                                             entry.getValue());
+                } else {
+                    vertexMutations.addVertexMutations(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add messages to a message list.  With a combiner, the list is kept
+     * to a single message by folding the new messages into it right away.
+     * The caller must hold the lock of the message list.
+     *
+     * @param vertexIndex Destination vertex index
+     * @param msgList Message list to add to
+     * @param newMsgList Messages to add
+     * @return Number of messages the message list grew by
+     * @throws IOException
+     */
+    private int addToMsgList(I vertexIndex,
+                             List<M> msgList,
+                             List<M> newMsgList) throws IOException {
+        if (combiner == null ||
+                (msgList.isEmpty() && newMsgList.size() == 1)) {
+            msgList.addAll(newMsgList);
+            return newMsgList.size();
+        }
+        if (newMsgList.isEmpty()) {
+            return 0;
+        }
+        int previousSize = msgList.size();
+        List<M> combineList =
+            new ArrayList<M>(previousSize + newMsgList.size());
+        combineList.addAll(msgList);
+        combineList.addAll(newMsgList);
+        M combinedMsg = combiner.combine(vertexIndex, combineList);
+        if (combinedMsg == null) {
+            throw new IllegalArgumentException(
+                "addToMsgList: Cannot put combined null message on " +
+                vertexIndex);
+        }
+        msgList.clear();
+        msgList.add(combinedMsg);
+        return 1 - previousSize;
+    }
+
+    /**
+     * Account for messages added to transientInMessages and spill all of
+     * them to a new run once there are too many.
+     *
+     * @param msgCount Number of messages added
+     * @throws IOException
+     */
+    private void addTransientInMsgs(long msgCount) throws IOException {
+        addTransientInMsgs(msgCount, service.getSuperstep());
+    }
+
+    /**
+     * Account for messages added to transientInMessages and spill all of
+     * them to a new run once there are too many.
+     *
+     * @param msgCount Number of messages added
+     * @param superstep Superstep of the vertex ranges to spill by
+     * @throws IOException
+     */
+    private void addTransientInMsgs(long msgCount, long superstep)
+            throws IOException {
+        if (messageStore == null ||
+                transientInMsgCount.addAndGet(msgCount) <=
+                maxMessagesInMemory) {
+            return;
+        }
+        synchronized (transientInMessages) {
+            // Another thread may have spilled them already
+            if (transientInMsgCount.get() > maxMessagesInMemory) {
+                messageStore.addRun(takeTransientInMessages(superstep));
             }
         }
     }
 
-    @Override
-    public final void putMsgList(I vertex,
-                                 MsgList<M> msgList) throws IOException {
-        List<M> msgs = null;
-        LOG.debug("putMsgList: Adding msgList " + msgList +
-                  " on vertex " + vertex);
-        synchronized(transientInMessages) {
-            msgs = transientInMessages.get(vertex);
-            if (msgs == null) {
-                msgs = new ArrayList<M>();
-                transientInMessages.put(vertex, msgs);
+    /**
+     * Take all the messages out of transientInMessages (combined if
+     * possible) and group them by destination vertex range.  The caller
+     * must hold the lock of transientInMessages.  The message lists stay
+     * in transientInMessages, since senders may still add to them.
+     *
+     * @param superstep Superstep of the vertex ranges
+     * @return Vertex range max index to the sorted messages of its vertices
+     * @throws IOException
+     */
+    private Map<I, SortedMap<I, List<M>>> takeTransientInMessages(
+            long superstep) throws IOException {
+        Map<I, SortedMap<I, List<M>>> rangeMsgMap =
+            new HashMap<I, SortedMap<I, List<M>>>();
+        for (Entry<I, List<M>> entry : transientInMessages.entrySet()) {
+            List<M> msgList = null;
+            synchronized (entry.getValue()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                msgList = BspUtils.<M>createMsgList(conf);
+                msgList.addAll(entry.getValue());
+                entry.getValue().clear();
             }
+            transientInMsgCount.addAndGet(-msgList.size());
+            if (combiner != null) {
+                M combinedMsg = combiner.combine(entry.getKey(), msgList);
+                msgList = BspUtils.<M>createMsgList(conf);
+                msgList.add(combinedMsg);
+            }
+            I maxIndex =
+                service.getVertexRange(superstep, entry.getKey()).getMaxIndex();
+            SortedMap<I, List<M>> msgMap = rangeMsgMap.get(maxIndex);
+            if (msgMap == null) {
+                msgMap = new TreeMap<I, List<M>>();
+                rangeMsgMap.put(maxIndex, msgMap);
+            }
+            msgMap.put(entry.getKey(), msgList);
         }
-        synchronized (msgs) {
-            msgs.addAll(msgList);
-        }
+        return rangeMsgMap;
     }
 
     @Override
-    public final void putVertexList(I vertexIndexMax,
-                                    VertexList<I, V, E, M> vertexList)
+    public final void putVertexChunk(I vertexIndexMax,
+                                     VertexChunk<I, V, E, M> vertexChunk)
             throws IOException {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("putVertexList: On vertex range " + vertexIndexMax +
-                      " adding vertex list of size " + vertexList.size());
+            LOG.debug("putVertexChunk: On vertex range " + vertexIndexMax +
+                      " adding " + vertexChunk.getNumVertices() +
+                      " vertices (" + vertexChunk.getSize() + " bytes)");
         }
+        if (vertexChunk.getNumVertices() == 0) {
+            return;
+        }
+        SortedMap<I, BasicVertex<I, V, E, M>> vertexMap = null;
+        CsrEdgeStore<I, E> edgeStore = null;
         synchronized (inVertexRangeMap) {
-            if (vertexList.size() == 0) {
-                return;
-            }
-            if (!inVertexRangeMap.containsKey(vertexIndexMax)) {
-                inVertexRangeMap.put(vertexIndexMax,
-                                     new ArrayList<Vertex<I, V, E, M>>());
-            }
-            List<Vertex<I, V, E, M>> tmpVertexList =
-                inVertexRangeMap.get(vertexIndexMax);
-            for (Vertex<I, V, E, M> hadoopVertex : vertexList) {
-                tmpVertexList.add(hadoopVertex);
+            vertexMap = inVertexRangeMap.get(vertexIndexMax);
+            if (vertexMap == null) {
+                vertexMap = new TreeMap<I, BasicVertex<I, V, E, M>>();
+                inVertexRangeMap.put(vertexIndexMax, vertexMap);
+                edgeStore = BspUtils.<I, E>createEdgeStore(conf);
+                if (edgeStore != null) {
+                    inEdgeStoreMap.put(vertexIndexMax, edgeStore);
+                }
+            } else {
+                edgeStore = inEdgeStoreMap.get(vertexIndexMax);
             }
         }
+        // Chunks of different vertex ranges are deserialized concurrently,
+        // the chunks of a vertex range one after the other (so they can
+        // share its edge store)
+        synchronized (vertexMap) {
+            vertexChunk.readVertices(vertexMap, edgeStore);
+        }
     }
 
     @Override
@@ -718,104 +1721,249 @@ public abstract class BasicRPCCommunications<
     }
 
     @Override
-    public final void sendVertexListReq(I vertexIndexMax,
-                                        List<BasicVertex<I, V, E, M>> vertexList) {
-        // Internally, break up the sending so that the list doesn't get too
-        // big.
-        VertexList<I, V, E, M> hadoopVertexList =
-            new VertexList<I, V, E, M>();
-        InetSocketAddress addr = getInetSocketAddress(vertexIndexMax);
-        CommunicationsInterface<I, V, E, M> rpcProxy =
-            peerThreads.get(addr).getRPCProxy();
+    public final void sendVertexRangeReq(
+            I vertexIndexMax, Collection<BasicVertex<I, V, E, M>> vertices) {
+        PeerConnection peerConnection = getPeerConnection(vertexIndexMax);
         if (LOG.isInfoEnabled()) {
-            LOG.info("sendVertexList: Sending to " + rpcProxy.getName() + " " +
-                     addr + ", with vertex index " + vertexIndexMax +
-                     ", list " + vertexList);
-        }
-        if (peerThreads.get(addr).isProxy == false) {
-            throw new RuntimeException("sendVertexList: Impossible to send " +
-                "to self for vertex index max " + vertexIndexMax);
-        }
-        for (long i = 0; i < vertexList.size(); ++i) {
-            hadoopVertexList.add(
-                (Vertex<I, V, E, M>) vertexList.get((int) i));
-            if (hadoopVertexList.size() >= MAX_VERTICES_PER_RPC) {
-                try {
-                    rpcProxy.putVertexList(vertexIndexMax, hadoopVertexList);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            LOG.info("sendVertexRangeReq: Sending " + vertices.size() +
+                     " vertices to " + peerConnection.getRPCProxy().getName() +
+                     ", with vertex index " + vertexIndexMax);
+        }
+        if (peerConnection.isProxy == false) {
+            throw new RuntimeException("sendVertexRangeReq: Impossible to " +
+                "send to self for vertex index max " + vertexIndexMax);
+        }
+        try {
+            VertexChunk<I, V, E, M> vertexChunk = null;
+            for (BasicVertex<I, V, E, M> vertex : vertices) {
+                if (vertexChunk == null) {
+                    vertexChunk = new VertexChunk<I, V, E, M>();
+                    vertexChunk.setConf(conf);
                 }
-                hadoopVertexList.clear();
+                vertexChunk.addVertex(vertex);
+                if (vertexChunk.getSize() >= maxBufferSize) {
+                    peerConnection.addVertexChunk(vertexIndexMax, vertexChunk);
+                    vertexChunk = null;
+                }
+            }
+            if (vertexChunk != null) {
+                peerConnection.addVertexChunk(vertexIndexMax, vertexChunk);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        if (hadoopVertexList.size() > 0) {
-            try {
-                rpcProxy.putVertexList(vertexIndexMax, hadoopVertexList);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    }
+
+    @Override
+    public final void flushVertexRangeReqs() {
+        try {
+            for (PeerConnection pc : peerConnections.values()) {
+                if (pc.isProxy()) {
+                    pc.waitVertexChunksSent();
+                }
+            }
+            // The chunks of all the peers are received in parallel
+            for (PeerConnection pc : peerConnections.values()) {
+                if (pc.isProxy()) {
+                    waitForProxyRequests(pc.getRPCProxy());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the peer connection of the worker owning a vertex.  The routing table
+     * is only rebuilt when the superstep changes, so the lookup doesn't
+     * lock.
+     *
+     * @param destVertex Vertex index
+     * @return Peer connection of the worker owning this vertex
+     */
+    private PeerConnection getPeerConnection(I destVertex) {
+        RoutingTable<I, PeerConnection> table = routingTable;
+        long superstep = service.getSuperstep();
+        if (table == null || table.getSuperstep() != superstep) {
+            table = buildRoutingTable(superstep);
+        }
+        return table.getPeer(destVertex);
+    }
+
+    /**
+     * Build the routing table of a superstep from its vertex ranges,
+     * connecting to any worker that isn't connected yet.
+     *
+     * @param superstep Superstep to build the routing table for
+     * @return Routing table of the superstep
+     */
+    private RoutingTable<I, PeerConnection> buildRoutingTable(long superstep) {
+        synchronized (routingTableLock) {
+            RoutingTable<I, PeerConnection> table = routingTable;
+            if (table != null && table.getSuperstep() == superstep) {
+                return table;
+            }
+            NavigableMap<I, PeerConnection> rangePeerMap =
+                new TreeMap<I, PeerConnection>();
+            for (VertexRange<I, V, E, M> vertexRange :
+                    service.getVertexRangeMap().values()) {
+                rangePeerMap.put(vertexRange.getMaxIndex(),
+                                 getRangePeerConnection(vertexRange));
+            }
+            List<PeerConnection> hashPartitionPeers = null;
+            VertexRange<I, V, E, M>[] hashPartitionOwners =
+                service.getHashPartitionOwners(superstep);
+            if (hashPartitionOwners != null) {
+                hashPartitionPeers =
+                    new ArrayList<PeerConnection>(hashPartitionOwners.length);
+                for (VertexRange<I, V, E, M> owner : hashPartitionOwners) {
+                    hashPartitionPeers.add(getRangePeerConnection(owner));
+                }
+            }
+            table = new RoutingTable<I, PeerConnection>(
+                superstep, rangePeerMap, hashPartitionPeers);
+            routingTable = table;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("buildRoutingTable: Built for superstep " +
+                          superstep + " with " + rangePeerMap.size() +
+                          " vertex ranges");
             }
+            return table;
         }
     }
 
     /**
-     * Fill the socket address cache for the vertex range
+     * Get the peer connection of the worker owning a vertex range, connecting
+     * to it if needed.  Must be called with the routing table lock.
      *
-     * @param destVertex vertex
-     * @return address of the vertex range server containing this vertex
+     * @param vertexRange Vertex range
+     * @return Peer connection of the worker owning the vertex range
      */
-    private InetSocketAddress getInetSocketAddress(I destVertex) {
-        VertexRange<I, V, E, M> destVertexRange =
-            service.getVertexRange(service.getSuperstep(), destVertex);
-        if (destVertexRange == null) {
-            LOG.error("getInetSocketAddress: No vertexRange found for " +
-                      destVertex);
-            throw new RuntimeException("getInetSocketAddress: Dest vertex " +
-                                       destVertex);
-        }
-
-        synchronized(vertexIndexMapAddressMap) {
-            InetSocketAddress address =
-                vertexIndexMapAddressMap.get(destVertexRange.getMaxIndex());
-            if (address == null) {
-                address = InetSocketAddress.createUnresolved(
-                    destVertexRange.getHostname(),
-                    destVertexRange.getPort());
-                vertexIndexMapAddressMap.put(destVertexRange.getMaxIndex(),
-                                             address);
-            }
-            return address;
+    private PeerConnection getRangePeerConnection(
+            VertexRange<I, V, E, M> vertexRange) {
+        InetSocketAddress addr = InetSocketAddress.createUnresolved(
+            vertexRange.getHostname(), vertexRange.getPort());
+        PeerConnection peerConnection = peerConnections.get(addr);
+        if (peerConnection == null) {
+            try {
+                startPeerConnection(vertexRange, jobId, jobToken);
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "getRangePeerConnection: Failed to connect to " + addr, e);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(
+                    "getRangePeerConnection: Interrupted connecting to " + addr,
+                    e);
+            }
+            peerConnection = peerConnections.get(addr);
         }
+        return peerConnection;
     }
 
     @Override
     public final void sendMessageReq(I destVertex, M msg) {
-        InetSocketAddress addr = getInetSocketAddress(destVertex);
+        PeerConnection peerConnection = getPeerConnection(destVertex);
         if (LOG.isDebugEnabled()) {
             LOG.debug("sendMessage: Send bytes (" + msg.toString() + ") to " +
-                      destVertex + " with address " + addr);
+                      destVertex + " on " +
+                      peerConnection.getRPCProxy().getName());
         }
-        ++totalMsgsSentInSuperstep;
-        Map<I, MsgList<M>> msgMap = null;
-        synchronized (outMessages) {
-            msgMap = outMessages.get(addr);
+        totalMsgsSentInSuperstep.incrementAndGet();
+        if (!peerConnection.isProxy()) {
+            // Gathered per sending thread until flushed
+            try {
+                peerConnection.addLocalMsg(destVertex, msg);
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "sendMessageReq: Failed to add local message for " +
+                    destVertex, e);
+            }
+            return;
         }
-        if (msgMap == null) { // should never happen after constructor
-            throw new RuntimeException(
-                "sendMessage: msgMap did not exist for " + addr +
-                " for vertex " + destVertex);
+        if (combiner == null) {
+            // Serialize right away, the whole buffer is sent at once
+            try {
+                peerConnection.addMsg(destVertex, msg);
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "sendMessageReq: Failed to buffer message for " +
+                    destVertex, e);
+            }
+            return;
         }
-
+        Map<I, MsgList<M>> msgMap = peerConnection.outMessagesPerPeer;
         synchronized(msgMap) {
             MsgList<M> msgList = msgMap.get(destVertex);
             if (msgList == null) { // should only happen once
                 msgList = new MsgList<M>();
                 msgMap.put(destVertex, msgList);
             }
-            msgList.add(msg);
-            LOG.debug("sendMessage: added msg=" + msg + ", size=" +
-                      msgList.size());
+            // With a combiner, only one message is kept per destination
+            try {
+                addToMsgList(destVertex, msgList,
+                             Collections.singletonList(msg));
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "sendMessageReq: Failed to combine message for " +
+                    destVertex, e);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("sendMessage: added msg=" + msg + ", size=" +
+                          msgList.size());
+            }
             if (msgList.size() > maxSize) {
-                peerThreads.get(addr).flushLargeMsgList(destVertex);
+                peerConnection.flushLargeMsgList(destVertex);
+            }
+            if (msgMap.size() >= maxSize) {
+                // Overlap sending the combined messages with the computation
+                peerConnection.streamCombinedMsgs();
+            }
+        }
+    }
+
+    @Override
+    public final void sendMessageToAllReq(Iterable<I> destVertices, M msg) {
+        if (combiner != null) {
+            // Combined on the sending side instead
+            for (I destVertex : destVertices) {
+                sendMessageReq(destVertex, msg);
+            }
+            return;
+        }
+        Map<PeerConnection, List<I>> peerVertexMap =
+            new HashMap<PeerConnection, List<I>>();
+        for (I destVertex : destVertices) {
+            PeerConnection peerConnection = getPeerConnection(destVertex);
+            if (!peerConnection.isProxy()) {
+                sendMessageReq(destVertex, msg);
+                continue;
+            }
+            List<I> vertexList = peerVertexMap.get(peerConnection);
+            if (vertexList == null) {
+                vertexList = new ArrayList<I>();
+                peerVertexMap.put(peerConnection, vertexList);
+            }
+            vertexList.add(destVertex);
+        }
+        for (Entry<PeerConnection, List<I>> entry : peerVertexMap.entrySet()) {
+            PeerConnection peerConnection = entry.getKey();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("sendMessageToAllReq: Send bytes (" + msg +
+                          ") to " + entry.getValue().size() +
+                          " vertices on " +
+                          peerConnection.getRPCProxy().getName());
+            }
+            totalMsgsSentInSuperstep.addAndGet(entry.getValue().size());
+            try {
+                if (entry.getValue().size() == 1) {
+                    peerConnection.addMsg(entry.getValue().get(0), msg);
+                } else {
+                    peerConnection.addBroadcastMsg(entry.getValue(), msg);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "sendMessageToAllReq: Failed to buffer message for " +
+                    peerConnection.getRPCProxy().getName(), e);
             }
         }
     }
@@ -823,53 +1971,64 @@ public abstract class BasicRPCCommunications<
     @Override
     public final void addEdgeReq(I destVertex, Edge<I, E> edge)
             throws IOException {
-        InetSocketAddress addr = getInetSocketAddress(destVertex);
+        PeerConnection peerConnection = getPeerConnection(destVertex);
         if (LOG.isDebugEnabled()) {
             LOG.debug("addEdgeReq: Add edge (" + edge.toString() + ") to " +
-                      destVertex + " with address " + addr);
+                      destVertex + " on " +
+                      peerConnection.getRPCProxy().getName());
+        }
+        if (peerConnection.isProxy()) {
+            peerConnection.addEdge(destVertex, edge);
+        } else {
+            peerConnection.getRPCProxy().addEdge(destVertex, edge);
         }
-        CommunicationsInterface<I, V, E, M> rpcProxy =
-            peerThreads.get(addr).getRPCProxy();
-        rpcProxy.addEdge(destVertex, edge);
     }
 
     @Override
     public final void removeEdgeReq(I vertexIndex, I destVertexIndex)
             throws IOException {
-        InetSocketAddress addr = getInetSocketAddress(vertexIndex);
+        PeerConnection peerConnection = getPeerConnection(vertexIndex);
         if (LOG.isDebugEnabled()) {
             LOG.debug("removeEdgeReq: remove edge (" + destVertexIndex +
-                      ") from" + vertexIndex + " with address " + addr);
+                      ") from" + vertexIndex + " on " +
+                      peerConnection.getRPCProxy().getName());
+        }
+        if (peerConnection.isProxy()) {
+            peerConnection.removeEdge(vertexIndex, destVertexIndex);
+        } else {
+            peerConnection.getRPCProxy().removeEdge(vertexIndex,
+                                                    destVertexIndex);
         }
-        CommunicationsInterface<I, V, E, M> rpcProxy =
-            peerThreads.get(addr).getRPCProxy();
-        rpcProxy.removeEdge(vertexIndex, destVertexIndex);
     }
 
     @Override
     public final void addVertexReq(MutableVertex<I, V, E, M> vertex)
             throws IOException {
-        InetSocketAddress addr = getInetSocketAddress(vertex.getVertexId());
+        PeerConnection peerConnection = getPeerConnection(vertex.getVertexId());
         if (LOG.isDebugEnabled()) {
             LOG.debug("addVertexReq: Add vertex (" + vertex + ") " +
-                      " with address " + addr);
+                      " on " + peerConnection.getRPCProxy().getName());
+        }
+        if (peerConnection.isProxy()) {
+            peerConnection.addVertex(vertex);
+        } else {
+            peerConnection.getRPCProxy().addVertex(vertex);
         }
-        CommunicationsInterface<I, V, E, M> rpcProxy =
-            peerThreads.get(addr).getRPCProxy();
-        rpcProxy.addVertex(vertex);
     }
 
     @Override
     public void removeVertexReq(I vertexIndex) throws IOException {
-        InetSocketAddress addr =
-            getInetSocketAddress(vertexIndex);
+        PeerConnection peerConnection = getPeerConnection(vertexIndex);
         if (LOG.isDebugEnabled()) {
             LOG.debug("removeVertexReq: Remove vertex index ("
-                      + vertexIndex + ")  with address " + addr);
+                      + vertexIndex + ")  on " +
+                      peerConnection.getRPCProxy().getName());
+        }
+        if (peerConnection.isProxy()) {
+            peerConnection.removeVertex(vertexIndex);
+        } else {
+            peerConnection.getRPCProxy().removeVertex(vertexIndex);
         }
-        CommunicationsInterface<I, V, E, M> rpcProxy =
-            peerThreads.get(addr).getRPCProxy();
-        rpcProxy.removeVertex(vertexIndex);
     }
 
     @Override
@@ -877,16 +2036,14 @@ public abstract class BasicRPCCommunications<
         if (LOG.isInfoEnabled()) {
             LOG.info("flush: starting...");
         }
-        for (List<M> msgList : inMessages.values()) {
-            msgList.clear();
-        }
-        for (PeerThread pt : peerThreads.values()) {
-            pt.flush();
+        inMessages.clear();
+        for (PeerConnection pc : peerConnections.values()) {
+            pc.flush();
         }
         while (true) {
             synchronized (waitingInMain) {
-                for (PeerThread pt : peerThreads.values()) {
-                    if (pt.getNotDoneState() && pt.getFlushState()) {
+                for (PeerConnection pc : peerConnections.values()) {
+                    if (pc.getNotDoneState() && pc.getFlushState()) {
                         try {
                             waitingInMain.wait(MAX_MESSAGE_HOLDING_MSECS);
                             if (LOG.isDebugEnabled()) {
@@ -899,12 +2056,12 @@ public abstract class BasicRPCCommunications<
                     }
                 }
                 boolean stillFlushing = false;
-                for (Map.Entry<InetSocketAddress, PeerThread> entry :
-                        peerThreads.entrySet()) {
+                for (Map.Entry<InetSocketAddress, PeerConnection> entry :
+                        peerConnections.entrySet()) {
                     if (!entry.getValue().getNotDoneState()) {
                         throw new RuntimeException(
-                            "flush: peer thread " + entry.getKey() +
-                            " disappeared");
+                            "flush: connection to " + entry.getKey() +
+                            " failed");
                     }
                     if (entry.getValue().getFlushState()) {
                         stillFlushing = true; // still flushing
@@ -915,9 +2072,31 @@ public abstract class BasicRPCCommunications<
                 }
             }
         }
-        long msgs = totalMsgsSentInSuperstep;
-        totalMsgsSentInSuperstep = 0;
-        return msgs;
+        // The requests of all the peers complete in parallel
+        for (PeerConnection pc : peerConnections.values()) {
+            if (pc.isProxy()) {
+                waitForProxyRequests(pc.getRPCProxy());
+            }
+        }
+        sentMsgBytesCounter.increment(sentMsgBytes.getAndSet(0));
+        creditWaitMsecsCounter.increment(creditWaitMsecs.getAndSet(0));
+        CompressedPayload.Stats compressionStats =
+            compressedPayload.getAndResetStats();
+        if (compressionStats.rawBytes > 0) {
+            compressionInputBytesCounter.increment(compressionStats.rawBytes);
+            compressionOutputBytesCounter.increment(
+                compressionStats.compressedBytes);
+            compressionMsecsCounter.increment(compressionStats.compressMsecs);
+            if (LOG.isInfoEnabled()) {
+                LOG.info("flush: Compressed " + compressionStats.rawBytes +
+                         " bytes to " + compressionStats.compressedBytes +
+                         " (ratio " + ((double) compressionStats.rawBytes /
+                         compressionStats.compressedBytes) + ") in " +
+                         compressionStats.compressMsecs + " msecs");
+            }
+        }
+        decompressionMsecsCounter.increment(compressionStats.decompressMsecs);
+        return totalMsgsSentInSuperstep.getAndSet(0);
     }
 
     @Override
@@ -925,58 +2104,26 @@ public abstract class BasicRPCCommunications<
         if (LOG.isInfoEnabled()) {
             LOG.info("prepareSuperstep");
         }
-        inPrepareSuperstep = true;
-
-        synchronized(transientInMessages) {
-            for (Entry<I, List<M>> entry :
-                transientInMessages.entrySet()) {
-                if (combiner != null) {
-                    try {
-                        M combinedMsg = combiner.combine(entry.getKey(),
-                                                         entry.getValue());
-                        putMsg(entry.getKey(), combinedMsg);
-                    } catch (IOException e) {
-                        // no actual IO -- should never happen
-                        throw new RuntimeException(e);
-                    }
-                } else {
-                    List<M> msgs = inMessages.get(entry.getKey());
-                    if (msgs == null) {
-                        msgs = new ArrayList<M>();
-                        inMessages.put(entry.getKey(), msgs);
-                    }
-                    msgs.addAll(entry.getValue());
-                }
-                entry.getValue().clear();
-            }
+        try {
+            // The messages were received during the previous superstep
+            expandBroadcasts(service.getSuperstep() - 1);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "prepareSuperstep: Failed to expand the broadcast messages", e);
         }
 
-        if (inMessages.size() > 0) {
-            // Assign the appropriate messages to each vertex
-            NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap =
-                service.getCurrentVertexRangeMap();
-            for (VertexRange<I, V, E, M> vertexRange :
-                    vertexRangeMap.values()) {
-                for (BasicVertex<I, V, E, M> vertex :
-                        vertexRange.getVertexMap().values()) {
-                    vertex.getMsgList().clear();
-                    List<M> msgList = inMessages.get(vertex.getVertexId());
-                    if (msgList != null) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("prepareSuperstep: Assigning " +
-                                      msgList.size() +
-                                      " mgs to vertex index " + vertex);
-                        }
-                        for (M msg : msgList) {
-                            if (msg == null) {
-                                LOG.warn("null message in inMessages");
-                            }
-                        }
-                        vertex.getMsgList().addAll(msgList);
-                        msgList.clear();
-                    }
-                }
+        inPrepareSuperstep = true;
+
+        if (messageStore != null && messageStore.hasRuns()) {
+            try {
+                assignMergedMessages();
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "prepareSuperstep: Failed to merge the spilled messages",
+                    e);
             }
+        } else {
+            assignInMemoryMessages();
         }
 
         inPrepareSuperstep = false;
@@ -1000,6 +2147,8 @@ public abstract class BasicRPCCommunications<
         }
 
         // Resolve all graph mutations
+        Set<VertexRange<I, V, E, M>> resolvedVertexRangeSet =
+            new HashSet<VertexRange<I, V, E, M>>();
         for (I vertexIndex : resolveVertexIndexSet) {
             VertexResolver<I, V, E, M> vertexResolver =
                 BspUtils.createVertexResolver(conf);
@@ -1032,41 +2181,242 @@ public abstract class BasicRPCCommunications<
             } else if (originalVertex != null) {
                 vertexRange.getVertexMap().remove(originalVertex.getVertexId());
             }
+            // The edges and active vertices changed
+            vertexRange.clearActiveVertices();
+            resolvedVertexRangeSet.add(vertexRange);
+        }
+        // Sort the vertex maps once rather than on every mutation
+        for (VertexRange<I, V, E, M> vertexRange : resolvedVertexRangeSet) {
+            vertexRange.rebuildVertexMap();
         }
         synchronized (inVertexMutationsMap) {
             inVertexMutationsMap.clear();
         }
     }
 
-    @Override
-    public void cleanCachedVertexAddressMap() {
-        // Fix all the cached inet addresses (remove all changed entries)
-        synchronized (vertexIndexMapAddressMap) {
+    /**
+     * Move the incoming messages to inMessages (combined if possible) and
+     * assign them to the vertices.
+     */
+    private void assignInMemoryMessages() {
+        synchronized(transientInMessages) {
+            for (Entry<I, List<M>> entry :
+                transientInMessages.entrySet()) {
+                if (combiner != null) {
+                    try {
+                        M combinedMsg = combiner.combine(entry.getKey(),
+                                                         entry.getValue());
+                        putMsg(entry.getKey(), combinedMsg);
+                    } catch (IOException e) {
+                        // no actual IO -- should never happen
+                        throw new RuntimeException(e);
+                    }
+                } else {
+                    List<M> msgs = inMessages.get(entry.getKey());
+                    if (msgs == null) {
+                        msgs = BspUtils.<M>createMsgList(conf);
+                        inMessages.put(entry.getKey(), msgs);
+                    }
+                    msgs.addAll(entry.getValue());
+                }
+            }
+            // No more senders, only this superstep's receivers are kept
+            transientInMessages.clear();
+            transientInMsgCount.set(0);
+        }
+
+        // Group the receivers by vertex range, so that every vertex range
+        // is only brought in memory once
+        Map<VertexRange<I, V, E, M>, List<Entry<I, List<M>>>> rangeMsgMap =
+            new HashMap<VertexRange<I, V, E, M>, List<Entry<I, List<M>>>>();
+        for (Entry<I, List<M>> entry : inMessages.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            VertexRange<I, V, E, M> vertexRange =
+                service.getVertexRange(service.getSuperstep() - 1,
+                                       entry.getKey());
+            List<Entry<I, List<M>>> rangeMsgList =
+                rangeMsgMap.get(vertexRange);
+            if (rangeMsgList == null) {
+                rangeMsgList = new ArrayList<Entry<I, List<M>>>();
+                rangeMsgMap.put(vertexRange, rangeMsgList);
+            }
+            rangeMsgList.add(entry);
+        }
+
+        // Assign the appropriate messages to each receiving vertex (the
+        // message lists were released after compute)
+        VertexRangeStore<I, V, E, M> vertexRangeStore =
+            service.getVertexRangeStore();
+        for (Entry<VertexRange<I, V, E, M>, List<Entry<I, List<M>>>>
+                rangeEntry : rangeMsgMap.entrySet()) {
+            VertexRange<I, V, E, M> vertexRange = rangeEntry.getKey();
+            if (vertexRangeStore != null) {
+                vertexRangeStore.pin(vertexRange);
+            }
+            try {
+                assignInMemoryMessages(vertexRange, rangeEntry.getValue());
+            } finally {
+                if (vertexRangeStore != null) {
+                    vertexRangeStore.unpin(vertexRange);
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign the in-memory messages of vertices of a vertex range.
+     *
+     * @param vertexRange Vertex range of the receiving vertices
+     * @param msgEntryList Receiving vertex indices and their messages
+     */
+    private void assignInMemoryMessages(
+            VertexRange<I, V, E, M> vertexRange,
+            List<Entry<I, List<M>>> msgEntryList) {
+        SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
+            vertexRange.getVertexMap();
+        for (Entry<I, List<M>> entry : msgEntryList) {
+            List<M> msgList = entry.getValue();
+            BasicVertex<I, V, E, M> vertex = vertexMap.get(entry.getKey());
+            if (vertex == null) {
+                continue;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("prepareSuperstep: Assigning " +
+                          msgList.size() +
+                          " mgs to vertex index " + vertex);
+            }
+            for (M msg : msgList) {
+                if (msg == null) {
+                    LOG.warn("null message in inMessages");
+                }
+            }
+            vertex.getMsgList().addAll(msgList);
+            msgList.clear();
+            vertexRange.addActiveVertexIndex(entry.getKey());
+        }
+    }
+
+    /**
+     * Assign the incoming messages to the vertices one vertex range at a
+     * time, merging the spilled runs with the messages still in memory.
+     * Messages to vertices that do not exist are moved to inMessages to be
+     * resolved.
+     *
+     * @throws IOException
+     */
+    private void assignMergedMessages() throws IOException {
+        long superstep = service.getSuperstep() - 1;
+        Map<I, SortedMap<I, List<M>>> rangeMsgMap = null;
+        synchronized (transientInMessages) {
+            rangeMsgMap = takeTransientInMessages(superstep);
+        }
+        Set<I> maxIndexSet = messageStore.getVertexRangeMaxIndices();
+        maxIndexSet.addAll(rangeMsgMap.keySet());
+        VertexRangeStore<I, V, E, M> vertexRangeStore =
+            service.getVertexRangeStore();
+        // The runs are deleted even if the merge fails
+        try {
             for (Entry<I, VertexRange<I, V, E, M>> entry :
-                service.getVertexRangeMap().entrySet()) {
-               if (vertexIndexMapAddressMap.containsKey(entry.getKey())) {
-                   InetSocketAddress address =
-                       vertexIndexMapAddressMap.get(entry.getKey());
-                   if (!address.getHostName().equals(
-                           entry.getValue().getHostname()) ||
-                           address.getPort() !=
-                           entry.getValue().getPort()) {
-                       LOG.info("prepareSuperstep: Vertex range " +
-                                entry.getKey() + " changed from " +
-                                address + " to " +
-                                entry.getValue().getHostname() + ":" +
-                                entry.getValue().getPort());
-                       vertexIndexMapAddressMap.remove(entry.getKey());
-                   }
-               }
+                    service.getCurrentVertexRangeMap().entrySet()) {
+                // The message lists were released after compute, only the
+                // vertex ranges with messages need to be in memory
+                if (!maxIndexSet.remove(entry.getKey())) {
+                    continue;
+                }
+                VertexRange<I, V, E, M> vertexRange = entry.getValue();
+                if (vertexRangeStore != null) {
+                    vertexRangeStore.pin(vertexRange);
+                }
+                try {
+                    assignMergedMessages(
+                        vertexRange,
+                        messageStore.merge(entry.getKey(),
+                                           rangeMsgMap.get(entry.getKey())));
+                } finally {
+                    if (vertexRangeStore != null) {
+                        vertexRangeStore.unpin(vertexRange);
+                    }
+                }
+            }
+            // Messages to vertex ranges that are not here anymore
+            for (I maxIndex : maxIndexSet) {
+                assignMergedMessages(
+                    null,
+                    messageStore.merge(maxIndex, rangeMsgMap.get(maxIndex)));
             }
+        } finally {
+            messageStore.clear();
         }
+    }
+
+    /**
+     * Assign the merged messages of a vertex range to its vertices.
+     *
+     * @param vertexRange Vertex range (can be null)
+     * @param msgIt Sorted vertex indices and their messages (closed here)
+     * @throws IOException
+     */
+    private void assignMergedMessages(
+            VertexRange<I, V, E, M> vertexRange,
+            MergedMsgIterator<I, M> msgIt) throws IOException {
         try {
-            connectAllRPCProxys(this.jobId, this.jobToken);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            assignMergedMessagesToVertices(vertexRange, msgIt);
+        } finally {
+            msgIt.close();
+        }
+    }
+
+    /**
+     * Assign the merged messages of a vertex range to its vertices.
+     *
+     * @param vertexRange Vertex range (can be null)
+     * @param msgIt Sorted vertex indices and their messages
+     * @throws IOException
+     */
+    private void assignMergedMessagesToVertices(
+            VertexRange<I, V, E, M> vertexRange,
+            Iterator<Entry<I, List<M>>> msgIt) throws IOException {
+        SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
+            (vertexRange == null) ? null : vertexRange.getVertexMap();
+        while (msgIt.hasNext()) {
+            Entry<I, List<M>> entry = msgIt.next();
+            List<M> msgList = entry.getValue();
+            if (combiner != null) {
+                M combinedMsg = combiner.combine(entry.getKey(), msgList);
+                msgList = BspUtils.<M>createMsgList(conf);
+                msgList.add(combinedMsg);
+            }
+            BasicVertex<I, V, E, M> vertex =
+                (vertexMap == null) ? null : vertexMap.get(entry.getKey());
+            if (vertex != null) {
+                vertex.getMsgList().addAll(msgList);
+                vertexRange.addActiveVertexIndex(entry.getKey());
+            } else {
+                List<M> msgs = inMessages.get(entry.getKey());
+                if (msgs == null) {
+                    msgs = BspUtils.<M>createMsgList(conf);
+                    inMessages.put(entry.getKey(), msgs);
+                }
+                msgs.addAll(msgList);
+            }
+        }
+    }
+
+    @Override
+    public void cleanCachedVertexAddressMap() {
+        // Rebuild the routing table from the moved vertex ranges
+        synchronized (routingTableLock) {
+            routingTable = null;
+            try {
+                connectAllRPCProxys(this.jobId, this.jobToken);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            buildRoutingTable(service.getSuperstep());
         }
     }
 
@@ -1076,7 +2426,16 @@ public abstract class BasicRPCCommunications<
     }
 
     @Override
-    public Map<I, List<Vertex<I, V, E, M>>> getInVertexRangeMap() {
+    public Map<I, SortedMap<I, BasicVertex<I, V, E, M>>>
+            getInVertexRangeMap() {
+        // All the vertices were received by now, so the edge stores of
+        // their vertex ranges are complete
+        synchronized (inVertexRangeMap) {
+            for (CsrEdgeStore<I, E> edgeStore : inEdgeStoreMap.values()) {
+                edgeStore.trim();
+            }
+            inEdgeStoreMap.clear();
+        }
         return inVertexRangeMap;
     }
 
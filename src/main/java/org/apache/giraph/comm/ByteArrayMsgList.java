@@ -0,0 +1,256 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.giraph.graph.BspUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * List of messages kept serialized back to back in a single byte array.
+ * Its iterator deserializes every message into the same message object,
+ * so that going over the messages of a vertex creates no garbage.  A
+ * message returned by the iterator is only valid until the next call to
+ * next().  get() deserializes a new message, but has to skip all the
+ * messages before it.
+ *
+ * @param <M> Message value
+ */
+public class ByteArrayMsgList<M extends Writable> extends AbstractList<M> {
+    /** Configuration (used to instantiate the messages) */
+    private final Configuration conf;
+    /** Number of messages in the list */
+    private int numMsgs = 0;
+    /** Serialized messages */
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration
+     */
+    public ByteArrayMsgList(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Add a message that is already serialized.
+     *
+     * @param data Array holding the serialized message
+     * @param offset Offset of the message in the array
+     * @param length Size of the serialized message
+     */
+    public void addSerialized(byte[] data, int offset, int length) {
+        try {
+            buffer.write(data, offset, length);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "addSerialized: Failed to copy " + length + " bytes", e);
+        }
+        ++numMsgs;
+        ++modCount;
+    }
+
+    /**
+     * Get the number of serialized bytes in the list.
+     *
+     * @return Size of the list in bytes
+     */
+    public int getSize() {
+        return buffer.getLength();
+    }
+
+    @Override
+    public boolean add(M msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "add: Cannot add a null message");
+        }
+        try {
+            msg.write(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "add: Failed to serialize " + msg, e);
+        }
+        ++numMsgs;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends M> msgs) {
+        if (msgs instanceof ByteArrayMsgList) {
+            ByteArrayMsgList<?> msgList = (ByteArrayMsgList<?>) msgs;
+            if (msgList.numMsgs == 0) {
+                return false;
+            }
+            try {
+                buffer.write(msgList.buffer.getData(), 0,
+                             msgList.buffer.getLength());
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "addAll: Failed to copy " + msgList.getSize() + " bytes",
+                    e);
+            }
+            numMsgs += msgList.numMsgs;
+            ++modCount;
+            return true;
+        }
+        boolean changed = false;
+        for (M msg : msgs) {
+            changed |= add(msg);
+        }
+        return changed;
+    }
+
+    @Override
+    public M get(int index) {
+        if (index < 0 || index >= numMsgs) {
+            throw new IndexOutOfBoundsException(
+                "get: Index " + index + " out of " + numMsgs + " messages");
+        }
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(buffer.getData(), buffer.getLength());
+        M msg = null;
+        try {
+            for (int i = 0; i <= index; ++i) {
+                msg = BspUtils.<M>createMessageValue(conf);
+                msg.readFields(input);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "get: Failed to deserialize message " + index, e);
+        }
+        return msg;
+    }
+
+    @Override
+    public int size() {
+        return numMsgs;
+    }
+
+    @Override
+    public void clear() {
+        buffer.reset();
+        numMsgs = 0;
+        ++modCount;
+    }
+
+    @Override
+    public Iterator<M> iterator() {
+        return new ReusingIterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return copyMsgs().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] array) {
+        return copyMsgs().toArray(array);
+    }
+
+    /**
+     * Deserialize every message into its own object (used when the
+     * messages are copied to another kind of collection).
+     *
+     * @return New list of all the messages
+     */
+    private List<M> copyMsgs() {
+        List<M> msgList = new ArrayList<M>(numMsgs);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(buffer.getData(), buffer.getLength());
+        try {
+            for (int i = 0; i < numMsgs; ++i) {
+                M msg = BspUtils.<M>createMessageValue(conf);
+                msg.readFields(input);
+                msgList.add(msg);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "copyMsgs: Failed to deserialize the messages", e);
+        }
+        return msgList;
+    }
+
+    /**
+     * Deserializes the messages one after the other into the same object.
+     */
+    private class ReusingIterator implements Iterator<M> {
+        /** Input over the serialized messages */
+        private final DataInputBuffer input = new DataInputBuffer();
+        /** Message object returned by every next() */
+        private M msg = null;
+        /** Number of messages returned so far */
+        private int returned = 0;
+        /** Modification count of the list when the iterator was created */
+        private final int expectedModCount = modCount;
+
+        /**
+         * Constructor.
+         */
+        public ReusingIterator() {
+            input.reset(buffer.getData(), buffer.getLength());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returned < numMsgs;
+        }
+
+        @Override
+        public M next() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException(
+                    "next: List changed while iterating");
+            }
+            if (returned >= numMsgs) {
+                throw new NoSuchElementException("next: No more messages");
+            }
+            if (msg == null) {
+                msg = BspUtils.<M>createMessageValue(conf);
+            }
+            try {
+                msg.readFields(input);
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "next: Failed to deserialize message " + returned, e);
+            }
+            ++returned;
+            return msg;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -50,8 +50,15 @@ public interface CommunicationsInterface<
      * Interface Version History
      *
      * 0 - First Version
+     * 1 - Added putMsgBuffer()
+     * 2 - Added putMutationBuffer()
+     * 3 - Batched payloads can be compressed
+     * 4 - Messages of a message buffer grouped by vertex index
+     * 5 - putVertexList() replaced by putVertexChunk()
+     * 6 - Message lengths and compact broadcast destinations in message
+     *     buffers
      */
-    static final long versionID = 0L;
+    static final long versionID = 6L;
 
     /**
      * Adds incoming message.
@@ -72,13 +79,31 @@ public interface CommunicationsInterface<
     void putMsgList(I vertexIndex, MsgList<M> msgList) throws IOException;
 
     /**
-     * Adds vertex list (index, value, edges, etc.) to the appropriate worker.
+     * Adds a batch of pre-serialized incoming messages.
+     *
+     * @param msgBuffer Serialized (vertex index, message) pairs
+     * @throws IOException
+     */
+    void putMsgBuffer(MsgBuffer<I, M> msgBuffer) throws IOException;
+
+    /**
+     * Adds a batch of pre-serialized graph mutations.
+     *
+     * @param mutationBuffer Serialized edge and vertex additions/removals
+     * @throws IOException
+     */
+    void putMutationBuffer(MutationBuffer<I, V, E, M> mutationBuffer)
+        throws IOException;
+
+    /**
+     * Adds a chunk of serialized vertices (index, value, edges, etc.) of a
+     * vertex range moving to the appropriate worker.
      *
      * @param vertexIndexMax Max vertex index of {@link VertexRange}
-     * @param vertexList List of vertices to add
+     * @param vertexChunk Serialized vertices to add
      */
-    void putVertexList(I vertexIndexMax,
-                       VertexList<I, V, E, M> vertexList)
+    void putVertexChunk(I vertexIndexMax,
+                        VertexChunk<I, V, E, M> vertexChunk)
         throws IOException;
 
     /**
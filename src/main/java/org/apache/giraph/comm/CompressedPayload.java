@@ -0,0 +1,226 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Serializes the bytes of a batched payload (message buffer, mutation
+ * buffer, vertex list), compressed with the codec of
+ * {@link GiraphJob#COMM_COMPRESSION_CODEC} when they are at least
+ * {@link GiraphJob#COMM_COMPRESSION_THRESHOLD} bytes long.  There is one
+ * instance per Configuration, i.e. per worker even when several workers
+ * share a JVM, found with get() by the payloads that only know their
+ * Configuration.  The sizes and times are accumulated per instance until
+ * collected with getAndResetStats().
+ */
+public class CompressedPayload {
+    /** Instance of every Configuration (synchronized) */
+    private static final Map<Configuration, CompressedPayload> instanceMap =
+        new WeakHashMap<Configuration, CompressedPayload>();
+    /** Codec of the payloads, null if they are not compressed */
+    private final CompressionCodec codec;
+    /** Payloads shorter than this are not compressed */
+    private final int threshold;
+    /** Bytes given to the compressor */
+    private final AtomicLong rawBytes = new AtomicLong();
+    /** Bytes written by the compressor */
+    private final AtomicLong compressedBytes = new AtomicLong();
+    /** Nanoseconds spent compressing */
+    private final AtomicLong compressNanos = new AtomicLong();
+    /** Nanoseconds spent decompressing */
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    /**
+     * Compression statistics since the last call to getAndResetStats().
+     */
+    public static class Stats {
+        /** Bytes given to the compressor */
+        public final long rawBytes;
+        /** Bytes written by the compressor */
+        public final long compressedBytes;
+        /** Milliseconds spent compressing */
+        public final long compressMsecs;
+        /** Milliseconds spent decompressing */
+        public final long decompressMsecs;
+
+        /**
+         * Constructor.
+         *
+         * @param rawBytes Bytes given to the compressor
+         * @param compressedBytes Bytes written by the compressor
+         * @param compressMsecs Milliseconds spent compressing
+         * @param decompressMsecs Milliseconds spent decompressing
+         */
+        public Stats(long rawBytes, long compressedBytes,
+                     long compressMsecs, long decompressMsecs) {
+            this.rawBytes = rawBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressMsecs = compressMsecs;
+            this.decompressMsecs = decompressMsecs;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration (codec and threshold)
+     */
+    private CompressedPayload(Configuration conf) {
+        Class<? extends CompressionCodec> codecClass =
+            conf.getClass(GiraphJob.COMM_COMPRESSION_CODEC, null,
+                          CompressionCodec.class);
+        // The codec gets a copy so that it does not keep the key alive
+        codec = (codecClass == null) ? null :
+            ReflectionUtils.newInstance(codecClass, new Configuration(conf));
+        threshold = conf.getInt(GiraphJob.COMM_COMPRESSION_THRESHOLD,
+                                GiraphJob.COMM_COMPRESSION_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Get the instance of a Configuration, created the first time.
+     *
+     * @param conf Configuration (codec and threshold)
+     * @return Instance of the Configuration
+     */
+    public static CompressedPayload get(Configuration conf) {
+        synchronized (instanceMap) {
+            CompressedPayload compressedPayload = instanceMap.get(conf);
+            if (compressedPayload == null) {
+                compressedPayload = new CompressedPayload(conf);
+                instanceMap.put(conf, compressedPayload);
+            }
+            return compressedPayload;
+        }
+    }
+
+    /**
+     * Get the codec of the batched payloads.
+     *
+     * @return Codec, null if the payloads are not compressed
+     */
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Write a payload, compressed if it is large enough and compression
+     * makes it smaller.
+     *
+     * @param payload Bytes of the payload
+     * @param output Output to write to
+     * @throws IOException
+     */
+    public void write(DataOutputBuffer payload,
+                      DataOutput output) throws IOException {
+        if (codec != null && payload.getLength() >= threshold) {
+            long startNanos = System.nanoTime();
+            DataOutputBuffer compressed = new DataOutputBuffer();
+            Compressor compressor = CodecPool.getCompressor(codec);
+            try {
+                CompressionOutputStream compressionOutput =
+                    codec.createOutputStream(compressed, compressor);
+                compressionOutput.write(payload.getData(), 0,
+                                        payload.getLength());
+                compressionOutput.finish();
+            } finally {
+                CodecPool.returnCompressor(compressor);
+            }
+            compressNanos.addAndGet(System.nanoTime() - startNanos);
+            rawBytes.addAndGet(payload.getLength());
+            compressedBytes.addAndGet(compressed.getLength());
+            if (compressed.getLength() < payload.getLength()) {
+                output.writeBoolean(true);
+                output.writeInt(payload.getLength());
+                output.writeInt(compressed.getLength());
+                output.write(compressed.getData(), 0, compressed.getLength());
+                return;
+            }
+        }
+        output.writeBoolean(false);
+        output.writeInt(payload.getLength());
+        output.write(payload.getData(), 0, payload.getLength());
+    }
+
+    /**
+     * Read a payload written by write().
+     *
+     * @param input Input to read from
+     * @param payload Reset and filled with the bytes of the payload
+     * @throws IOException
+     */
+    public void read(DataInput input,
+                     DataOutputBuffer payload) throws IOException {
+        boolean isCompressed = input.readBoolean();
+        int length = input.readInt();
+        payload.reset();
+        if (!isCompressed) {
+            payload.write(input, length);
+            return;
+        }
+        if (codec == null) {
+            throw new IllegalStateException(
+                "read: Received a compressed payload without " +
+                GiraphJob.COMM_COMPRESSION_CODEC);
+        }
+        byte[] compressed = new byte[input.readInt()];
+        input.readFully(compressed);
+        long startNanos = System.nanoTime();
+        Decompressor decompressor = CodecPool.getDecompressor(codec);
+        try {
+            CompressionInputStream compressionInput =
+                codec.createInputStream(
+                    new ByteArrayInputStream(compressed), decompressor);
+            payload.write(new DataInputStream(compressionInput), length);
+        } finally {
+            CodecPool.returnDecompressor(decompressor);
+        }
+        decompressNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the statistics accumulated since the last call and reset them.
+     *
+     * @return Compression statistics
+     */
+    public Stats getAndResetStats() {
+        return new Stats(rawBytes.getAndSet(0),
+                         compressedBytes.getAndSet(0),
+                         compressNanos.getAndSet(0) / 1000000,
+                         decompressNanos.getAndSet(0) / 1000000);
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the incoming messages of a worker that did not fit in memory as
+ * runs in local files.  Every run holds one segment per destination vertex
+ * range, sorted by vertex index, so that the messages of a vertex range can
+ * be merged from all the runs without reading the others.
+ *
+ * @param <I> Vertex index value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class DiskBackedMessageStore<I extends WritableComparable,
+                                    M extends Writable> {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(DiskBackedMessageStore.class);
+    /** Configuration (used to instantiate the indices and messages) */
+    private final Configuration conf;
+    /** Directory of the run files */
+    private final File directory;
+    /** Runs written since the last clear() */
+    private final List<Run> runList = new ArrayList<Run>();
+    /** Used to name the run files */
+    private long nextRunFileId = 0;
+    /** Bytes written to the run files */
+    private final Counter spilledBytesCounter;
+    /** Number of messages written to the run files */
+    private final Counter spilledMsgsCounter;
+    /** Number of runs written */
+    private final Counter runsCounter;
+
+    /**
+     * Iterator over the merged messages of a vertex range.  It holds the
+     * run files open until it is exhausted or closed.
+     *
+     * @param <I> Vertex index value
+     * @param <M> Message value
+     */
+    public interface MergedMsgIterator<I, M>
+            extends Iterator<Entry<I, List<M>>>, Closeable {
+    }
+
+    /**
+     * Run file and the position of its segments.
+     */
+    private class Run {
+        /** File of the run */
+        private final File file;
+        /** Vertex range max index to segment offset in the file */
+        private final Map<I, Long> segmentOffsetMap = new HashMap<I, Long>();
+
+        /**
+         * Constructor.
+         *
+         * @param file File of the run
+         */
+        public Run(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration
+     * @param context Context used for the counters
+     * @param directory Directory of the run files (created if needed)
+     */
+    public DiskBackedMessageStore(Configuration conf,
+                                  Mapper<?, ?, ?, ?>.Context context,
+                                  File directory) {
+        this.conf = conf;
+        this.directory = directory;
+        spilledBytesCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core spilled message bytes");
+        spilledMsgsCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core spilled messages");
+        runsCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core message runs");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException(
+                "DiskBackedMessageStore: Failed to create " + directory);
+        }
+    }
+
+    /**
+     * Write messages to a new run.
+     *
+     * @param rangeMsgMap Vertex range max index to the sorted messages of
+     *        its vertices
+     * @return Number of messages written
+     * @throws IOException
+     */
+    public synchronized long addRun(
+            Map<I, SortedMap<I, List<M>>> rangeMsgMap) throws IOException {
+        Run run = new Run(new File(directory, "messageRun-" + nextRunFileId));
+        ++nextRunFileId;
+        long msgCount = 0;
+        DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(run.file)));
+        try {
+            for (Entry<I, SortedMap<I, List<M>>> rangeEntry :
+                    rangeMsgMap.entrySet()) {
+                run.segmentOffsetMap.put(rangeEntry.getKey(),
+                                         Long.valueOf(output.size()));
+                output.writeInt(rangeEntry.getValue().size());
+                for (Entry<I, List<M>> entry :
+                        rangeEntry.getValue().entrySet()) {
+                    entry.getKey().write(output);
+                    output.writeInt(entry.getValue().size());
+                    for (M msg : entry.getValue()) {
+                        msg.write(output);
+                    }
+                    msgCount += entry.getValue().size();
+                }
+            }
+        } finally {
+            output.close();
+        }
+        runList.add(run);
+        spilledBytesCounter.increment(run.file.length());
+        spilledMsgsCounter.increment(msgCount);
+        runsCounter.increment(1);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("addRun: Wrote " + msgCount + " messages for " +
+                     rangeMsgMap.size() + " vertex ranges (" +
+                     run.file.length() + " bytes) to " + run.file);
+        }
+        return msgCount;
+    }
+
+    /**
+     * Check if any run was written since the last clear().
+     *
+     * @return True if there are runs to merge
+     */
+    public synchronized boolean hasRuns() {
+        return !runList.isEmpty();
+    }
+
+    /**
+     * Get all the vertex ranges with messages in the runs.
+     *
+     * @return Max indices of the vertex ranges
+     */
+    public synchronized Set<I> getVertexRangeMaxIndices() {
+        Set<I> maxIndexSet = new HashSet<I>();
+        for (Run run : runList) {
+            maxIndexSet.addAll(run.segmentOffsetMap.keySet());
+        }
+        return maxIndexSet;
+    }
+
+    /**
+     * Merge the messages of a vertex range from all the runs and from
+     * memory.  The messages of every vertex index are returned together, in
+     * the order of the vertex indices.
+     *
+     * @param maxIndex Max index of the vertex range
+     * @param inMemoryMsgMap Sorted messages of the vertex range that were
+     *        not spilled (can be null)
+     * @return Iterator over the vertex indices and their messages (must be
+     *         closed if it is not exhausted)
+     * @throws IOException
+     */
+    public synchronized MergedMsgIterator<I, M> merge(
+            I maxIndex, SortedMap<I, List<M>> inMemoryMsgMap)
+            throws IOException {
+        List<MsgSource> sourceList = new ArrayList<MsgSource>();
+        boolean opened = false;
+        try {
+            if (inMemoryMsgMap != null) {
+                sourceList.add(new InMemoryMsgSource(inMemoryMsgMap));
+            }
+            for (Run run : runList) {
+                Long offset = run.segmentOffsetMap.get(maxIndex);
+                if (offset != null) {
+                    sourceList.add(new SegmentMsgSource(run.file, offset));
+                }
+            }
+            MergeIterator mergeIterator = new MergeIterator(sourceList);
+            opened = true;
+            return mergeIterator;
+        } finally {
+            if (!opened) {
+                closeSources(sourceList);
+            }
+        }
+    }
+
+    /**
+     * Close sources, logging the failures so that all of them are closed.
+     *
+     * @param sources Sources to close
+     */
+    private void closeSources(Iterable<MsgSource> sources) {
+        for (MsgSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOG.warn("closeSources: Failed to close a message source", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the runs once they were merged.
+     */
+    public synchronized void clear() {
+        for (Run run : runList) {
+            if (!run.file.delete()) {
+                LOG.warn("clear: Failed to delete " + run.file);
+            }
+        }
+        runList.clear();
+    }
+
+    /**
+     * Delete all the run files.
+     */
+    public synchronized void cleanup() {
+        runList.clear();
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            LOG.warn("cleanup: Failed to delete " + directory, e);
+        }
+    }
+
+    /**
+     * Sorted source of the messages of a vertex range.
+     */
+    private abstract class MsgSource implements Comparable<MsgSource> {
+        /** Current vertex index */
+        protected I vertexIndex;
+        /** Messages of the current vertex index */
+        protected List<M> msgList;
+
+        /**
+         * Move to the next vertex index.
+         *
+         * @return False if there are no more vertex indices
+         * @throws IOException
+         */
+        public abstract boolean advance() throws IOException;
+
+        /**
+         * Release the resources of the source (may be called again).
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public int compareTo(MsgSource other) {
+            return vertexIndex.compareTo(other.vertexIndex);
+        }
+    }
+
+    /**
+     * Messages of a vertex range that are still in memory.
+     */
+    private class InMemoryMsgSource extends MsgSource {
+        /** Iterator over the messages */
+        private final Iterator<Entry<I, List<M>>> it;
+
+        /**
+         * Constructor.
+         *
+         * @param msgMap Sorted messages
+         */
+        public InMemoryMsgSource(SortedMap<I, List<M>> msgMap) {
+            it = msgMap.entrySet().iterator();
+        }
+
+        @Override
+        public boolean advance() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            Entry<I, List<M>> entry = it.next();
+            vertexIndex = entry.getKey();
+            msgList = entry.getValue();
+            return true;
+        }
+    }
+
+    /**
+     * Messages of a vertex range in a segment of a run file.
+     */
+    private class SegmentMsgSource extends MsgSource {
+        /** Input of the segment */
+        private final DataInputStream input;
+        /** Vertex indices left to read */
+        private int remaining;
+
+        /**
+         * Open a segment.
+         *
+         * @param file Run file
+         * @param offset Offset of the segment in the file
+         * @throws IOException
+         */
+        public SegmentMsgSource(File file, long offset) throws IOException {
+            FileInputStream fileInput = new FileInputStream(file);
+            input = new DataInputStream(new BufferedInputStream(fileInput));
+            boolean opened = false;
+            try {
+                fileInput.getChannel().position(offset);
+                remaining = input.readInt();
+                opened = true;
+            } finally {
+                if (!opened) {
+                    input.close();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            if (remaining == 0) {
+                input.close();
+                return false;
+            }
+            --remaining;
+            vertexIndex = BspUtils.<I>createVertexIndex(conf);
+            vertexIndex.readFields(input);
+            int msgCount = input.readInt();
+            msgList = new ArrayList<M>(msgCount);
+            for (int i = 0; i < msgCount; ++i) {
+                M msg = BspUtils.<M>createMessageValue(conf);
+                msg.readFields(input);
+                msgList.add(msg);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * K-way merge of the sources of a vertex range.
+     */
+    private class MergeIterator implements MergedMsgIterator<I, M> {
+        /** Sources that are not exhausted, by current vertex index */
+        private final PriorityQueue<MsgSource> sourceQueue =
+            new PriorityQueue<MsgSource>();
+
+        /**
+         * Constructor.
+         *
+         * @param sourceList Sources to merge
+         * @throws IOException
+         */
+        public MergeIterator(List<MsgSource> sourceList) throws IOException {
+            for (MsgSource source : sourceList) {
+                if (source.advance()) {
+                    sourceQueue.add(source);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !sourceQueue.isEmpty();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Entry<I, List<M>> next() {
+            if (sourceQueue.isEmpty()) {
+                throw new NoSuchElementException("next: No more messages");
+            }
+            MsgSource source = sourceQueue.poll();
+            I vertexIndex = source.vertexIndex;
+            List<M> msgList = source.msgList;
+            try {
+                while (true) {
+                    if (source.advance()) {
+                        sourceQueue.add(source);
+                    }
+                    source = sourceQueue.peek();
+                    if (source == null ||
+                            source.vertexIndex.compareTo(vertexIndex) != 0) {
+                        break;
+                    }
+                    sourceQueue.poll();
+                    if (msgList.isEmpty()) {
+                        msgList = source.msgList;
+                    } else {
+                        msgList.addAll(source.msgList);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "next: Failed to read the messages after vertex " +
+                    vertexIndex, e);
+            }
+            return new AbstractMap.SimpleEntry<I, List<M>>(vertexIndex,
+                                                          msgList);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closeSources(sourceQueue);
+            sourceQueue.clear();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.log4j.Logger;
+
+/**
+ * Communication between workers running in the same JVM (i.e.
+ * {@link org.apache.giraph.graph.InProcessGraphRunner}).  Every worker
+ * registers itself under its address and the requests to a peer are
+ * direct calls on the peer, without serialization or sockets.  As with
+ * the messages a worker sends to itself, the arguments are handed over
+ * as is and must not be modified by the sender afterwards.  Enabled with
+ * {@link GiraphJob#USE_LOCAL_COMMUNICATIONS}.
+ */
+@SuppressWarnings("rawtypes")
+public class LocalCommunications<
+        I extends WritableComparable,
+        V extends Writable,
+        E extends Writable,
+        M extends Writable>
+        extends BasicRPCCommunications<I, V, E, M, Object> {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(LocalCommunications.class);
+    /** Workers of this JVM by address (synchronized) */
+    private static final Map<InetSocketAddress, LocalCommunications<?, ?, ?, ?>>
+        workerMap =
+            new HashMap<InetSocketAddress, LocalCommunications<?, ?, ?, ?>>();
+    /** Address this worker is registered under */
+    private InetSocketAddress registeredAddress;
+
+    public LocalCommunications(Mapper<?, ?, ?, ?>.Context context,
+                               CentralizedServiceWorker<I, V, E, M> service)
+            throws IOException, UnknownHostException, InterruptedException {
+        super(context, service);
+    }
+
+    @Override
+    protected Object createJobToken() throws IOException {
+        return null;
+    }
+
+    @Override
+    protected void startServer(InetSocketAddress myAddress,
+                               int numHandlers,
+                               String jobId,
+                               Object jobToken) throws IOException {
+        synchronized (workerMap) {
+            if (workerMap.containsKey(myAddress)) {
+                throw new IllegalStateException(
+                    "startServer: Another worker is registered on " +
+                    myAddress);
+            }
+            registeredAddress = myAddress;
+            workerMap.put(myAddress, this);
+            workerMap.notifyAll();
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("startServer: Registered local worker on " + myAddress);
+        }
+    }
+
+    @Override
+    protected void stopServer() {
+        synchronized (workerMap) {
+            workerMap.remove(registeredAddress);
+        }
+    }
+
+    /**
+     * Get the worker registered on an address, waiting for it to start its
+     * communication service if needed.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected CommunicationsInterface<I, V, E, M> getRPCProxy(
+            InetSocketAddress addr, String jobId, Object jobToken)
+            throws IOException, InterruptedException {
+        int pollMsecs = conf.getInt(GiraphJob.POLL_MSECS,
+                                    GiraphJob.POLL_MSECS_DEFAULT);
+        int pollAttempts = conf.getInt(GiraphJob.POLL_ATTEMPTS,
+                                       GiraphJob.POLL_ATTEMPTS_DEFAULT);
+        synchronized (workerMap) {
+            for (int attempt = 0; attempt <= pollAttempts; ++attempt) {
+                LocalCommunications<?, ?, ?, ?> peer = workerMap.get(addr);
+                if (peer != null) {
+                    return (CommunicationsInterface<I, V, E, M>) peer;
+                }
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("getRPCProxy: Waiting for local worker on " +
+                             addr + " (attempt " + attempt + ")");
+                }
+                workerMap.wait(pollMsecs);
+            }
+        }
+        throw new IOException(
+            "getRPCProxy: No local worker registered on " + addr);
+    }
+
+    @Override
+    protected void stopProxy(CommunicationsInterface<I, V, E, M> proxy) {
+        // Nothing to release
+    }
+}
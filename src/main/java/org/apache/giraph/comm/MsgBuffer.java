@@ -0,0 +1,613 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.giraph.graph.BspUtils;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Pre-serialized batch of (vertex index, message) pairs going to a single
+ * peer.  Messages are serialized as they are added, so that a whole batch
+ * can be shipped with a single RPC and deserialized in bulk by the
+ * receiver.  A message going to several vertices of the peer can be added
+ * as a broadcast, serialized once with the list of its destinations.
+ * On the wire, the messages are grouped by destination vertex index so
+ * that every vertex index is only sent once ({@link LongWritable} vertex
+ * indices as variable-length deltas, also for the sorted destinations of
+ * a broadcast).
+ *
+ * @param <I> Vertex index value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class MsgBuffer<I extends WritableComparable, M extends Writable>
+        implements Writable, Configurable {
+    /** Configuration (used to instantiate indices and messages) */
+    private Configuration conf;
+    /** Number of (vertex index, message) pairs in the buffer */
+    private int numMsgs = 0;
+    /** Serialized (vertex index, message) pairs */
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    /** Start of the vertex index of every pair in buffer */
+    private int[] indexStarts = new int[16];
+    /**
+     * Start of the message of every pair in buffer (where its vertex index
+     * ends)
+     */
+    private int[] msgStarts = new int[16];
+    /** Number of broadcast messages in the buffer */
+    private int numBroadcasts = 0;
+    /** Number of destination vertices of all the broadcast messages */
+    private long numBroadcastTargets = 0;
+    /** Serialized broadcast messages (see writeBroadcasts()) */
+    private final DataOutputBuffer broadcastBuffer = new DataOutputBuffer();
+    /** Serializes a broadcast message to find its length */
+    private final DataOutputBuffer broadcastMsgBuffer =
+        new DataOutputBuffer();
+
+    /**
+     * Default constructor for reflection
+     */
+    public MsgBuffer() {}
+
+    /**
+     * Serialize a message to a vertex into the buffer.
+     *
+     * @param vertexIndex Destination vertex index
+     * @param msg Message to add
+     * @throws IOException
+     */
+    public void add(I vertexIndex, M msg) throws IOException {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "add: Cannot add null message on " + vertexIndex);
+        }
+        int indexStart = buffer.getLength();
+        vertexIndex.write(buffer);
+        int msgStart = buffer.getLength();
+        msg.write(buffer);
+        addPair(indexStart, msgStart);
+    }
+
+    /**
+     * Record where the vertex index and the message of a new pair start,
+     * so that the pairs never need to be deserialized to be split.
+     *
+     * @param indexStart Start of the vertex index of the pair
+     * @param msgStart Start of the message of the pair
+     */
+    private void addPair(int indexStart, int msgStart) {
+        if (numMsgs == indexStarts.length) {
+            indexStarts = Arrays.copyOf(indexStarts, numMsgs * 2);
+            msgStarts = Arrays.copyOf(msgStarts, numMsgs * 2);
+        }
+        indexStarts[numMsgs] = indexStart;
+        msgStarts[numMsgs] = msgStart;
+        ++numMsgs;
+    }
+
+    /**
+     * Get the end of the message of a pair.
+     *
+     * @param pair Pair
+     * @return Position after the last byte of its message
+     */
+    private int getMsgEnd(int pair) {
+        return (pair + 1 < numMsgs) ?
+            indexStarts[pair + 1] : buffer.getLength();
+    }
+
+    /**
+     * Serialize a message to several vertices into the buffer.  The
+     * message is only serialized once.
+     *
+     * @param vertexIndices Destination vertex indices
+     * @param msg Message to add
+     * @throws IOException
+     */
+    public void addBroadcast(List<I> vertexIndices, M msg)
+            throws IOException {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "addBroadcast: Cannot add null message on " + vertexIndices);
+        }
+        broadcastMsgBuffer.reset();
+        msg.write(broadcastMsgBuffer);
+        WritableUtils.writeVInt(broadcastBuffer,
+                                broadcastMsgBuffer.getLength());
+        broadcastBuffer.write(broadcastMsgBuffer.getData(), 0,
+                              broadcastMsgBuffer.getLength());
+        WritableUtils.writeVInt(broadcastBuffer, vertexIndices.size());
+        if (hasLongVertexIndices()) {
+            long[] indices = new long[vertexIndices.size()];
+            for (int i = 0; i < indices.length; ++i) {
+                indices[i] = ((LongWritable) vertexIndices.get(i)).get();
+            }
+            Arrays.sort(indices);
+            long previousIndex = 0;
+            for (long index : indices) {
+                WritableUtils.writeVLong(broadcastBuffer,
+                                         index - previousIndex);
+                previousIndex = index;
+            }
+        } else {
+            for (I vertexIndex : vertexIndices) {
+                vertexIndex.write(broadcastBuffer);
+            }
+        }
+        ++numBroadcasts;
+        numBroadcastTargets += vertexIndices.size();
+    }
+
+    /**
+     * Get the number of (vertex index, message) pairs in the buffer.
+     *
+     * @return Number of messages
+     */
+    public int getNumMsgs() {
+        return numMsgs;
+    }
+
+    /**
+     * Get the number of broadcast messages in the buffer.
+     *
+     * @return Number of broadcast messages
+     */
+    public int getNumBroadcasts() {
+        return numBroadcasts;
+    }
+
+    /**
+     * Get the number of destination vertices of all the broadcast messages
+     * (i.e. the number of messages they expand to).
+     *
+     * @return Number of broadcast destination vertices
+     */
+    public long getNumBroadcastTargets() {
+        return numBroadcastTargets;
+    }
+
+    /**
+     * Get the number of serialized bytes in the buffer.
+     *
+     * @return Size of the buffer in bytes
+     */
+    public int getSize() {
+        return buffer.getLength() + broadcastBuffer.getLength();
+    }
+
+    /**
+     * Check if there are any messages in the buffer.
+     *
+     * @return True if no messages were added
+     */
+    public boolean isEmpty() {
+        return numMsgs == 0 && numBroadcasts == 0;
+    }
+
+    /**
+     * Copy the serialized broadcast messages.  Each one is written as the
+     * length of the message (variable-length), the message, the number of
+     * destination vertex indices (variable-length) and the vertex indices
+     * ({@link LongWritable} vertex indices sorted, as variable-length
+     * deltas).  Use {@link BroadcastReader} to read them back.
+     *
+     * @param output Output to write to
+     * @throws IOException
+     */
+    public void writeBroadcasts(DataOutput output) throws IOException {
+        output.write(broadcastBuffer.getData(), 0,
+                     broadcastBuffer.getLength());
+    }
+
+    /**
+     * Reads back the broadcast messages copied by writeBroadcasts(), every
+     * destination vertex index into the same object.
+     *
+     * @param <I> Vertex index value
+     */
+    public static class BroadcastReader<I extends WritableComparable> {
+        /** Input positioned on the broadcast messages */
+        private final DataInputBuffer input = new DataInputBuffer();
+        /** True if the vertex indices are written as deltas */
+        private final boolean longIndices;
+        /** Last vertex index read */
+        private final I vertexIndex;
+        /** Last {@link LongWritable} vertex index read */
+        private long index = 0;
+        /** Start of the message of the current broadcast */
+        private int msgStart = 0;
+        /** Length of the message of the current broadcast */
+        private int msgLength = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param conf Configuration (used to instantiate the vertex index)
+         * @param data Broadcast messages copied by writeBroadcasts()
+         * @param length Number of bytes of data
+         */
+        public BroadcastReader(Configuration conf, byte[] data, int length) {
+            input.reset(data, length);
+            longIndices = LongWritable.class.equals(
+                BspUtils.getVertexIndexClass(conf));
+            vertexIndex = BspUtils.<I>createVertexIndex(conf);
+        }
+
+        /**
+         * Skip to the next broadcast message.  Its destination vertex
+         * indices must be read before the next call.
+         *
+         * @return Number of destination vertex indices
+         * @throws IOException
+         */
+        public int nextBroadcast() throws IOException {
+            msgLength = WritableUtils.readVInt(input);
+            msgStart = input.getPosition();
+            input.skipBytes(msgLength);
+            index = 0;
+            return WritableUtils.readVInt(input);
+        }
+
+        /**
+         * Get the start of the serialized message of the current broadcast.
+         *
+         * @return Position in the data
+         */
+        public int getMsgStart() {
+            return msgStart;
+        }
+
+        /**
+         * Get the length of the serialized message of the current
+         * broadcast.
+         *
+         * @return Length in bytes
+         */
+        public int getMsgLength() {
+            return msgLength;
+        }
+
+        /**
+         * Read the next destination vertex index of the current broadcast.
+         *
+         * @return Vertex index (the same object every time, copy it to keep
+         *         it)
+         * @throws IOException
+         */
+        public I nextVertexIndex() throws IOException {
+            if (longIndices) {
+                index += WritableUtils.readVLong(input);
+                ((LongWritable) vertexIndex).set(index);
+            } else {
+                vertexIndex.readFields(input);
+            }
+            return vertexIndex;
+        }
+    }
+
+    /**
+     * Deserialize all the (vertex index, message) pairs in the buffer,
+     * grouped by destination vertex index.  Broadcast messages are not
+     * included.
+     *
+     * @return Map of vertex index to the messages sent to it
+     * @throws IOException
+     */
+    public Map<I, List<M>> getMsgMap() throws IOException {
+        Map<I, List<M>> msgMap = new HashMap<I, List<M>>();
+        DataInputBuffer input = new DataInputBuffer();
+        VertexIndexReader indexReader = new VertexIndexReader();
+        List<M> msgList = null;
+        for (int i = 0; i < numMsgs; ++i) {
+            if (indexReader.next(i)) {
+                msgList = msgMap.get(indexReader.vertexIndex);
+                if (msgList == null) {
+                    msgList = new ArrayList<M>();
+                    msgMap.put(indexReader.keepVertexIndex(), msgList);
+                }
+            }
+            M msg = BspUtils.<M>createMessageValue(conf);
+            input.reset(buffer.getData(), msgStarts[i],
+                        getMsgEnd(i) - msgStarts[i]);
+            msg.readFields(input);
+            msgList.add(msg);
+        }
+        return msgMap;
+    }
+
+    /**
+     * Group the serialized (vertex index, message) pairs by destination
+     * vertex index without keeping a message object per message.  The
+     * bytes of every message are copied as is, without deserializing it.
+     *
+     * @return Map of vertex index to the messages sent to it
+     * @throws IOException
+     */
+    public Map<I, List<M>> getByteArrayMsgMap() throws IOException {
+        Map<I, List<M>> msgMap = new HashMap<I, List<M>>();
+        VertexIndexReader indexReader = new VertexIndexReader();
+        List<M> msgList = null;
+        for (int i = 0; i < numMsgs; ++i) {
+            if (indexReader.next(i)) {
+                msgList = msgMap.get(indexReader.vertexIndex);
+                if (msgList == null) {
+                    msgList = new ByteArrayMsgList<M>(conf);
+                    msgMap.put(indexReader.keepVertexIndex(), msgList);
+                }
+            }
+            ((ByteArrayMsgList<M>) msgList).addSerialized(
+                buffer.getData(), msgStarts[i], getMsgEnd(i) - msgStarts[i]);
+        }
+        return msgMap;
+    }
+
+    /**
+     * Reads the vertex index of every pair, only deserializing a new
+     * vertex index object when its bytes differ from the previous one.
+     */
+    private class VertexIndexReader {
+        /** Input of the vertex indices */
+        private final DataInputBuffer input = new DataInputBuffer();
+        /** Last vertex index read */
+        private I vertexIndex = BspUtils.<I>createVertexIndex(conf);
+        /** Last pair read, -1 if none */
+        private int pair = -1;
+
+        /**
+         * Read the vertex index of a pair.
+         *
+         * @param nextPair Pair to read
+         * @return True if it differs from the previous vertex index
+         * @throws IOException
+         */
+        public boolean next(int nextPair) throws IOException {
+            boolean changed = pair < 0 ||
+                comparePairIndices(pair, nextPair) != 0;
+            pair = nextPair;
+            if (changed) {
+                input.reset(buffer.getData(), indexStarts[pair],
+                            msgStarts[pair] - indexStarts[pair]);
+                vertexIndex.readFields(input);
+            }
+            return changed;
+        }
+
+        /**
+         * Hand over the last vertex index object (i.e. to keep it as a
+         * map key), the next vertex index is read into a new one.
+         *
+         * @return Last vertex index
+         */
+        public I keepVertexIndex() {
+            I keptVertexIndex = vertexIndex;
+            vertexIndex = BspUtils.<I>createVertexIndex(conf);
+            return keptVertexIndex;
+        }
+    }
+
+    /**
+     * Check if the vertex indices are {@link LongWritable}, written as
+     * deltas.
+     *
+     * @return True if the vertex indices are {@link LongWritable}
+     */
+    private boolean hasLongVertexIndices() {
+        return LongWritable.class.equals(BspUtils.getVertexIndexClass(conf));
+    }
+
+    /**
+     * Write the (vertex index, message) pairs grouped by vertex index, in
+     * the order of their serialized vertex indices (the messages to a
+     * vertex index keep their order).  Every group is written as its
+     * vertex index, the number of messages (variable-length) and the
+     * messages, each one preceded by its length (variable-length).
+     *
+     * @param output Output to write to
+     * @throws IOException
+     */
+    private void writeGroupedPairs(DataOutput output) throws IOException {
+        byte[] data = buffer.getData();
+        int[] order = new int[numMsgs];
+        for (int i = 0; i < numMsgs; ++i) {
+            order[i] = i;
+        }
+        sortPairs(order, new int[numMsgs], 0, numMsgs);
+        int numGroups = 0;
+        for (int i = 0; i < numMsgs; ++i) {
+            if (i == 0 || comparePairIndices(order[i - 1], order[i]) != 0) {
+                ++numGroups;
+            }
+        }
+
+        boolean longIndices = hasLongVertexIndices();
+        long previousIndex = 0;
+        WritableUtils.writeVInt(output, numGroups);
+        int groupStart = 0;
+        while (groupStart < numMsgs) {
+            int groupEnd = groupStart + 1;
+            while (groupEnd < numMsgs &&
+                    comparePairIndices(order[groupStart],
+                                       order[groupEnd]) == 0) {
+                ++groupEnd;
+            }
+            int first = order[groupStart];
+            if (longIndices) {
+                long index = WritableComparator.readLong(
+                    data, indexStarts[first]);
+                WritableUtils.writeVLong(output, index - previousIndex);
+                previousIndex = index;
+            } else {
+                output.write(data, indexStarts[first],
+                             msgStarts[first] - indexStarts[first]);
+            }
+            WritableUtils.writeVInt(output, groupEnd - groupStart);
+            for (int i = groupStart; i < groupEnd; ++i) {
+                int pair = order[i];
+                int msgLength = getMsgEnd(pair) - msgStarts[pair];
+                WritableUtils.writeVInt(output, msgLength);
+                output.write(data, msgStarts[pair], msgLength);
+            }
+            groupStart = groupEnd;
+        }
+    }
+
+    /**
+     * Compare the serialized vertex indices of two pairs.
+     *
+     * @param first First pair
+     * @param second Second pair
+     * @return Negative, zero or positive like compareTo()
+     */
+    private int comparePairIndices(int first, int second) {
+        return WritableComparator.compareBytes(
+            buffer.getData(), indexStarts[first],
+            msgStarts[first] - indexStarts[first],
+            buffer.getData(), indexStarts[second],
+            msgStarts[second] - indexStarts[second]);
+    }
+
+    /**
+     * Stable merge sort of pairs by serialized vertex index.
+     *
+     * @param order Pairs to sort, in place
+     * @param scratch Scratch space as large as order
+     * @param from First position to sort
+     * @param to Position after the last one to sort
+     */
+    private void sortPairs(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortPairs(order, scratch, from, middle);
+        sortPairs(order, scratch, middle, to);
+        if (comparePairIndices(order[middle - 1], order[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; ++i) {
+            if (right >= to || (left < middle &&
+                    comparePairIndices(scratch[left], scratch[right]) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Read the groups written by writeGroupedPairs() back into
+     * (vertex index, message) pairs.  The vertex indices and the messages
+     * are copied as bytes, without an object per message.
+     *
+     * @param payload Bytes of the groups
+     * @throws IOException
+     */
+    private void readGroupedPairs(DataOutputBuffer payload)
+            throws IOException {
+        buffer.reset();
+        numMsgs = 0;
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(payload.getData(), payload.getLength());
+        boolean longIndices = hasLongVertexIndices();
+        long index = 0;
+        I vertexIndex = BspUtils.<I>createVertexIndex(conf);
+        int numGroups = WritableUtils.readVInt(input);
+        for (int i = 0; i < numGroups; ++i) {
+            int indexStart = input.getPosition();
+            if (longIndices) {
+                index += WritableUtils.readVLong(input);
+            } else {
+                vertexIndex.readFields(input);
+            }
+            int indexEnd = input.getPosition();
+            int groupSize = WritableUtils.readVInt(input);
+            for (int j = 0; j < groupSize; ++j) {
+                int pairStart = buffer.getLength();
+                if (longIndices) {
+                    buffer.writeLong(index);
+                } else {
+                    buffer.write(payload.getData(), indexStart,
+                                 indexEnd - indexStart);
+                }
+                int msgLength = WritableUtils.readVInt(input);
+                addPair(pairStart, buffer.getLength());
+                buffer.write(payload.getData(), input.getPosition(),
+                             msgLength);
+                input.skipBytes(msgLength);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int numPairs = in.readInt();
+        if (numPairs > indexStarts.length) {
+            indexStarts = new int[numPairs];
+            msgStarts = new int[numPairs];
+        }
+        DataOutputBuffer payload = new DataOutputBuffer();
+        CompressedPayload.get(conf).read(in, payload);
+        readGroupedPairs(payload);
+        numBroadcasts = in.readInt();
+        numBroadcastTargets = in.readLong();
+        CompressedPayload.get(conf).read(in, broadcastBuffer);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numMsgs);
+        DataOutputBuffer payload = new DataOutputBuffer();
+        writeGroupedPairs(payload);
+        CompressedPayload.get(conf).write(payload, out);
+        out.writeInt(numBroadcasts);
+        out.writeLong(numBroadcastTargets);
+        CompressedPayload.get(conf).write(broadcastBuffer, out);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+}
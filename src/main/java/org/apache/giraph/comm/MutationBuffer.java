@@ -0,0 +1,232 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.MutableVertex;
+import org.apache.giraph.graph.VertexMutations;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Pre-serialized batch of graph mutations (added or removed edges and
+ * vertices) going to a single peer.  Like {@link MsgBuffer}, mutations are
+ * serialized as they are added so that a whole batch can be shipped with
+ * a single RPC.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class MutationBuffer<I extends WritableComparable,
+                            V extends Writable,
+                            E extends Writable,
+                            M extends Writable>
+        implements Writable, Configurable {
+    /** Type of an added edge */
+    private static final byte ADD_EDGE = 0;
+    /** Type of a removed edge */
+    private static final byte REMOVE_EDGE = 1;
+    /** Type of an added vertex */
+    private static final byte ADD_VERTEX = 2;
+    /** Type of a removed vertex */
+    private static final byte REMOVE_VERTEX = 3;
+
+    /** Configuration (used to instantiate the indices, edges and vertices) */
+    private Configuration conf;
+    /** Number of mutations in the buffer */
+    private int numMutations = 0;
+    /** Serialized (type, vertex index, mutation) tuples */
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+    /**
+     * Default constructor for reflection
+     */
+    public MutationBuffer() {}
+
+    /**
+     * Serialize an edge to add to a vertex.
+     *
+     * @param vertexIndex Vertex index where the edge is added
+     * @param edge Edge to add
+     * @throws IOException
+     */
+    public void addEdge(I vertexIndex, Edge<I, E> edge) throws IOException {
+        buffer.writeByte(ADD_EDGE);
+        vertexIndex.write(buffer);
+        edge.write(buffer);
+        ++numMutations;
+    }
+
+    /**
+     * Serialize an edge to remove from a vertex.
+     *
+     * @param vertexIndex Vertex index where the edge is removed
+     * @param destVertexIndex Destination vertex index of the edge
+     * @throws IOException
+     */
+    public void removeEdge(I vertexIndex, I destVertexIndex)
+            throws IOException {
+        buffer.writeByte(REMOVE_EDGE);
+        vertexIndex.write(buffer);
+        destVertexIndex.write(buffer);
+        ++numMutations;
+    }
+
+    /**
+     * Serialize a vertex to add.
+     *
+     * @param vertex Vertex to add
+     * @throws IOException
+     */
+    public void addVertex(MutableVertex<I, V, E, M> vertex)
+            throws IOException {
+        buffer.writeByte(ADD_VERTEX);
+        vertex.getVertexId().write(buffer);
+        vertex.write(buffer);
+        ++numMutations;
+    }
+
+    /**
+     * Serialize a vertex to remove.
+     *
+     * @param vertexIndex Index of the vertex to remove
+     * @throws IOException
+     */
+    public void removeVertex(I vertexIndex) throws IOException {
+        buffer.writeByte(REMOVE_VERTEX);
+        vertexIndex.write(buffer);
+        ++numMutations;
+    }
+
+    /**
+     * Get the number of mutations in the buffer.
+     *
+     * @return Number of mutations
+     */
+    public int getNumMutations() {
+        return numMutations;
+    }
+
+    /**
+     * Get the number of serialized bytes in the buffer.
+     *
+     * @return Size of the buffer in bytes
+     */
+    public int getSize() {
+        return buffer.getLength();
+    }
+
+    /**
+     * Check if there are any mutations in the buffer.
+     *
+     * @return True if no mutations were added
+     */
+    public boolean isEmpty() {
+        return numMutations == 0;
+    }
+
+    /**
+     * Deserialize all the mutations in the buffer, grouped by vertex index.
+     *
+     * @return Map of vertex index to its mutations
+     * @throws IOException
+     */
+    public Map<I, VertexMutations<I, V, E, M>> getVertexMutationsMap()
+            throws IOException {
+        Map<I, VertexMutations<I, V, E, M>> mutationsMap =
+            new HashMap<I, VertexMutations<I, V, E, M>>();
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(buffer.getData(), buffer.getLength());
+        for (int i = 0; i < numMutations; ++i) {
+            byte type = input.readByte();
+            I vertexIndex = BspUtils.<I>createVertexIndex(conf);
+            vertexIndex.readFields(input);
+            VertexMutations<I, V, E, M> vertexMutations =
+                mutationsMap.get(vertexIndex);
+            if (vertexMutations == null) {
+                vertexMutations = new VertexMutations<I, V, E, M>();
+                mutationsMap.put(vertexIndex, vertexMutations);
+            }
+            switch (type) {
+                case ADD_EDGE:
+                    Edge<I, E> edge = new Edge<I, E>();
+                    edge.setConf(conf);
+                    edge.readFields(input);
+                    vertexMutations.addEdge(edge);
+                    break;
+                case REMOVE_EDGE:
+                    I destVertexIndex = BspUtils.<I>createVertexIndex(conf);
+                    destVertexIndex.readFields(input);
+                    vertexMutations.removeEdge(destVertexIndex);
+                    break;
+                case ADD_VERTEX:
+                    BaseVertex<I, V, E, M> vertex =
+                        BspUtils.<I, V, E, M>createVertex(conf);
+                    vertex.readFields(input);
+                    vertexMutations.addVertex(vertex);
+                    break;
+                case REMOVE_VERTEX:
+                    vertexMutations.removeVertex();
+                    break;
+                default:
+                    throw new IllegalStateException(
+                        "getVertexMutationsMap: Unknown mutation type " +
+                        type);
+            }
+        }
+        return mutationsMap;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        numMutations = in.readInt();
+        CompressedPayload.get(conf).read(in, buffer);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numMutations);
+        CompressedPayload.get(conf).write(buffer, out);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import org.apache.giraph.comm.NettyServer.RequestType;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.MutableVertex;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.FixedLengthFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+
+/**
+ * Client side of the Netty transport, used as the proxy of a remote
+ * {@link NettyServer}.  Requests are serialized in the calling thread and
+ * pipelined on a single channel without waiting for their
+ * acknowledgement.  At most a fixed number of requests can be outstanding,
+ * after which the callers block until acknowledgements come back.
+ * waitAllRequests() waits for all the outstanding requests.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class NettyClient<I extends WritableComparable,
+        V extends Writable,
+        E extends Writable,
+        M extends Writable>
+        implements CommunicationsInterface<I, V, E, M> {
+    /** Class logger */
+    private static final Logger LOG = Logger.getLogger(NettyClient.class);
+    /** Msecs to wait for outstanding requests before checking again */
+    private static final int WAIT_MSECS = 2000;
+    /** Address of the server */
+    private final InetSocketAddress addr;
+    /** Channel to the server */
+    private final Channel channel;
+    /** Maximum number of outstanding requests */
+    private final int maxOutstandingRequests;
+    /** One permit per request that can still be sent without blocking */
+    private final Semaphore requestPermits;
+    /** Next request id */
+    private final AtomicLong nextRequestId = new AtomicLong();
+    /** Synchronization object for the request state below */
+    private final Object requestLock = new Object();
+    /** Number of requests that were not acknowledged yet */
+    private int outstandingRequests = 0;
+    /** Reason of the first failure, null if none */
+    private String failure = null;
+    /** Set to true when close() was called */
+    private boolean closing = false;
+
+    /**
+     * Connect to a server.
+     *
+     * @param channelFactory Factory of the client channels
+     * @param addr Address of the server
+     * @param maxOutstandingRequests Maximum number of outstanding requests
+     * @throws IOException
+     */
+    public NettyClient(ChannelFactory channelFactory,
+                       InetSocketAddress addr,
+                       int maxOutstandingRequests) throws IOException {
+        this.addr = addr;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.requestPermits = new Semaphore(maxOutstandingRequests);
+        ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                return Channels.pipeline(
+                    new FixedLengthFrameDecoder(NettyServer.ACK_LENGTH),
+                    new LengthFieldPrepender(4),
+                    new AckClientHandler());
+            }
+        });
+        ChannelFuture future = bootstrap.connect(addr);
+        future.awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            throw new IOException("NettyClient: Failed to connect to " + addr,
+                                  future.getCause());
+        }
+        this.channel = future.getChannel();
+    }
+
+    /**
+     * Serialize a request and send it to the server, blocking while the
+     * maximum number of requests are outstanding.
+     *
+     * @param type Type of the request
+     * @param args Arguments of the request
+     * @throws IOException
+     */
+    private void sendRequest(RequestType type, Writable... args)
+            throws IOException {
+        long requestId = nextRequestId.getAndIncrement();
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        ChannelBufferOutputStream output =
+            new ChannelBufferOutputStream(buffer);
+        output.writeLong(requestId);
+        output.writeByte(type.ordinal());
+        for (Writable arg : args) {
+            arg.write(output);
+        }
+
+        requestPermits.acquireUninterruptibly();
+        synchronized (requestLock) {
+            if (failure != null) {
+                requestPermits.release();
+                throw new IOException("sendRequest: Failed to send " + type +
+                                      " to " + addr + ": " + failure);
+            }
+            ++outstandingRequests;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("sendRequest: Sending " + type + " request " +
+                      requestId + " (" + buffer.readableBytes() +
+                      " bytes) to " + addr);
+        }
+        channel.write(buffer).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (!future.isSuccess()) {
+                    fail("Write failed with " + future.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Record a failure and wake up everyone waiting on this client.
+     *
+     * @param reason Reason of the failure
+     */
+    private void fail(String reason) {
+        synchronized (requestLock) {
+            if (failure == null) {
+                LOG.error("fail: Requests to " + addr + " failed: " + reason);
+                failure = reason;
+            }
+            requestLock.notifyAll();
+        }
+        // Unblock any sender, it will see the failure
+        requestPermits.release(maxOutstandingRequests);
+    }
+
+    /**
+     * Wait until all the requests sent so far have been acknowledged.
+     *
+     * @throws IOException if any request failed
+     */
+    public void waitAllRequests() throws IOException {
+        synchronized (requestLock) {
+            while (outstandingRequests > 0 && failure == null) {
+                try {
+                    requestLock.wait(WAIT_MSECS);
+                } catch (InterruptedException e) {
+                    throw new IOException(
+                        "waitAllRequests: Interrupted while waiting on " +
+                        outstandingRequests + " requests to " + addr);
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("waitAllRequests: Waiting on " +
+                              outstandingRequests + " requests to " + addr);
+                }
+            }
+            if (failure != null) {
+                throw new IOException("waitAllRequests: Requests to " + addr +
+                                      " failed: " + failure);
+            }
+        }
+    }
+
+    /**
+     * Close the channel to the server.
+     */
+    public void close() {
+        synchronized (requestLock) {
+            closing = true;
+        }
+        channel.close().awaitUninterruptibly();
+    }
+
+    @Override
+    public long getProtocolVersion(String protocol, long clientVersion)
+            throws IOException {
+        return versionID;
+    }
+
+    @Override
+    public void putMsg(I vertexIndex, M msg) throws IOException {
+        sendRequest(RequestType.PUT_MSG, vertexIndex, msg);
+    }
+
+    @Override
+    public void putMsgList(I vertexIndex, MsgList<M> msgList)
+            throws IOException {
+        sendRequest(RequestType.PUT_MSG_LIST, vertexIndex, msgList);
+    }
+
+    @Override
+    public void putMsgBuffer(MsgBuffer<I, M> msgBuffer) throws IOException {
+        sendRequest(RequestType.PUT_MSG_BUFFER, msgBuffer);
+    }
+
+    @Override
+    public void putMutationBuffer(MutationBuffer<I, V, E, M> mutationBuffer)
+            throws IOException {
+        sendRequest(RequestType.PUT_MUTATION_BUFFER, mutationBuffer);
+    }
+
+    @Override
+    public void putVertexChunk(I vertexIndexMax,
+                               VertexChunk<I, V, E, M> vertexChunk)
+            throws IOException {
+        sendRequest(RequestType.PUT_VERTEX_CHUNK, vertexIndexMax, vertexChunk);
+    }
+
+    @Override
+    public void addEdge(I vertexIndex, Edge<I, E> edge) throws IOException {
+        sendRequest(RequestType.ADD_EDGE, vertexIndex, edge);
+    }
+
+    @Override
+    public void removeEdge(I vertexIndex, I destinationVertexIndex)
+            throws IOException {
+        sendRequest(RequestType.REMOVE_EDGE,
+                    vertexIndex, destinationVertexIndex);
+    }
+
+    @Override
+    public void addVertex(MutableVertex<I, V, E, M> vertex)
+            throws IOException {
+        sendRequest(RequestType.ADD_VERTEX, vertex);
+    }
+
+    @Override
+    public void removeVertex(I vertexIndex) throws IOException {
+        sendRequest(RequestType.REMOVE_VERTEX, vertexIndex);
+    }
+
+    @Override
+    public String getName() {
+        return addr.toString();
+    }
+
+    /**
+     * Processes the acknowledgements coming back from the server.
+     */
+    private class AckClientHandler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx,
+                                    MessageEvent e) {
+            ChannelBuffer ack = (ChannelBuffer) e.getMessage();
+            long requestId = ack.readLong();
+            boolean success = ack.readByte() != 0;
+            if (!success) {
+                fail("Request " + requestId + " failed on the server");
+            }
+            synchronized (requestLock) {
+                --outstandingRequests;
+                if (outstandingRequests == 0) {
+                    requestLock.notifyAll();
+                }
+            }
+            requestPermits.release();
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx,
+                                  ChannelStateEvent e) {
+            boolean unexpected = false;
+            synchronized (requestLock) {
+                unexpected = !closing;
+            }
+            if (unexpected) {
+                fail("Channel closed unexpectedly");
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            fail("Caught " + e.getCause());
+            e.getChannel().close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import java.util.concurrent.Executors;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+/**
+ * Communication between workers over Netty (non-blocking I/O with
+ * pipelined requests) instead of Hadoop RPC.  Enabled with
+ * {@link GiraphJob#USE_NETTY}.  Messages to self are still direct calls.
+ */
+@SuppressWarnings("rawtypes")
+public class NettyCommunications<
+        I extends WritableComparable,
+        V extends Writable,
+        E extends Writable,
+        M extends Writable>
+        extends BasicRPCCommunications<I, V, E, M, Object> {
+    /** Netty server (set by startServer() during construction) */
+    private NettyServer<I, V, E, M> nettyServer;
+    /**
+     * Factory shared by the clients to all the peers (created by the first
+     * getRPCProxy() during construction)
+     */
+    private ChannelFactory clientChannelFactory;
+
+    public NettyCommunications(Mapper<?, ?, ?, ?>.Context context,
+                               CentralizedServiceWorker<I, V, E, M> service)
+            throws IOException, UnknownHostException, InterruptedException {
+        super(context, service);
+    }
+
+    @Override
+    protected Object createJobToken() throws IOException {
+        return null;
+    }
+
+    @Override
+    protected void startServer(InetSocketAddress myAddress,
+                               int numHandlers,
+                               String jobId,
+                               Object jobToken) throws IOException {
+        nettyServer = new NettyServer<I, V, E, M>(
+            conf, this, myAddress,
+            conf.getInt(GiraphJob.NETTY_SERVER_THREADS,
+                        GiraphJob.NETTY_SERVER_THREADS_DEFAULT),
+            numHandlers);
+        nettyServer.start();
+    }
+
+    @Override
+    protected void stopServer() {
+        nettyServer.stop();
+    }
+
+    @Override
+    protected synchronized CommunicationsInterface<I, V, E, M> getRPCProxy(
+            InetSocketAddress addr, String jobId, Object jobToken)
+            throws IOException, InterruptedException {
+        if (clientChannelFactory == null) {
+            clientChannelFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(),
+                conf.getInt(GiraphJob.NETTY_CLIENT_THREADS,
+                            GiraphJob.NETTY_CLIENT_THREADS_DEFAULT));
+        }
+        return new NettyClient<I, V, E, M>(
+            clientChannelFactory,
+            addr,
+            conf.getInt(GiraphJob.NETTY_MAX_OUTSTANDING_REQUESTS,
+                        GiraphJob.NETTY_MAX_OUTSTANDING_REQUESTS_DEFAULT));
+    }
+
+    @Override
+    protected void stopProxy(CommunicationsInterface<I, V, E, M> proxy) {
+        ((NettyClient<I, V, E, M>) proxy).close();
+    }
+
+    @Override
+    protected void waitForProxyRequests(
+            CommunicationsInterface<I, V, E, M> proxy) throws IOException {
+        ((NettyClient<I, V, E, M>) proxy).waitAllRequests();
+    }
+
+    @Override
+    public void closeConnections() throws IOException {
+        super.closeConnections();
+        synchronized (this) {
+            if (clientChannelFactory != null) {
+                clientChannelFactory.releaseExternalResources();
+            }
+        }
+    }
+}
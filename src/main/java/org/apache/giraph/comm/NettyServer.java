@@ -0,0 +1,289 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * Netty server that receives the requests sent by {@link NettyClient}
+ * and executes them on a {@link CommunicationsInterface}.  Every request
+ * is a length-prefixed frame holding the request id, the request type and
+ * the serialized arguments.  Each request is acknowledged once it has been
+ * executed.  The requests are executed on handler threads rather than on
+ * the I/O threads, in order within every channel.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class NettyServer<I extends WritableComparable,
+        V extends Writable,
+        E extends Writable,
+        M extends Writable> {
+    /** Class logger */
+    private static final Logger LOG = Logger.getLogger(NettyServer.class);
+    /** Size of an acknowledgement (request id and success flag) */
+    static final int ACK_LENGTH = 9;
+    /** Maximum size of a request frame */
+    static final int MAX_FRAME_LENGTH = Integer.MAX_VALUE;
+
+    /** Type of the request, first byte after the request id */
+    enum RequestType {
+        PUT_MSG,
+        PUT_MSG_LIST,
+        PUT_MSG_BUFFER,
+        PUT_VERTEX_CHUNK,
+        ADD_EDGE,
+        REMOVE_EDGE,
+        ADD_VERTEX,
+        REMOVE_VERTEX,
+        PUT_MUTATION_BUFFER
+    }
+
+    /** Configuration (used to instantiate the arguments) */
+    private final Configuration conf;
+    /** Executes the received requests */
+    private final CommunicationsInterface<I, V, E, M> target;
+    /** Address to bind to */
+    private final InetSocketAddress addr;
+    /** Factory of the server and accepted channels */
+    private final ChannelFactory channelFactory;
+    /**
+     * Hands the requests over from the I/O threads to the handler threads,
+     * keeping the order of the requests of every channel
+     */
+    private final ExecutionHandler executionHandler;
+    /** All the open channels, closed on stop() */
+    private final ChannelGroup channels =
+        new DefaultChannelGroup(NettyServer.class.getName());
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration
+     * @param target Executes the received requests
+     * @param addr Address to bind to
+     * @param numIoThreads Number of I/O threads
+     * @param numHandlerThreads Number of threads executing the requests
+     */
+    public NettyServer(Configuration conf,
+                       CommunicationsInterface<I, V, E, M> target,
+                       InetSocketAddress addr,
+                       int numIoThreads,
+                       int numHandlerThreads) {
+        this.conf = conf;
+        this.target = target;
+        this.addr = addr;
+        this.channelFactory = new NioServerSocketChannelFactory(
+            Executors.newCachedThreadPool(),
+            Executors.newCachedThreadPool(),
+            numIoThreads);
+        // No memory limits, the clients already bound their outstanding
+        // requests
+        this.executionHandler = new ExecutionHandler(
+            new OrderedMemoryAwareThreadPoolExecutor(
+                numHandlerThreads, 0, 0));
+    }
+
+    /**
+     * Bind the server and start accepting requests.
+     */
+    public void start() {
+        ServerBootstrap bootstrap = new ServerBootstrap(channelFactory);
+        bootstrap.setOption("reuseAddress", true);
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("child.keepAlive", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                return Channels.pipeline(
+                    new LengthFieldBasedFrameDecoder(
+                        MAX_FRAME_LENGTH, 0, 4, 0, 4),
+                    executionHandler,
+                    new RequestServerHandler());
+            }
+        });
+        channels.add(bootstrap.bind(addr));
+        if (LOG.isInfoEnabled()) {
+            LOG.info("start: Started Netty server on " + addr);
+        }
+    }
+
+    /**
+     * Close all the channels and release the I/O threads.
+     */
+    public void stop() {
+        if (LOG.isInfoEnabled()) {
+            LOG.info("stop: Stopping Netty server on " + addr);
+        }
+        channels.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+        executionHandler.releaseExternalResources();
+    }
+
+    /**
+     * Deserialize the arguments of a request and execute it on the target.
+     *
+     * @param input Request type and arguments
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private void handleRequest(DataInput input) throws IOException {
+        RequestType type = RequestType.values()[input.readByte()];
+        I vertexIndex = BspUtils.<I>createVertexIndex(conf);
+        if (type != RequestType.PUT_MSG_BUFFER &&
+                type != RequestType.ADD_VERTEX &&
+                type != RequestType.PUT_MUTATION_BUFFER) {
+            vertexIndex.readFields(input);
+        }
+        switch (type) {
+            case PUT_MSG:
+                M msg = BspUtils.<M>createMessageValue(conf);
+                msg.readFields(input);
+                target.putMsg(vertexIndex, msg);
+                break;
+            case PUT_MSG_LIST:
+                MsgList<M> msgList = new MsgList<M>();
+                msgList.setConf(conf);
+                msgList.readFields(input);
+                target.putMsgList(vertexIndex, msgList);
+                break;
+            case PUT_MSG_BUFFER:
+                MsgBuffer<I, M> msgBuffer = new MsgBuffer<I, M>();
+                msgBuffer.setConf(conf);
+                msgBuffer.readFields(input);
+                target.putMsgBuffer(msgBuffer);
+                break;
+            case PUT_VERTEX_CHUNK:
+                VertexChunk<I, V, E, M> vertexChunk =
+                    new VertexChunk<I, V, E, M>();
+                vertexChunk.setConf(conf);
+                vertexChunk.readFields(input);
+                target.putVertexChunk(vertexIndex, vertexChunk);
+                break;
+            case ADD_EDGE:
+                Edge<I, E> edge = new Edge<I, E>();
+                edge.setConf(conf);
+                edge.readFields(input);
+                target.addEdge(vertexIndex, edge);
+                break;
+            case REMOVE_EDGE:
+                I destVertexIndex = BspUtils.<I>createVertexIndex(conf);
+                destVertexIndex.readFields(input);
+                target.removeEdge(vertexIndex, destVertexIndex);
+                break;
+            case ADD_VERTEX:
+                BaseVertex<I, V, E, M> vertex =
+                    BspUtils.<I, V, E, M>createVertex(conf);
+                vertex.readFields(input);
+                target.addVertex(vertex);
+                break;
+            case REMOVE_VERTEX:
+                target.removeVertex(vertexIndex);
+                break;
+            case PUT_MUTATION_BUFFER:
+                MutationBuffer<I, V, E, M> mutationBuffer =
+                    new MutationBuffer<I, V, E, M>();
+                mutationBuffer.setConf(conf);
+                mutationBuffer.readFields(input);
+                target.putMutationBuffer(mutationBuffer);
+                break;
+            default:
+                throw new IllegalStateException(
+                    "handleRequest: Unknown request type " + type);
+        }
+    }
+
+    /**
+     * Executes every request frame and writes back its acknowledgement
+     * (runs on the handler threads, not on the I/O threads).
+     */
+    private class RequestServerHandler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx,
+                                ChannelStateEvent e) {
+            channels.add(e.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx,
+                                    MessageEvent e) throws IOException {
+            ChannelBufferInputStream input = new ChannelBufferInputStream(
+                (ChannelBuffer) e.getMessage());
+            long requestId = input.readLong();
+            boolean success = true;
+            try {
+                handleRequest(input);
+            } catch (IOException ex) {
+                LOG.error("messageReceived: Request " + requestId +
+                          " failed", ex);
+                success = false;
+            } catch (RuntimeException ex) {
+                LOG.error("messageReceived: Request " + requestId +
+                          " failed", ex);
+                success = false;
+            }
+            ChannelBuffer ack = ChannelBuffers.buffer(ACK_LENGTH);
+            ack.writeLong(requestId);
+            ack.writeByte(success ? 1 : 0);
+            e.getChannel().write(ack);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            LOG.error("exceptionCaught: Closing channel " + e.getChannel(),
+                      e.getCause());
+            e.getChannel().close();
+        }
+    }
+}
@@ -55,6 +55,8 @@ public class RPCCommunications<
 
     /** Class logger */
     public static final Logger LOG = Logger.getLogger(RPCCommunications.class);
+    /** RPC server (set by startServer() during construction) */
+    private Server server;
 
     public RPCCommunications(Mapper<?, ?, ?, ?>.Context context,
                              CentralizedServiceWorker<I, V, E, M> service)
@@ -73,7 +75,7 @@ public class RPCCommunications<
         return null;
     }
 
-    protected Server getRPCServer(
+    protected void startServer(
             InetSocketAddress myAddress, int numHandlers, String jobId,
             Token<JobTokenIdentifier> jt) throws IOException {
         @SuppressWarnings("deprecation")
@@ -89,11 +91,21 @@ public class RPCCommunications<
         if (jt != null) { //could be null in the case of some unit tests
             jobTokenSecretManager.addTokenForJob(jobId, jt);
             if (LOG.isInfoEnabled()) {
-                LOG.info("getRPCServer: Added jobToken " + jt);
+                LOG.info("startServer: Added jobToken " + jt);
             }
         }
-        return RPC.getServer(this, myAddress.getHostName(), myAddress.getPort(),
-                numHandlers, false, conf, jobTokenSecretManager);
+        server = RPC.getServer(this, myAddress.getHostName(),
+                myAddress.getPort(), numHandlers, false, conf,
+                jobTokenSecretManager);
+        server.start();
+    }
+
+    protected void stopServer() {
+        server.stop();
+    }
+
+    protected void stopProxy(CommunicationsInterface<I, V, E, M> proxy) {
+        RPC.stopProxy(proxy);
     }
 
     protected CommunicationsInterface<I, V, E, M> getRPCProxy(
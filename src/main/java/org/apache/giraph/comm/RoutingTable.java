@@ -0,0 +1,115 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+
+import org.apache.giraph.graph.BspUtils;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Immutable map of the vertex indices to the peer that owns them during a
+ * superstep.  It is built once the vertex ranges of the superstep are
+ * known, so that the destination of a request can be looked up by any
+ * thread without locking.
+ *
+ * @param <I> Vertex index value
+ * @param <P> Peer
+ */
+@SuppressWarnings("rawtypes")
+public class RoutingTable<I extends WritableComparable, P> {
+    /** Superstep the table was built for */
+    private final long superstep;
+    /** Sorted max indices of the vertex ranges */
+    private final Object[] maxIndices;
+    /** Peer of the vertex range with the same position in maxIndices */
+    private final Object[] rangePeers;
+    /** Peer indexed by hash partition id (null if not hash partitioned) */
+    private final Object[] hashPartitionPeers;
+
+    /**
+     * Constructor.
+     *
+     * @param superstep Superstep the table is built for
+     * @param rangePeerMap Max index of every vertex range to its peer
+     * @param hashPartitionPeers Peer of every hash partition, null if the
+     *        vertices are not hash partitioned
+     */
+    public RoutingTable(long superstep,
+                        NavigableMap<I, P> rangePeerMap,
+                        List<P> hashPartitionPeers) {
+        if (rangePeerMap.isEmpty()) {
+            throw new IllegalArgumentException(
+                "RoutingTable: No vertex ranges for superstep " + superstep);
+        }
+        this.superstep = superstep;
+        maxIndices = new Object[rangePeerMap.size()];
+        rangePeers = new Object[rangePeerMap.size()];
+        int i = 0;
+        for (Entry<I, P> entry : rangePeerMap.entrySet()) {
+            maxIndices[i] = entry.getKey();
+            rangePeers[i] = entry.getValue();
+            ++i;
+        }
+        if (hashPartitionPeers == null) {
+            this.hashPartitionPeers = null;
+        } else {
+            this.hashPartitionPeers = hashPartitionPeers.toArray();
+        }
+    }
+
+    /**
+     * Get the superstep the table was built for.
+     *
+     * @return Superstep
+     */
+    public long getSuperstep() {
+        return superstep;
+    }
+
+    /**
+     * Get the peer owning a vertex index.  Without hash partitioning, it is
+     * the peer of the vertex range with the smallest max index greater
+     * than or equal to the vertex index, or of the last vertex range if
+     * there is none.
+     *
+     * @param vertexIndex Vertex index to look up
+     * @return Owning peer
+     */
+    @SuppressWarnings("unchecked")
+    public P getPeer(I vertexIndex) {
+        if (hashPartitionPeers != null) {
+            return (P) hashPartitionPeers[BspUtils.getHashPartitionId(
+                vertexIndex, hashPartitionPeers.length)];
+        }
+        int low = 0;
+        int high = maxIndices.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (((I) maxIndices[mid]).compareTo(vertexIndex) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (P) rangePeers[low];
+    }
+}
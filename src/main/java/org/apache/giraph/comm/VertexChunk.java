@@ -0,0 +1,141 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.SortedMap;
+
+import org.apache.giraph.graph.BaseVertex;
+import org.apache.giraph.graph.BasicVertex;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.giraph.graph.CsrEdgeStore;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Pre-serialized chunk of the vertices of a vertex range moving to another
+ * worker.  The vertices are serialized as they are added, so that a vertex
+ * range is shipped in chunks of bounded size without copying it into a
+ * list first, and the receiver deserializes them straight into its vertex
+ * map.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class VertexChunk<I extends WritableComparable,
+                         V extends Writable,
+                         E extends Writable,
+                         M extends Writable>
+        implements Writable, Configurable {
+    /** Configuration (used to instantiate the vertices) */
+    private Configuration conf;
+    /** Number of vertices in the chunk */
+    private int numVertices = 0;
+    /** Serialized vertices */
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+    /**
+     * Default constructor for reflection
+     */
+    public VertexChunk() {}
+
+    /**
+     * Serialize a vertex into the chunk.
+     *
+     * @param vertex Vertex to add
+     * @throws IOException
+     */
+    public void addVertex(BasicVertex<I, V, E, M> vertex) throws IOException {
+        ((BaseVertex<I, V, E, M>) vertex).write(buffer);
+        ++numVertices;
+    }
+
+    /**
+     * Get the number of vertices in the chunk.
+     *
+     * @return Number of vertices
+     */
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    /**
+     * Get the number of serialized bytes in the chunk.
+     *
+     * @return Size of the chunk in bytes
+     */
+    public int getSize() {
+        return buffer.getLength();
+    }
+
+    /**
+     * Deserialize all the vertices of the chunk into a vertex map.
+     *
+     * @param vertexMap Map receiving the vertices (keyed by index)
+     * @param edgeStore Store shared by all the chunks of the vertex range
+     *        (trimmed by the caller after the last one), can be null
+     * @throws IOException
+     */
+    public void readVertices(SortedMap<I, BasicVertex<I, V, E, M>> vertexMap,
+                             CsrEdgeStore<I, E> edgeStore)
+            throws IOException {
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(buffer.getData(), buffer.getLength());
+        for (int i = 0; i < numVertices; ++i) {
+            BaseVertex<I, V, E, M> vertex =
+                BspUtils.<I, V, E, M>readVertex(conf, input, edgeStore);
+            if (vertexMap.put(vertex.getVertexId(), vertex) != null) {
+                throw new IllegalStateException(
+                    "readVertices: Vertex " + vertex.getVertexId() +
+                    " already exists!");
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        numVertices = in.readInt();
+        CompressedPayload.get(conf).read(in, buffer);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(numVertices);
+        CompressedPayload.get(conf).write(buffer, out);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+}
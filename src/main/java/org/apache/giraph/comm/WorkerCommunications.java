@@ -19,11 +19,11 @@
 package org.apache.giraph.comm;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
+import java.util.SortedMap;
 
 import org.apache.giraph.graph.Edge;
-import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.MutableVertex;
 import org.apache.giraph.graph.BasicVertex;
 import org.apache.hadoop.io.Writable;
@@ -58,13 +58,31 @@ public interface WorkerCommunications<I extends WritableComparable,
     void sendMessageReq(I id, M msg);
 
     /**
-     * Sends a list of vertices to the appropriate vertex range owner
+     * Sends the same message to several destination vertices.  The message
+     * is serialized once per destination worker.
+     *
+     * @param ids Destination vertex indices
+     * @param msg Message to send
+     */
+    void sendMessageToAllReq(Iterable<I> ids, M msg);
+
+    /**
+     * Sends the vertices of a vertex range to the appropriate vertex range
+     * owner.  The vertices are serialized in chunks of bounded size before
+     * returning, the chunks are sent in the background until
+     * flushVertexRangeReqs().
      *
      * @param vertexIndexMax Vertex range that the vertices belong to
-     * @param vertexList List of vertices assigned to the vertexRangeIndex
+     * @param vertices Vertices assigned to the vertexRangeIndex
+     */
+    void sendVertexRangeReq(I vertexIndexMax,
+                            Collection<BasicVertex<I, V, E, M>> vertices);
+
+    /**
+     * Wait until all the vertices sent by sendVertexRangeReq() were
+     * received.
      */
-    void sendVertexListReq(I vertexIndexMax,
-                           List<BasicVertex<I, V, E, M>> vertexList);
+    void flushVertexRangeReqs();
 
     /**
      * Sends a request to the appropriate vertex range owner to add an edge
@@ -106,7 +124,7 @@ public interface WorkerCommunications<I extends WritableComparable,
      * the map, the user should synchronize with it to insure it
      * is thread-safe.
      *
-     * @return map of vertex ranges to vertices
+     * @return map of vertex ranges to vertices (keyed by index)
      */
-    Map<I, List<Vertex<I, V, E, M>>> getInVertexRangeMap();
+    Map<I, SortedMap<I, BasicVertex<I, V, E, M>>> getInVertexRangeMap();
 }
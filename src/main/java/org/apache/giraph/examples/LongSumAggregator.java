@@ -29,19 +29,19 @@ public class LongSumAggregator implements Aggregator<LongWritable> {
 
   private long sum = 0;
 
-  public void aggregate(long value) {
+  public synchronized void aggregate(long value) {
       sum += value;
   }
 
-  public void aggregate(LongWritable value) {
+  public synchronized void aggregate(LongWritable value) {
       sum += value.get();
   }
 
-  public void setAggregatedValue(LongWritable value) {
+  public synchronized void setAggregatedValue(LongWritable value) {
       sum = value.get();
   }
 
-  public LongWritable getAggregatedValue() {
+  public synchronized LongWritable getAggregatedValue() {
       return new LongWritable(sum);
   }
 
@@ -31,18 +31,18 @@ public class MaxAggregator implements Aggregator<DoubleWritable> {
 
   private double max = Double.MIN_VALUE;
 
-  public void aggregate(DoubleWritable value) {
+  public synchronized void aggregate(DoubleWritable value) {
       double val = value.get();
       if (val > max) {
           max = val;
       }
   }
 
-  public void setAggregatedValue(DoubleWritable value) {
+  public synchronized void setAggregatedValue(DoubleWritable value) {
       max = value.get();
   }
 
-  public DoubleWritable getAggregatedValue() {
+  public synchronized DoubleWritable getAggregatedValue() {
       return new DoubleWritable(max);
   }
 
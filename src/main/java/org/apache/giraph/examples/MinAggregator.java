@@ -31,18 +31,18 @@ public class MinAggregator implements Aggregator<DoubleWritable> {
 
   private double min = Double.MAX_VALUE;
 
-  public void aggregate(DoubleWritable value) {
+  public synchronized void aggregate(DoubleWritable value) {
       double val = value.get();
       if (val < min) {
           min = val;
       }   
   }
 
-  public void setAggregatedValue(DoubleWritable value) {
+  public synchronized void setAggregatedValue(DoubleWritable value) {
       min = value.get();
   }
 
-  public DoubleWritable getAggregatedValue() {
+  public synchronized DoubleWritable getAggregatedValue() {
       return new DoubleWritable(min);
   }
 
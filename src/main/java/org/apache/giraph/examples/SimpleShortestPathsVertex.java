@@ -40,8 +40,8 @@ import org.apache.log4j.Logger;
 import org.apache.giraph.graph.BasicVertex;
 import org.apache.giraph.graph.Edge;
 import org.apache.giraph.graph.GiraphJob;
+import org.apache.giraph.graph.LongDoubleFloatDoubleVertex;
 import org.apache.giraph.graph.MutableVertex;
-import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexReader;
 import org.apache.giraph.graph.VertexWriter;
 import org.apache.giraph.lib.TextVertexInputFormat;
@@ -54,8 +54,7 @@ import org.json.JSONException;
 /**
  * Demonstrates the basic Pregel shortest paths implementation.
  */
-public class SimpleShortestPathsVertex extends
-        Vertex<LongWritable, DoubleWritable, FloatWritable, DoubleWritable>
+public class SimpleShortestPathsVertex extends LongDoubleFloatDoubleVertex
         implements Tool {
     /** Configuration */
     private Configuration conf;
@@ -30,19 +30,19 @@ public class SumAggregator implements Aggregator<DoubleWritable> {
 
   private double sum = 0;
 
-  public void aggregate(double value) {
+  public synchronized void aggregate(double value) {
       sum += value;
   }
 
-  public void aggregate(DoubleWritable value) {
+  public synchronized void aggregate(DoubleWritable value) {
       sum += value.get();
   }
 
-  public void setAggregatedValue(DoubleWritable value) {
+  public synchronized void setAggregatedValue(DoubleWritable value) {
       sum = value.get();
   }
 
-  public DoubleWritable getAggregatedValue() {
+  public synchronized DoubleWritable getAggregatedValue() {
       return new DoubleWritable(sum);
   }
 
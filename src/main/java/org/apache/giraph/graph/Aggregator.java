@@ -29,7 +29,9 @@ import org.apache.hadoop.io.Writable;
 public interface Aggregator<A extends Writable> {
     /**
      * Add a new value.
-     * Needs to be commutative and associative
+     * Needs to be commutative and associative.  Must be thread-safe if
+     * more than one compute thread is used
+     * (see {@link GiraphJob#NUM_COMPUTE_THREADS}).
      *
      * @param value
      */
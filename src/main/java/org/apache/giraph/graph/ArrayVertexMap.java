@@ -0,0 +1,561 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * {@link SortedMap} of the vertices of a {@link VertexRange} kept in
+ * arrays sorted by vertex index, with an open addressing hash index of the
+ * vertex indices for constant time lookups.
+ * <p>
+ * Vertices put in increasing index order (as when loading, reloading or
+ * receiving a vertex range) are appended.  Vertices put out of order and
+ * removals only update the hash index and leave the arrays unsorted, so
+ * that the mutations of a superstep cost a single sort when the map is
+ * next iterated or {@link #rebuild()} is called.  The sub map views are
+ * read-only copies.  Not thread-safe for writes, like a {@link TreeMap}.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class ArrayVertexMap<I extends WritableComparable,
+                            V extends Writable,
+                            E extends Writable,
+                            M extends Writable>
+        extends AbstractMap<I, BasicVertex<I, V, E, M>>
+        implements SortedMap<I, BasicVertex<I, V, E, M>> {
+    /** Initial number of slots */
+    private static final int INITIAL_CAPACITY = 16;
+    /** Hash index entry that was never used */
+    private static final int EMPTY = 0;
+    /** Hash index entry of a removed vertex */
+    private static final int REMOVED = -1;
+    /** Vertex index of every slot (null if removed) */
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    /** Vertex of every slot (null if removed) */
+    private Object[] vertices = new Object[INITIAL_CAPACITY];
+    /** Number of slots used, including the removed ones */
+    private int numSlots = 0;
+    /** Number of vertices */
+    private int size = 0;
+    /** Hash index of the vertex indices (slot + 1, EMPTY or REMOVED) */
+    private int[] table = new int[2 * INITIAL_CAPACITY];
+    /** Number of REMOVED hash index entries */
+    private int numRemovedEntries = 0;
+    /** The slots are sorted by vertex index and none is removed */
+    private volatile boolean ordered = true;
+
+    /**
+     * Get the first hash index entry to probe for a vertex index.
+     *
+     * @param key Vertex index
+     * @param tableLength Length of the hash index (a power of 2)
+     * @return Position in the hash index
+     */
+    private static int hashPosition(Object key, int tableLength) {
+        // Spread sequential hash codes (i.e. of LongWritable indices)
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (tableLength - 1);
+    }
+
+    /**
+     * Find the hash index entry of a vertex index.
+     *
+     * @param key Vertex index
+     * @return Position of the entry in the hash index, -1 if not found
+     */
+    private int findEntry(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        int position = hashPosition(key, table.length);
+        while (true) {
+            int entry = table[position];
+            if (entry == EMPTY) {
+                return -1;
+            } else if (entry != REMOVED && keys[entry - 1].equals(key)) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+    }
+
+    /**
+     * Add a slot to the hash index (must not be in it already).
+     *
+     * @param slot Slot of the vertex
+     */
+    private void addEntry(int slot) {
+        int mask = table.length - 1;
+        int position = hashPosition(keys[slot], table.length);
+        while (table[position] > 0) {
+            position = (position + 1) & mask;
+        }
+        if (table[position] == REMOVED) {
+            --numRemovedEntries;
+        }
+        table[position] = slot + 1;
+    }
+
+    /**
+     * Rebuild the hash index from the slots, with room for at least the
+     * given number of vertices.
+     *
+     * @param capacity Number of vertices to make room for
+     */
+    private void rebuildTable(int capacity) {
+        int tableLength = 2 * INITIAL_CAPACITY;
+        while (tableLength < 2 * capacity) {
+            tableLength *= 2;
+        }
+        table = new int[tableLength];
+        numRemovedEntries = 0;
+        for (int slot = 0; slot < numSlots; ++slot) {
+            if (keys[slot] != null) {
+                addEntry(slot);
+            }
+        }
+    }
+
+    /**
+     * Make room for more slots.
+     *
+     * @param capacity Number of slots needed
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newLength = Math.max(capacity, keys.length * 2);
+            keys = Arrays.copyOf(keys, newLength);
+            vertices = Arrays.copyOf(vertices, newLength);
+        }
+        // Keep the hash index at most half full (removed entries included)
+        if (2 * (capacity + numRemovedEntries) > table.length) {
+            rebuildTable(capacity);
+        }
+    }
+
+    /**
+     * Sort the slots by vertex index and drop the removed ones.  Called
+     * after the mutations of a superstep were resolved, otherwise done the
+     * next time the map is iterated.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void rebuild() {
+        if (ordered) {
+            return;
+        }
+        Integer[] liveSlots = new Integer[size];
+        int index = 0;
+        for (int slot = 0; slot < numSlots; ++slot) {
+            if (keys[slot] != null) {
+                liveSlots[index++] = slot;
+            }
+        }
+        Arrays.sort(liveSlots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer slot1, Integer slot2) {
+                return ((Comparable) keys[slot1]).compareTo(keys[slot2]);
+            }
+        });
+        int capacity = Math.max(INITIAL_CAPACITY, size);
+        Object[] sortedKeys = new Object[capacity];
+        Object[] sortedVertices = new Object[capacity];
+        for (index = 0; index < size; ++index) {
+            sortedKeys[index] = keys[liveSlots[index]];
+            sortedVertices[index] = vertices[liveSlots[index]];
+        }
+        keys = sortedKeys;
+        vertices = sortedVertices;
+        numSlots = size;
+        rebuildTable(size);
+        ordered = true;
+    }
+
+    /**
+     * Get the position of a vertex in vertex index order.  It can be used
+     * as an index local to the vertex range until the next put of a new
+     * vertex or removal.
+     *
+     * @param key Vertex index
+     * @return Position of the vertex, -1 if not found
+     */
+    public int indexOf(Object key) {
+        if (!ordered) {
+            rebuild();
+        }
+        int position = findEntry(key);
+        return (position < 0) ? -1 : table[position] - 1;
+    }
+
+    /**
+     * Get the vertex at a position in vertex index order.
+     *
+     * @param index Position of the vertex (see {@link #indexOf(Object)})
+     * @return Vertex at the position
+     */
+    @SuppressWarnings("unchecked")
+    public BasicVertex<I, V, E, M> getVertexAt(int index) {
+        if (!ordered) {
+            rebuild();
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                "getVertexAt: Invalid position " + index + ", only have " +
+                size + " vertices");
+        }
+        return (BasicVertex<I, V, E, M>) vertices[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findEntry(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public BasicVertex<I, V, E, M> get(Object key) {
+        int position = findEntry(key);
+        if (position < 0) {
+            return null;
+        }
+        return (BasicVertex<I, V, E, M>) vertices[table[position] - 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public BasicVertex<I, V, E, M> put(I key, BasicVertex<I, V, E, M> vertex) {
+        int position = findEntry(key);
+        if (position >= 0) {
+            int slot = table[position] - 1;
+            BasicVertex<I, V, E, M> previous =
+                (BasicVertex<I, V, E, M>) vertices[slot];
+            vertices[slot] = vertex;
+            return previous;
+        }
+        ensureCapacity(numSlots + 1);
+        if (ordered && numSlots > 0 &&
+                ((Comparable) keys[numSlots - 1]).compareTo(key) > 0) {
+            ordered = false;
+        }
+        keys[numSlots] = key;
+        vertices[numSlots] = vertex;
+        addEntry(numSlots);
+        ++numSlots;
+        ++size;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends I, ? extends BasicVertex<I, V, E, M>> m) {
+        ensureCapacity(numSlots + m.size());
+        super.putAll(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public BasicVertex<I, V, E, M> remove(Object key) {
+        int position = findEntry(key);
+        if (position < 0) {
+            return null;
+        }
+        int slot = table[position] - 1;
+        BasicVertex<I, V, E, M> previous =
+            (BasicVertex<I, V, E, M>) vertices[slot];
+        table[position] = REMOVED;
+        ++numRemovedEntries;
+        keys[slot] = null;
+        vertices[slot] = null;
+        --size;
+        if (slot == numSlots - 1) {
+            --numSlots;
+        } else {
+            ordered = false;
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        keys = new Object[INITIAL_CAPACITY];
+        vertices = new Object[INITIAL_CAPACITY];
+        numSlots = 0;
+        size = 0;
+        table = new int[2 * INITIAL_CAPACITY];
+        numRemovedEntries = 0;
+        ordered = true;
+    }
+
+    /**
+     * Iterator over the slots in vertex index order.
+     *
+     * @param <T> Type of the iterated elements
+     */
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        /** Next slot to check */
+        private int nextSlot = 0;
+        /** Slot returned by the last next() */
+        private int lastSlot = -1;
+
+        /**
+         * Constructor.
+         */
+        public SlotIterator() {
+            rebuild();
+        }
+
+        /**
+         * Get the element of a slot.
+         *
+         * @param slot Slot
+         * @return Element
+         */
+        protected abstract T get(int slot);
+
+        @Override
+        public boolean hasNext() {
+            while (nextSlot < numSlots && keys[nextSlot] == null) {
+                ++nextSlot;
+            }
+            return nextSlot < numSlots;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("next: No more vertices");
+            }
+            lastSlot = nextSlot++;
+            return get(lastSlot);
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot < 0 || keys[lastSlot] == null) {
+                throw new IllegalStateException(
+                    "remove: next() was not called");
+            }
+            ArrayVertexMap.this.remove(keys[lastSlot]);
+        }
+    }
+
+    /**
+     * Entry of a slot, setValue() replaces its vertex.
+     */
+    private class SlotEntry implements Map.Entry<I, BasicVertex<I, V, E, M>> {
+        /** Slot of the entry */
+        private final int slot;
+
+        /**
+         * Constructor.
+         *
+         * @param slot Slot of the entry
+         */
+        public SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public I getKey() {
+            return (I) keys[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public BasicVertex<I, V, E, M> getValue() {
+            return (BasicVertex<I, V, E, M>) vertices[slot];
+        }
+
+        @Override
+        public BasicVertex<I, V, E, M> setValue(
+                BasicVertex<I, V, E, M> vertex) {
+            BasicVertex<I, V, E, M> previous = getValue();
+            vertices[slot] = vertex;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry other = (Map.Entry) o;
+            return getKey().equals(other.getKey()) &&
+                (getValue() == null ? other.getValue() == null :
+                    getValue().equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^
+                (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<I, BasicVertex<I, V, E, M>>> entrySet() {
+        return new AbstractSet<Map.Entry<I, BasicVertex<I, V, E, M>>>() {
+            @Override
+            public Iterator<Map.Entry<I, BasicVertex<I, V, E, M>>>
+                    iterator() {
+                return new SlotIterator<
+                        Map.Entry<I, BasicVertex<I, V, E, M>>>() {
+                    @Override
+                    protected Map.Entry<I, BasicVertex<I, V, E, M>> get(
+                            int slot) {
+                        return new SlotEntry(slot);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<I> keySet() {
+        return new AbstractSet<I>() {
+            @Override
+            public Iterator<I> iterator() {
+                return new SlotIterator<I>() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    protected I get(int slot) {
+                        return (I) keys[slot];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Collection<BasicVertex<I, V, E, M>> values() {
+        return new AbstractCollection<BasicVertex<I, V, E, M>>() {
+            @Override
+            public Iterator<BasicVertex<I, V, E, M>> iterator() {
+                return new SlotIterator<BasicVertex<I, V, E, M>>() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    protected BasicVertex<I, V, E, M> get(int slot) {
+                        return (BasicVertex<I, V, E, M>) vertices[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super I> comparator() {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public I firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("firstKey: No vertices");
+        }
+        rebuild();
+        return (I) keys[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public I lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("lastKey: No vertices");
+        }
+        rebuild();
+        return (I) keys[numSlots - 1];
+    }
+
+    /**
+     * Copy the vertices to a read-only sorted map, for the sub map views
+     * (which are rarely used).
+     *
+     * @return Read-only copy of the vertices
+     */
+    private SortedMap<I, BasicVertex<I, V, E, M>> copyAll() {
+        return Collections.unmodifiableSortedMap(
+            new TreeMap<I, BasicVertex<I, V, E, M>>(this));
+    }
+
+    @Override
+    public SortedMap<I, BasicVertex<I, V, E, M>> subMap(I fromKey, I toKey) {
+        return copyAll().subMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<I, BasicVertex<I, V, E, M>> headMap(I toKey) {
+        return copyAll().headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<I, BasicVertex<I, V, E, M>> tailMap(I fromKey) {
+        return copyAll().tailMap(fromKey);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Common state and behavior of all the vertex implementations, independent
+ * of how the vertex id, value, edges and messages are stored.  Users
+ * should subclass {@link Vertex} (or a specialized implementation such as
+ * {@link LongDoubleFloatDoubleVertex}) rather than this class.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public abstract class BaseVertex<
+        I extends WritableComparable,
+        V extends Writable,
+        E extends Writable,
+        M extends Writable>
+        implements MutableVertex<I, V, E, M> {
+    /**
+     * State of the worker the vertices belong to.  Several workers may run
+     * in the same JVM (i.e. {@link InProcessGraphRunner}), so it is kept
+     * per thread and inherited by the threads a worker starts (compute
+     * threads, communication threads).
+     */
+    private static final InheritableThreadLocal<WorkerState> workerState =
+        new InheritableThreadLocal<WorkerState>() {
+            @Override
+            protected WorkerState initialValue() {
+                return new WorkerState();
+            }
+        };
+    /** If true, do not do anymore computation on this vertex. */
+    boolean halt = false;
+
+    /**
+     * Worker-wide state shared by all the vertices of a worker.
+     */
+    private static class WorkerState {
+        /** Worker-wide superstep */
+        private volatile long superstep = 0;
+        /** Worker-wide number of vertices */
+        private volatile long numVertices = -1;
+        /** Worker-wide number of edges */
+        private volatile long numEdges = -1;
+        /** Worker-wide map context */
+        private volatile Mapper.Context context = null;
+        /** Worker-wide BSP Mapper for this Vertex */
+        private volatile GraphMapper<?, ? ,?, ?> graphMapper = null;
+    }
+
+    @Override
+    public void preApplication()
+            throws InstantiationException, IllegalAccessException {
+        // Do nothing, might be overriden by the user
+    }
+
+    @Override
+    public void postApplication() {
+        // Do nothing, might be overriden by the user
+    }
+
+    @Override
+    public void preSuperstep() {
+        // Do nothing, might be overriden by the user
+    }
+
+    @Override
+    public void postSuperstep() {
+        // Do nothing, might be overriden by the user
+    }
+
+    /**
+     * Set the GraphMapper for this vertex (internal use).  Starts a new
+     * worker state for the calling thread and the threads it will start.
+     *
+     * @param graphMapper Mapper to use for communication
+     */
+    final static <I extends WritableComparable,
+            V extends Writable, E extends Writable,
+            M extends Writable> void
+            setGraphMapper(GraphMapper<I, V, E, M> graphMapper) {
+        WorkerState state = new WorkerState();
+        state.graphMapper = graphMapper;
+        workerState.set(state);
+    }
+
+    /**
+     * Get the GraphMapper of the worker of this vertex.
+     *
+     * @return Mapper to use for communication
+     */
+    private static GraphMapper<?, ?, ?, ?> getGraphMapper() {
+        return workerState.get().graphMapper;
+    }
+
+    /**
+     * Set the global superstep for all the vertices (internal use)
+     *
+     * @param superstep New superstep
+     */
+    static void setSuperstep(long superstep) {
+        workerState.get().superstep = superstep;
+    }
+
+    @Override
+    public final long getSuperstep() {
+        return workerState.get().superstep;
+    }
+
+    /**
+     * Set the total number of vertices from the last superstep.
+     *
+     * @param numVertices Aggregate vertices in the last superstep
+     */
+    static void setNumVertices(long numVertices) {
+        workerState.get().numVertices = numVertices;
+    }
+
+    @Override
+    public final long getNumVertices() {
+        return workerState.get().numVertices;
+    }
+
+    /**
+     * Set the total number of edges from the last superstep.
+     *
+     * @param numEdges Aggregate edges in the last superstep
+     */
+    static void setNumEdges(long numEdges) {
+        workerState.get().numEdges = numEdges;
+    }
+
+    @Override
+    public final long getNumEdges() {
+        return workerState.get().numEdges;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void sendMsg(I id, M msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "sendMsg: Cannot send null message to " + id);
+        }
+        GraphMapper<I, V, E, M> graphMapper =
+            (GraphMapper<I, V, E, M>) getGraphMapper();
+        if (!graphMapper.deliverLocalMsg(id, msg)) {
+            graphMapper.getWorkerCommunications().sendMessageReq(id, msg);
+        }
+    }
+
+    /**
+     * Send a message to several vertices.  The message is serialized only
+     * once for all the vertices owned by the same worker.
+     *
+     * @param ids Destination vertex indices
+     * @param msg Message to send
+     */
+    @SuppressWarnings("unchecked")
+    final void sendMsgToAll(Iterable<I> ids, M msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "sendMsgToAll: Cannot send null message to " + ids);
+        }
+        ((GraphMapper<I, V, E, M>) getGraphMapper()).
+            getWorkerCommunications().sendMessageToAllReq(ids, msg);
+    }
+
+    @Override
+    public MutableVertex<I, V, E, M> instantiateVertex() {
+        BaseVertex<I, V, E, M> mutableVertex =
+            BspUtils.<I, V, E, M>createVertex(getContext().getConfiguration());
+        return mutableVertex;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void addVertexRequest(MutableVertex<I, V, E, M> vertex)
+            throws IOException {
+        ((GraphMapper<I, V, E, M>) getGraphMapper()).
+            getWorkerCommunications().addVertexReq(vertex);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void removeVertexRequest(I vertexId) throws IOException {
+        ((GraphMapper<I, V, E, M>) getGraphMapper()).
+            getWorkerCommunications().removeVertexReq(vertexId);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void addEdgeRequest(I vertexIndex,
+                               Edge<I, E> edge) throws IOException {
+        ((GraphMapper<I, V, E, M>) getGraphMapper()).
+            getWorkerCommunications().addEdgeReq(vertexIndex, edge);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void removeEdgeRequest(I sourceVertexId,
+                                  I destVertexId) throws IOException {
+        ((GraphMapper<I, V, E, M>) getGraphMapper()).
+            getWorkerCommunications().removeEdgeReq(sourceVertexId,
+                                                    destVertexId);
+    }
+
+    @Override
+    public final void voteToHalt() {
+        halt = true;
+    }
+
+    @Override
+    public final boolean isHalted() {
+        return halt;
+    }
+
+    @Override
+    public final <A extends Writable> Aggregator<A> registerAggregator(
+            String name,
+            Class<? extends Aggregator<A>> aggregatorClass)
+            throws InstantiationException, IllegalAccessException {
+        return getGraphMapper().getAggregatorUsage().registerAggregator(
+            name, aggregatorClass);
+    }
+
+    @Override
+    public final Aggregator<? extends Writable> getAggregator(String name) {
+        return getGraphMapper().getAggregatorUsage().getAggregator(name);
+    }
+
+    @Override
+    public final boolean useAggregator(String name) {
+        return getGraphMapper().getAggregatorUsage().useAggregator(name);
+    }
+
+    public final Mapper<?, ?, ?, ?>.Context getContext() {
+        return workerState.get().context;
+    }
+
+    final static void setContext(Mapper<?, ?, ?, ?>.Context context) {
+        workerState.get().context = context;
+    }
+
+    @Override
+    public String toString() {
+        return "Vertex(id=" + getVertexId() + ",value=" + getVertexValue() +
+            ",#edges=" + getOutEdgeMap().size() + ")";
+    }
+}
@@ -32,6 +32,7 @@ import java.net.UnknownHostException;
 
 import org.apache.log4j.Logger;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
@@ -126,7 +127,7 @@ public abstract class BspService <
     /** File system */
     private final FileSystem fs;
     /** Used to call pre/post application/superstep methods */
-    private final Vertex<I, V, E, M> representativeVertex;
+    private final BaseVertex<I, V, E, M> representativeVertex;
     /** Checkpoint frequency */
     private int checkpointFrequency = -1;
     /** Vertex range map based on the superstep below */
@@ -184,6 +185,7 @@ public abstract class BspService <
     public static final String JSONOBJ_HOSTNAME_ID_KEY = "_hostnameIdKey";
     public static final String JSONOBJ_MAX_VERTEX_INDEX_KEY =
         "_maxVertexIndexKey";
+    public static final String JSONOBJ_PARTITION_ID_KEY = "_partitionIdKey";
     public static final String JSONOBJ_HOSTNAME_KEY = "_hostnameKey";
     public static final String JSONOBJ_PORT_KEY = "_portKey";
     public static final String JSONOBJ_CHECKPOINT_FILE_PREFIX_KEY =
@@ -388,6 +390,40 @@ public abstract class BspService <
     /** If at the end of a checkpoint file, indicates metadata */
     public final String CHECKPOINT_METADATA_POSTFIX = ".metadata";
 
+    /**
+     * Version of the checkpoint metadata layout, written negated before the
+     * vertex range count.  Version 1 had no marker (the file started with
+     * the count) and no hash partition id per vertex range.
+     */
+    public static final int CHECKPOINT_METADATA_VERSION = 2;
+
+    /**
+     * Read the version of a checkpoint metadata file and leave the stream
+     * at the vertex range count.
+     *
+     * @param metadataStream Stream at the beginning of the metadata file
+     * @param metadataPath Path of the metadata file (for errors)
+     * @return Version of the layout of the file
+     * @throws IOException
+     */
+    public static int readCheckpointMetadataVersion(
+            FSDataInputStream metadataStream,
+            Path metadataPath) throws IOException {
+        long marker = metadataStream.readLong();
+        if (marker >= 0) {
+            // Version 1, the marker was the vertex range count
+            metadataStream.seek(0);
+            return 1;
+        }
+        if (marker != -CHECKPOINT_METADATA_VERSION) {
+            throw new IllegalStateException(
+                "readCheckpointMetadataVersion: Unknown version " +
+                -marker + " of " + metadataPath + ", only versions 1 to " +
+                CHECKPOINT_METADATA_VERSION + " are supported");
+        }
+        return CHECKPOINT_METADATA_VERSION;
+    }
+
     /**
      * If at the end of a checkpoint file, indicates vertices, edges,
      * messages, etc.
@@ -891,10 +927,8 @@ public abstract class BspService <
             if (!vertexRangeMap.containsKey(entry.getKey())) {
                 continue;
             }
-            VertexRange<I, V, E, M> vertexRange =
-                vertexRangeMap.get(entry.getKey());
-            entry.getValue().getVertexMap().putAll(
-                vertexRange.getVertexMap());
+            vertexRangeMap.get(entry.getKey()).moveVerticesTo(
+                entry.getValue());
         }
         vertexRangeMap = nextVertexRangeMap;
         return vertexRangeMap;
@@ -45,6 +45,7 @@ import org.json.JSONObject;
 import org.apache.commons.codec.binary.Base64;
 
 import org.apache.log4j.Logger;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -633,7 +634,9 @@ public class BspServiceMaster<
                 0,
                 checkpointFilePrefix.length() -
                 CHECKPOINT_METADATA_POSTFIX.length());
-            DataInputStream metadataStream = fs.open(metadataPath);
+            FSDataInputStream metadataStream = fs.open(metadataPath);
+            int version =
+                readCheckpointMetadataVersion(metadataStream, metadataPath);
             long entries = metadataStream.readLong();
             JSONArray vertexRangeMetaArray = new JSONArray();
             JSONArray vertexRangeArray = new JSONArray();
@@ -644,6 +647,8 @@ public class BspServiceMaster<
                 Long vertexCount = metadataStream.readLong();
                 Long edgeCount = metadataStream.readLong();
                 maxVertexIndex.readFields(metadataStream);
+                int partitionId =
+                    (version >= 2) ? metadataStream.readInt() : -1;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("mapFileToWorkers: File " + metadataPath +
                               " with position " + dataPos + ", vertex count " +
@@ -668,6 +673,7 @@ public class BspServiceMaster<
                     vertexRangeObj.put(JSONOBJ_MAX_VERTEX_INDEX_KEY,
                                        Base64.encodeBase64String(
                                            outputStream.toByteArray()));
+                    vertexRangeObj.put(JSONOBJ_PARTITION_ID_KEY, partitionId);
                     vertexRangeMetaArray.put(vertexRangeObj);
                     vertexRangeArray.put(outputStream.toString("UTF-8"));
                 } catch (JSONException e) {
@@ -1292,6 +1298,48 @@ public class BspServiceMaster<
         }
     }
 
+    /**
+     * With hash partitioning, every vertex range of a hash partition must be
+     * on the same worker.  Assign every vertex range to the worker of the
+     * vertex range with the highest max index in its hash partition (the
+     * one that holds all the vertices after the first exchange).
+     *
+     * @param vertexRangeMap Balanced vertex ranges (not modified)
+     * @return Vertex ranges with the hash partitions colocated
+     */
+    private NavigableMap<I, VertexRange<I, V, E, M>> colocateHashPartitions(
+            NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap) {
+        Map<Integer, VertexRange<I, V, E, M>> partitionOwnerMap =
+            new HashMap<Integer, VertexRange<I, V, E, M>>();
+        for (VertexRange<I, V, E, M> vertexRange : vertexRangeMap.values()) {
+            partitionOwnerMap.put(vertexRange.getPartitionId(), vertexRange);
+        }
+        NavigableMap<I, VertexRange<I, V, E, M>> colocatedVertexRangeMap =
+            new TreeMap<I, VertexRange<I, V, E, M>>();
+        for (Entry<I, VertexRange<I, V, E, M>> entry :
+                vertexRangeMap.entrySet()) {
+            VertexRange<I, V, E, M> vertexRange = entry.getValue();
+            VertexRange<I, V, E, M> owner =
+                partitionOwnerMap.get(vertexRange.getPartitionId());
+            if (!owner.getHostnameId().equals(vertexRange.getHostnameId())) {
+                try {
+                    vertexRange = new VertexRange<I, V, E, M>(vertexRange);
+                } catch (Exception e) {
+                    throw new IllegalStateException(
+                        "colocateHashPartitions: Failed to copy " +
+                        vertexRange, e);
+                }
+                vertexRange.setPreviousHostnameId(
+                    entry.getValue().getPreviousHostnameId());
+                vertexRange.setHostnameId(owner.getHostnameId());
+                vertexRange.setHostname(owner.getHostname());
+                vertexRange.setPort(owner.getPort());
+            }
+            colocatedVertexRangeMap.put(entry.getKey(), vertexRange);
+        }
+        return colocatedVertexRangeMap;
+    }
+
     /**
      * Balance the vertex ranges before the next superstep computation begins.
      * Wait until the vertex ranges data has been moved to the correct
@@ -1322,6 +1370,13 @@ public class BspServiceMaster<
             vertexRangeBalancer.rebalance();
         vertexRangeBalancer.setNextVertexRangeMap(nextVertexRangeMap);
         vertexRangeBalancer.setPreviousHostnamePort();
+        if (getConfiguration().getBoolean(
+                GiraphJob.USE_HASH_PARTITIONING,
+                GiraphJob.USE_HASH_PARTITIONING_DEFAULT)) {
+            vertexRangeBalancer.setNextVertexRangeMap(
+                colocateHashPartitions(
+                    vertexRangeBalancer.getNextVertexRangeMap()));
+        }
         nextVertexRangeMap = vertexRangeBalancer.getNextVertexRangeMap();
         if (nextVertexRangeMap.size() != vertexRangeMap.size()) {
             throw new IllegalArgumentException(
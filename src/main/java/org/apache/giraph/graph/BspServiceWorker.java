@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -35,6 +36,12 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -44,6 +51,7 @@ import org.json.JSONObject;
 
 import org.apache.log4j.Logger;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
@@ -76,6 +84,11 @@ public class BspServiceWorker<
         implements CentralizedServiceWorker<I, V, E, M> {
     /** Number of input splits */
     private int inputSplitCount = -1;
+    /**
+     * An input split thread failed, so stop reserving InputSplits (its
+     * reservation is only released when this task fails)
+     */
+    private volatile boolean inputSplitLoadFailed = false;
     /** Cached aggregate number of vertices in the entire application */
     private long totalVertices = -1;
     /** Cached aggregate number of edges in the entire application */
@@ -86,6 +99,18 @@ public class BspServiceWorker<
     private final int finalRpcPort;
     /** List of aggregators currently in use */
     private Set<String> aggregatorInUse = new TreeSet<String>();
+    /** Number of hash partitions (0 if not hash partitioned) */
+    private final int hashPartitionCount;
+    /** Hash partition owners of the last looked up vertex range map */
+    private volatile HashPartitionOwners hashPartitionOwners = null;
+    /** Local directory where this worker spills data */
+    private final File outOfCoreDir;
+    /** Spills the vertex ranges to disk (null if all kept in memory) */
+    private final VertexRangeStore<I, V, E, M> vertexRangeStore;
+    /** Store the edges of the loaded vertices in shared CSR arrays */
+    private final boolean immutableEdges;
+    /** Encode the edges of the loaded vertices in byte arrays */
+    private final boolean byteArrayEdges;
     /** Class logger */
     private static final Logger LOG = Logger.getLogger(BspServiceWorker.class);
 
@@ -98,6 +123,52 @@ public class BspServiceWorker<
             getConfiguration().getInt(GiraphJob.RPC_INITIAL_PORT,
                           GiraphJob.RPC_INITIAL_PORT_DEFAULT) +
                           getTaskPartition();
+        if (getConfiguration().getBoolean(
+                GiraphJob.USE_HASH_PARTITIONING,
+                GiraphJob.USE_HASH_PARTITIONING_DEFAULT)) {
+            int partitionCount = getConfiguration().getInt(
+                GiraphJob.HASH_PARTITION_COUNT,
+                GiraphJob.HASH_PARTITION_COUNT_DEFAULT);
+            if (partitionCount <= 0) {
+                partitionCount =
+                    getConfiguration().getInt(GiraphJob.MAX_WORKERS, 1);
+            }
+            this.hashPartitionCount = partitionCount;
+        } else {
+            this.hashPartitionCount = 0;
+        }
+        this.immutableEdges = getConfiguration().getBoolean(
+            GiraphJob.IMMUTABLE_EDGES, GiraphJob.IMMUTABLE_EDGES_DEFAULT);
+        this.byteArrayEdges = getConfiguration().getBoolean(
+            GiraphJob.BYTE_ARRAY_EDGES, GiraphJob.BYTE_ARRAY_EDGES_DEFAULT);
+        String outOfCoreDirDefault = getConfiguration().get(
+            "job.local.dir", System.getProperty("user.dir")) +
+            "/_bspOutOfCore";
+        this.outOfCoreDir = new File(
+            getConfiguration().get(GiraphJob.OUT_OF_CORE_DIR,
+                                   outOfCoreDirDefault),
+            getHostnamePartitionId());
+        int maxVertexRangesInMemory = getConfiguration().getInt(
+            GiraphJob.MAX_VERTEX_RANGES_IN_MEMORY,
+            GiraphJob.MAX_VERTEX_RANGES_IN_MEMORY_DEFAULT);
+        if (maxVertexRangesInMemory > 0) {
+            this.vertexRangeStore = new VertexRangeStore<I, V, E, M>(
+                getConfiguration(), context,
+                new File(outOfCoreDir, "vertexRanges"),
+                maxVertexRangesInMemory);
+        } else {
+            this.vertexRangeStore = null;
+        }
+    }
+
+    @Override
+    public VertexRangeStore<I, V, E, M> getVertexRangeStore() {
+        return vertexRangeStore;
+    }
+
+    @Override
+    public File getOutOfCoreDirectory() {
+        return outOfCoreDir;
     }
 
     public int getPort() {
@@ -123,7 +194,9 @@ public class BspServiceWorker<
             LOG.error("userAggregator: Aggregator=" + name + " not registered");
             return false;
         }
-        aggregatorInUse.add(name);
+        synchronized (aggregatorInUse) {
+            aggregatorInUse.add(name);
+        }
         return true;
     }
 
@@ -147,6 +220,9 @@ public class BspServiceWorker<
         String reservedInputSplitPath = null;
         Stat reservedStat = null;
         while (true) {
+            if (inputSplitLoadFailed) {
+                return null;
+            }
             int finishedInputSplits = 0;
             for (String inputSplitPath : inputSplitPathList) {
                 String tmpInputSplitFinishedPath =
@@ -213,7 +289,8 @@ public class BspServiceWorker<
      *
      * @param inputSplitPath path to the input split znode
      * @param maxIndexStatMap maps max vertex indexes to a list containing
-     *        the number of vertices (index 0) and the number of edges (index 1)
+     *        the number of vertices (index 0), the number of edges (index 1)
+     *        and the hash partition id (index 2, -1 if not hash partitioned)
      *        in each partition (can be null, where nothing is written)
      */
     private void setInputSplitVertexRanges(
@@ -242,6 +319,8 @@ public class BspServiceWorker<
                                        Base64.encodeBase64String(
                                            outputStream.toByteArray()));
                     vertexRangeObj.put(JSONOBJ_NUM_MESSAGES_KEY, 0L);
+                    vertexRangeObj.put(JSONOBJ_PARTITION_ID_KEY,
+                                       entry.getValue().get(2).intValue());
                     statArray.put(vertexRangeObj);
                     if (LOG.isInfoEnabled()) {
                         LOG.info("setInputSplitVertexRanges: " +
@@ -281,7 +360,9 @@ public class BspServiceWorker<
      * of vertex ranges.  Do this until all the InputSplits have been processed.
      * All workers will try to do as many InputSplits as they can.  The master
      * will monitor progress and stop this once all the InputSplits have been
-     * loaded and check-pointed.  The InputSplits must be sorted.
+     * loaded and check-pointed.  The InputSplits must be sorted, unless
+     * hash partitioning is used.  With several input split threads, this
+     * thread keeps reserving InputSplits while the others load them.
      *
      * @throws IOException
      * @throws IllegalAccessException
@@ -292,205 +373,401 @@ public class BspServiceWorker<
     private void loadVertices() throws IOException, ClassNotFoundException,
             InterruptedException, InstantiationException,
             IllegalAccessException {
-        List<Vertex<I, V, E, M>> vertexList =
-            new ArrayList<Vertex<I, V, E, M>>();
+        int numThreads = getConfiguration().getInt(
+            GiraphJob.NUM_INPUT_SPLIT_THREADS,
+            GiraphJob.NUM_INPUT_SPLIT_THREADS_DEFAULT);
+        if (numThreads < 1) {
+            throw new IllegalArgumentException(
+                "loadVertices: Invalid " + GiraphJob.NUM_INPUT_SPLIT_THREADS +
+                " = " + numThreads);
+        }
         String inputSplitPath = null;
-        while ((inputSplitPath = reserveInputSplit()) != null) {
-            // ZooKeeper has a limit of the data in a single znode of 1 MB and
-            // each entry can go be on the average somewhat more than 300 bytes
-            final long maxVertexRangesPerInputSplit =
-                1024 * 1024 / 350 / inputSplitCount;
-
-            byte[] splitList;
-            try {
-                splitList = getZkExt().getData(inputSplitPath, false, null);
-            } catch (KeeperException e) {
-                throw new IllegalStateException(
-                    "loadVertices: KeeperException on " + inputSplitPath, e);
-            } catch (InterruptedException e) {
-                throw new IllegalStateException(
-                    "loadVertices: IllegalStateException on " +
-                    inputSplitPath, e);
+        if (numThreads == 1) {
+            while ((inputSplitPath = reserveInputSplit()) != null) {
+                loadInputSplit(inputSplitPath);
             }
-            getContext().progress();
+            return;
+        }
 
-            DataInputStream inputStream =
-                new DataInputStream(new ByteArrayInputStream(splitList));
-            String inputSplitClass = Text.readString(inputStream);
-            InputSplit inputSplit = (InputSplit)
-                ReflectionUtils.newInstance(
-                    getConfiguration().getClassByName(inputSplitClass),
-                    getConfiguration());
-            ((Writable) inputSplit).readFields(inputStream);
-            if (LOG.isInfoEnabled()) {
-                LOG.info("loadVertices: Reserved " + inputSplitPath +
-                         " from ZooKeeper and got input split '" +
-                         inputSplit.toString() + "'");
-            }
-            VertexInputFormat<I, V, E> vertexInputFormat =
-                BspUtils.<I, V, E>createVertexInputFormat(getConfiguration());
-            VertexReader<I, V, E> vertexReader =
-                vertexInputFormat.createVertexReader(inputSplit, getContext());
-            vertexReader.initialize(inputSplit, getContext());
-            vertexList.clear();
-            Vertex<I, V, E, M> readerVertex =
-                BspUtils.<I, V, E, M>createVertex(getConfiguration());
-            while (vertexReader.next(readerVertex)) {
-                if (readerVertex.getVertexId() == null) {
-                    throw new IllegalArgumentException(
-                        "loadVertices: Vertex reader returned a vertex " +
-                        "without an id!  - " + readerVertex);
-                }
-                if (readerVertex.getVertexValue() == null) {
-                    readerVertex.setVertexValue(
-                        BspUtils.<V>createVertexValue(getConfiguration()));
+        if (LOG.isInfoEnabled()) {
+            LOG.info("loadVertices: Using " + numThreads +
+                     " input split threads");
+        }
+        // Only reserve an InputSplit when a thread is free to load it
+        final Semaphore freeThreads = new Semaphore(numThreads);
+        ExecutorService loadExecutor =
+            Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> futureList = new ArrayList<Future<Void>>();
+        try {
+            while (true) {
+                freeThreads.acquire();
+                inputSplitPath = reserveInputSplit();
+                if (inputSplitPath == null) {
+                    break;
                 }
-                // Vertices must be ordered
-                if (!vertexList.isEmpty()) {
-                    @SuppressWarnings("unchecked")
-                    int compareTo =
-                        vertexList.get(vertexList.size() - 1).
-                        getVertexId().compareTo(readerVertex.getVertexId());
-                    if (compareTo > 0) {
-                        throw new IllegalArgumentException(
-                            "loadVertices: Illegal out of order vertices " +
-                            "from vertex reader previous vertex = " +
-                            vertexList.get(vertexList.size() - 1) +
-                            ", next vertex = " + readerVertex);
+                final String reservedInputSplitPath = inputSplitPath;
+                futureList.add(loadExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        boolean loaded = false;
+                        try {
+                            loadInputSplit(reservedInputSplitPath);
+                            loaded = true;
+                        } finally {
+                            if (!loaded) {
+                                // Stop waiting for our own reservation
+                                inputSplitLoadFailed = true;
+                                getInputSplitsStateChangedEvent().signal();
+                            }
+                            freeThreads.release();
+                        }
+                        return null;
                     }
+                }));
+            }
+            for (Future<Void> future : futureList) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(
+                        "loadVertices: Input split thread failed",
+                        e.getCause());
                 }
-                vertexList.add(readerVertex);
-                readerVertex =
-                    BspUtils.<I, V, E, M>createVertex(getConfiguration());
-                getContext().progress();
             }
-            vertexReader.close();
-            if (LOG.isInfoEnabled()) {
-                LOG.info("loadVertices: Got " + vertexList.size() +
-                         " vertices from input split " + inputSplit);
+        } finally {
+            loadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the vertices of a reserved InputSplit into new vertex ranges,
+     * then add them to our partitions and mark the InputSplit as finished.
+     * Can be called by several threads at once.
+     *
+     * @param inputSplitPath Path of the reserved InputSplit
+     * @throws IOException
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private void loadInputSplit(String inputSplitPath)
+            throws IOException, ClassNotFoundException, InterruptedException,
+            InstantiationException, IllegalAccessException {
+        List<BaseVertex<I, V, E, M>> vertexList =
+            new ArrayList<BaseVertex<I, V, E, M>>();
+        // ZooKeeper has a limit of the data in a single znode of 1 MB and
+        // each entry can go be on the average somewhat more than 300 bytes
+        final long maxVertexRangesPerInputSplit =
+            1024 * 1024 / 350 / inputSplitCount;
+
+        byte[] splitList;
+        try {
+            splitList = getZkExt().getData(inputSplitPath, false, null);
+        } catch (KeeperException e) {
+            throw new IllegalStateException(
+                "loadVertices: KeeperException on " + inputSplitPath, e);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(
+                "loadVertices: IllegalStateException on " +
+                inputSplitPath, e);
+        }
+        getContext().progress();
+
+        DataInputStream inputStream =
+            new DataInputStream(new ByteArrayInputStream(splitList));
+        String inputSplitClass = Text.readString(inputStream);
+        InputSplit inputSplit = (InputSplit)
+            ReflectionUtils.newInstance(
+                getConfiguration().getClassByName(inputSplitClass),
+                getConfiguration());
+        ((Writable) inputSplit).readFields(inputStream);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("loadVertices: Reserved " + inputSplitPath +
+                     " from ZooKeeper and got input split '" +
+                     inputSplit.toString() + "'");
+        }
+        VertexInputFormat<I, V, E> vertexInputFormat =
+            BspUtils.<I, V, E>createVertexInputFormat(getConfiguration());
+        VertexReader<I, V, E> vertexReader =
+            vertexInputFormat.createVertexReader(inputSplit, getContext());
+        vertexReader.initialize(inputSplit, getContext());
+        // Move the edges of every vertex to the shared store (or encode
+        // them) as soon as it is read, so only one edge map per split is
+        // ever mutable
+        CsrEdgeStore<I, E> edgeStore = null;
+        if (immutableEdges && !byteArrayEdges) {
+            edgeStore = new CsrEdgeStore<I, E>();
+        }
+        BaseVertex<I, V, E, M> readerVertex =
+            BspUtils.<I, V, E, M>createVertex(getConfiguration());
+        while (vertexReader.next(readerVertex)) {
+            if (readerVertex.getVertexId() == null) {
+                throw new IllegalArgumentException(
+                    "loadVertices: Vertex reader returned a vertex " +
+                    "without an id!  - " + readerVertex);
             }
-            if (vertexList.isEmpty()) {
-                setInputSplitVertexRanges(inputSplitPath, null);
-                continue;
+            if (readerVertex.getVertexValue() == null) {
+                readerVertex.setVertexValue(
+                    BspUtils.<V>createVertexValue(getConfiguration()));
+            }
+            // Vertices must be ordered (unless hash partitioned)
+            if (hashPartitionCount == 0 && !vertexList.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                int compareTo =
+                    vertexList.get(vertexList.size() - 1).
+                    getVertexId().compareTo(readerVertex.getVertexId());
+                if (compareTo > 0) {
+                    throw new IllegalArgumentException(
+                        "loadVertices: Illegal out of order vertices " +
+                        "from vertex reader previous vertex = " +
+                        vertexList.get(vertexList.size() - 1) +
+                        ", next vertex = " + readerVertex);
+                }
+            }
+            if (byteArrayEdges && readerVertex instanceof Vertex) {
+                ((Vertex<I, V, E, M>) readerVertex).encodeEdges();
+            } else if (edgeStore != null &&
+                    readerVertex instanceof Vertex) {
+                ((Vertex<I, V, E, M>) readerVertex).freezeEdges(
+                    edgeStore);
             }
+            vertexList.add(readerVertex);
+            readerVertex =
+                BspUtils.<I, V, E, M>createVertex(getConfiguration());
+            getContext().progress();
+        }
+        vertexReader.close();
+        if (edgeStore != null) {
+            edgeStore.trim();
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("loadVertices: Got " + vertexList.size() +
+                     " vertices from input split " + inputSplit);
+        }
+        if (vertexList.isEmpty()) {
+            setInputSplitVertexRanges(inputSplitPath, null);
+            return;
+        }
 
-            // Separate all the vertices in this InputSplit into vertex ranges.
-            // The number of vertex ranges is up to half of the number of
-            // available workers and must reach a minimum size.  Then two passes
-            // over the vertexList.  First, find the maximum vertex ranges.
-            // Then fill them in.
-            NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap =
-                new TreeMap<I, VertexRange<I, V, E, M>>();
-            long vertexRangesPerInputSplit = (long) (inputSplitCount *
-                getConfiguration().getFloat(
-                    GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER,
-                    GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER_DEFAULT));
-            if (vertexRangesPerInputSplit == 0) {
-                vertexRangesPerInputSplit = 1;
+        NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap = null;
+        if (hashPartitionCount > 0) {
+            vertexRangeMap = hashPartitionVertices(
+                vertexList, inputSplit, maxVertexRangesPerInputSplit);
+        } else {
+            vertexRangeMap = rangePartitionVertices(
+                vertexList, inputSplit, maxVertexRangesPerInputSplit);
+        }
+        Map<I, List<Long>> maxIndexStatMap = new TreeMap<I, List<Long>>();
+        for (Entry<I, VertexRange<I, V, E, M>> entry :
+                vertexRangeMap.entrySet()) {
+            List<Long> statList = new ArrayList<Long>();
+            long vertexRangeEdgeCount = 0;
+            for (BasicVertex<I, V, E, M> vertex :
+                    entry.getValue().getVertexMap().values()) {
+                vertexRangeEdgeCount += vertex.getOutEdgeMap().size();
             }
-            else if (vertexRangesPerInputSplit > maxVertexRangesPerInputSplit) {
-                LOG.warn("loadVertices: Using " + maxVertexRangesPerInputSplit +
-                         " instead of " + vertexRangesPerInputSplit +
-                         " vertex ranges on input split " + inputSplit);
-                vertexRangesPerInputSplit = maxVertexRangesPerInputSplit;
+            statList.add(Long.valueOf
+                             (entry.getValue().getVertexMap().size()));
+            statList.add(Long.valueOf(vertexRangeEdgeCount));
+            statList.add(Long.valueOf(entry.getValue().getPartitionId()));
+            if (LOG.isInfoEnabled()) {
+                LOG.info("loadVertices: Got " + statList.get(0) +
+                         " vertices and " + statList.get(1) +
+                         " edges from vertex range max index " +
+                         entry.getKey());
             }
+            maxIndexStatMap.put(entry.getKey(), statList);
 
-            long vertexRangeSize =
-                vertexList.size() / vertexRangesPerInputSplit;
-            long minPerVertexRange =
-                getConfiguration().getLong(
-                    GiraphJob.MIN_VERTICES_PER_RANGE,
-                    GiraphJob.MIN_VERTICES_PER_RANGE_DEFAULT);
-            if (vertexRangeSize < minPerVertexRange) {
-                vertexRangeSize = minPerVertexRange;
+            // Add the local vertex ranges to the stored vertex ranges
+            synchronized (getStorableVertexRangeMap()) {
+                getStorableVertexRangeMap().put(entry.getKey(),
+                                                entry.getValue());
             }
-            I vertexIdMax = null;
-            for (int i = 0; i < vertexList.size(); ++i) {
-                if ((vertexIdMax != null) && ((i % vertexRangeSize) == 0)) {
-                    VertexRange<I, V, E, M> vertexRange =
-                        new VertexRange<I, V, E, M>(
-                            null, -1, null, vertexIdMax, null);
-                    vertexRangeMap.put(vertexIdMax, vertexRange);
-                    vertexIdMax = null;
-                }
+            if (vertexRangeStore != null) {
+                vertexRangeStore.add(entry.getValue());
+            }
+        }
+        setInputSplitVertexRanges(inputSplitPath, maxIndexStatMap);
+    }
 
-                if (vertexIdMax == null) {
-                    vertexIdMax = vertexList.get(i).getVertexId();
-                } else {
-                    @SuppressWarnings("unchecked")
-                    int compareTo =
-                        vertexList.get(i).getVertexId().compareTo(vertexIdMax);
-                    if (compareTo > 0) {
-                        vertexIdMax = vertexList.get(i).getVertexId();
-                    }
-                }
+    /**
+     * Split the ordered vertices of an InputSplit into vertex ranges.
+     *
+     * @param vertexList Ordered vertices of the InputSplit
+     * @param inputSplit InputSplit the vertices were read from
+     * @param maxVertexRangesPerInputSplit Maximum number of vertex ranges
+     * @return Map of max vertex indices to the filled vertex ranges
+     * @throws IOException
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     */
+    private NavigableMap<I, VertexRange<I, V, E, M>> rangePartitionVertices(
+            List<BaseVertex<I, V, E, M>> vertexList,
+            InputSplit inputSplit,
+            long maxVertexRangesPerInputSplit)
+            throws IOException, InstantiationException,
+            IllegalAccessException {
+        // Separate all the vertices in this InputSplit into vertex ranges.
+        // The number of vertex ranges is up to half of the number of
+        // available workers and must reach a minimum size.  Then two passes
+        // over the vertexList.  First, find the maximum vertex ranges.
+        // Then fill them in.
+        NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap =
+            new TreeMap<I, VertexRange<I, V, E, M>>();
+        long vertexRangesPerInputSplit = (long) (inputSplitCount *
+            getConfiguration().getFloat(
+                GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER,
+                GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER_DEFAULT));
+        if (vertexRangesPerInputSplit == 0) {
+            vertexRangesPerInputSplit = 1;
+        }
+        else if (vertexRangesPerInputSplit > maxVertexRangesPerInputSplit) {
+            LOG.warn("rangePartitionVertices: Using " +
+                     maxVertexRangesPerInputSplit + " instead of " +
+                     vertexRangesPerInputSplit +
+                     " vertex ranges on input split " + inputSplit);
+            vertexRangesPerInputSplit = maxVertexRangesPerInputSplit;
+        }
+
+        long vertexRangeSize =
+            vertexList.size() / vertexRangesPerInputSplit;
+        long minPerVertexRange =
+            getConfiguration().getLong(
+                GiraphJob.MIN_VERTICES_PER_RANGE,
+                GiraphJob.MIN_VERTICES_PER_RANGE_DEFAULT);
+        if (vertexRangeSize < minPerVertexRange) {
+            vertexRangeSize = minPerVertexRange;
+        }
+        I vertexIdMax = null;
+        for (int i = 0; i < vertexList.size(); ++i) {
+            if ((vertexIdMax != null) && ((i % vertexRangeSize) == 0)) {
+                VertexRange<I, V, E, M> vertexRange =
+                    new VertexRange<I, V, E, M>(
+                        null, -1, null, vertexIdMax, null);
+                vertexRangeMap.put(vertexIdMax, vertexRange);
+                vertexIdMax = null;
             }
+
             if (vertexIdMax == null) {
-                throw new RuntimeException("loadVertices: Encountered " +
-                                           "impossible null vertexIdMax.");
-            }
-            VertexRange<I, V, E, M> vertexRange =
-                new VertexRange<I, V, E, M>(
-                    null, -1, null, vertexIdMax, null);
-            vertexRangeMap.put(vertexIdMax, vertexRange);
-
-            Iterator<I> maxIndexVertexMapIt =
-                vertexRangeMap.keySet().iterator();
-            I currentVertexIndexMax = maxIndexVertexMapIt.next();
-            for (Vertex<I, V, E, M> vertex : vertexList) {
+                vertexIdMax = vertexList.get(i).getVertexId();
+            } else {
                 @SuppressWarnings("unchecked")
                 int compareTo =
-                    vertex.getVertexId().compareTo(
-                        currentVertexIndexMax);
+                    vertexList.get(i).getVertexId().compareTo(vertexIdMax);
                 if (compareTo > 0) {
-                    if (!maxIndexVertexMapIt.hasNext()) {
-                        throw new RuntimeException(
-                            "loadVertices: Impossible that vertex " +
-                            vertex.getVertexId() + " > " +
-                            currentVertexIndexMax);
-                    }
-                    currentVertexIndexMax = maxIndexVertexMapIt.next();
-                }
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("loadVertices: Adding vertex with index = " +
-                              vertex.getVertexId() + " to vertex range max = " +
-                              currentVertexIndexMax);
+                    vertexIdMax = vertexList.get(i).getVertexId();
                 }
-                if (vertexRangeMap.get(currentVertexIndexMax).
-                        getVertexMap().put(vertex.getVertexId(),
-                                           vertex) != null) {
-                    throw new IllegalStateException(
-                        "loadVertices: Already contains vertex " +
-                        vertex.toString() + " in vertex range max " +
+            }
+        }
+        if (vertexIdMax == null) {
+            throw new RuntimeException("rangePartitionVertices: Encountered " +
+                                       "impossible null vertexIdMax.");
+        }
+        VertexRange<I, V, E, M> vertexRange =
+            new VertexRange<I, V, E, M>(
+                null, -1, null, vertexIdMax, null);
+        vertexRangeMap.put(vertexIdMax, vertexRange);
+
+        Iterator<I> maxIndexVertexMapIt =
+            vertexRangeMap.keySet().iterator();
+        I currentVertexIndexMax = maxIndexVertexMapIt.next();
+        for (BaseVertex<I, V, E, M> vertex : vertexList) {
+            @SuppressWarnings("unchecked")
+            int compareTo =
+                vertex.getVertexId().compareTo(
+                    currentVertexIndexMax);
+            if (compareTo > 0) {
+                if (!maxIndexVertexMapIt.hasNext()) {
+                    throw new RuntimeException(
+                        "rangePartitionVertices: Impossible that vertex " +
+                        vertex.getVertexId() + " > " +
                         currentVertexIndexMax);
                 }
+                currentVertexIndexMax = maxIndexVertexMapIt.next();
             }
-            Map<I, List<Long>> maxIndexStatMap = new TreeMap<I, List<Long>>();
-            for (Entry<I, VertexRange<I, V, E, M>> entry :
-                    vertexRangeMap.entrySet()) {
-                List<Long> statList = new ArrayList<Long>();
-                long vertexRangeEdgeCount = 0;
-                for (BasicVertex<I, V, E, M> vertex :
-                        entry.getValue().getVertexMap().values()) {
-                    vertexRangeEdgeCount += vertex.getOutEdgeMap().size();
-                }
-                statList.add(Long.valueOf
-                                 (entry.getValue().getVertexMap().size()));
-                statList.add(Long.valueOf(vertexRangeEdgeCount));
-                if (LOG.isInfoEnabled()) {
-                    LOG.info("loadVertices: Got " + statList.get(0) +
-                             " vertices and " + statList.get(1) +
-                             " edges from vertex range max index " +
-                             entry.getKey());
-                }
-                maxIndexStatMap.put(entry.getKey(), statList);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("rangePartitionVertices: Adding vertex with " +
+                          "index = " + vertex.getVertexId() +
+                          " to vertex range max = " + currentVertexIndexMax);
+            }
+            if (vertexRangeMap.get(currentVertexIndexMax).
+                    getVertexMap().put(vertex.getVertexId(),
+                                       vertex) != null) {
+                throw new IllegalStateException(
+                    "rangePartitionVertices: Already contains vertex " +
+                    vertex.toString() + " in vertex range max " +
+                    currentVertexIndexMax);
+            }
+        }
+        return vertexRangeMap;
+    }
 
-                // Add the local vertex ranges to the stored vertex ranges
-                getStorableVertexRangeMap().put(entry.getKey(),
-                                                entry.getValue());
+    /**
+     * Split the vertices of an InputSplit into one vertex range per hash
+     * partition.  The max index of each vertex range only identifies it,
+     * since the vertex ranges of different hash partitions overlap.
+     *
+     * @param vertexList Vertices of the InputSplit (in any order)
+     * @param inputSplit InputSplit the vertices were read from
+     * @param maxVertexRangesPerInputSplit Maximum number of vertex ranges
+     * @return Map of max vertex indices to the filled vertex ranges
+     * @throws IOException
+     * @throws IllegalAccessException
+     * @throws InstantiationException
+     */
+    private NavigableMap<I, VertexRange<I, V, E, M>> hashPartitionVertices(
+            List<BaseVertex<I, V, E, M>> vertexList,
+            InputSplit inputSplit,
+            long maxVertexRangesPerInputSplit)
+            throws IOException, InstantiationException,
+            IllegalAccessException {
+        if (hashPartitionCount > maxVertexRangesPerInputSplit) {
+            throw new IllegalArgumentException(
+                "hashPartitionVertices: " + hashPartitionCount +
+                " hash partitions can create more than the maximum of " +
+                maxVertexRangesPerInputSplit + " vertex ranges on input " +
+                "split " + inputSplit + ", reduce " +
+                GiraphJob.HASH_PARTITION_COUNT);
+        }
+        Map<Integer, VertexRange<I, V, E, M>> partitionVertexRangeMap =
+            new TreeMap<Integer, VertexRange<I, V, E, M>>();
+        for (BaseVertex<I, V, E, M> vertex : vertexList) {
+            int partitionId = getHashPartitionId(vertex.getVertexId());
+            VertexRange<I, V, E, M> vertexRange =
+                partitionVertexRangeMap.get(partitionId);
+            if (vertexRange == null) {
+                vertexRange = new VertexRange<I, V, E, M>(
+                    null, -1, null, null, null);
+                vertexRange.setPartitionId(partitionId);
+                partitionVertexRangeMap.put(partitionId, vertexRange);
             }
-            setInputSplitVertexRanges(inputSplitPath, maxIndexStatMap);
+            if (vertexRange.getVertexMap().put(vertex.getVertexId(),
+                                               vertex) != null) {
+                throw new IllegalStateException(
+                    "hashPartitionVertices: Already contains vertex " +
+                    vertex.toString() + " in hash partition " +
+                    partitionId);
+            }
+        }
+        NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap =
+            new TreeMap<I, VertexRange<I, V, E, M>>();
+        for (VertexRange<I, V, E, M> vertexRange :
+                partitionVertexRangeMap.values()) {
+            vertexRangeMap.put(vertexRange.getVertexMap().lastKey(),
+                               vertexRange);
         }
+        return vertexRangeMap;
+    }
+
+    /**
+     * Get the hash partition of a vertex index.
+     *
+     * @param vertexIndex Vertex index
+     * @return Hash partition id in [0, hashPartitionCount)
+     */
+    private int getHashPartitionId(I vertexIndex) {
+        return BspUtils.getHashPartitionId(vertexIndex, hashPartitionCount);
     }
 
     @Override
@@ -894,6 +1171,9 @@ public class BspServiceWorker<
     public void cleanup() throws IOException, InterruptedException {
         setCachedSuperstep(getSuperstep() - 1);
         saveVertices();
+        if (vertexRangeStore != null) {
+            vertexRangeStore.cleanup();
+        }
          // All worker processes should denote they are done by adding special
          // znode.  Once the number of znodes equals the number of partitions
          // for workers and masters, the master will clean up the ZooKeeper
@@ -935,6 +1215,10 @@ public class BspServiceWorker<
 
     @Override
     public VertexRange<I, V, E, M> getVertexRange(long superstep, I index) {
+        if (hashPartitionCount > 0) {
+            return getHashPartitionOwners(superstep)[
+                getHashPartitionId(index)];
+        }
         I maxVertexIndex = getVertexRangeMap(superstep).ceilingKey(index);
 
         if (maxVertexIndex == null) {
@@ -950,6 +1234,115 @@ public class BspServiceWorker<
         }
     }
 
+    /**
+     * Owning vertex range of every hash partition, computed for a given
+     * vertex range map.
+     */
+    private class HashPartitionOwners {
+        /** Vertex range map the owners were computed from */
+        private final NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap;
+        /** Owning vertex range indexed by hash partition id */
+        private final VertexRange<I, V, E, M>[] owners;
+
+        /**
+         * Compute the owners from a vertex range map.  The owner of a hash
+         * partition is its vertex range with the highest max index.  Hash
+         * partitions without any vertex range use the owner of the next
+         * hash partition that has one.
+         *
+         * @param vertexRangeMap Vertex range map
+         */
+        @SuppressWarnings("unchecked")
+        public HashPartitionOwners(
+                NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap) {
+            this.vertexRangeMap = vertexRangeMap;
+            owners = new VertexRange[hashPartitionCount];
+            for (VertexRange<I, V, E, M> vertexRange :
+                    vertexRangeMap.values()) {
+                int partitionId = vertexRange.getPartitionId();
+                if (partitionId < 0 || partitionId >= hashPartitionCount) {
+                    throw new IllegalStateException(
+                        "HashPartitionOwners: Vertex range " + vertexRange +
+                        " is not in one of the " + hashPartitionCount +
+                        " hash partitions");
+                }
+                owners[partitionId] = vertexRange;
+            }
+            if (vertexRangeMap.isEmpty()) {
+                throw new IllegalStateException(
+                    "HashPartitionOwners: No vertex ranges");
+            }
+            VertexRange<I, V, E, M> nextOwner = null;
+            for (int i = 2 * hashPartitionCount - 1; i >= 0; --i) {
+                int partitionId = i % hashPartitionCount;
+                if (owners[partitionId] == null) {
+                    owners[partitionId] = nextOwner;
+                } else {
+                    nextOwner = owners[partitionId];
+                }
+            }
+        }
+    }
+
+    @Override
+    public VertexRange<I, V, E, M>[] getHashPartitionOwners(long superstep) {
+        if (hashPartitionCount == 0) {
+            return null;
+        }
+        NavigableMap<I, VertexRange<I, V, E, M>> vertexRangeMap =
+            getVertexRangeMap(superstep);
+        HashPartitionOwners partitionOwners = hashPartitionOwners;
+        if (partitionOwners == null ||
+                partitionOwners.vertexRangeMap != vertexRangeMap) {
+            partitionOwners = new HashPartitionOwners(vertexRangeMap);
+            hashPartitionOwners = partitionOwners;
+        }
+        return partitionOwners.owners;
+    }
+
+    /**
+     * Move the vertices of my vertex ranges into the owning vertex range of
+     * their hash partition, so that every vertex can be found in the vertex
+     * range returned by getVertexRange().  The master assigns all the
+     * vertex ranges of a hash partition to the same worker.
+     */
+    private void mergeHashPartitions() {
+        VertexRange<I, V, E, M>[] owners =
+            getHashPartitionOwners(getSuperstep());
+        for (VertexRange<I, V, E, M> vertexRange :
+                getVertexRangeMap().values()) {
+            VertexRange<I, V, E, M> owner =
+                owners[vertexRange.getPartitionId()];
+            if (owner == vertexRange ||
+                    vertexRange.getVertexMap().isEmpty()) {
+                continue;
+            }
+            if (!owner.getHostnameId().equals(getHostnamePartitionId())) {
+                throw new IllegalStateException(
+                    "mergeHashPartitions: Vertex range " + vertexRange +
+                    " is not on the same worker as " + owner);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("mergeHashPartitions: Moving " +
+                          vertexRange.getVertexMap().size() +
+                          " vertices of hash partition " +
+                          vertexRange.getPartitionId() + " to " + owner);
+            }
+            if (vertexRangeStore != null) {
+                vertexRangeStore.add(owner);
+                vertexRangeStore.pin(owner);
+            }
+            try {
+                owner.getVertexMap().putAll(vertexRange.getVertexMap());
+                vertexRange.getVertexMap().clear();
+            } finally {
+                if (vertexRangeStore != null) {
+                    vertexRangeStore.unpin(owner);
+                }
+            }
+        }
+    }
+
     @Override
     public void storeCheckpoint() throws IOException {
         // Algorithm:
@@ -1030,7 +1423,9 @@ public class BspServiceWorker<
             // Format:
             // <index count>
             //   <index 0 start pos><# vertices><# edges><max index 0>
-            //   <index 1 start pos><# vertices><# edges><max index 1>...
+            //     <hash partition id 0>
+            //   <index 1 start pos><# vertices><# edges><max index 1>
+            //     <hash partition id 1>...
             metadataOutput.writeLong(startPos);
             metadataOutput.writeLong(entry.getValue().getVertexMap().size());
             long edgeCount = 0;
@@ -1040,6 +1435,7 @@ public class BspServiceWorker<
             }
             metadataOutput.writeLong(edgeCount);
             entry.getKey().write(metadataOutput);
+            metadataOutput.writeInt(entry.getValue().getPartitionId());
             if (LOG.isDebugEnabled()) {
                 LOG.debug("storeCheckpoint: Vertex file starting " +
                           "offset = " + startPos + ", length = " +
@@ -1051,6 +1447,7 @@ public class BspServiceWorker<
         // needs to know how many vertex ranges this worker owns
         FSDataOutputStream metadataOutputStream =
             getFs().create(metadataFilePath);
+        metadataOutputStream.writeLong(-CHECKPOINT_METADATA_VERSION);
         metadataOutputStream.writeLong(workerVertexRanges);
         metadataOutputStream.write(metadataByteStream.toByteArray());
         metadataOutputStream.close();
@@ -1086,10 +1483,11 @@ public class BspServiceWorker<
         }
         long vertexCount = dataStream.readLong();
         VertexRange<I, V, E, M> vertexRange = getVertexRangeMap().get(maxIndex);
+        CsrEdgeStore<I, E> edgeStore =
+            BspUtils.<I, E>createEdgeStore(getConfiguration());
         for (int i = 0; i < vertexCount; ++i) {
-            Vertex<I, V, E, M> vertex =
-                BspUtils.<I, V, E, M>createVertex(getConfiguration());
-            vertex.readFields(dataStream);
+            BaseVertex<I, V, E, M> vertex = BspUtils.<I, V, E, M>readVertex(
+                getConfiguration(), dataStream, edgeStore);
             // Add the vertex
             if (vertexRange.getVertexMap().put(vertex.getVertexId(), vertex)
                     != null) {
@@ -1097,6 +1495,12 @@ public class BspServiceWorker<
                     "loadVertexRange: Vertex "  + vertex + " already exists");
             }
         }
+        if (edgeStore != null) {
+            edgeStore.trim();
+        }
+        if (vertexRangeStore != null) {
+            vertexRangeStore.add(vertexRange);
+        }
         if (LOG.isInfoEnabled()) {
             LOG.info("loadVertexRange: " + vertexCount + " vertices in " +
                      dataFileName);
@@ -1116,12 +1520,14 @@ public class BspServiceWorker<
                 getVertexRangeMap().values()) {
             if (vertexRange.getHostnameId().compareTo(
                     getHostnamePartitionId()) == 0) {
-                String metadataFile =
+                Path metadataFile = new Path(
                     vertexRange.getCheckpointFilePrefix() +
-                    CHECKPOINT_METADATA_POSTFIX;
+                    CHECKPOINT_METADATA_POSTFIX);
                 try {
-                    DataInputStream metadataStream =
-                        getFs().open(new Path(metadataFile));
+                    FSDataInputStream metadataStream =
+                        getFs().open(metadataFile);
+                    int version = readCheckpointMetadataVersion(
+                        metadataStream, metadataFile);
                     vertexRangeCount = metadataStream.readLong();
                     for (int i = 0; i < vertexRangeCount; ++i) {
                         startPos = metadataStream.readLong();
@@ -1130,6 +1536,10 @@ public class BspServiceWorker<
                         // Skip the edge count
                         metadataStream.readLong();
                         maxVertexIndex.readFields(metadataStream);
+                        if (version >= 2) {
+                            // Skip the hash partition id
+                            metadataStream.readInt();
+                        }
                         @SuppressWarnings("unchecked")
                         int compareTo =
                             vertexRange.getMaxIndex().compareTo(maxVertexIndex);
@@ -1183,27 +1593,19 @@ public class BspServiceWorker<
                     getGraphMapper().getWorkerCommunications().
                         cleanCachedVertexAddressMap();
                 }
-                List<BasicVertex<I, V, E, M>> vertexList =
-                    new ArrayList<BasicVertex<I, V, E, M>>(
-                        entry.getValue().getVertexMap().values());
-                if (vertexList != null) {
+                // Only serialized chunks of the vertex range are kept while
+                // they are sent, the ranges to other workers overlap
+                SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
+                    entry.getValue().getVertexMap();
+                if (LOG.isInfoEnabled()) {
                     LOG.info("exchangeVertexRanges: Sending vertex range " +
                              entry.getKey() + " with " +
-                             vertexList.size() + " elements to " + hostname +
+                             vertexMap.size() + " elements to " + hostname +
                              ":" + port);
-                    getGraphMapper().getWorkerCommunications().sendVertexListReq(
-                        entry.getKey(), vertexList);
-                    vertexList.clear();
-                    entry.getValue().getVertexMap().clear();
-                    if (LOG.isInfoEnabled()) {
-                        LOG.info("exchangeVertexRanges: Sent vertex range " +
-                                 entry.getKey() + " with " +
-                                 vertexList.size() +
-                                 " elements to " + hostname +
-                                 ":" + port + " " + vertexList.size() + " " +
-                                 entry.getValue().getVertexMap().size());
-                    }
                 }
+                getGraphMapper().getWorkerCommunications().sendVertexRangeReq(
+                    entry.getKey(), vertexMap.values());
+                vertexMap.clear();
                 syncRequired = true;
             }
             else if ((port == finalRpcPort) &&
@@ -1234,6 +1636,7 @@ public class BspServiceWorker<
 
         // All senders and receivers must agree they are finished
         if (syncRequired) {
+            getGraphMapper().getWorkerCommunications().flushVertexRangeReqs();
             String myVertexRangeExchangePath =
                 getVertexRangeExchangePath(getApplicationAttempt(),
                                            getSuperstep()) +
@@ -1264,17 +1667,19 @@ public class BspServiceWorker<
         }
 
         // Add the vertices that were sent earlier.
-        Map<I, List<Vertex<I, V, E, M>>> inVertexRangeMap =
+        Map<I, SortedMap<I, BasicVertex<I, V, E, M>>> inVertexRangeMap =
             getGraphMapper().getWorkerCommunications().getInVertexRangeMap();
         synchronized (inVertexRangeMap) {
-            for (Entry<I, List<Vertex<I, V, E, M>>> entry :
+            for (Entry<I, SortedMap<I, BasicVertex<I, V, E, M>>> entry :
                     inVertexRangeMap.entrySet()) {
                 if (entry.getValue() == null || entry.getValue().isEmpty()) {
                     continue;
                 }
 
+                VertexRange<I, V, E, M> vertexRange =
+                    getVertexRangeMap().get(entry.getKey());
                 SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
-                    getVertexRangeMap().get(entry.getKey()).getVertexMap();
+                    vertexRange.getVertexMap();
                 if (vertexMap.size() != 0) {
                     throw new RuntimeException(
                         "exchangeVertexRanges: Failed to import vertex range " +
@@ -1287,16 +1692,19 @@ public class BspServiceWorker<
                              entry.getValue().size() +
                              " vertices for max index " + entry.getKey());
                 }
-                for (BasicVertex<I, V, E, M> vertex : entry.getValue()) {
-                    if (vertexMap.put(vertex.getVertexId(), vertex) != null) {
-                        throw new IllegalStateException(
-                            "exchangeVertexRanges: Vertex " + vertex +
-                            " already exists!");
-                    }
-                }
+                // Already sorted, so the empty vertex map is built in one
+                // pass (duplicates were rejected when received)
+                vertexMap.putAll(entry.getValue());
                 entry.getValue().clear();
+                if (vertexRangeStore != null) {
+                    vertexRangeStore.add(vertexRange);
+                }
             }
         }
+
+        if (hashPartitionCount > 0) {
+            mergeHashPartitions();
+        }
     }
 
     @Override
@@ -18,6 +18,12 @@
 
 package org.apache.giraph.graph;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.giraph.comm.ByteArrayMsgList;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -204,12 +210,12 @@ public class BspUtils {
                    V extends Writable,
                    E extends Writable,
                    M extends Writable>
-            Class<? extends Vertex<I, V, E, M>>
+            Class<? extends BaseVertex<I, V, E, M>>
             getVertexClass(Configuration conf) {
-        return (Class<? extends Vertex<I, V, E, M>>)
+        return (Class<? extends BaseVertex<I, V, E, M>>)
                 conf.getClass(GiraphJob.VERTEX_CLASS,
                               null,
-                              Vertex.class);
+                              BaseVertex.class);
     }
 
     /**
@@ -220,13 +226,59 @@ public class BspUtils {
      */
     @SuppressWarnings("rawtypes")
     public static <I extends WritableComparable, V extends Writable,
-            E extends Writable, M extends Writable> Vertex<I, V, E, M>
+            E extends Writable, M extends Writable> BaseVertex<I, V, E, M>
             createVertex(Configuration conf) {
-        Class<? extends Vertex<I, V, E, M>> vertexClass =
+        Class<? extends BaseVertex<I, V, E, M>> vertexClass =
             getVertexClass(conf);
         return ReflectionUtils.newInstance(vertexClass, conf);
     }
 
+    /**
+     * Create a store for the edges of vertices read together (i.e. a
+     * vertex range), if the edges are immutable and not encoded in byte
+     * arrays.
+     *
+     * @param conf Configuration to check
+     * @return New edge store, null if the edges are not kept in one
+     */
+    @SuppressWarnings("rawtypes")
+    public static <I extends WritableComparable, E extends Writable>
+            CsrEdgeStore<I, E> createEdgeStore(Configuration conf) {
+        if (conf.getBoolean(GiraphJob.BYTE_ARRAY_EDGES,
+                            GiraphJob.BYTE_ARRAY_EDGES_DEFAULT) ||
+                !conf.getBoolean(GiraphJob.IMMUTABLE_EDGES,
+                                 GiraphJob.IMMUTABLE_EDGES_DEFAULT)) {
+            return null;
+        }
+        return new CsrEdgeStore<I, E>();
+    }
+
+    /**
+     * Create a user vertex and deserialize it, adding the edges of a
+     * {@link Vertex} to a shared edge store.
+     *
+     * @param conf Configuration to check
+     * @param in Input to read the vertex from
+     * @param edgeStore Store shared by the vertices read together (see
+     *        {@link #createEdgeStore(Configuration)}), can be null
+     * @return Deserialized user vertex
+     * @throws IOException
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static <I extends WritableComparable, V extends Writable,
+            E extends Writable, M extends Writable> BaseVertex<I, V, E, M>
+            readVertex(Configuration conf,
+                       DataInput in,
+                       CsrEdgeStore<I, E> edgeStore) throws IOException {
+        BaseVertex<I, V, E, M> vertex = createVertex(conf);
+        if (edgeStore != null && vertex instanceof Vertex) {
+            ((Vertex<I, V, E, M>) vertex).readFields(in, edgeStore);
+        } else {
+            vertex.readFields(in);
+        }
+        return vertex;
+    }
+
     /**
      * Get the user's subclassed vertex index class.
      *
@@ -359,4 +411,46 @@ public class BspUtils {
                 "createMessageValue: Illegally accessed", e);
         }
     }
+
+    /**
+     * Check if the incoming messages are kept serialized until compute()
+     * (see {@link GiraphJob#USE_BYTE_ARRAY_MESSAGES}).
+     *
+     * @param conf Configuration to check
+     * @return True if the messages of a vertex are kept in a byte array
+     */
+    public static boolean useByteArrayMessages(Configuration conf) {
+        return conf.getBoolean(GiraphJob.USE_BYTE_ARRAY_MESSAGES,
+                               GiraphJob.USE_BYTE_ARRAY_MESSAGES_DEFAULT) &&
+            conf.get(GiraphJob.VERTEX_COMBINER_CLASS) == null;
+    }
+
+    /**
+     * Create an empty list for the incoming messages of a vertex.
+     *
+     * @param conf Configuration to check
+     * @return {@link ByteArrayMsgList} if the messages are kept serialized,
+     *         an {@link ArrayList} otherwise
+     */
+    public static <M extends Writable> List<M>
+            createMsgList(Configuration conf) {
+        if (useByteArrayMessages(conf)) {
+            return new ByteArrayMsgList<M>(conf);
+        }
+        return new ArrayList<M>();
+    }
+
+    /**
+     * Get the hash partition of a vertex index.
+     *
+     * @param vertexIndex Vertex index
+     * @param hashPartitionCount Number of hash partitions
+     * @return Hash partition id in [0, hashPartitionCount)
+     */
+    @SuppressWarnings("rawtypes")
+    public static int getHashPartitionId(WritableComparable vertexIndex,
+                                         int hashPartitionCount) {
+        return (vertexIndex.hashCode() & Integer.MAX_VALUE) %
+            hashPartitionCount;
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Read-only {@link SortedMap} of the edges of a vertex encoded in a single
+ * byte array.  The edges are sorted by destination vertex id and every
+ * edge is its destination vertex id followed by its edge value, in their
+ * Writable format.  {@link LongWritable} and {@link IntWritable} ids are
+ * instead stored as the variable-length difference to the previous id,
+ * which usually takes one or two bytes.
+ * <p>
+ * Lookups decode the edges in order.  The edges returned by the map are
+ * new objects (the framework may keep references to the destination vertex
+ * ids), while {@link #reusableIterator()} decodes all the edges into the
+ * same objects for sequential passes.
+ *
+ * @param <I> Vertex index value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("rawtypes")
+public class ByteArrayEdges<I extends WritableComparable, E extends Writable>
+        extends AbstractMap<I, Edge<I, E>>
+        implements SortedMap<I, Edge<I, E>> {
+    /** Configuration (used to instantiate the ids and edge values) */
+    private final Configuration conf;
+    /** Encoded edges */
+    private final byte[] data;
+    /** Number of edges */
+    private final int numEdges;
+    /** Ids are encoded as the difference to the previous id */
+    private final boolean deltaIds;
+
+    /**
+     * Encode edges.
+     *
+     * @param conf Configuration
+     * @param edges Edges sorted by destination vertex id without duplicates
+     *        (i.e. the values of a sorted edge map)
+     */
+    public ByteArrayEdges(Configuration conf, Collection<Edge<I, E>> edges) {
+        this.conf = conf;
+        this.numEdges = edges.size();
+        boolean deltaIds = false;
+        DataOutputBuffer output = new DataOutputBuffer();
+        try {
+            long previousId = 0;
+            for (Edge<I, E> edge : edges) {
+                I destVertexId = edge.getDestVertexId();
+                if (output.getLength() == 0) {
+                    deltaIds = (destVertexId instanceof LongWritable) ||
+                        (destVertexId instanceof IntWritable);
+                }
+                if (deltaIds) {
+                    long id = getLongId(destVertexId);
+                    WritableUtils.writeVLong(output, id - previousId);
+                    previousId = id;
+                } else {
+                    destVertexId.write(output);
+                }
+                edge.getEdgeValue().write(output);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "ByteArrayEdges: Failed to encode " + numEdges + " edges", e);
+        }
+        this.deltaIds = deltaIds;
+        this.data = Arrays.copyOf(output.getData(), output.getLength());
+    }
+
+    /**
+     * Get a delta encoded id as a long.
+     *
+     * @param id {@link LongWritable} or {@link IntWritable} id
+     * @return Value of the id
+     */
+    private static long getLongId(Writable id) {
+        if (id instanceof LongWritable) {
+            return ((LongWritable) id).get();
+        }
+        return ((IntWritable) id).get();
+    }
+
+    /**
+     * Get the number of encoded bytes of the edges.
+     *
+     * @return Size of the edges in bytes
+     */
+    public int getSize() {
+        return data.length;
+    }
+
+    /**
+     * Iterate over the edges, decoding every edge into the same
+     * {@link Edge}, id and edge value objects.  The edges must be copied if
+     * they are kept after the next call to next().
+     *
+     * @return Iterator over the edges in order
+     */
+    public Iterator<Edge<I, E>> reusableIterator() {
+        return new EdgeIterator(true);
+    }
+
+    /**
+     * Decodes the edges in order.
+     */
+    private class EdgeIterator implements Iterator<Edge<I, E>> {
+        /** Input over the encoded edges */
+        private final DataInputBuffer input = new DataInputBuffer();
+        /** Decode into the same objects */
+        private final boolean reuse;
+        /** Reused destination vertex id */
+        private I destVertexId = null;
+        /** Reused edge value */
+        private E edgeValue = null;
+        /** Reused edge */
+        private Edge<I, E> edge = null;
+        /** Previous id (if delta encoded) */
+        private long previousId = 0;
+        /** Number of edges decoded */
+        private int index = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param reuse Decode into the same objects
+         */
+        public EdgeIterator(boolean reuse) {
+            this.reuse = reuse;
+            input.reset(data, data.length);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < numEdges;
+        }
+
+        @Override
+        public Edge<I, E> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("next: No more edges");
+            }
+            if (!reuse || edge == null) {
+                destVertexId = BspUtils.<I>createVertexIndex(conf);
+                edgeValue = BspUtils.<E>createEdgeValue(conf);
+                edge = new Edge<I, E>(destVertexId, edgeValue);
+                edge.setConf(conf);
+            }
+            try {
+                if (deltaIds) {
+                    previousId += WritableUtils.readVLong(input);
+                    if (destVertexId instanceof LongWritable) {
+                        ((LongWritable) destVertexId).set(previousId);
+                    } else {
+                        ((IntWritable) destVertexId).set((int) previousId);
+                    }
+                } else {
+                    destVertexId.readFields(input);
+                }
+                edgeValue.readFields(input);
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "next: Failed to decode edge " + index, e);
+            }
+            ++index;
+            return edge;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                "remove: Edge map is read-only");
+        }
+    }
+
+    @Override
+    public int size() {
+        return numEdges;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Edge<I, E> get(Object key) {
+        Iterator<Edge<I, E>> it = reusableIterator();
+        while (it.hasNext()) {
+            Edge<I, E> edge = it.next();
+            int cmp = edge.getDestVertexId().compareTo(key);
+            if (cmp == 0) {
+                Edge<I, E> copy = new Edge<I, E>(
+                    WritableUtils.clone(edge.getDestVertexId(), conf),
+                    WritableUtils.clone(edge.getEdgeValue(), conf));
+                copy.setConf(conf);
+                return copy;
+            } else if (cmp > 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<I, Edge<I, E>>> entrySet() {
+        return new AbstractSet<Map.Entry<I, Edge<I, E>>>() {
+            @Override
+            public Iterator<Map.Entry<I, Edge<I, E>>> iterator() {
+                final EdgeIterator it = new EdgeIterator(false);
+                return new Iterator<Map.Entry<I, Edge<I, E>>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<I, Edge<I, E>> next() {
+                        Edge<I, E> edge = it.next();
+                        return new SimpleImmutableEntry<I, Edge<I, E>>(
+                            edge.getDestVertexId(), edge);
+                    }
+
+                    @Override
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return numEdges;
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super I> comparator() {
+        return null;
+    }
+
+    @Override
+    public I firstKey() {
+        if (numEdges == 0) {
+            throw new NoSuchElementException("firstKey: No edges");
+        }
+        return new EdgeIterator(false).next().getDestVertexId();
+    }
+
+    @Override
+    public I lastKey() {
+        if (numEdges == 0) {
+            throw new NoSuchElementException("lastKey: No edges");
+        }
+        Iterator<Edge<I, E>> it = new EdgeIterator(false);
+        Edge<I, E> edge = null;
+        while (it.hasNext()) {
+            edge = it.next();
+        }
+        return edge.getDestVertexId();
+    }
+
+    /**
+     * Decode all the edges into a read-only sorted map, for the sub map
+     * views (which are rarely used).
+     *
+     * @return Read-only copy of the edges
+     */
+    private SortedMap<I, Edge<I, E>> decodeAll() {
+        return Collections.unmodifiableSortedMap(
+            new TreeMap<I, Edge<I, E>>(this));
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> subMap(I fromKey, I toKey) {
+        return decodeAll().subMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> headMap(I toKey) {
+        return decodeAll().headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> tailMap(I fromKey) {
+        return decodeAll().tailMap(fromKey);
+    }
+}
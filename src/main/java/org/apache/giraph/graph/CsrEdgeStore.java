@@ -0,0 +1,148 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.SortedMap;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Edges of many vertices stored in compressed sparse row (CSR) form: the
+ * destination vertex ids and edge values of all the vertices share two
+ * arrays, and the edges of a vertex are the slice between its offset and
+ * the offset of the next vertex.  Vertices are only ever appended, so the
+ * edges of a vertex never move once added.  Not thread-safe while being
+ * built; the edge maps can be read concurrently afterwards.
+ * <p>
+ * This removes the TreeMap entries and the per-vertex map of every edge,
+ * but the arrays still hold references to the Writable id and value
+ * objects of the edges, so the per-edge object overhead remains.
+ * Vertex ids and edge values serialized in one byte array per vertex are
+ * offered by {@link ByteArrayEdges} instead.
+ *
+ * @param <I> Vertex index value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("rawtypes")
+public class CsrEdgeStore<I extends WritableComparable, E extends Writable> {
+    /** Initial capacity of the arrays */
+    private static final int INITIAL_CAPACITY = 16;
+    /** First edge of every vertex, followed by the total number of edges */
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    /** Number of vertices added */
+    private int numVertices = 0;
+    /** Destination vertex ids of the edges, by vertex */
+    private Object[] destVertexIds = new Object[INITIAL_CAPACITY];
+    /** Edge values of the edges, by vertex */
+    private Object[] edgeValues = new Object[INITIAL_CAPACITY];
+    /** Number of edges added */
+    private int numEdges = 0;
+
+    /**
+     * Add the edges of a vertex.
+     *
+     * @param edges Edges of the vertex, sorted by destination vertex id
+     *        without duplicates (i.e. the values of a sorted edge map)
+     * @return Slot of the vertex, used to get its edges back
+     */
+    public int addEdges(Collection<Edge<I, E>> edges) {
+        if (numVertices + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        int newNumEdges = numEdges + edges.size();
+        if (newNumEdges > destVertexIds.length) {
+            int capacity = Math.max(newNumEdges, destVertexIds.length * 2);
+            destVertexIds = Arrays.copyOf(destVertexIds, capacity);
+            edgeValues = Arrays.copyOf(edgeValues, capacity);
+        }
+        for (Edge<I, E> edge : edges) {
+            destVertexIds[numEdges] = edge.getDestVertexId();
+            edgeValues[numEdges] = edge.getEdgeValue();
+            ++numEdges;
+        }
+        offsets[numVertices] = newNumEdges - edges.size();
+        ++numVertices;
+        offsets[numVertices] = numEdges;
+        return numVertices - 1;
+    }
+
+    /**
+     * Release the unused capacity of the arrays once all the vertices were
+     * added.
+     */
+    public void trim() {
+        offsets = Arrays.copyOf(offsets, numVertices + 1);
+        destVertexIds = Arrays.copyOf(destVertexIds, numEdges);
+        edgeValues = Arrays.copyOf(edgeValues, numEdges);
+    }
+
+    /**
+     * Get the number of vertices added.
+     *
+     * @return Number of vertices
+     */
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    /**
+     * Get the number of edges of all the vertices.
+     *
+     * @return Number of edges
+     */
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    /**
+     * Get a read-only view of the edges of a vertex.  Every call creates a
+     * new view, callers should keep it.
+     *
+     * @param slot Slot of the vertex (returned by addEdges())
+     * @return Edges of the vertex
+     */
+    public SortedMap<I, Edge<I, E>> getEdgeMap(final int slot) {
+        if (slot < 0 || slot >= numVertices) {
+            throw new IllegalArgumentException(
+                "getEdgeMap: Invalid slot " + slot + ", only have " +
+                numVertices + " vertices");
+        }
+        return new IndexedEdgeMap<I, E>() {
+            @Override
+            public int size() {
+                return offsets[slot + 1] - offsets[slot];
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            protected I getDestVertexId(int index) {
+                return (I) destVertexIds[offsets[slot] + index];
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            protected E getEdgeValue(int index) {
+                return (E) edgeValues[offsets[slot] + index];
+            }
+        };
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import org.apache.giraph.bsp.BspInputFormat;
 import org.apache.giraph.bsp.BspOutputFormat;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.log4j.Logger;
 
@@ -140,11 +141,183 @@ public class GiraphJob extends Job {
     /** Default maximum number of RPC handlers */
     public static final int RPC_NUM_HANDLERS_DEFAULT = 100;
 
+    /**
+     * Use the Netty transport instead of Hadoop RPC for the communication
+     * between workers (boolean)
+     */
+    public static final String USE_NETTY = "giraph.useNetty";
+    /** Default is to use Hadoop RPC */
+    public static final boolean USE_NETTY_DEFAULT = false;
+
+    /** Number of Netty I/O threads used by the client of every worker */
+    public static final String NETTY_CLIENT_THREADS =
+        "giraph.nettyClientThreads";
+    /** Default number of Netty client I/O threads */
+    public static final int NETTY_CLIENT_THREADS_DEFAULT = 4;
+
+    /**
+     * Number of Netty I/O threads used by the server of every worker (the
+     * requests are executed by {@link #RPC_NUM_HANDLERS} other threads)
+     */
+    public static final String NETTY_SERVER_THREADS =
+        "giraph.nettyServerThreads";
+    /** Default number of Netty server I/O threads */
+    public static final int NETTY_SERVER_THREADS_DEFAULT = 4;
+
+    /**
+     * Maximum number of Netty requests to a peer that can be waiting for
+     * their acknowledgement before the sender blocks (int)
+     */
+    public static final String NETTY_MAX_OUTSTANDING_REQUESTS =
+        "giraph.nettyMaxOutstandingRequests";
+    /** Default maximum number of outstanding Netty requests per peer */
+    public static final int NETTY_MAX_OUTSTANDING_REQUESTS_DEFAULT = 100;
+
+    /**
+     * Workers running in the same JVM call each other directly instead of
+     * going through a transport (boolean, set by
+     * {@link InProcessGraphRunner})
+     */
+    public static final String USE_LOCAL_COMMUNICATIONS =
+        "giraph.useLocalCommunications";
+    /** Default is to use a transport */
+    public static final boolean USE_LOCAL_COMMUNICATIONS_DEFAULT = false;
+
     /** Maximum number of messages per peer before flush */
     public static final String MSG_SIZE = "giraph.msgSize";
     /** Default maximum number of messages per peer before flush */
     public static final int MSG_SIZE_DEFAULT = 1000;
 
+    /**
+     * Maximum size in bytes of the serialized message buffer kept for a
+     * remote peer before it is sent out during the superstep (int)
+     */
+    public static final String MSG_BUFFER_SIZE = "giraph.msgBufferSize";
+    /** Default maximum size in bytes of a serialized message buffer */
+    public static final int MSG_BUFFER_SIZE_DEFAULT = 512 * 1024;
+
+    /**
+     * Maximum number of full message buffers of a remote peer waiting to be
+     * sent before the sending compute threads block (int)
+     */
+    public static final String MSG_BUFFER_CREDITS = "giraph.msgBufferCredits";
+    /** Default maximum number of full message buffers waiting per peer */
+    public static final int MSG_BUFFER_CREDITS_DEFAULT = 4;
+
+    /**
+     * Number of threads sending the requests to all the other workers,
+     * independent of the number of workers (int)
+     */
+    public static final String NUM_SENDER_THREADS =
+        "giraph.numSenderThreads";
+    /** Default number of sender threads */
+    public static final int NUM_SENDER_THREADS_DEFAULT = 4;
+
+    /**
+     * Class of the Hadoop CompressionCodec used to compress the message
+     * buffers, mutation buffers and vertex lists sent to other workers
+     * (not compressed if unset)
+     */
+    public static final String COMM_COMPRESSION_CODEC =
+        "giraph.commCompressionCodec";
+
+    /**
+     * Minimum size in bytes of a batched payload before it is compressed
+     * (int)
+     */
+    public static final String COMM_COMPRESSION_THRESHOLD =
+        "giraph.commCompressionThreshold";
+    /** Default minimum size in bytes of a compressed payload */
+    public static final int COMM_COMPRESSION_THRESHOLD_DEFAULT = 4096;
+
+    /**
+     * Maximum number of incoming messages a worker keeps in memory during a
+     * superstep (long).  Beyond that, they are spilled to local disk as
+     * sorted runs.  If not positive, all the messages are kept in memory.
+     */
+    public static final String MAX_MESSAGES_IN_MEMORY =
+        "giraph.maxMessagesInMemory";
+    /** Default is to keep all the incoming messages in memory */
+    public static final long MAX_MESSAGES_IN_MEMORY_DEFAULT = 0;
+
+    /**
+     * Keep the incoming messages of every vertex serialized in a single
+     * byte array until compute() (boolean).  The message iterator passed to
+     * compute() then reuses a single message object, so compute() must
+     * not keep references to the messages.  Only used without a combiner.
+     */
+    public static final String USE_BYTE_ARRAY_MESSAGES =
+        "giraph.useByteArrayMessages";
+    /** Default is to keep the incoming messages as objects */
+    public static final boolean USE_BYTE_ARRAY_MESSAGES_DEFAULT = false;
+
+    /**
+     * Number of threads used to run compute() on the vertex ranges owned by
+     * a worker.  When more than one thread is used, compute() and any
+     * aggregators must be thread-safe. (int)
+     */
+    public static final String NUM_COMPUTE_THREADS =
+        "giraph.numComputeThreads";
+    /** Default number of compute threads */
+    public static final int NUM_COMPUTE_THREADS_DEFAULT = 1;
+
+    /**
+     * Number of threads used by every worker to load its InputSplits
+     * concurrently.  The VertexInputFormat and VertexReader must then be
+     * thread-safe across InputSplits. (int)
+     */
+    public static final String NUM_INPUT_SPLIT_THREADS =
+        "giraph.numInputSplitThreads";
+    /** Default number of input split threads */
+    public static final int NUM_INPUT_SPLIT_THREADS_DEFAULT = 1;
+
+    /**
+     * Deliver the messages sent to vertices of the vertex range being
+     * computed right away, so that the vertices not computed yet see them
+     * in the same superstep.  Only for algorithms that converge to the same
+     * result when messages arrive early (i.e. shortest paths, connected
+     * components). (boolean)
+     */
+    public static final String ASYNC_LOCAL_MESSAGES =
+        "giraph.asyncLocalMessages";
+    /** Default is to see all the messages in the next superstep only */
+    public static final boolean ASYNC_LOCAL_MESSAGES_DEFAULT = false;
+
+    /**
+     * Remember the vertices of every vertex range that are still active or
+     * received messages, so that a superstep only visits them instead of
+     * all the vertices. (boolean)
+     */
+    public static final String TRACK_ACTIVE_VERTICES =
+        "giraph.trackActiveVertices";
+    /** Default is to track the active vertices */
+    public static final boolean TRACK_ACTIVE_VERTICES_DEFAULT = true;
+
+    /**
+     * Store the edges of {@link Vertex} subclasses in shared compressed
+     * sparse row arrays instead of a TreeMap per vertex (the arrays still
+     * reference one id and one value object per edge).  The arrays are
+     * shared by the vertices of an InputSplit when loaded, and by those of
+     * a vertex range when read back from a checkpoint, another worker or
+     * local disk.  The edge map is
+     * then read-only and copied back to a TreeMap by the first edge
+     * mutation of a vertex. (boolean)
+     */
+    public static final String IMMUTABLE_EDGES = "giraph.immutableEdges";
+    /** Default is a mutable TreeMap of edges per vertex */
+    public static final boolean IMMUTABLE_EDGES_DEFAULT = false;
+
+    /**
+     * Encode the edges of every {@link Vertex} subclass in a byte array,
+     * with LongWritable and IntWritable ids stored as variable-length
+     * deltas.  Like giraph.immutableEdges (which it takes precedence over),
+     * the edge map is then read-only until the first edge mutation of a
+     * vertex. (boolean)
+     */
+    public static final String BYTE_ARRAY_EDGES = "giraph.byteArrayEdges";
+    /** Default is a mutable TreeMap of edges per vertex */
+    public static final boolean BYTE_ARRAY_EDGES_DEFAULT = false;
+
     /** Number of poll attempts prior to failing the job (int) */
     public static final String POLL_ATTEMPTS = "giraph.pollAttempts";
     /** Default poll attempts */
@@ -156,6 +329,41 @@ public class GiraphJob extends Job {
     /** Default number of minimum vertices in each vertex range */
     public static final long MIN_VERTICES_PER_RANGE_DEFAULT = 3;
 
+    /**
+     * Place the vertices by hashing their index into a fixed number of
+     * partitions instead of ordered vertex ranges.  The input does not need
+     * to be sorted in this mode (boolean)
+     */
+    public static final String USE_HASH_PARTITIONING =
+        "giraph.useHashPartitioning";
+    /** Default is to use ordered vertex ranges */
+    public static final boolean USE_HASH_PARTITIONING_DEFAULT = false;
+
+    /**
+     * Number of hash partitions when using hash partitioning (int).  If not
+     * positive, one hash partition per maximum worker is used.
+     */
+    public static final String HASH_PARTITION_COUNT =
+        "giraph.hashPartitionCount";
+    /** Default is one hash partition per maximum worker */
+    public static final int HASH_PARTITION_COUNT_DEFAULT = 0;
+
+    /**
+     * Maximum number of vertex ranges a worker keeps in memory (int).  The
+     * least recently used vertex ranges are spilled to local disk beyond
+     * that.  If not positive, all the vertex ranges are kept in memory.
+     */
+    public static final String MAX_VERTEX_RANGES_IN_MEMORY =
+        "giraph.maxVertexRangesInMemory";
+    /** Default is to keep all the vertex ranges in memory */
+    public static final int MAX_VERTEX_RANGES_IN_MEMORY_DEFAULT = 0;
+
+    /**
+     * Local directory to spill the vertex ranges and messages to.  If not
+     * set, uses _bspOutOfCore in the job local directory.
+     */
+    public static final String OUT_OF_CORE_DIR = "giraph.outOfCoreDir";
+
     /** Minimum stragglers of the superstep before printing them out */
     public static final String PARTITION_LONG_TAIL_MIN_PRINT =
         "giraph.partitionLongTailMinPrint";
@@ -261,6 +469,8 @@ public class GiraphJob extends Job {
 
     /** Class logger */
     private static final Logger LOG = Logger.getLogger(GiraphJob.class);
+    /** Counters of the last runInProcess() (null if never run in process) */
+    private Counters inProcessCounters = null;
 
     /**
      * Constructor that will instantiate the configuration
@@ -327,7 +537,9 @@ public class GiraphJob extends Job {
      * @param vertexClass Runs vertex computation
      */
     final public void setVertexClass(Class<?> vertexClass) {
-        getConfiguration().setClass(VERTEX_CLASS, vertexClass, Vertex.class);
+        getConfiguration().setClass(VERTEX_CLASS,
+                                    vertexClass,
+                                    BaseVertex.class);
     }
 
     /**
@@ -492,4 +704,34 @@ public class GiraphJob extends Job {
         setOutputFormatClass(BspOutputFormat.class);
         return waitForCompletion(verbose);
     }
+
+    /**
+     * Runs the graph application in this JVM (see
+     * {@link InProcessGraphRunner}) rather than through Hadoop Map-Reduce.
+     *
+     * @param numWorkers Number of workers
+     * @return True if the application succeeded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    final public boolean runInProcess(int numWorkers)
+            throws IOException, InterruptedException {
+        setWorkerConfiguration(numWorkers, numWorkers, 100.0f);
+        checkConfiguration();
+        InProcessGraphRunner runner =
+            new InProcessGraphRunner(conf, numWorkers);
+        boolean succeeded = runner.run();
+        inProcessCounters = runner.getCounters();
+        return succeeded;
+    }
+
+    /**
+     * Get the counters of the last run in this JVM (see
+     * {@link #runInProcess(int)}).
+     *
+     * @return Counters summed over the tasks, null if never run in process
+     */
+    public Counters getInProcessCounters() {
+        return inProcessCounters;
+    }
 }
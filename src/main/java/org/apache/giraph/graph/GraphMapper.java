@@ -4,12 +4,26 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.LocalCommunications;
+import org.apache.giraph.comm.NettyCommunications;
 import org.apache.giraph.comm.RPCCommunications;
 import org.apache.giraph.comm.ServerInterface;
 import org.apache.giraph.comm.WorkerCommunications;
@@ -48,6 +62,231 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
     private boolean done = false;
     /** What kind of functions is this mapper doing? */
     private MapFunctions mapFunctions = MapFunctions.UNKNOWN;
+    /** Number of threads running compute() */
+    private int numComputeThreads = 1;
+    /** Runs compute() on the vertex ranges (null if single threaded) */
+    private ExecutorService computeExecutor = null;
+    /** Deliver the messages within a vertex range in the same superstep */
+    private boolean asyncLocalMessages =
+        GiraphJob.ASYNC_LOCAL_MESSAGES_DEFAULT;
+    /** Only visit the active vertices of the vertex ranges */
+    private boolean trackActiveVertices =
+        GiraphJob.TRACK_ACTIVE_VERTICES_DEFAULT;
+    /** Compute callable of the current thread (null if not computing) */
+    private final ThreadLocal<ComputeCallable> localComputeCallable =
+        new ThreadLocal<ComputeCallable>();
+
+    /**
+     * Vertex statistics gathered by a single compute thread during a
+     * superstep.  Merged into the worker statistics before
+     * finishSuperstep().
+     */
+    private static class ComputeStats {
+        /** Vertices that were halted after compute */
+        private long finishedVertices = 0;
+        /** Vertices processed */
+        private long vertices = 0;
+        /** Edges of the processed vertices */
+        private long edges = 0;
+        /** Messages delivered in the same superstep */
+        private long localMessages = 0;
+
+        /**
+         * Merge the statistics of another thread into this one.
+         *
+         * @param other Statistics to add
+         */
+        public void add(ComputeStats other) {
+            finishedVertices += other.finishedVertices;
+            vertices += other.vertices;
+            edges += other.edges;
+            localMessages += other.localMessages;
+        }
+    }
+
+    /**
+     * Takes vertex ranges off a shared queue and runs compute() on all their
+     * vertices until the queue is empty.  Several can be run in parallel,
+     * since every vertex range is only processed by a single thread.
+     */
+    private class ComputeCallable implements Callable<ComputeStats> {
+        /** Vertex ranges still to be processed (shared) */
+        private final Queue<VertexRange<I, V, E, M>> vertexRangeQueue;
+        /** Context used to report progress */
+        private final Context context;
+        /** Vertices of the vertex range being computed */
+        private SortedMap<I, BasicVertex<I, V, E, M>> computingVertexMap =
+            null;
+        /** Index of the vertex being computed */
+        private I computingVertexIndex = null;
+        /** Vertices that got messages delivered in this vertex range */
+        private final Set<I> localMsgReceivers = new TreeSet<I>();
+        /** Stats of this thread */
+        private ComputeStats stats = null;
+
+        /**
+         * Constructor.
+         *
+         * @param vertexRangeQueue Shared queue of vertex ranges to process
+         * @param context Context used to report progress
+         */
+        public ComputeCallable(
+                Queue<VertexRange<I, V, E, M>> vertexRangeQueue,
+                Context context) {
+            this.vertexRangeQueue = vertexRangeQueue;
+            this.context = context;
+        }
+
+        @Override
+        public ComputeStats call() throws IOException {
+            stats = new ComputeStats();
+            VertexRangeStore<I, V, E, M> vertexRangeStore =
+                serviceWorker.getVertexRangeStore();
+            VertexRange<I, V, E, M> vertexRange = null;
+            localComputeCallable.set(this);
+            try {
+                while ((vertexRange = vertexRangeQueue.poll()) != null) {
+                    // Keep the vertex range in memory while computing it
+                    if (vertexRangeStore != null) {
+                        vertexRangeStore.pin(vertexRange);
+                    }
+                    try {
+                        computeVertexRange(vertexRange, stats);
+                    } finally {
+                        if (vertexRangeStore != null) {
+                            vertexRangeStore.unpin(vertexRange);
+                        }
+                    }
+                }
+            } finally {
+                localComputeCallable.remove();
+            }
+            return stats;
+        }
+
+        /**
+         * Deliver a message to a vertex of the vertex range being computed.
+         * If the vertex is computed later in this superstep, it sees the
+         * message right away, otherwise in the next superstep.
+         *
+         * @param id Destination vertex index
+         * @param msg Message to deliver
+         * @return False if the message must be sent normally (the vertex is
+         *         in another vertex range or is the sender)
+         */
+        public boolean deliverLocalMsg(I id, M msg) {
+            if (computingVertexMap == null ||
+                    id.equals(computingVertexIndex)) {
+                return false;
+            }
+            BasicVertex<I, V, E, M> vertex = computingVertexMap.get(id);
+            if (vertex == null) {
+                return false;
+            }
+            vertex.getMsgList().add(msg);
+            localMsgReceivers.add(id);
+            ++stats.localMessages;
+            return true;
+        }
+
+        /**
+         * Compute the vertices of a vertex range.  Only the vertices that
+         * were left active by the previous superstep or received messages
+         * are visited, when the vertex range knows them.
+         *
+         * @param vertexRange Vertex range to compute
+         * @param stats Stats to add to
+         * @throws IOException
+         */
+        private void computeVertexRange(VertexRange<I, V, E, M> vertexRange,
+                                        ComputeStats stats)
+                throws IOException {
+            SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
+                vertexRange.getVertexMap();
+            if (asyncLocalMessages) {
+                computingVertexMap = vertexMap;
+            }
+            // Positions of the active vertices, in vertex index order
+            BitSet activeVertices = trackActiveVertices ?
+                vertexRange.getActiveVertices() : null;
+            BitSet nextActiveVertices = trackActiveVertices ?
+                new BitSet(vertexMap.size()) : null;
+            long nextActiveVertexCount = 0;
+            long edges = 0;
+            if (activeVertices == null) {
+                int position = 0;
+                for (BasicVertex<I, V, E, M> vertex : vertexMap.values()) {
+                    if (computeVertex(vertex)) {
+                        ++nextActiveVertexCount;
+                        if (nextActiveVertices != null) {
+                            nextActiveVertices.set(position);
+                        }
+                    }
+                    edges += vertex.getOutEdgeMap().size();
+                    ++position;
+                }
+            } else {
+                edges = vertexRange.getActiveEdgeCount();
+                for (int position = activeVertices.nextSetBit(0);
+                        position >= 0;
+                        position = activeVertices.nextSetBit(position + 1)) {
+                    BasicVertex<I, V, E, M> vertex =
+                        vertexRange.getVertexAt(position);
+                    edges -= vertex.getOutEdgeMap().size();
+                    if (computeVertex(vertex)) {
+                        ++nextActiveVertexCount;
+                        nextActiveVertices.set(position);
+                    }
+                    edges += vertex.getOutEdgeMap().size();
+                }
+            }
+            // Halted vertices that got messages after they were visited
+            // see them in the next superstep
+            if (nextActiveVertices != null) {
+                for (I vertexIndex : localMsgReceivers) {
+                    if (!vertexMap.get(vertexIndex).getMsgList().isEmpty()) {
+                        nextActiveVertices.set(
+                            vertexRange.getVertexPosition(vertexIndex));
+                    }
+                }
+            }
+            localMsgReceivers.clear();
+            computingVertexMap = null;
+            vertexRange.setActiveVertices(nextActiveVertices, edges);
+            stats.finishedVertices +=
+                vertexMap.size() - nextActiveVertexCount;
+            stats.vertices += vertexMap.size();
+            stats.edges += edges;
+        }
+
+        /**
+         * Compute a vertex if it is active or received messages.  Its
+         * messages are released afterwards.
+         *
+         * @param vertex Vertex to compute
+         * @return True if the vertex is still active (not halted)
+         * @throws IOException
+         */
+        private boolean computeVertex(BasicVertex<I, V, E, M> vertex)
+                throws IOException {
+            if (vertex.isHalted() &&
+                    !vertex.getMsgList().isEmpty()) {
+                BaseVertex<I, V, E, M> activatedVertex =
+                    (BaseVertex<I, V, E, M>) vertex;
+                activatedVertex.halt = false;
+            }
+            if (!vertex.isHalted()) {
+                Iterator<M> vertexMsgIt =
+                    vertex.getMsgList().iterator();
+                context.progress();
+                computingVertexIndex = vertex.getVertexId();
+                vertex.compute(vertexMsgIt);
+                computingVertexIndex = null;
+            }
+            vertex.getMsgList().clear();
+            return !vertex.isHalted();
+        }
+    }
 
     /** What kinds of functions to run on this mapper */
     public enum MapFunctions {
@@ -76,6 +315,26 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
         return commService;
     }
 
+    /**
+     * Deliver a message right away if it goes to the vertex range being
+     * computed by this thread and giraph.asyncLocalMessages is set.
+     *
+     * @param id Destination vertex index
+     * @param msg Message to deliver
+     * @return False if the message must be sent with the worker
+     *         communications
+     */
+    final boolean deliverLocalMsg(I id, M msg) {
+        if (!asyncLocalMessages) {
+            return false;
+        }
+        ComputeCallable computeCallable = localComputeCallable.get();
+        if (computeCallable == null) {
+            return false;
+        }
+        return computeCallable.deliverLocalMsg(id, msg);
+    }
+
     /**
      * Get the aggregator usage, a subset of the functionality
      *
@@ -139,10 +398,11 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
      * @param conf Configuration to get the various classes
      */
     public void determineClassTypes(Configuration conf) {
-        Class<? extends Vertex<I, V, E, M>> vertexClass =
+        Class<? extends BaseVertex<I, V, E, M>> vertexClass =
             BspUtils.<I, V, E, M>getVertexClass(conf);
-        List<Class<?>> classList = ReflectionUtils.<Vertex>getTypeArguments(
-            Vertex.class, vertexClass);
+        List<Class<?>> classList =
+            ReflectionUtils.<BaseVertex>getTypeArguments(
+                BaseVertex.class, vertexClass);
         Type vertexIndexType = classList.get(0);
         Type vertexValueType = classList.get(1);
         Type edgeValueType = classList.get(2);
@@ -345,7 +605,7 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
                 if (taskPartition < masterCount) {
                     functions = MapFunctions.MASTER_ONLY;
                 } else {
-                    functions = MapFunctions.MASTER_ZOOKEEPER_ONLY;
+                    functions = MapFunctions.WORKER_ONLY;
                 }
             } else {
                 if ((zkManager != null) && zkManager.runsZooKeeper()) {
@@ -373,24 +633,24 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
         }
         // Ensure the user classes have matching types and figure them out
         determineClassTypes(conf);
-        Vertex.setGraphMapper(this);
-        Vertex.setContext(context);
+        BaseVertex.setGraphMapper(this);
+        BaseVertex.setContext(context);
 
         // Do some initial setup (possibly starting up a Zookeeper service)
         context.setStatus("setup: Initializing Zookeeper services.");
-        String jarFile = context.getJar();
-        if (jarFile == null) {
-            jarFile = findContainingJar(getClass());
-        }
-        String trimmedJarFile = jarFile.replaceFirst("file:", "");
-        if (LOG.isInfoEnabled()) {
-            LOG.info("setup: jar file @ " + jarFile +
-                     ", using " + trimmedJarFile);
-        }
-        conf.set(GiraphJob.ZOOKEEPER_JAR, trimmedJarFile);
         String serverPortList =
             conf.get(GiraphJob.ZOOKEEPER_LIST, "");
         if (serverPortList == "") {
+            String jarFile = context.getJar();
+            if (jarFile == null) {
+                jarFile = findContainingJar(getClass());
+            }
+            String trimmedJarFile = jarFile.replaceFirst("file:", "");
+            if (LOG.isInfoEnabled()) {
+                LOG.info("setup: jar file @ " + jarFile +
+                         ", using " + trimmedJarFile);
+            }
+            conf.set(GiraphJob.ZOOKEEPER_JAR, trimmedJarFile);
             zkManager = new ZooKeeperManager(context);
             context.setStatus("setup: Setting up Zookeeper manager.");
             zkManager.setup();
@@ -501,6 +761,28 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
         }
         context.progress();
 
+        asyncLocalMessages =
+            conf.getBoolean(GiraphJob.ASYNC_LOCAL_MESSAGES,
+                            GiraphJob.ASYNC_LOCAL_MESSAGES_DEFAULT);
+        trackActiveVertices =
+            conf.getBoolean(GiraphJob.TRACK_ACTIVE_VERTICES,
+                            GiraphJob.TRACK_ACTIVE_VERTICES_DEFAULT);
+        numComputeThreads =
+            conf.getInt(GiraphJob.NUM_COMPUTE_THREADS,
+                        GiraphJob.NUM_COMPUTE_THREADS_DEFAULT);
+        if (numComputeThreads < 1) {
+            throw new IllegalArgumentException(
+                "map: Invalid " + GiraphJob.NUM_COMPUTE_THREADS + " = " +
+                numComputeThreads);
+        }
+        if (numComputeThreads > 1) {
+            if (LOG.isInfoEnabled()) {
+                LOG.info("map: Using " + numComputeThreads +
+                         " compute threads");
+            }
+            computeExecutor = Executors.newFixedThreadPool(numComputeThreads);
+        }
+
         long workerFinishedVertices = 0;
         long workerVertices = 0;
         long workerEdges = 0;
@@ -531,69 +813,98 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
                     LOG.info("map: Starting communication service on " +
                              "superstep " + superstep);
                 }
-                commService =
-                    new RPCCommunications<I, V, E, M>(context,
-                                                      serviceWorker);
+                if (conf.getBoolean(GiraphJob.USE_LOCAL_COMMUNICATIONS,
+                        GiraphJob.USE_LOCAL_COMMUNICATIONS_DEFAULT)) {
+                    commService =
+                        new LocalCommunications<I, V, E, M>(context,
+                                                            serviceWorker);
+                } else if (conf.getBoolean(GiraphJob.USE_NETTY,
+                                           GiraphJob.USE_NETTY_DEFAULT)) {
+                    commService =
+                        new NettyCommunications<I, V, E, M>(context,
+                                                            serviceWorker);
+                } else {
+                    commService =
+                        new RPCCommunications<I, V, E, M>(context,
+                                                          serviceWorker);
+                }
             }
             context.progress();
 
             // Might need to restart from another superstep
-            // (manually or automatic), or store a checkpoint
-            if (serviceWorker.getRestartedSuperstep() == superstep) {
+            // (manually or automatic), or store a checkpoint (once the
+            // vertex ranges are on the workers that own them)
+            boolean restarted =
+                (serviceWorker.getRestartedSuperstep() == superstep);
+            if (restarted) {
                 if (LOG.isInfoEnabled()) {
                     LOG.info("map: Loading from checkpoint " + superstep);
                 }
                 serviceWorker.loadCheckpoint(
                     serviceWorker.getRestartedSuperstep());
-            } else if (serviceWorker.checkpointFrequencyMet(superstep)) {
-                serviceWorker.storeCheckpoint();
             }
 
             serviceWorker.exchangeVertexRanges();
             context.progress();
 
-            Vertex.setSuperstep(superstep);
-            Vertex.setNumVertices(serviceWorker.getTotalVertices());
-            Vertex.setNumEdges(serviceWorker.getTotalEdges());
+            if (!restarted && serviceWorker.checkpointFrequencyMet(superstep)) {
+                serviceWorker.storeCheckpoint();
+            }
+
+            BaseVertex.setSuperstep(superstep);
+            BaseVertex.setNumVertices(serviceWorker.getTotalVertices());
+            BaseVertex.setNumEdges(serviceWorker.getTotalEdges());
 
             serviceWorker.getRepresentativeVertex().preSuperstep();
             context.progress();
 
-            workerFinishedVertices = 0;
-            workerVertices = 0;
-            workerEdges = 0;
-            workerSentMessages = 0;
+            // Only compute (and report stats for) my own vertex ranges
+            Queue<VertexRange<I, V, E, M>> vertexRangeQueue =
+                new ConcurrentLinkedQueue<VertexRange<I, V, E, M>>();
+            // Compute the vertex ranges already in memory before the
+            // spilled ones to reload as few of them as possible
+            List<VertexRange<I, V, E, M>> spilledVertexRangeList =
+                new ArrayList<VertexRange<I, V, E, M>>();
             for (Map.Entry<I, VertexRange<I, V, E, M>> entry :
                 serviceWorker.getVertexRangeMap().entrySet()) {
-                // Only report my own vertex range stats
                 if (!entry.getValue().getHostname().equals(
                         serviceWorker.getHostname()) ||
                         (entry.getValue().getPort() !=
                         serviceWorker.getPort())) {
                     continue;
                 }
+                if (entry.getValue().isSpilled()) {
+                    spilledVertexRangeList.add(entry.getValue());
+                } else {
+                    vertexRangeQueue.add(entry.getValue());
+                }
+            }
+            vertexRangeQueue.addAll(spilledVertexRangeList);
 
-                for (BasicVertex<I, V, E, M> vertex :
-                        entry.getValue().getVertexMap().values()) {
-                    if (vertex.isHalted() &&
-                            !vertex.getMsgList().isEmpty()) {
-                        Vertex<I, V, E, M> activatedVertex =
-                            (Vertex<I, V, E, M>) vertex;
-                        activatedVertex.halt = false;
-                    }
-                    if (!vertex.isHalted()) {
-                        Iterator<M> vertexMsgIt =
-                            vertex.getMsgList().iterator();
-                        context.progress();
-                        vertex.compute(vertexMsgIt);
-                    }
-                    if (vertex.isHalted()) {
-                        ++workerFinishedVertices;
+            ComputeStats workerStats = new ComputeStats();
+            if (computeExecutor == null) {
+                workerStats.add(
+                    new ComputeCallable(vertexRangeQueue, context).call());
+            } else {
+                List<Future<ComputeStats>> futureList =
+                    new ArrayList<Future<ComputeStats>>(numComputeThreads);
+                for (int i = 0; i < numComputeThreads; ++i) {
+                    futureList.add(computeExecutor.submit(
+                        new ComputeCallable(vertexRangeQueue, context)));
+                }
+                for (Future<ComputeStats> future : futureList) {
+                    try {
+                        workerStats.add(future.get());
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(
+                            "map: Compute thread failed on superstep " +
+                            superstep, e.getCause());
                     }
-                    ++workerVertices;
-                    workerEdges += vertex.getOutEdgeMap().size();
                 }
             }
+            workerFinishedVertices = workerStats.finishedVertices;
+            workerVertices = workerStats.vertices;
+            workerEdges = workerStats.edges;
 
             serviceWorker.getRepresentativeVertex().postSuperstep();
             context.progress();
@@ -603,7 +914,8 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
                          " maxMem=" + Runtime.getRuntime().maxMemory() +
                          " freeMem=" + Runtime.getRuntime().freeMemory());
             }
-            workerSentMessages = commService.flush(context);
+            workerSentMessages =
+                commService.flush(context) + workerStats.localMessages;
         } while (!serviceWorker.finishSuperstep(workerFinishedVertices,
                                                 workerVertices,
                                                 workerEdges,
@@ -612,6 +924,10 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
             LOG.info("map: BSP application done " +
                      "(global vertices marked done)");
         }
+        if (computeExecutor != null) {
+            computeExecutor.shutdown();
+            computeExecutor = null;
+        }
 
         serviceWorker.getRepresentativeVertex().postApplication();
         context.progress();
@@ -627,6 +943,10 @@ public class GraphMapper<I extends WritableComparable, V extends Writable,
             return;
         }
 
+        if (computeExecutor != null) {
+            computeExecutor.shutdownNow();
+            computeExecutor = null;
+        }
         if (commService != null) {
             commService.closeConnections();
         }
@@ -0,0 +1,322 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.giraph.bsp.BspInputFormat;
+import org.apache.giraph.bsp.BspInputSplit;
+import org.apache.giraph.bsp.BspOutputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.server.NIOServerCnxn;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Runs a graph application in this JVM, without a Hadoop job or an
+ * external ZooKeeper: a master task and the worker tasks are run as
+ * {@link GraphMapper}s in their own threads, coordinated through an
+ * embedded ZooKeeper server and communicating with direct calls
+ * ({@link org.apache.giraph.comm.LocalCommunications}).  Task 0 is the
+ * master, tasks 1 to n are the workers.  Meant for fast iterations on
+ * small and medium graphs, tests and benchmarks.
+ */
+public class InProcessGraphRunner {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(InProcessGraphRunner.class);
+    /** Job tracker identifier of the job ids */
+    private static final String JOB_TRACKER_ID = "inprocess";
+    /** Used to give every run of this JVM its own job id */
+    private static final AtomicInteger nextJobId = new AtomicInteger(1);
+    /** Configuration of the application */
+    private final Configuration conf;
+    /** Number of workers */
+    private final int numWorkers;
+    /** Counters of all the tasks (filled in once they are done) */
+    private final Counters counters = new Counters();
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration of the application (not modified)
+     * @param numWorkers Number of workers to run
+     */
+    public InProcessGraphRunner(Configuration conf, int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException(
+                "InProcessGraphRunner: Invalid number of workers " +
+                numWorkers);
+        }
+        this.conf = conf;
+        this.numWorkers = numWorkers;
+    }
+
+    /**
+     * Get the counters of all the tasks.
+     *
+     * @return Counters summed over the tasks
+     */
+    public Counters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Run the application and wait until it is done.
+     *
+     * @return True if the application succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean run() throws IOException, InterruptedException {
+        JobID jobId =
+            new JobID(JOB_TRACKER_ID, nextJobId.getAndIncrement());
+        final Configuration jobConf = new Configuration(conf);
+        jobConf.setInt(GiraphJob.MIN_WORKERS, numWorkers);
+        jobConf.setInt(GiraphJob.MAX_WORKERS, numWorkers);
+        jobConf.setFloat(GiraphJob.MIN_PERCENT_RESPONDED, 100.0f);
+        jobConf.setBoolean(GiraphJob.SPLIT_MASTER_WORKER, true);
+        jobConf.setInt(GiraphJob.ZOOKEEPER_SERVER_COUNT, 1);
+        jobConf.setBoolean(GiraphJob.USE_LOCAL_COMMUNICATIONS, true);
+        jobConf.setInt("mapred.map.tasks", numWorkers + 1);
+        jobConf.set("mapred.job.id", jobId.toString());
+
+        File zkDir = new File(
+            conf.get(GiraphJob.ZOOKEEPER_DIR,
+                     System.getProperty("java.io.tmpdir")),
+            "_inProcessZooKeeper_" + jobId);
+        NIOServerCnxn.Factory zkFactory = startZooKeeper(zkDir, jobConf);
+        boolean success = false;
+        try {
+            success = runTasks(jobId, jobConf);
+        } finally {
+            zkFactory.shutdown();
+            FileUtils.deleteDirectory(zkDir);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("run: Job " + jobId + " with " + numWorkers +
+                     " workers " + (success ? "succeeded" : "failed"));
+        }
+        return success;
+    }
+
+    /**
+     * Start the embedded ZooKeeper server on an ephemeral port and point
+     * the configuration to it.
+     *
+     * @param zkDir Directory of the ZooKeeper data
+     * @param jobConf Configuration of the job (ZooKeeper list set)
+     * @return Connection factory to shut down once the job is done
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static NIOServerCnxn.Factory startZooKeeper(
+            File zkDir, Configuration jobConf)
+            throws IOException, InterruptedException {
+        ZooKeeperServer zkServer = new ZooKeeperServer(
+            zkDir, zkDir, GiraphJob.DEFAULT_ZOOKEEPER_TICK_TIME);
+        zkServer.setMinSessionTimeout(
+            GiraphJob.DEFAULT_ZOOKEEPER_MIN_SESSION_TIMEOUT);
+        zkServer.setMaxSessionTimeout(
+            GiraphJob.DEFAULT_ZOOKEEPER_MAX_SESSION_TIMEOUT);
+        NIOServerCnxn.Factory zkFactory = new NIOServerCnxn.Factory(
+            new InetSocketAddress(0),
+            GiraphJob.DEFAULT_ZOOKEEPER_MAX_CLIENT_CNXNS);
+        zkFactory.startup(zkServer);
+        String zkList = InetAddress.getLocalHost().getHostName() + ":" +
+            zkFactory.getLocalPort();
+        jobConf.set(GiraphJob.ZOOKEEPER_LIST, zkList);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("startZooKeeper: Started embedded ZooKeeper on " +
+                     zkList + " with data in " + zkDir);
+        }
+        return zkFactory;
+    }
+
+    /**
+     * Run the master and worker tasks in their own threads and commit the
+     * output if they all succeed.  The remaining tasks are interrupted as
+     * soon as one fails.
+     *
+     * @param jobId Id of the job
+     * @param jobConf Configuration of the job
+     * @return True if all the tasks succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private boolean runTasks(final JobID jobId, final Configuration jobConf)
+            throws IOException, InterruptedException {
+        JobContext jobContext = new JobContext(jobConf, jobId);
+        final BspOutputFormat outputFormat = new BspOutputFormat();
+        outputFormat.checkOutputSpecs(jobContext);
+        OutputCommitter jobCommitter = outputFormat.getOutputCommitter(
+            new TaskAttemptContext(jobConf, new TaskAttemptID(
+                new TaskID(jobId, true, 0), 0)));
+        jobCommitter.setupJob(jobContext);
+
+        final int numTasks = numWorkers + 1;
+        ExecutorService taskExecutor =
+            Executors.newFixedThreadPool(numTasks, new ThreadFactory() {
+                /** Used to name the task threads */
+                private final AtomicInteger nextTask = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(
+                        runnable,
+                        "inProcessTask-" + nextTask.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        CompletionService<Counters> taskCompletionService =
+            new ExecutorCompletionService<Counters>(taskExecutor);
+        for (int i = 0; i < numTasks; ++i) {
+            final int taskPartition = i;
+            taskCompletionService.submit(new Callable<Counters>() {
+                @Override
+                public Counters call() throws Exception {
+                    return runTask(jobId, jobConf, outputFormat,
+                                   taskPartition, numTasks);
+                }
+            });
+        }
+        boolean success = true;
+        try {
+            for (int i = 0; i < numTasks; ++i) {
+                try {
+                    counters.incrAllCounters(
+                        taskCompletionService.take().get());
+                } catch (ExecutionException e) {
+                    LOG.error("runTasks: Task failed, stopping job " + jobId,
+                              e.getCause());
+                    success = false;
+                    break;
+                }
+            }
+        } finally {
+            taskExecutor.shutdownNow();
+        }
+        if (success) {
+            jobCommitter.commitJob(jobContext);
+        } else {
+            jobCommitter.abortJob(jobContext, JobStatus.State.FAILED);
+        }
+        return success;
+    }
+
+    /**
+     * Run a task as a Hadoop map task would: set up its output, run the
+     * {@link GraphMapper} on the single Bsp record and commit the output.
+     *
+     * @param jobId Id of the job
+     * @param jobConf Configuration of the job
+     * @param outputFormat Output format of the job
+     * @param taskPartition Partition of this task
+     * @param numTasks Number of tasks of the job
+     * @return Counters of the task
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Counters runTask(JobID jobId,
+                                    Configuration jobConf,
+                                    BspOutputFormat outputFormat,
+                                    int taskPartition,
+                                    int numTasks)
+            throws IOException, InterruptedException {
+        Configuration taskConf = new Configuration(jobConf);
+        taskConf.setInt("mapred.task.partition", taskPartition);
+        TaskAttemptID taskAttemptId = new TaskAttemptID(
+            new TaskID(jobId, true, taskPartition), 0);
+        taskConf.set("mapred.task.id", taskAttemptId.toString());
+        OutputCommitter committer = outputFormat.getOutputCommitter(
+            new TaskAttemptContext(taskConf, taskAttemptId));
+        BspInputSplit split = new BspInputSplit(taskPartition, numTasks);
+        RecordReader reader =
+            new BspInputFormat().createRecordReader(split, null);
+        final Counters taskCounters = new Counters();
+        StatusReporter reporter = new StatusReporter() {
+            @Override
+            public synchronized Counter getCounter(Enum<?> name) {
+                return taskCounters.findCounter(name);
+            }
+
+            @Override
+            public synchronized Counter getCounter(String group,
+                                                   String name) {
+                return taskCounters.findCounter(group, name);
+            }
+
+            @Override
+            public void progress() {
+            }
+
+            @Override
+            public void setStatus(String status) {
+            }
+        };
+        GraphMapper mapper = new GraphMapper();
+        Mapper.Context context = mapper.new Context(
+            taskConf, taskAttemptId, reader, null, committer, reporter,
+            split);
+        reader.initialize(split, context);
+        committer.setupTask(context);
+        try {
+            mapper.run(context);
+        } catch (IOException e) {
+            committer.abortTask(context);
+            throw e;
+        } catch (InterruptedException e) {
+            committer.abortTask(context);
+            throw e;
+        } catch (RuntimeException e) {
+            committer.abortTask(context);
+            throw e;
+        }
+        if (committer.needsTaskCommit(context)) {
+            committer.commitTask(context);
+        }
+        return taskCounters;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Read-only {@link SortedMap} view of edges that are stored by index
+ * (i.e. in arrays) and sorted by destination vertex id.  Lookups use a
+ * binary search, and the {@link Edge} objects are only created as they
+ * are accessed.  Vertex implementations that don't keep a map of
+ * {@link Edge} objects can return such a view from
+ * {@link BasicVertex#getOutEdgeMap()}.
+ *
+ * @param <I> Vertex index value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("rawtypes")
+public abstract class IndexedEdgeMap<I extends WritableComparable,
+        E extends Writable>
+        extends AbstractMap<I, Edge<I, E>>
+        implements SortedMap<I, Edge<I, E>> {
+    /**
+     * Get the number of edges.
+     *
+     * @return Number of edges
+     */
+    @Override
+    public abstract int size();
+
+    /**
+     * Get the destination vertex id of an edge.
+     *
+     * @param index Index of the edge (0 to size() - 1)
+     * @return Destination vertex id
+     */
+    protected abstract I getDestVertexId(int index);
+
+    /**
+     * Get the value of an edge.
+     *
+     * @param index Index of the edge (0 to size() - 1)
+     * @return Edge value
+     */
+    protected abstract E getEdgeValue(int index);
+
+    /**
+     * Get an edge.
+     *
+     * @param index Index of the edge (0 to size() - 1)
+     * @return Edge at this index
+     */
+    protected Edge<I, E> getEdge(int index) {
+        return new Edge<I, E>(getDestVertexId(index), getEdgeValue(index));
+    }
+
+    /**
+     * Binary search for a destination vertex id.  Implementations backed by
+     * primitives can override this to avoid creating objects.
+     *
+     * @param destVertexId Destination vertex id to look for
+     * @return Index of the edge if found, otherwise
+     *         (-(insertion point) - 1), as in
+     *         {@link java.util.Arrays#binarySearch(long[], long)}
+     */
+    @SuppressWarnings("unchecked")
+    protected int indexOf(Object destVertexId) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = getDestVertexId(mid).compareTo(destVertexId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Get the index of the first edge with a destination vertex id greater
+     * than or equal to the given one.
+     *
+     * @param destVertexId Destination vertex id
+     * @return Index of the first edge in the range
+     */
+    private int lowerBound(Object destVertexId) {
+        int index = indexOf(destVertexId);
+        return (index >= 0) ? index : -(index + 1);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Edge<I, E> get(Object key) {
+        int index = indexOf(key);
+        return (index >= 0) ? getEdge(index) : null;
+    }
+
+    @Override
+    public Comparator<? super I> comparator() {
+        return null;
+    }
+
+    @Override
+    public I firstKey() {
+        if (size() == 0) {
+            throw new NoSuchElementException("firstKey: No edges");
+        }
+        return getDestVertexId(0);
+    }
+
+    @Override
+    public I lastKey() {
+        if (size() == 0) {
+            throw new NoSuchElementException("lastKey: No edges");
+        }
+        return getDestVertexId(size() - 1);
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> subMap(I fromKey, I toKey) {
+        return new RangeEdgeMap<I, E>(this, lowerBound(fromKey),
+                                      lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> headMap(I toKey) {
+        return new RangeEdgeMap<I, E>(this, 0, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<I, Edge<I, E>> tailMap(I fromKey) {
+        return new RangeEdgeMap<I, E>(this, lowerBound(fromKey), size());
+    }
+
+    @Override
+    public Collection<Edge<I, E>> values() {
+        return new AbstractCollection<Edge<I, E>>() {
+            @Override
+            public Iterator<Edge<I, E>> iterator() {
+                return new IndexIterator<Edge<I, E>>() {
+                    @Override
+                    protected Edge<I, E> get(int index) {
+                        return getEdge(index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedEdgeMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<I, Edge<I, E>>> entrySet() {
+        return new AbstractSet<Map.Entry<I, Edge<I, E>>>() {
+            @Override
+            public Iterator<Map.Entry<I, Edge<I, E>>> iterator() {
+                return new IndexIterator<Map.Entry<I, Edge<I, E>>>() {
+                    @Override
+                    protected Map.Entry<I, Edge<I, E>> get(int index) {
+                        Edge<I, E> edge = getEdge(index);
+                        return new SimpleImmutableEntry<I, Edge<I, E>>(
+                            edge.getDestVertexId(), edge);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedEdgeMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Read-only iterator over the edge indices.
+     *
+     * @param <T> Type of the iterated elements
+     */
+    private abstract class IndexIterator<T> implements Iterator<T> {
+        /** Index of the next edge */
+        private int index = 0;
+
+        /**
+         * Get the element for an edge index.
+         *
+         * @param index Edge index
+         * @return Element
+         */
+        protected abstract T get(int index);
+
+        @Override
+        public boolean hasNext() {
+            return index < size();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("next: No more edges");
+            }
+            return get(index++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                "remove: Edge map is read-only");
+        }
+    }
+
+    /**
+     * View of a range of the edges of another {@link IndexedEdgeMap}.
+     *
+     * @param <I> Vertex index value
+     * @param <E> Edge value
+     */
+    private static class RangeEdgeMap<I extends WritableComparable,
+            E extends Writable> extends IndexedEdgeMap<I, E> {
+        /** Backing edge map */
+        private final IndexedEdgeMap<I, E> edgeMap;
+        /** First index of the range (inclusive) */
+        private final int fromIndex;
+        /** Last index of the range (exclusive) */
+        private final int toIndex;
+
+        /**
+         * Constructor.
+         *
+         * @param edgeMap Backing edge map
+         * @param fromIndex First index of the range (inclusive)
+         * @param toIndex Last index of the range (exclusive)
+         */
+        RangeEdgeMap(IndexedEdgeMap<I, E> edgeMap,
+                     int fromIndex,
+                     int toIndex) {
+            if (fromIndex > toIndex) {
+                throw new IllegalArgumentException(
+                    "RangeEdgeMap: fromKey > toKey");
+            }
+            this.edgeMap = edgeMap;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        public int size() {
+            return toIndex - fromIndex;
+        }
+
+        @Override
+        protected I getDestVertexId(int index) {
+            return edgeMap.getDestVertexId(fromIndex + index);
+        }
+
+        @Override
+        protected E getEdgeValue(int index) {
+            return edgeMap.getEdgeValue(fromIndex + index);
+        }
+
+        @Override
+        protected Edge<I, E> getEdge(int index) {
+            return edgeMap.getEdge(fromIndex + index);
+        }
+
+        @Override
+        protected int indexOf(Object destVertexId) {
+            int index = edgeMap.indexOf(destVertexId);
+            int insertionIndex = (index >= 0) ? index : -(index + 1);
+            if (insertionIndex < fromIndex) {
+                return -1;
+            } else if (insertionIndex > toIndex ||
+                    (index >= 0 && index == toIndex)) {
+                return -(size() + 1);
+            } else if (index >= 0) {
+                return index - fromIndex;
+            } else {
+                return -(insertionIndex - fromIndex + 1);
+            }
+        }
+    }
+}
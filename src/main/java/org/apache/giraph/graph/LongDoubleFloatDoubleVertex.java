@@ -0,0 +1,351 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.SortedMap;
+
+import org.apache.log4j.Logger;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Memory-efficient vertex for long vertex ids, double vertex values, float
+ * edge values and double messages.  Instead of a map of {@link Edge}
+ * objects and a list of message objects, it keeps the destination vertex
+ * ids sorted in a long[] (with the edge values in a parallel float[]) and
+ * the messages in a double[].  The Writable objects returned by the
+ * getters are created on demand, so changing them has no effect on the
+ * vertex (i.e. use setVertexValue() rather than getVertexValue().set()).
+ * The edge map returned by getOutEdgeMap() is read-only, use addEdge() and
+ * removeEdge() instead.  The serialized form is the same as the one of
+ * {@link Vertex}.
+ */
+public abstract class LongDoubleFloatDoubleVertex extends
+        BaseVertex<LongWritable, DoubleWritable, FloatWritable,
+                   DoubleWritable> {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(LongDoubleFloatDoubleVertex.class);
+    /** Shared empty array of destination vertex ids */
+    private static final long[] EMPTY_LONG_ARRAY = new long[0];
+    /** Shared empty array of edge values */
+    private static final float[] EMPTY_FLOAT_ARRAY = new float[0];
+    /** Shared empty array of messages */
+    private static final double[] EMPTY_DOUBLE_ARRAY = new double[0];
+    /** Vertex id */
+    private long vertexId;
+    /** Vertex value */
+    private double vertexValue;
+    /** Sorted destination vertex ids (first numEdges are valid) */
+    private long[] destVertexIds = EMPTY_LONG_ARRAY;
+    /** Edge values, parallel to destVertexIds */
+    private float[] edgeValues = EMPTY_FLOAT_ARRAY;
+    /** Number of edges */
+    private int numEdges = 0;
+    /** Incoming messages from the previous superstep */
+    private double[] msgs = EMPTY_DOUBLE_ARRAY;
+    /** Number of messages */
+    private int numMsgs = 0;
+
+    /**
+     * Get the vertex id without creating a {@link LongWritable}.
+     *
+     * @return Vertex id
+     */
+    public final long getPrimitiveVertexId() {
+        return vertexId;
+    }
+
+    /**
+     * Get the vertex value without creating a {@link DoubleWritable}.
+     *
+     * @return Vertex value
+     */
+    public final double getPrimitiveVertexValue() {
+        return vertexValue;
+    }
+
+    /**
+     * Set the vertex value without creating a {@link DoubleWritable}.
+     *
+     * @param vertexValue New vertex value
+     */
+    public final void setPrimitiveVertexValue(double vertexValue) {
+        this.vertexValue = vertexValue;
+    }
+
+    /**
+     * Get the number of edges without creating the edge map view.
+     *
+     * @return Number of edges
+     */
+    public final int getNumOutEdges() {
+        return numEdges;
+    }
+
+    @Override
+    public final void setVertexId(LongWritable vertexId) {
+        this.vertexId = vertexId.get();
+    }
+
+    @Override
+    public final LongWritable getVertexId() {
+        return new LongWritable(vertexId);
+    }
+
+    @Override
+    public final DoubleWritable getVertexValue() {
+        return new DoubleWritable(vertexValue);
+    }
+
+    @Override
+    public final void setVertexValue(DoubleWritable vertexValue) {
+        if (vertexValue == null) {
+            throw new IllegalArgumentException(
+                "setVertexValue: Cannot set a null value on vertex " +
+                vertexId);
+        }
+        this.vertexValue = vertexValue.get();
+    }
+
+    /**
+     * Make sure that the edge arrays can hold the given number of edges.
+     *
+     * @param capacity Minimum number of edges
+     */
+    private void ensureEdgeCapacity(int capacity) {
+        if (capacity > destVertexIds.length) {
+            int newCapacity =
+                Math.max(capacity, destVertexIds.length +
+                         (destVertexIds.length >> 1) + 1);
+            destVertexIds = Arrays.copyOf(destVertexIds, newCapacity);
+            edgeValues = Arrays.copyOf(edgeValues, newCapacity);
+        }
+    }
+
+    @Override
+    public final boolean addEdge(Edge<LongWritable, FloatWritable> edge) {
+        long destVertexId = edge.getDestVertexId().get();
+        float edgeValue = edge.getEdgeValue().get();
+        int index = Arrays.binarySearch(destVertexIds, 0, numEdges,
+                                        destVertexId);
+        if (index >= 0) {
+            edgeValues[index] = edgeValue;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("addEdge: Vertex=" + vertexId +
+                          ": already added an edge value for dest vertex id " +
+                          destVertexId);
+            }
+            return false;
+        }
+        index = -(index + 1);
+        ensureEdgeCapacity(numEdges + 1);
+        System.arraycopy(destVertexIds, index,
+                         destVertexIds, index + 1, numEdges - index);
+        System.arraycopy(edgeValues, index,
+                         edgeValues, index + 1, numEdges - index);
+        destVertexIds[index] = destVertexId;
+        edgeValues[index] = edgeValue;
+        ++numEdges;
+        return true;
+    }
+
+    @Override
+    public final boolean removeEdge(LongWritable destVertexId) {
+        int index = Arrays.binarySearch(destVertexIds, 0, numEdges,
+                                        destVertexId.get());
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(destVertexIds, index + 1,
+                         destVertexIds, index, numEdges - index - 1);
+        System.arraycopy(edgeValues, index + 1,
+                         edgeValues, index, numEdges - index - 1);
+        --numEdges;
+        return true;
+    }
+
+    @Override
+    public final SortedMap<LongWritable, Edge<LongWritable, FloatWritable>>
+            getOutEdgeMap() {
+        return new IndexedEdgeMap<LongWritable, FloatWritable>() {
+            @Override
+            public int size() {
+                return numEdges;
+            }
+
+            @Override
+            protected LongWritable getDestVertexId(int index) {
+                return new LongWritable(destVertexIds[index]);
+            }
+
+            @Override
+            protected FloatWritable getEdgeValue(int index) {
+                return new FloatWritable(edgeValues[index]);
+            }
+
+            @Override
+            protected int indexOf(Object destVertexId) {
+                if (!(destVertexId instanceof LongWritable)) {
+                    return -1;
+                }
+                return Arrays.binarySearch(
+                    destVertexIds, 0, numEdges,
+                    ((LongWritable) destVertexId).get());
+            }
+        };
+    }
+
+    @Override
+    public final void sentMsgToAllEdges(DoubleWritable msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException(
+                "sendMsgToAllEdges: Cannot send null message to all edges");
+        }
+        List<LongWritable> destVertexList =
+            new ArrayList<LongWritable>(numEdges);
+        for (int i = 0; i < numEdges; ++i) {
+            destVertexList.add(new LongWritable(destVertexIds[i]));
+        }
+        sendMsgToAll(destVertexList, msg);
+    }
+
+    @Override
+    public final List<DoubleWritable> getMsgList() {
+        return new MsgListView();
+    }
+
+    @Override
+    final public void readFields(DataInput in) throws IOException {
+        vertexId = in.readLong();
+        boolean hasVertexValue = in.readBoolean();
+        vertexValue = hasVertexValue ? in.readDouble() : 0d;
+        long edgeMapSize = in.readLong();
+        numEdges = (int) edgeMapSize;
+        destVertexIds =
+            (numEdges == 0) ? EMPTY_LONG_ARRAY : new long[numEdges];
+        edgeValues = (numEdges == 0) ? EMPTY_FLOAT_ARRAY : new float[numEdges];
+        for (int i = 0; i < numEdges; ++i) {
+            destVertexIds[i] = in.readLong();
+            edgeValues[i] = in.readFloat();
+        }
+        long msgListSize = in.readLong();
+        numMsgs = (int) msgListSize;
+        msgs = (numMsgs == 0) ? EMPTY_DOUBLE_ARRAY : new double[numMsgs];
+        for (int i = 0; i < numMsgs; ++i) {
+            msgs[i] = in.readDouble();
+        }
+        halt = in.readBoolean();
+    }
+
+    @Override
+    final public void write(DataOutput out) throws IOException {
+        out.writeLong(vertexId);
+        out.writeBoolean(true);
+        out.writeDouble(vertexValue);
+        out.writeLong(numEdges);
+        for (int i = 0; i < numEdges; ++i) {
+            out.writeLong(destVertexIds[i]);
+            out.writeFloat(edgeValues[i]);
+        }
+        out.writeLong(numMsgs);
+        for (int i = 0; i < numMsgs; ++i) {
+            out.writeDouble(msgs[i]);
+        }
+        out.writeBoolean(halt);
+    }
+
+    /**
+     * List view of the messages stored in the double[] (supports the
+     * operations used by the framework to deliver the messages).
+     */
+    private class MsgListView extends AbstractList<DoubleWritable>
+            implements RandomAccess {
+        @Override
+        public DoubleWritable get(int index) {
+            checkIndex(index, numMsgs);
+            return new DoubleWritable(msgs[index]);
+        }
+
+        @Override
+        public DoubleWritable set(int index, DoubleWritable msg) {
+            checkIndex(index, numMsgs);
+            double previous = msgs[index];
+            msgs[index] = msg.get();
+            return new DoubleWritable(previous);
+        }
+
+        @Override
+        public void add(int index, DoubleWritable msg) {
+            checkIndex(index, numMsgs + 1);
+            if (numMsgs == msgs.length) {
+                msgs = Arrays.copyOf(msgs, numMsgs + (numMsgs >> 1) + 1);
+            }
+            System.arraycopy(msgs, index, msgs, index + 1, numMsgs - index);
+            msgs[index] = msg.get();
+            ++numMsgs;
+            ++modCount;
+        }
+
+        @Override
+        public DoubleWritable remove(int index) {
+            checkIndex(index, numMsgs);
+            double previous = msgs[index];
+            System.arraycopy(msgs, index + 1, msgs, index,
+                             numMsgs - index - 1);
+            --numMsgs;
+            ++modCount;
+            return new DoubleWritable(previous);
+        }
+
+        @Override
+        public void clear() {
+            numMsgs = 0;
+            ++modCount;
+        }
+
+        @Override
+        public int size() {
+            return numMsgs;
+        }
+
+        /**
+         * Check that an index is within bounds.
+         *
+         * @param index Index to check
+         * @param bound Exclusive upper bound
+         */
+        private void checkIndex(int index, int bound) {
+            if (index < 0 || index >= bound) {
+                throw new IndexOutOfBoundsException(
+                    "checkIndex: Index " + index + ", size " + numMsgs);
+            }
+        }
+    }
+}
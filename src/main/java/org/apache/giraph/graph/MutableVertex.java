@@ -48,6 +48,14 @@ public interface MutableVertex<I extends WritableComparable,
      */
     boolean addEdge(Edge<I, E> edge);
 
+    /**
+     * Remove an edge of this vertex (happens immediately)
+     *
+     * @param destVertexId Destination vertex id of the edge to remove
+     * @return Return true if the edge existed, false otherwise
+     */
+    boolean removeEdge(I destVertexId);
+
     /**
      * Create a vertex for use in addVertexRequest().  Still need to get the
      * vertex id and vertex value.
@@ -21,16 +21,16 @@ package org.apache.giraph.graph;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.mapreduce.Mapper;
 
 
 /**
@@ -48,54 +48,35 @@ public abstract class Vertex<
         V extends Writable,
         E extends Writable,
         M extends Writable>
-        implements MutableVertex<I, V, E, M> {
+        extends BaseVertex<I, V, E, M> {
     /** Class logger */
     private static final Logger LOG = Logger.getLogger(Vertex.class);
-    /** Class-wide superstep */
-    private static long superstep = 0;
-    /** Class-wide number of vertices */
-    private static long numVertices = -1;
-    /** Class-wide number of edges */
-    private static long numEdges = -1;
-    /** Class-wide map context */
-    private static Mapper.Context context = null;
-    /** Class-wide BSP Mapper for this Vertex */
-    private static GraphMapper<?, ? ,?, ?> graphMapper = null;
     /** Vertex id */
     private I vertexId = null;
     /** Vertex value */
     private V vertexValue = null;
-    /** Map of destination vertices and their edge values */
-    private final SortedMap<I, Edge<I, E>> destEdgeMap =
+    /**
+     * Map of destination vertices and their edge values (null while the
+     * edges are in a {@link CsrEdgeStore} or {@link ByteArrayEdges})
+     */
+    private SortedMap<I, Edge<I, E>> destEdgeMap =
         new TreeMap<I, Edge<I, E>>();
-    /** If true, do not do anymore computation on this vertex. */
-    boolean halt = false;
-    /** List of incoming messages from the previous superstep */
-    private final List<M> msgList = new ArrayList<M>();
-
-    @Override
-    public void preApplication()
-            throws InstantiationException, IllegalAccessException {
-        // Do nothing, might be overriden by the user
-    }
-
-    @Override
-    public void postApplication() {
-        // Do nothing, might be overriden by the user
-    }
-
-    @Override
-    public void preSuperstep() {
-        // Do nothing, might be overriden by the user
-    }
-
-    @Override
-    public void postSuperstep() {
-        // Do nothing, might be overriden by the user
-    }
+    /**
+     * View of the edges of this vertex in a shared {@link CsrEdgeStore} if
+     * immutable, otherwise null (created once, not per getOutEdgeMap())
+     */
+    private SortedMap<I, Edge<I, E>> csrEdgeMap = null;
+    /** Encoded edges if immutable, otherwise null */
+    private ByteArrayEdges<I, E> byteArrayEdges = null;
+    /**
+     * List of incoming messages from the previous superstep (created on
+     * first use, see {@link BspUtils#createMsgList})
+     */
+    private List<M> msgList = null;
 
     @Override
     public final boolean addEdge(Edge<I, E> edge) {
+        materializeEdges();
         edge.setConf(getContext().getConfiguration());
         if (destEdgeMap.put(edge.getDestVertexId(), edge) != null) {
             if (LOG.isDebugEnabled()) {
@@ -110,93 +91,91 @@ public abstract class Vertex<
     }
 
     @Override
-    public final void setVertexId(I vertexId) {
-        this.vertexId = vertexId;
-    }
-
-    @Override
-    public final I getVertexId() {
-        return vertexId;
+    public final boolean removeEdge(I destVertexId) {
+        materializeEdges();
+        return destEdgeMap.remove(destVertexId) != null;
     }
 
     /**
-     * Set the GraphMapper for this vertex (internal use).
+     * Move the edges of this vertex to a shared store.  The edge map becomes
+     * a read-only view of the store until the next edge mutation.
      *
-     * @param graphMapper Mapper to use for communication
+     * @param edgeStore Store to add the edges to
      */
-    final static <I extends WritableComparable,
-            V extends Writable, E extends Writable,
-            M extends Writable> void
-            setGraphMapper(GraphMapper<I, V, E, M> graphMapper) {
-        Vertex.graphMapper = graphMapper;
+    final void freezeEdges(CsrEdgeStore<I, E> edgeStore) {
+        if (destEdgeMap == null) {
+            throw new IllegalStateException(
+                "freezeEdges: Vertex " + vertexId + " edges already frozen");
+        }
+        csrEdgeMap =
+            edgeStore.getEdgeMap(edgeStore.addEdges(destEdgeMap.values()));
+        destEdgeMap = null;
     }
 
     /**
-     * Set the global superstep for all the vertices (internal use)
-     *
-     * @param superstep New superstep
+     * Encode the edges of this vertex in a byte array.  The edge map becomes
+     * read-only until the next edge mutation.
      */
-    static void setSuperstep(long superstep) {
-        Vertex.superstep = superstep;
-    }
-
-    @Override
-    public final long getSuperstep() {
-        return superstep;
-    }
-
-    @Override
-    public final V getVertexValue() {
-        return vertexValue;
-    }
-
-    @Override
-    public final void setVertexValue(V vertexValue) {
-        this.vertexValue = vertexValue;
+    final void encodeEdges() {
+        if (destEdgeMap == null) {
+            throw new IllegalStateException(
+                "encodeEdges: Vertex " + vertexId + " edges already frozen");
+        }
+        byteArrayEdges = new ByteArrayEdges<I, E>(
+            getContext().getConfiguration(), destEdgeMap.values());
+        destEdgeMap = null;
     }
 
     /**
-     * Set the total number of vertices from the last superstep.
-     *
-     * @param numVertices Aggregate vertices in the last superstep
+     * Copy the edges of this vertex back to a mutable map if they are in a
+     * shared store or encoded.
      */
-    static void setNumVertices(long numVertices) {
-        Vertex.numVertices = numVertices;
+    private void materializeEdges() {
+        if (destEdgeMap != null) {
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("materializeEdges: Vertex=" + vertexId +
+                      ": copying the immutable edges to mutate them");
+        }
+        Configuration conf = getContext().getConfiguration();
+        destEdgeMap = new TreeMap<I, Edge<I, E>>();
+        for (Edge<I, E> edge : getOutEdgeMap().values()) {
+            edge.setConf(conf);
+            destEdgeMap.put(edge.getDestVertexId(), edge);
+        }
+        csrEdgeMap = null;
+        byteArrayEdges = null;
     }
 
     @Override
-    public final long getNumVertices() {
-        return numVertices;
+    public final void setVertexId(I vertexId) {
+        this.vertexId = vertexId;
     }
 
-    /**
-     * Set the total number of edges from the last superstep.
-     *
-     * @param numEdges Aggregate edges in the last superstep
-     */
-    static void setNumEdges(long numEdges) {
-        Vertex.numEdges = numEdges;
+    @Override
+    public final I getVertexId() {
+        return vertexId;
     }
 
     @Override
-    public final long getNumEdges() {
-        return numEdges;
+    public final V getVertexValue() {
+        return vertexValue;
     }
 
     @Override
-    public final SortedMap<I, Edge<I, E>> getOutEdgeMap() {
-        return destEdgeMap;
+    public final void setVertexValue(V vertexValue) {
+        this.vertexValue = vertexValue;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public final void sendMsg(I id, M msg) {
-        if (msg == null) {
-            throw new IllegalArgumentException(
-                "sendMsg: Cannot send null message to " + id);
+    public final SortedMap<I, Edge<I, E>> getOutEdgeMap() {
+        if (csrEdgeMap != null) {
+            return csrEdgeMap;
+        } else if (byteArrayEdges != null) {
+            return byteArrayEdges;
         }
-        ((GraphMapper<I, V, E, M>) graphMapper).
-            getWorkerCommunications().sendMessageReq(id, msg);
+        return destEdgeMap;
     }
 
     @Override
@@ -205,62 +184,31 @@ public abstract class Vertex<
             throw new IllegalArgumentException(
                 "sendMsgToAllEdges: Cannot send null message to all edges");
         }
-        for (Edge<I, E> edge : destEdgeMap.values()) {
-            sendMsg(edge.getDestVertexId(), msg);
-        }
+        sendMsgToAll(getOutEdgeMap().keySet(), msg);
     }
 
     @Override
-    public MutableVertex<I, V, E, M> instantiateVertex() {
-        Vertex<I, V, E, M> mutableVertex =
-            BspUtils.<I, V, E, M>createVertex(getContext().getConfiguration());
-        return mutableVertex;
+    final public void readFields(DataInput in) throws IOException {
+        CsrEdgeStore<I, E> edgeStore =
+            BspUtils.<I, E>createEdgeStore(getContext().getConfiguration());
+        readFields(in, edgeStore);
+        if (edgeStore != null) {
+            edgeStore.trim();
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public void addVertexRequest(MutableVertex<I, V, E, M> vertex)
+    /**
+     * Deserialize this vertex, adding its edges to a store shared with the
+     * other vertices read along with it (i.e. the rest of its vertex
+     * range).  The caller trims the store once they are all read.
+     *
+     * @param in Input to read from
+     * @param edgeStore Store to add the edges to, null to keep them in a
+     *        mutable map (unless encoded in a byte array)
+     * @throws IOException
+     */
+    final void readFields(DataInput in, CsrEdgeStore<I, E> edgeStore)
             throws IOException {
-        ((GraphMapper<I, V, E, M>) graphMapper).
-            getWorkerCommunications().addVertexReq(vertex);
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public void removeVertexRequest(I vertexId) throws IOException {
-        ((GraphMapper<I, V, E, M>) graphMapper).
-            getWorkerCommunications().removeVertexReq(vertexId);
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public void addEdgeRequest(I vertexIndex,
-                               Edge<I, E> edge) throws IOException {
-        ((GraphMapper<I, V, E, M>) graphMapper).
-            getWorkerCommunications().addEdgeReq(vertexIndex, edge);
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public void removeEdgeRequest(I sourceVertexId,
-                                  I destVertexId) throws IOException {
-        ((GraphMapper<I, V, E, M>) graphMapper).
-            getWorkerCommunications().removeEdgeReq(sourceVertexId,
-                                                    destVertexId);
-    }
-
-    @Override
-    public final void voteToHalt() {
-        halt = true;
-    }
-
-    @Override
-    public final boolean isHalted() {
-        return halt;
-    }
-
-    @Override
-    final public void readFields(DataInput in) throws IOException {
         vertexId =
             BspUtils.<I>createVertexIndex(getContext().getConfiguration());
         vertexId.readFields(in);
@@ -277,12 +225,19 @@ public abstract class Vertex<
             edge.readFields(in);
             addEdge(edge);
         }
+        if (getContext().getConfiguration().getBoolean(
+                GiraphJob.BYTE_ARRAY_EDGES,
+                GiraphJob.BYTE_ARRAY_EDGES_DEFAULT)) {
+            encodeEdges();
+        } else if (edgeStore != null) {
+            freezeEdges(edgeStore);
+        }
         long msgListSize = in.readLong();
         for (long i = 0; i < msgListSize; ++i) {
             M msg =
                 BspUtils.<M>createMessageValue(getContext().getConfiguration());
             msg.readFields(in);
-            msgList.add(msg);
+            getMsgList().add(msg);
         }
         halt = in.readBoolean();
     }
@@ -294,53 +249,30 @@ public abstract class Vertex<
         if (vertexValue != null) {
             vertexValue.write(out);
         }
-        out.writeLong(destEdgeMap.size());
-        for (Edge<I, E> edge : destEdgeMap.values()) {
-            edge.write(out);
+        SortedMap<I, Edge<I, E>> edgeMap = getOutEdgeMap();
+        out.writeLong(edgeMap.size());
+        Iterator<Edge<I, E>> edgeIt = (byteArrayEdges != null) ?
+            byteArrayEdges.reusableIterator() : edgeMap.values().iterator();
+        while (edgeIt.hasNext()) {
+            edgeIt.next().write(out);
         }
-        out.writeLong(msgList.size());
-        for (M msg : msgList) {
-            msg.write(out);
+        if (msgList == null) {
+            out.writeLong(0);
+        } else {
+            out.writeLong(msgList.size());
+            for (M msg : msgList) {
+                msg.write(out);
+            }
         }
         out.writeBoolean(halt);
     }
 
-    @Override
-    public final <A extends Writable> Aggregator<A> registerAggregator(
-            String name,
-            Class<? extends Aggregator<A>> aggregatorClass)
-            throws InstantiationException, IllegalAccessException {
-        return graphMapper.getAggregatorUsage().registerAggregator(
-            name, aggregatorClass);
-    }
-
-    @Override
-    public final Aggregator<? extends Writable> getAggregator(String name) {
-        return graphMapper.getAggregatorUsage().getAggregator(name);
-    }
-
-    @Override
-    public final boolean useAggregator(String name) {
-        return graphMapper.getAggregatorUsage().useAggregator(name);
-    }
-
     @Override
     public List<M> getMsgList() {
+        if (msgList == null) {
+            msgList = BspUtils.<M>createMsgList(
+                getContext().getConfiguration());
+        }
         return msgList;
     }
-
-    public final Mapper<?, ?, ?, ?>.Context getContext() {
-        return context;
-    }
-
-    final static void setContext(Mapper<?, ?, ?, ?>.Context context) {
-        Vertex.context = context;
-    }
-
-    @Override
-    public String toString() {
-        return "Vertex(id=" + getVertexId() + ",value=" + getVertexValue() +
-            ",#edges=" + getOutEdgeMap().size() + ")";
-    }
 }
-
@@ -26,7 +26,10 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
 /**
- * Interface for Vertex combiner (messages)
+ * Interface for Vertex combiner (messages).  Messages are combined as soon
+ * as they are sent or received, so combine() is called many times for the
+ * same vertex index on partially combined messages.  It must be
+ * commutative and associative (i.e. sum, min, max).
  *
  * @param <I extends Writable> index
  * @param <M extends Writable> message data
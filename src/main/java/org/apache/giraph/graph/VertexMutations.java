@@ -105,6 +105,19 @@ public class VertexMutations<
         removedEdgeList.add(destinationVertexId);
     }
 
+    /**
+     * Add all the mutations of another vertex mutations to this one.
+     *
+     * @param vertexMutations Mutations to add
+     */
+    public void addVertexMutations(
+            VertexMutations<I, V, E, M> vertexMutations) {
+        addedVertexList.addAll(vertexMutations.getAddedVertexList());
+        removedVertexCount += vertexMutations.getRemovedVertexCount();
+        addedEdgeList.addAll(vertexMutations.getAddedEdgeList());
+        removedEdgeList.addAll(vertexMutations.getRemovedEdgeList());
+    }
+
     @Override
     public String toString() {
         JSONObject jsonObject = new JSONObject();
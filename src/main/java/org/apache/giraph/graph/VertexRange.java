@@ -24,10 +24,11 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.io.Writable;
@@ -38,7 +39,8 @@ import org.json.JSONObject;
 
 /**
  * Defines a vertex index range and assigns responsibility to a particular
- * host and port.
+ * host and port.  With hash partitioning, a vertex range is instead a piece
+ * of a hash partition and the max index only identifies it.
  *
  * @param <I> Vertex index value
  * @param <V> Vertex value
@@ -62,13 +64,33 @@ public class VertexRange<I extends WritableComparable,
     private String previousHostnameId = null;
     /** Max vertex index */
     private I maxVertexIndex = null;
+    /** Hash partition of the vertices (-1 if not hash partitioned) */
+    private int partitionId = -1;
     /** Hostname and partition id */
     private String hostnameId;
     /** Checkpoint file prefix (null if not recovering from a checkpoint) */
     private String checkpointfilePrefix = null;
     /** Vertex map for this range (keyed by index) */
-    private final SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
-        new TreeMap<I, BasicVertex<I, V, E, M>>();
+    private ArrayVertexMap<I, V, E, M> vertexMap =
+        new ArrayVertexMap<I, V, E, M>();
+    /** Store managing the vertices (null if always in memory) */
+    private VertexRangeStore<I, V, E, M> store = null;
+    /** File holding the vertices while spilled (null if in memory) */
+    private volatile File spillFile = null;
+    /** Number of vertices while spilled */
+    private long spilledVertexCount = 0;
+    /** Number of edges while spilled */
+    private long spilledEdgeCount = 0;
+    /**
+     * Positions in the vertex map (see {@link ArrayVertexMap#indexOf}) of
+     * the vertices to compute in the next superstep (not halted or
+     * received messages), null if unknown (all vertices are checked)
+     */
+    private BitSet activeVertices = null;
+    /** Number of vertices when the active vertices were set */
+    private long activeVertexCount = 0;
+    /** Number of edges when the active vertices were set */
+    private long activeEdgeCount = 0;
     /** Class logger */
     private static final Logger LOG = Logger.getLogger(VertexRange.class);
 
@@ -80,7 +102,7 @@ public class VertexRange<I extends WritableComparable,
             getPreviousPort() + ",prevHostnameId=" + getPreviousHostnameId() +
             ",vertexCount=" + getVertexCount() + ",edgeCount=" + getEdgeCount() +
             ",checkpointFile=" + getCheckpointFilePrefix() + ",hostnameId" +
-            getHostnameId() + "]";
+            getHostnameId() + ",partitionId=" + getPartitionId() + "]";
     }
 
     public VertexRange(String hostname,
@@ -154,6 +176,8 @@ public class VertexRange<I extends WritableComparable,
 
         hostnameId =
             vertexRangeObj.getString(BspService.JSONOBJ_HOSTNAME_ID_KEY);
+        partitionId =
+            vertexRangeObj.optInt(BspService.JSONOBJ_PARTITION_ID_KEY, -1);
         try {
             checkpointfilePrefix =
                 vertexRangeObj.getString(
@@ -199,6 +223,7 @@ public class VertexRange<I extends WritableComparable,
         if (vertexRange.getCheckpointFilePrefix() != null) {
             checkpointfilePrefix = vertexRange.getCheckpointFilePrefix();
         }
+        partitionId = vertexRange.getPartitionId();
     }
 
     /**
@@ -207,9 +232,116 @@ public class VertexRange<I extends WritableComparable,
      * @return Map of vertices (keyed by index)
      */
     public SortedMap<I, BasicVertex<I, V, E, M>> getVertexMap() {
+        return getArrayVertexMap();
+    }
+
+    /**
+     * Get the vertex map, reloaded if it was spilled.
+     *
+     * @return Map of vertices (keyed by index)
+     */
+    private ArrayVertexMap<I, V, E, M> getArrayVertexMap() {
+        if (spillFile != null) {
+            store.reload(this);
+        }
         return vertexMap;
     }
 
+    /**
+     * Get the position of a vertex in vertex index order, valid until
+     * vertices are added or removed.
+     *
+     * @param vertexIndex Index of the vertex
+     * @return Position of the vertex, -1 if not in this vertex range
+     */
+    public int getVertexPosition(I vertexIndex) {
+        return getArrayVertexMap().indexOf(vertexIndex);
+    }
+
+    /**
+     * Get the vertex at a position in vertex index order.
+     *
+     * @param position Position of the vertex
+     * @return Vertex at the position
+     */
+    public BasicVertex<I, V, E, M> getVertexAt(int position) {
+        return getArrayVertexMap().getVertexAt(position);
+    }
+
+    /**
+     * Sort the vertex map in one pass after vertices were added out of
+     * order or removed (i.e. after the mutations were resolved), so that
+     * the next iteration does not have to.
+     */
+    public void rebuildVertexMap() {
+        if (spillFile == null) {
+            vertexMap.rebuild();
+        }
+    }
+
+    /**
+     * Check if the vertices of this {@link VertexRange} are spilled to disk
+     * (they are read back by getVertexMap()).
+     *
+     * @return True if spilled
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Move the vertices (in memory or spilled) to the vertex range that
+     * replaces this one in the next superstep.
+     *
+     * @param vertexRange Replacement vertex range
+     */
+    void moveVerticesTo(VertexRange<I, V, E, M> vertexRange) {
+        vertexRange.activeVertices = activeVertices;
+        vertexRange.activeVertexCount = activeVertexCount;
+        vertexRange.activeEdgeCount = activeEdgeCount;
+        if (store != null) {
+            store.replace(this, vertexRange);
+        } else {
+            vertexRange.getVertexMap().putAll(vertexMap);
+        }
+    }
+
+    VertexRangeStore<I, V, E, M> getStore() {
+        return store;
+    }
+
+    void setStore(VertexRangeStore<I, V, E, M> store) {
+        this.store = store;
+    }
+
+    File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Release the vertices after they were spilled (by the store).
+     *
+     * @param spillFile File holding the vertices
+     * @param vertexCount Number of spilled vertices
+     * @param edgeCount Number of spilled edges
+     */
+    void setSpilled(File spillFile, long vertexCount, long edgeCount) {
+        vertexMap = new ArrayVertexMap<I, V, E, M>();
+        spilledVertexCount = vertexCount;
+        spilledEdgeCount = edgeCount;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * Set the vertices read back from the spill file (by the store).
+     *
+     * @param vertexMap Vertices read back
+     */
+    void setReloadedVertexMap(ArrayVertexMap<I, V, E, M> vertexMap) {
+        this.vertexMap = vertexMap;
+        spillFile = null;
+    }
+
     public JSONObject toJSONObject() throws IOException, JSONException {
         JSONObject vertexRangeObj = new JSONObject();
         ByteArrayOutputStream outputStream =
@@ -228,6 +360,7 @@ public class VertexRange<I extends WritableComparable,
         vertexRangeObj.put(BspService.JSONOBJ_HOSTNAME_ID_KEY, hostnameId);
         vertexRangeObj.put(BspService.JSONOBJ_CHECKPOINT_FILE_PREFIX_KEY,
                            checkpointfilePrefix);
+        vertexRangeObj.put(BspService.JSONOBJ_PARTITION_ID_KEY, partitionId);
         return vertexRangeObj;
     }
 
@@ -287,13 +420,34 @@ public class VertexRange<I extends WritableComparable,
         maxVertexIndex = index;
     }
 
+    /**
+     * Get the hash partition that the vertices of this range belong to.
+     *
+     * @return Hash partition id, -1 if not hash partitioned
+     */
+    public int getPartitionId() {
+        return partitionId;
+    }
+
+    /**
+     * Set the hash partition that the vertices of this range belong to.
+     *
+     * @param partitionId Hash partition id
+     */
+    public void setPartitionId(int partitionId) {
+        this.partitionId = partitionId;
+    }
+
     public long getVertexCount() {
+        if (spillFile != null) {
+            return spilledVertexCount;
+        }
         return vertexMap.size();
     }
 
     public long getFinishedVertexCount() {
         long finishedVertexCount = 0;
-        for (BasicVertex<I, V, E, M> vertex : vertexMap.values()) {
+        for (BasicVertex<I, V, E, M> vertex : getVertexMap().values()) {
             if (vertex.isHalted()) {
                 ++finishedVertexCount;
             }
@@ -302,6 +456,9 @@ public class VertexRange<I extends WritableComparable,
     }
 
     public long getEdgeCount() {
+        if (spillFile != null) {
+            return spilledEdgeCount;
+        }
         long edgeCount = 0;
         for (BasicVertex<I, V, E, M> vertex : vertexMap.values()) {
             edgeCount += vertex.getOutEdgeMap().size();
@@ -309,6 +466,67 @@ public class VertexRange<I extends WritableComparable,
         return edgeCount;
     }
 
+    /**
+     * Get the vertices to compute, so that the halted vertices without
+     * messages are not checked every superstep.
+     *
+     * @return Positions (see getVertexPosition()) of the active vertices,
+     *         null if unknown or if vertices were added or removed since
+     *         they were set
+     */
+    public BitSet getActiveVertices() {
+        if (activeVertices == null ||
+                activeVertexCount != getVertexCount()) {
+            return null;
+        }
+        return activeVertices;
+    }
+
+    /**
+     * Get the number of edges of all the vertices when the active vertices
+     * were set (only valid with getActiveVertices()).
+     *
+     * @return Number of edges
+     */
+    public long getActiveEdgeCount() {
+        return activeEdgeCount;
+    }
+
+    /**
+     * Set the vertices to compute in the next superstep.
+     *
+     * @param activeVertices Positions of the vertices that were not halted
+     *        (null if not tracked)
+     * @param edgeCount Number of edges of all the vertices
+     */
+    public void setActiveVertices(BitSet activeVertices, long edgeCount) {
+        this.activeVertices = activeVertices;
+        activeVertexCount = getVertexCount();
+        activeEdgeCount = edgeCount;
+    }
+
+    /**
+     * Add a vertex that received messages to the vertices to compute.
+     *
+     * @param vertexIndex Index of the vertex
+     */
+    public void addActiveVertexIndex(I vertexIndex) {
+        if (activeVertices != null) {
+            int position = getVertexPosition(vertexIndex);
+            if (position >= 0) {
+                activeVertices.set(position);
+            }
+        }
+    }
+
+    /**
+     * Forget the active vertices, all the vertices are checked in the next
+     * superstep (i.e. after mutations).
+     */
+    public void clearActiveVertices() {
+        activeVertices = null;
+    }
+
     public String getCheckpointFilePrefix() {
         return checkpointfilePrefix;
     }
@@ -322,6 +540,7 @@ public class VertexRange<I extends WritableComparable,
         hostnameId = input.readUTF();
         maxVertexIndex.readFields(input);
         checkpointfilePrefix = input.readUTF();
+        partitionId = input.readInt();
     }
 
     @Override
@@ -346,5 +565,6 @@ public class VertexRange<I extends WritableComparable,
         output.writeUTF(hostnameId);
         maxVertexIndex.write(output);
         output.writeUTF(checkpointfilePrefix);
+        output.writeInt(partitionId);
     }
 }
@@ -0,0 +1,310 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps at most a fixed number of the vertex ranges of a worker in memory.
+ * When more vertex ranges are loaded, the least recently used ones that are
+ * not pinned are spilled to a local file (in the Writable format of the
+ * vertices) and their vertex map is emptied.  A spilled vertex range is
+ * read back the next time its vertex map is requested.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ * @param <M> Message value
+ */
+@SuppressWarnings("rawtypes")
+public class VertexRangeStore<I extends WritableComparable,
+                              V extends Writable,
+                              E extends Writable,
+                              M extends Writable> {
+    /** Class logger */
+    private static final Logger LOG = Logger.getLogger(VertexRangeStore.class);
+    /** Configuration (used to instantiate the vertices) */
+    private final Configuration conf;
+    /** Directory of the spill files */
+    private final File directory;
+    /** Maximum number of vertex ranges in memory */
+    private final int maxVertexRangesInMemory;
+    /** Vertex ranges in memory, least recently used first */
+    private final Map<VertexRange<I, V, E, M>, Boolean> inMemoryMap =
+        new LinkedHashMap<VertexRange<I, V, E, M>, Boolean>(16, 0.75f, true);
+    /** Vertex ranges that cannot be spilled right now */
+    private final Set<VertexRange<I, V, E, M>> pinnedSet =
+        new HashSet<VertexRange<I, V, E, M>>();
+    /** Used to name the spill files */
+    private long nextSpillFileId = 0;
+    /** Bytes written to the spill files */
+    private final Counter spilledBytesCounter;
+    /** Number of vertex ranges spilled */
+    private final Counter spillsCounter;
+    /** Number of vertex ranges read back */
+    private final Counter reloadsCounter;
+    /** Time spent reading back vertex ranges */
+    private final Counter reloadMsecsCounter;
+
+    /**
+     * Constructor.
+     *
+     * @param conf Configuration
+     * @param context Context used for the counters
+     * @param directory Directory of the spill files (created if needed)
+     * @param maxVertexRangesInMemory Maximum vertex ranges in memory
+     */
+    public VertexRangeStore(Configuration conf,
+                            Mapper<?, ?, ?, ?>.Context context,
+                            File directory,
+                            int maxVertexRangesInMemory) {
+        if (maxVertexRangesInMemory <= 0) {
+            throw new IllegalArgumentException(
+                "VertexRangeStore: Need to keep at least one vertex range " +
+                "in memory, not " + maxVertexRangesInMemory);
+        }
+        this.conf = conf;
+        this.directory = directory;
+        this.maxVertexRangesInMemory = maxVertexRangesInMemory;
+        spilledBytesCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core spilled bytes");
+        spillsCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core spilled vertex ranges");
+        reloadsCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core reloaded vertex ranges");
+        reloadMsecsCounter = context.getCounter(
+            "Giraph Stats", "Out-of-core reload (milliseconds)");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException(
+                "VertexRangeStore: Failed to create " + directory);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("VertexRangeStore: Keeping at most " +
+                     maxVertexRangesInMemory + " vertex ranges in memory, " +
+                     "spilling to " + directory);
+        }
+    }
+
+    /**
+     * Start managing a vertex range that holds vertices in memory.  Other
+     * vertex ranges may be spilled as a result.
+     *
+     * @param vertexRange Vertex range to manage
+     */
+    public synchronized void add(VertexRange<I, V, E, M> vertexRange) {
+        vertexRange.setStore(this);
+        if (vertexRange.getSpillFile() == null) {
+            inMemoryMap.put(vertexRange, Boolean.TRUE);
+            spillExcess(vertexRange);
+        }
+    }
+
+    /**
+     * Make sure a vertex range is in memory and keep it there until
+     * unpin() is called.
+     *
+     * @param vertexRange Vertex range to pin
+     */
+    public synchronized void pin(VertexRange<I, V, E, M> vertexRange) {
+        if (vertexRange.getStore() != this) {
+            return;
+        }
+        pinnedSet.add(vertexRange);
+        reload(vertexRange);
+    }
+
+    /**
+     * Allow a vertex range to be spilled again.
+     *
+     * @param vertexRange Vertex range to unpin
+     */
+    public synchronized void unpin(VertexRange<I, V, E, M> vertexRange) {
+        if (pinnedSet.remove(vertexRange)) {
+            spillExcess(null);
+        }
+    }
+
+    /**
+     * Read back a spilled vertex range (called when its vertex map is
+     * requested) and mark it as the most recently used one.
+     *
+     * @param vertexRange Vertex range to load
+     */
+    synchronized void reload(VertexRange<I, V, E, M> vertexRange) {
+        if (vertexRange.getSpillFile() == null) {
+            inMemoryMap.put(vertexRange, Boolean.TRUE);
+            spillExcess(vertexRange);
+            return;
+        }
+        long startMillis = System.currentTimeMillis();
+        File spillFile = vertexRange.getSpillFile();
+        // Spilled in order, so every vertex is appended
+        ArrayVertexMap<I, V, E, M> vertexMap =
+            new ArrayVertexMap<I, V, E, M>();
+        CsrEdgeStore<I, E> edgeStore = BspUtils.<I, E>createEdgeStore(conf);
+        try {
+            DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(spillFile)));
+            long vertexCount = input.readLong();
+            for (long i = 0; i < vertexCount; ++i) {
+                BaseVertex<I, V, E, M> vertex =
+                    BspUtils.<I, V, E, M>readVertex(conf, input, edgeStore);
+                vertexMap.put(vertex.getVertexId(), vertex);
+            }
+            input.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "reload: Failed to read " + vertexRange + " from " +
+                spillFile, e);
+        }
+        if (edgeStore != null) {
+            edgeStore.trim();
+        }
+        if (!spillFile.delete()) {
+            LOG.warn("reload: Failed to delete " + spillFile);
+        }
+        vertexRange.setReloadedVertexMap(vertexMap);
+        inMemoryMap.put(vertexRange, Boolean.TRUE);
+        long reloadMsecs = System.currentTimeMillis() - startMillis;
+        reloadsCounter.increment(1);
+        reloadMsecsCounter.increment(reloadMsecs);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("reload: Read " + vertexMap.size() + " vertices of " +
+                      "vertex range " + vertexRange.getMaxIndex() + " in " +
+                      reloadMsecs + " msecs");
+        }
+        spillExcess(vertexRange);
+    }
+
+    /**
+     * Move the vertices of a vertex range (in memory or spilled) to its
+     * replacement for the next superstep.
+     *
+     * @param vertexRange Vertex range being replaced
+     * @param nextVertexRange Replacement of the vertex range
+     */
+    synchronized void replace(VertexRange<I, V, E, M> vertexRange,
+                              VertexRange<I, V, E, M> nextVertexRange) {
+        nextVertexRange.setStore(this);
+        if (vertexRange.getSpillFile() != null) {
+            nextVertexRange.setSpilled(vertexRange.getSpillFile(),
+                                       vertexRange.getVertexCount(),
+                                       vertexRange.getEdgeCount());
+        } else {
+            nextVertexRange.getVertexMap().putAll(vertexRange.getVertexMap());
+            inMemoryMap.remove(vertexRange);
+            inMemoryMap.put(nextVertexRange, Boolean.TRUE);
+        }
+        if (pinnedSet.remove(vertexRange)) {
+            pinnedSet.add(nextVertexRange);
+        }
+        vertexRange.setStore(null);
+    }
+
+    /**
+     * Spill the least recently used vertex ranges that are not pinned until
+     * at most the maximum number of vertex ranges are in memory.  Empty
+     * vertex ranges are simply not tracked anymore.
+     *
+     * @param inUse Vertex range that was just requested, not spilled
+     *        (can be null)
+     */
+    private void spillExcess(VertexRange<I, V, E, M> inUse) {
+        Iterator<VertexRange<I, V, E, M>> it =
+            inMemoryMap.keySet().iterator();
+        while (inMemoryMap.size() > maxVertexRangesInMemory && it.hasNext()) {
+            VertexRange<I, V, E, M> vertexRange = it.next();
+            if (vertexRange == inUse || pinnedSet.contains(vertexRange)) {
+                continue;
+            }
+            it.remove();
+            if (!vertexRange.getVertexMap().isEmpty()) {
+                spill(vertexRange);
+            }
+        }
+    }
+
+    /**
+     * Write the vertices of a vertex range to a new spill file and release
+     * them.
+     *
+     * @param vertexRange Vertex range to spill
+     */
+    private void spill(VertexRange<I, V, E, M> vertexRange) {
+        File spillFile = new File(directory, "vertexRange-" + nextSpillFileId);
+        ++nextSpillFileId;
+        SortedMap<I, BasicVertex<I, V, E, M>> vertexMap =
+            vertexRange.getVertexMap();
+        long edgeCount = 0;
+        try {
+            DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(spillFile)));
+            output.writeLong(vertexMap.size());
+            for (BasicVertex<I, V, E, M> vertex : vertexMap.values()) {
+                ((MutableVertex<I, V, E, M>) vertex).write(output);
+                edgeCount += vertex.getOutEdgeMap().size();
+            }
+            output.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "spill: Failed to write " + vertexRange + " to " +
+                spillFile, e);
+        }
+        spilledBytesCounter.increment(spillFile.length());
+        spillsCounter.increment(1);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("spill: Wrote " + vertexMap.size() + " vertices of " +
+                      "vertex range " + vertexRange.getMaxIndex() + " (" +
+                      spillFile.length() + " bytes) to " + spillFile);
+        }
+        vertexRange.setSpilled(spillFile, vertexMap.size(), edgeCount);
+    }
+
+    /**
+     * Delete all the spill files.
+     */
+    public synchronized void cleanup() {
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            LOG.warn("cleanup: Failed to delete " + directory, e);
+        }
+    }
+}
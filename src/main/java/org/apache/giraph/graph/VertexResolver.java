@@ -58,9 +58,10 @@ public class VertexResolver<I extends WritableComparable, V extends Writable,
         if (vertex != null) {
             if (vertexChanges != null) {
                 List<I> removedEdgeList = vertexChanges.getRemovedEdgeList();
+                MutableVertex<I, V, E, M> mutableVertex =
+                    (MutableVertex<I, V, E, M>) vertex;
                 for (I removedDestVertex : removedEdgeList) {
-                    if (vertex.getOutEdgeMap().remove(removedDestVertex) ==
-                            null) {
+                    if (!mutableVertex.removeEdge(removedDestVertex)) {
                         LOG.warn("resolve: Failed to remove edge with " +
                                  "destination " + removedDestVertex + "on " +
                                  vertex + " since it doesn't exist.");
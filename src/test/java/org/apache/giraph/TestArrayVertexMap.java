@@ -0,0 +1,156 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.graph.ArrayVertexMap;
+import org.apache.giraph.graph.BasicVertex;
+import org.apache.giraph.graph.LongDoubleFloatDoubleVertex;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Check the sorted array and hash index of {@link ArrayVertexMap} against
+ * a {@link TreeMap}.
+ */
+public class TestArrayVertexMap extends TestCase {
+    /**
+     * Simple instantiable vertex
+     */
+    private static class TestVertex extends LongDoubleFloatDoubleVertex {
+        @Override
+        public void compute(Iterator<DoubleWritable> msgIterator) {
+        }
+    }
+
+    /** Vertex map type used in the test */
+    private static class TestVertexMap extends ArrayVertexMap<LongWritable,
+            DoubleWritable, FloatWritable, DoubleWritable> {
+    }
+
+    /**
+     * Create a vertex.
+     *
+     * @param vertexId Vertex id
+     * @return Vertex
+     */
+    private static BasicVertex<LongWritable, DoubleWritable, FloatWritable,
+            DoubleWritable> createVertex(long vertexId) {
+        TestVertex vertex = new TestVertex();
+        vertex.setVertexId(new LongWritable(vertexId));
+        return vertex;
+    }
+
+    /**
+     * Compare all the lookups and the iteration order of both maps.
+     *
+     * @param expected Expected vertices
+     * @param vertexMap Vertex map to check
+     * @param maxVertexId Largest vertex id to look up
+     */
+    private static void assertSameVertices(
+            SortedMap<LongWritable, BasicVertex<LongWritable, DoubleWritable,
+                FloatWritable, DoubleWritable>> expected,
+            TestVertexMap vertexMap,
+            long maxVertexId) {
+        assertEquals(expected.size(), vertexMap.size());
+        for (long vertexId = 0; vertexId <= maxVertexId; ++vertexId) {
+            LongWritable key = new LongWritable(vertexId);
+            assertSame(expected.get(key), vertexMap.get(key));
+        }
+        assertEquals(new ArrayList<LongWritable>(expected.keySet()),
+                     new ArrayList<LongWritable>(vertexMap.keySet()));
+        // Positions are the ranks in vertex index order
+        int position = 0;
+        for (LongWritable key : expected.keySet()) {
+            assertEquals(position, vertexMap.indexOf(key));
+            assertSame(expected.get(key), vertexMap.getVertexAt(position));
+            ++position;
+        }
+        assertEquals(-1, vertexMap.indexOf(new LongWritable(-1)));
+        if (!expected.isEmpty()) {
+            assertEquals(expected.firstKey(), vertexMap.firstKey());
+            assertEquals(expected.lastKey(), vertexMap.lastKey());
+        }
+    }
+
+    /**
+     * Ordered appends, out of order puts, replacements and removals must
+     * behave like a {@link TreeMap}.
+     */
+    public void testMutations() {
+        SortedMap<LongWritable, BasicVertex<LongWritable, DoubleWritable,
+            FloatWritable, DoubleWritable>> expected =
+            new TreeMap<LongWritable, BasicVertex<LongWritable,
+                DoubleWritable, FloatWritable, DoubleWritable>>();
+        TestVertexMap vertexMap = new TestVertexMap();
+        for (long vertexId = 0; vertexId < 100; vertexId += 2) {
+            expected.put(new LongWritable(vertexId), createVertex(vertexId));
+        }
+        vertexMap.putAll(expected);
+        assertSameVertices(expected, vertexMap, 200);
+
+        Random random = new Random(42);
+        for (int round = 0; round < 20; ++round) {
+            for (int i = 0; i < 50; ++i) {
+                long vertexId = random.nextInt(200);
+                LongWritable key = new LongWritable(vertexId);
+                if (random.nextBoolean()) {
+                    BasicVertex<LongWritable, DoubleWritable, FloatWritable,
+                        DoubleWritable> vertex = createVertex(vertexId);
+                    assertSame(expected.put(key, vertex),
+                               vertexMap.put(key, vertex));
+                } else {
+                    assertSame(expected.remove(key), vertexMap.remove(key));
+                }
+            }
+            if (round % 2 == 0) {
+                vertexMap.rebuild();
+            }
+            assertSameVertices(expected, vertexMap, 200);
+        }
+
+        List<LongWritable> removedKeys = new ArrayList<LongWritable>();
+        Iterator<LongWritable> it = vertexMap.keySet().iterator();
+        while (it.hasNext()) {
+            LongWritable key = it.next();
+            if (key.get() % 3 == 0) {
+                it.remove();
+                removedKeys.add(key);
+            }
+        }
+        for (LongWritable key : removedKeys) {
+            expected.remove(key);
+        }
+        assertSameVertices(expected, vertexMap, 200);
+
+        vertexMap.clear();
+        assertTrue(vertexMap.isEmpty());
+        assertNull(vertexMap.get(new LongWritable(0)));
+    }
+}
@@ -18,20 +18,29 @@
 
 package org.apache.giraph;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.JobID;
+import org.apache.giraph.benchmark.PageRankBenchmark;
+import org.apache.giraph.benchmark.PseudoRandomVertexInputFormat;
 import org.apache.giraph.examples.GeneratedVertexReader;
 import org.apache.giraph.examples.SimpleCombinerVertex;
 import org.apache.giraph.examples.SimpleFailVertex;
@@ -39,6 +48,7 @@ import org.apache.giraph.examples.SimpleMsgVertex;
 import org.apache.giraph.examples.SimplePageRankVertex;
 import org.apache.giraph.examples.SimpleShortestPathsVertex;
 import org.apache.giraph.examples.SimplePageRankVertex.SimplePageRankVertexInputFormat;
+import org.apache.giraph.examples.SimplePageRankVertex.SimplePageRankVertexOutputFormat;
 import org.apache.giraph.examples.SimpleShortestPathsVertex.SimpleShortestPathsVertexOutputFormat;
 import org.apache.giraph.examples.SimpleSumCombiner;
 import org.apache.giraph.examples.SimpleSuperstepVertex;
@@ -216,6 +226,24 @@ public class TestBspBasic extends BspCase {
     }
 
 
+    /**
+     * Run a sample BSP job locally over the Netty transport and test
+     * messages.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspMsgNetty()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.getConfiguration().setBoolean(GiraphJob.USE_NETTY, true);
+        job.setVertexClass(SimpleMsgVertex.class);
+        job.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
+        assertTrue(job.run(true));
+    }
+
     /**
      * Run a sample BSP job locally with no vertices and make sure
      * it completes.
@@ -279,6 +307,147 @@ public class TestBspBasic extends BspCase {
         }
     }
 
+    /**
+     * Run a sample BSP job locally with multiple compute threads on several
+     * vertex ranges and compare PageRank with a single compute thread.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankMultithreaded()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        double[] maxPageRanks = new double[2];
+        double[] minPageRanks = new double[2];
+        long[] numVertices = new long[2];
+        int[] numComputeThreads = new int[] {1, 4};
+        for (int i = 0; i < numComputeThreads.length; ++i) {
+            GiraphJob job = new GiraphJob(getCallingMethodName());
+            setupConfiguration(job);
+            // One vertex per vertex range, so that the ranges are computed
+            // concurrently
+            job.getConfiguration().setFloat(
+                GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER, 5.0f);
+            job.getConfiguration().setLong(GiraphJob.MIN_VERTICES_PER_RANGE,
+                                           1);
+            job.getConfiguration().setInt(GiraphJob.NUM_COMPUTE_THREADS,
+                                          numComputeThreads[i]);
+            job.setVertexClass(SimplePageRankVertex.class);
+            job.setVertexInputFormatClass(
+                SimplePageRankVertexInputFormat.class);
+            assertTrue(job.run(true));
+            maxPageRanks[i] = SimplePageRankVertex.finalMax;
+            minPageRanks[i] = SimplePageRankVertex.finalMin;
+            numVertices[i] = SimplePageRankVertex.finalSum;
+        }
+        if (getJobTracker() == null) {
+            System.out.println("testBspPageRankMultithreaded: maxPageRank=" +
+                               maxPageRanks[1] + " minPageRank=" +
+                               minPageRanks[1] + " numVertices=" +
+                               numVertices[1]);
+            assertEquals(maxPageRanks[0], maxPageRanks[1], 1e-9);
+            assertEquals(minPageRanks[0], minPageRanks[1], 1e-9);
+            assertEquals(numVertices[0], numVertices[1]);
+            assertTrue(maxPageRanks[1] > 34.030 && maxPageRanks[1] < 34.0301);
+            assertTrue(minPageRanks[1] > 0.03 && minPageRanks[1] < 0.03001);
+            assertTrue(numVertices[1] == 5);
+        }
+    }
+
+    /**
+     * Run a sample BSP job locally with the incoming messages kept in byte
+     * arrays and test PageRank.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankByteArrayMessages()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.getConfiguration().setBoolean(
+            GiraphJob.USE_BYTE_ARRAY_MESSAGES, true);
+        job.setVertexClass(SimplePageRankVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        assertTrue(job.run(true));
+        if (getJobTracker() == null) {
+            double maxPageRank = SimplePageRankVertex.finalMax;
+            double minPageRank = SimplePageRankVertex.finalMin;
+            long numVertices = SimplePageRankVertex.finalSum;
+            System.out.println("testBspPageRankByteArrayMessages: " +
+                               "maxPageRank=" + maxPageRank +
+                               " minPageRank=" + minPageRank +
+                               " numVertices=" + numVertices);
+            assertTrue(maxPageRank > 34.030 && maxPageRank < 34.0301);
+            assertTrue(minPageRank > 0.03 && minPageRank < 0.03001);
+            assertTrue(numVertices == 5);
+        }
+    }
+
+    /**
+     * Run a sample BSP job locally with at most one vertex range in memory
+     * and test PageRank.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankOutOfCore()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.getConfiguration().setFloat(GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER,
+                                        5.0f);
+        job.getConfiguration().setLong(GiraphJob.MIN_VERTICES_PER_RANGE, 1);
+        job.getConfiguration().setInt(GiraphJob.MAX_VERTEX_RANGES_IN_MEMORY,
+                                      1);
+        job.setVertexClass(SimplePageRankVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        assertTrue(job.run(true));
+        if (getJobTracker() == null) {
+            double maxPageRank = SimplePageRankVertex.finalMax;
+            double minPageRank = SimplePageRankVertex.finalMin;
+            long numVertices = SimplePageRankVertex.finalSum;
+            System.out.println("testBspPageRankOutOfCore: maxPageRank=" +
+                               maxPageRank + " minPageRank=" + minPageRank +
+                               " numVertices=" + numVertices);
+            assertTrue(maxPageRank > 34.030 && maxPageRank < 34.0301);
+            assertTrue(minPageRank > 0.03 && minPageRank < 0.03001);
+            assertTrue(numVertices == 5);
+        }
+    }
+
+    /**
+     * Run a sample BSP job locally with at most two incoming messages in
+     * memory and test PageRank.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankOutOfCoreMessages()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.getConfiguration().setLong(GiraphJob.MAX_MESSAGES_IN_MEMORY, 2);
+        job.setVertexClass(SimplePageRankVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        assertTrue(job.run(true));
+        if (getJobTracker() == null) {
+            double maxPageRank = SimplePageRankVertex.finalMax;
+            double minPageRank = SimplePageRankVertex.finalMin;
+            long numVertices = SimplePageRankVertex.finalSum;
+            System.out.println("testBspPageRankOutOfCoreMessages: " +
+                               "maxPageRank=" + maxPageRank +
+                               " minPageRank=" + minPageRank +
+                               " numVertices=" + numVertices);
+            assertTrue(maxPageRank > 34.030 && maxPageRank < 34.0301);
+            assertTrue(minPageRank > 0.03 && minPageRank < 0.03001);
+            assertTrue(numVertices == 5);
+        }
+    }
+
     /**
      * Run a sample BSP job locally and test shortest paths.
      *
@@ -315,4 +484,425 @@ public class TestBspBasic extends BspCase {
             assertTrue(fileStatus.getLen() == fileStatus2.getLen());
         }
     }
+
+    /**
+     * Run a sample BSP job in this JVM with a master and three workers and
+     * compare its output with the one of a single worker on the same graph.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspShortestPathsInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleShortestPathsVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(
+            SimpleShortestPathsVertexOutputFormat.class);
+        job.getConfiguration().setLong(SimpleShortestPathsVertex.SOURCE_ID, 0);
+        // Same graph as three splits of 5 vertices
+        job.getConfiguration().setLong(GeneratedVertexReader.READER_VERTICES,
+                                       15);
+        Path outputPath = new Path("/tmp/" + getCallingMethodName());
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.run(true));
+
+        job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleShortestPathsVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(
+            SimpleShortestPathsVertexOutputFormat.class);
+        job.getConfiguration().setLong(SimpleShortestPathsVertex.SOURCE_ID, 0);
+        Path outputPath2 = new Path("/tmp/" + getCallingMethodName() + "2");
+        removeAndSetOutput(job, outputPath2);
+        assertTrue(job.runInProcess(3));
+        if (getJobTracker() == null) {
+            FileStatus fileStatus = getSinglePartFileStatus(job, outputPath);
+            long totalLen = 0;
+            for (FileStatus fileStatus2 : FileSystem.get(
+                    job.getConfiguration()).listStatus(outputPath2)) {
+                if (fileStatus2.getPath().getName().startsWith("part-m-")) {
+                    totalLen += fileStatus2.getLen();
+                }
+            }
+            assertEquals(fileStatus.getLen(), totalLen);
+        }
+    }
+
+    /**
+     * Read the vertex values written by the text output formats (one
+     * vertex index and value per line) in all the part files of a job.
+     *
+     * @param conf Configuration
+     * @param outputPath Output directory of the job
+     * @return Map of vertex index to vertex value
+     * @throws IOException
+     */
+    private static Map<Long, Double> readVertexValues(Configuration conf,
+                                                      Path outputPath)
+            throws IOException {
+        Map<Long, Double> vertexValueMap = new HashMap<Long, Double>();
+        FileSystem fs = FileSystem.get(conf);
+        for (FileStatus fileStatus : fs.listStatus(outputPath)) {
+            if (!fileStatus.getPath().getName().startsWith("part-m-")) {
+                continue;
+            }
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(fs.open(fileStatus.getPath())));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    String[] tokens = line.split("\t");
+                    vertexValueMap.put(Long.valueOf(tokens[0]),
+                                       Double.valueOf(tokens[1]));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return vertexValueMap;
+    }
+
+    /**
+     * Run PageRank on a graph with many edges per vertex with a single
+     * worker, then in this JVM with three workers, and compare the results.
+     *
+     * @param jobName Name of the jobs
+     * @param inProcessConf Configuration set only for the in-process job
+     * @return In-process job
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    private GiraphJob comparePageRankInProcess(
+            String jobName, Map<String, String> inProcessConf)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Path[] outputPaths = new Path[] {
+            new Path("/tmp/" + jobName),
+            new Path("/tmp/" + jobName + "2")};
+        GiraphJob job = null;
+        for (int i = 0; i < outputPaths.length; ++i) {
+            job = new GiraphJob(jobName);
+            setupConfiguration(job);
+            job.setVertexClass(PageRankBenchmark.class);
+            job.setVertexInputFormatClass(
+                PseudoRandomVertexInputFormat.class);
+            job.setVertexOutputFormatClass(
+                SimplePageRankVertexOutputFormat.class);
+            job.getConfiguration().setLong(
+                PseudoRandomVertexInputFormat.AGGREGATE_VERTICES, 30);
+            job.getConfiguration().setLong(
+                PseudoRandomVertexInputFormat.EDGES_PER_VERTEX, 10);
+            job.getConfiguration().setInt(
+                PageRankBenchmark.SUPERSTEP_COUNT, 3);
+            removeAndSetOutput(job, outputPaths[i]);
+            if (i == 0) {
+                assertTrue(job.run(true));
+            } else {
+                for (Entry<String, String> entry : inProcessConf.entrySet()) {
+                    job.getConfiguration().set(entry.getKey(),
+                                               entry.getValue());
+                }
+                assertTrue(job.runInProcess(3));
+            }
+        }
+        if (getJobTracker() == null) {
+            Map<Long, Double> vertexValueMap =
+                readVertexValues(job.getConfiguration(), outputPaths[0]);
+            Map<Long, Double> vertexValueMap2 =
+                readVertexValues(job.getConfiguration(), outputPaths[1]);
+            assertEquals(30, vertexValueMap.size());
+            assertEquals(vertexValueMap.keySet(), vertexValueMap2.keySet());
+            for (Entry<Long, Double> entry : vertexValueMap.entrySet()) {
+                assertEquals(entry.getValue(),
+                             vertexValueMap2.get(entry.getKey()),
+                             1e-9);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Run PageRank in this JVM with three workers, where messages to all
+     * the edges are broadcast once per worker, and compare the results
+     * with a single worker.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankBroadcastInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        comparePageRankInProcess(getCallingMethodName(),
+                                 new HashMap<String, String>());
+    }
+
+    /**
+     * Run PageRank in this JVM with three workers and a tiny in-memory
+     * message budget, so that the broadcast messages from the other
+     * workers are spilled to disk, and compare the results with a single
+     * worker.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankOutOfCoreBroadcastsInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Map<String, String> inProcessConf = new HashMap<String, String>();
+        inProcessConf.put(GiraphJob.MAX_MESSAGES_IN_MEMORY, "10");
+        GiraphJob job =
+            comparePageRankInProcess(getCallingMethodName(), inProcessConf);
+        // Every edge gets a message in each of the 3 supersteps, and at
+        // most 10 of the messages received by a worker per superstep stay
+        // in memory (most of them are broadcasts from the other workers)
+        long edges = job.getInProcessCounters().findCounter(
+            "Giraph Stats", "Aggregate edges").getValue();
+        long spilledMsgs = job.getInProcessCounters().findCounter(
+            "Giraph Stats", "Out-of-core spilled messages").getValue();
+        assertTrue(spilledMsgs >= edges * 3 - 3 * 3 * 10);
+    }
+
+    /**
+     * Run PageRank in this JVM with three workers, immutable edges and a
+     * single vertex range in memory, so that the vertices are reloaded
+     * with their edges in a store per vertex range, and compare the
+     * results with a single worker.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankImmutableEdgesOutOfCoreInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Map<String, String> inProcessConf = new HashMap<String, String>();
+        inProcessConf.put(GiraphJob.IMMUTABLE_EDGES, "true");
+        inProcessConf.put(GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER, "5.0");
+        inProcessConf.put(GiraphJob.MIN_VERTICES_PER_RANGE, "1");
+        inProcessConf.put(GiraphJob.MAX_VERTEX_RANGES_IN_MEMORY, "1");
+        GiraphJob job =
+            comparePageRankInProcess(getCallingMethodName(), inProcessConf);
+        assertTrue(job.getInProcessCounters().findCounter(
+            "Giraph Stats", "Out-of-core reloaded vertex ranges").getValue() >
+            0);
+    }
+
+    /**
+     * Run PageRank in this JVM with three workers, tiny message buffers and
+     * a single buffer credit per peer, so that the compute threads stream
+     * the messages and block on the one sender thread shared by all the
+     * peers, and compare the results with a single worker.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankStreamingInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Map<String, String> inProcessConf = new HashMap<String, String>();
+        inProcessConf.put(GiraphJob.MSG_BUFFER_SIZE, "64");
+        inProcessConf.put(GiraphJob.MSG_BUFFER_CREDITS, "1");
+        inProcessConf.put(GiraphJob.NUM_COMPUTE_THREADS, "2");
+        inProcessConf.put(GiraphJob.NUM_SENDER_THREADS, "1");
+        comparePageRankInProcess(getCallingMethodName(), inProcessConf);
+    }
+
+    /**
+     * Run PageRank in this JVM with three workers that can each load
+     * several InputSplits concurrently, and compare the results with a
+     * single worker.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspPageRankInputSplitThreadsInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Map<String, String> inProcessConf = new HashMap<String, String>();
+        inProcessConf.put(GiraphJob.NUM_INPUT_SPLIT_THREADS, "3");
+        comparePageRankInProcess(getCallingMethodName(), inProcessConf);
+    }
+
+    /**
+     * Run a sample BSP job with hash partitioning and compare its output
+     * with the one of ordered vertex ranges.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspShortestPathsHashPartitioned()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleShortestPathsVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(
+            SimpleShortestPathsVertexOutputFormat.class);
+        job.getConfiguration().setLong(SimpleShortestPathsVertex.SOURCE_ID, 0);
+        Path outputPath = new Path("/tmp/" + getCallingMethodName());
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.run(true));
+
+        job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleShortestPathsVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(
+            SimpleShortestPathsVertexOutputFormat.class);
+        job.getConfiguration().setLong(SimpleShortestPathsVertex.SOURCE_ID, 0);
+        job.getConfiguration().setBoolean(GiraphJob.USE_HASH_PARTITIONING,
+                                          true);
+        job.getConfiguration().setInt(GiraphJob.HASH_PARTITION_COUNT, 4);
+        Path outputPath2 = new Path("/tmp/" + getCallingMethodName() + "2");
+        removeAndSetOutput(job, outputPath2);
+        assertTrue(job.run(true));
+        if (getJobTracker() == null) {
+            FileStatus fileStatus = getSinglePartFileStatus(job, outputPath);
+            FileStatus fileStatus2 = getSinglePartFileStatus(job, outputPath2);
+            assertTrue(fileStatus.getLen() == fileStatus2.getLen());
+        }
+    }
+
+    /**
+     * Run a sample BSP job with the messages within a vertex range
+     * delivered in the same superstep and compare its output with strict
+     * BSP.  It should also take fewer supersteps.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspShortestPathsAsyncLocalMessages()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob[] jobs = new GiraphJob[2];
+        Path[] outputPaths = new Path[] {
+            new Path("/tmp/" + getCallingMethodName()),
+            new Path("/tmp/" + getCallingMethodName() + "2")};
+        for (int i = 0; i < jobs.length; ++i) {
+            jobs[i] = new GiraphJob(getCallingMethodName());
+            setupConfiguration(jobs[i]);
+            jobs[i].setVertexClass(SimpleShortestPathsVertex.class);
+            jobs[i].setVertexInputFormatClass(
+                SimplePageRankVertexInputFormat.class);
+            jobs[i].setVertexOutputFormatClass(
+                SimpleShortestPathsVertexOutputFormat.class);
+            jobs[i].getConfiguration().setLong(
+                SimpleShortestPathsVertex.SOURCE_ID, 0);
+            jobs[i].getConfiguration().setBoolean(
+                GiraphJob.ASYNC_LOCAL_MESSAGES, i == 1);
+            removeAndSetOutput(jobs[i], outputPaths[i]);
+            assertTrue(jobs[i].run(true));
+        }
+        if (getJobTracker() == null) {
+            FileStatus fileStatus =
+                getSinglePartFileStatus(jobs[0], outputPaths[0]);
+            FileStatus fileStatus2 =
+                getSinglePartFileStatus(jobs[1], outputPaths[1]);
+            assertTrue(fileStatus.getLen() == fileStatus2.getLen());
+            long supersteps = jobs[0].getCounters().findCounter(
+                "Giraph Stats", "Superstep").getValue();
+            long supersteps2 = jobs[1].getCounters().findCounter(
+                "Giraph Stats", "Superstep").getValue();
+            assertTrue(supersteps2 < supersteps);
+        }
+    }
+
+    /**
+     * Read the lines of all the part files of a job, in part file order.
+     *
+     * @param conf Configuration
+     * @param outputPath Output directory of the job
+     * @return Lines of the part files
+     * @throws IOException
+     */
+    private static List<String> readPartFileLines(Configuration conf,
+                                                  Path outputPath)
+            throws IOException {
+        List<String> lineList = new ArrayList<String>();
+        FileSystem fs = FileSystem.get(conf);
+        for (FileStatus fileStatus : fs.listStatus(outputPath)) {
+            if (!fileStatus.getPath().getName().startsWith("part-m-")) {
+                continue;
+            }
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(fs.open(fileStatus.getPath())));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    lineList.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return lineList;
+    }
+
+    /**
+     * Run shortest paths, where most vertices halt early, on several vertex
+     * ranges with and without tracking the active vertices, and with
+     * tracking and out-of-core vertex ranges.  The outputs and vertex
+     * counts must be the same.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testBspShortestPathsActiveVertices()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        boolean[] trackActiveVertices = new boolean[] {false, true, true};
+        int[] maxVertexRangesInMemory = new int[] {0, 0, 1};
+        GiraphJob[] jobs = new GiraphJob[trackActiveVertices.length];
+        Path[] outputPaths = new Path[jobs.length];
+        for (int i = 0; i < jobs.length; ++i) {
+            jobs[i] = new GiraphJob(getCallingMethodName());
+            setupConfiguration(jobs[i]);
+            jobs[i].setVertexClass(SimpleShortestPathsVertex.class);
+            jobs[i].setVertexInputFormatClass(
+                SimplePageRankVertexInputFormat.class);
+            jobs[i].setVertexOutputFormatClass(
+                SimpleShortestPathsVertexOutputFormat.class);
+            Configuration conf = jobs[i].getConfiguration();
+            conf.setLong(SimpleShortestPathsVertex.SOURCE_ID, 0);
+            conf.setLong(GeneratedVertexReader.READER_VERTICES, 15);
+            conf.setFloat(GiraphJob.TOTAL_INPUT_SPLIT_MULTIPLIER, 5.0f);
+            conf.setLong(GiraphJob.MIN_VERTICES_PER_RANGE, 1);
+            conf.setBoolean(GiraphJob.TRACK_ACTIVE_VERTICES,
+                            trackActiveVertices[i]);
+            conf.setInt(GiraphJob.MAX_VERTEX_RANGES_IN_MEMORY,
+                        maxVertexRangesInMemory[i]);
+            outputPaths[i] = new Path("/tmp/" + getCallingMethodName() + i);
+            removeAndSetOutput(jobs[i], outputPaths[i]);
+            assertTrue(jobs[i].run(true));
+        }
+        if (getJobTracker() == null) {
+            List<String> lineList = readPartFileLines(
+                jobs[0].getConfiguration(), outputPaths[0]);
+            assertEquals(15, lineList.size());
+            String[] counterNames = new String[] {
+                "Aggregate vertices",
+                "Aggregate finished vertices",
+                "Aggregate edges"};
+            for (int i = 1; i < jobs.length; ++i) {
+                assertEquals(lineList, readPartFileLines(
+                    jobs[i].getConfiguration(), outputPaths[i]));
+                for (String counterName : counterNames) {
+                    assertEquals(counterName,
+                                 jobs[0].getCounters().findCounter(
+                                     "Giraph Stats",
+                                     counterName).getValue(),
+                                 jobs[i].getCounters().findCounter(
+                                     "Giraph Stats",
+                                     counterName).getValue());
+                }
+            }
+            assertTrue(jobs[2].getCounters().findCounter(
+                "Giraph Stats",
+                "Out-of-core reloaded vertex ranges").getValue() > 0);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.graph.ByteArrayEdges;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Check the byte array encoding of {@link ByteArrayEdges}.
+ */
+public class TestByteArrayEdges extends TestCase {
+    /**
+     * Create a configuration for the given id class and
+     * {@link FloatWritable} edge values.
+     *
+     * @param vertexIndexClass Class of the vertex ids
+     * @return Configuration
+     */
+    private static Configuration createConf(Class<?> vertexIndexClass) {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, vertexIndexClass,
+                      vertexIndexClass);
+        conf.setClass(GiraphJob.EDGE_VALUE_CLASS, FloatWritable.class,
+                      FloatWritable.class);
+        return conf;
+    }
+
+    /**
+     * Long ids must be delta encoded and decoded in order.
+     */
+    public void testLongIds() {
+        SortedMap<LongWritable, Edge<LongWritable, FloatWritable>> edgeMap =
+            new TreeMap<LongWritable, Edge<LongWritable, FloatWritable>>();
+        for (long destVertexId : new long[] {1000000, 5, 1000001, -3}) {
+            edgeMap.put(new LongWritable(destVertexId),
+                        new Edge<LongWritable, FloatWritable>(
+                            new LongWritable(destVertexId),
+                            new FloatWritable(destVertexId)));
+        }
+        ByteArrayEdges<LongWritable, FloatWritable> edges =
+            new ByteArrayEdges<LongWritable, FloatWritable>(
+                createConf(LongWritable.class), edgeMap.values());
+        assertEquals(4, edges.size());
+        // 1 + 1 + 4 + 1 bytes of deltas and 4 * 4 bytes of edge values
+        assertEquals(23, edges.getSize());
+        assertEquals(edgeMap.keySet(), edges.keySet());
+        assertEquals(new LongWritable(-3), edges.firstKey());
+        assertEquals(new LongWritable(1000001), edges.lastKey());
+        assertEquals(new FloatWritable(5),
+                     edges.get(new LongWritable(5)).getEdgeValue());
+        assertNull(edges.get(new LongWritable(6)));
+        assertEquals(2, edges.headMap(new LongWritable(1000000)).size());
+
+        Iterator<Edge<LongWritable, FloatWritable>> it =
+            edges.reusableIterator();
+        Edge<LongWritable, FloatWritable> first = it.next();
+        assertEquals(new LongWritable(-3), first.getDestVertexId());
+        assertSame(first, it.next());
+        assertEquals(new LongWritable(5), first.getDestVertexId());
+        try {
+            it.remove();
+            fail("remove: Edge map should be read-only");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    /**
+     * Other ids must be stored in their Writable format.
+     */
+    public void testTextIds() {
+        SortedMap<Text, Edge<Text, FloatWritable>> edgeMap =
+            new TreeMap<Text, Edge<Text, FloatWritable>>();
+        for (String destVertexId : new String[] {"b", "a", "c"}) {
+            edgeMap.put(new Text(destVertexId),
+                        new Edge<Text, FloatWritable>(
+                            new Text(destVertexId), new FloatWritable(1)));
+        }
+        ByteArrayEdges<Text, FloatWritable> edges =
+            new ByteArrayEdges<Text, FloatWritable>(
+                createConf(Text.class), edgeMap.values());
+        assertEquals(3 * (2 + 4), edges.getSize());
+        assertEquals(edgeMap.keySet(), edges.keySet());
+        assertTrue(edges.containsKey(new Text("c")));
+        assertFalse(edges.containsKey(new Text("d")));
+    }
+}
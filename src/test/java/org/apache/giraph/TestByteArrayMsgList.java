@@ -0,0 +1,94 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.comm.ByteArrayMsgList;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Check the serialized message storage of {@link ByteArrayMsgList}.
+ */
+public class TestByteArrayMsgList extends TestCase {
+    /**
+     * Create an empty list of {@link IntWritable} messages.
+     *
+     * @return Message list
+     */
+    private static ByteArrayMsgList<IntWritable> createMsgList() {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, IntWritable.class,
+                      IntWritable.class);
+        return new ByteArrayMsgList<IntWritable>(conf);
+    }
+
+    /**
+     * The iterator must reuse a single message object.
+     */
+    public void testIterator() {
+        ByteArrayMsgList<IntWritable> msgList = createMsgList();
+        for (int i = 0; i < 10; ++i) {
+            msgList.add(new IntWritable(i));
+        }
+        assertEquals(10, msgList.size());
+        assertEquals(40, msgList.getSize());
+        Iterator<IntWritable> it = msgList.iterator();
+        IntWritable first = it.next();
+        assertEquals(0, first.get());
+        for (int i = 1; i < 10; ++i) {
+            IntWritable msg = it.next();
+            assertSame(first, msg);
+            assertEquals(i, msg.get());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(7, msgList.get(7).get());
+    }
+
+    /**
+     * Serialized lists are appended as is and copied out as new objects.
+     */
+    public void testAddAll() {
+        ByteArrayMsgList<IntWritable> msgList = createMsgList();
+        ByteArrayMsgList<IntWritable> otherMsgList = createMsgList();
+        msgList.add(new IntWritable(1));
+        otherMsgList.add(new IntWritable(2));
+        otherMsgList.add(new IntWritable(3));
+        msgList.addAll(otherMsgList);
+        assertEquals(3, msgList.size());
+
+        // Copies to other collections get a message object per message
+        List<IntWritable> copyList = new ArrayList<IntWritable>(msgList);
+        assertEquals(3, copyList.size());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(i + 1, copyList.get(i).get());
+        }
+        assertNotSame(copyList.get(0), copyList.get(1));
+
+        msgList.clear();
+        assertTrue(msgList.isEmpty());
+        assertFalse(msgList.iterator().hasNext());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.graph.CsrEdgeStore;
+import org.apache.giraph.graph.Edge;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Check the shared edge arrays of {@link CsrEdgeStore}.
+ */
+public class TestCsrEdgeStore extends TestCase {
+    /**
+     * Create sorted edges.
+     *
+     * @param destVertexIds Destination vertex ids of the edges
+     * @return Edges sorted by destination vertex id
+     */
+    private static SortedMap<LongWritable, Edge<LongWritable, FloatWritable>>
+            createEdgeMap(long... destVertexIds) {
+        SortedMap<LongWritable, Edge<LongWritable, FloatWritable>> edgeMap =
+            new TreeMap<LongWritable, Edge<LongWritable, FloatWritable>>();
+        for (long destVertexId : destVertexIds) {
+            edgeMap.put(new LongWritable(destVertexId),
+                        new Edge<LongWritable, FloatWritable>(
+                            new LongWritable(destVertexId),
+                            new FloatWritable(destVertexId * 10)));
+        }
+        return edgeMap;
+    }
+
+    /**
+     * The edges of every vertex must be a separate, sorted and read-only
+     * slice of the shared arrays.
+     */
+    public void testEdgeMaps() {
+        CsrEdgeStore<LongWritable, FloatWritable> edgeStore =
+            new CsrEdgeStore<LongWritable, FloatWritable>();
+        int firstSlot = edgeStore.addEdges(createEdgeMap(9, 1, 5).values());
+        int emptySlot = edgeStore.addEdges(
+            Collections.<Edge<LongWritable, FloatWritable>>emptyList());
+        int lastSlot = edgeStore.addEdges(createEdgeMap(
+            20, 18, 16, 14, 12, 10, 8, 6, 4, 2, 0, 19, 17, 15, 13, 11,
+            7).values());
+        edgeStore.trim();
+        assertEquals(3, edgeStore.getNumVertices());
+        assertEquals(20, edgeStore.getNumEdges());
+
+        SortedMap<LongWritable, Edge<LongWritable, FloatWritable>> edgeMap =
+            edgeStore.getEdgeMap(firstSlot);
+        assertEquals(3, edgeMap.size());
+        assertEquals(new LongWritable(1), edgeMap.firstKey());
+        assertEquals(new LongWritable(9), edgeMap.lastKey());
+        assertEquals(new FloatWritable(50),
+                     edgeMap.get(new LongWritable(5)).getEdgeValue());
+        assertNull(edgeMap.get(new LongWritable(2)));
+        assertEquals(Arrays.asList(new LongWritable(1), new LongWritable(5)),
+                     Arrays.asList(edgeMap.headMap(
+                         new LongWritable(9)).keySet().toArray()));
+
+        assertTrue(edgeStore.getEdgeMap(emptySlot).isEmpty());
+
+        edgeMap = edgeStore.getEdgeMap(lastSlot);
+        assertEquals(17, edgeMap.size());
+        assertEquals(new LongWritable(0), edgeMap.firstKey());
+        assertEquals(new LongWritable(20), edgeMap.lastKey());
+        assertFalse(edgeMap.containsKey(new LongWritable(1)));
+
+        Iterator<LongWritable> it = edgeMap.keySet().iterator();
+        it.next();
+        try {
+            it.remove();
+            fail("remove: Edge map should be read-only");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            edgeMap.put(new LongWritable(3), null);
+            fail("put: Edge map should be read-only");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            edgeStore.getEdgeMap(3);
+            fail("getEdgeMap: Slot 3 should be invalid");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
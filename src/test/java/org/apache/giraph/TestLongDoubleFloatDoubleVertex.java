@@ -0,0 +1,150 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.LongDoubleFloatDoubleVertex;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Check the array-backed storage of {@link LongDoubleFloatDoubleVertex}.
+ */
+public class TestLongDoubleFloatDoubleVertex extends TestCase {
+    /**
+     * Simple instantiable vertex
+     */
+    private static class TestVertex extends LongDoubleFloatDoubleVertex {
+        @Override
+        public void compute(Iterator<DoubleWritable> msgIterator) {
+        }
+    }
+
+    /**
+     * Create a vertex with a few edges added out of order.
+     *
+     * @return Vertex
+     */
+    private static TestVertex createVertex() {
+        TestVertex vertex = new TestVertex();
+        vertex.setVertexId(new LongWritable(7));
+        vertex.setVertexValue(new DoubleWritable(1.5));
+        for (long destVertexId : new long[] {5, 1, 9, 3}) {
+            assertTrue(vertex.addEdge(new Edge<LongWritable, FloatWritable>(
+                new LongWritable(destVertexId),
+                new FloatWritable(destVertexId * 10))));
+        }
+        return vertex;
+    }
+
+    /**
+     * Edges must be kept sorted, unique and removable.
+     */
+    public void testEdges() {
+        TestVertex vertex = createVertex();
+        assertFalse(vertex.addEdge(new Edge<LongWritable, FloatWritable>(
+            new LongWritable(5), new FloatWritable(55))));
+        assertEquals(4, vertex.getNumOutEdges());
+
+        SortedMap<LongWritable, Edge<LongWritable, FloatWritable>> edgeMap =
+            vertex.getOutEdgeMap();
+        assertEquals(4, edgeMap.size());
+        assertEquals(new LongWritable(1), edgeMap.firstKey());
+        assertEquals(new LongWritable(9), edgeMap.lastKey());
+        assertTrue(edgeMap.containsKey(new LongWritable(3)));
+        assertFalse(edgeMap.containsKey(new LongWritable(4)));
+        assertEquals(new FloatWritable(55),
+                     edgeMap.get(new LongWritable(5)).getEdgeValue());
+        long previous = Long.MIN_VALUE;
+        for (Edge<LongWritable, FloatWritable> edge : edgeMap.values()) {
+            assertTrue(edge.getDestVertexId().get() > previous);
+            previous = edge.getDestVertexId().get();
+        }
+        assertEquals(2, edgeMap.headMap(new LongWritable(5)).size());
+        assertEquals(2, edgeMap.tailMap(new LongWritable(4)).size());
+        assertEquals(1, edgeMap.subMap(new LongWritable(2),
+                                       new LongWritable(5)).size());
+
+        assertTrue(vertex.removeEdge(new LongWritable(3)));
+        assertFalse(vertex.removeEdge(new LongWritable(3)));
+        assertEquals(3, vertex.getOutEdgeMap().size());
+        try {
+            vertex.getOutEdgeMap().remove(new LongWritable(1));
+            fail("testEdges: Edge map should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Messages are delivered through the list view.
+     */
+    public void testMsgList() {
+        TestVertex vertex = createVertex();
+        List<DoubleWritable> msgList = vertex.getMsgList();
+        assertTrue(msgList.isEmpty());
+        for (int i = 0; i < 10; ++i) {
+            msgList.add(new DoubleWritable(i));
+        }
+        assertEquals(10, vertex.getMsgList().size());
+        double sum = 0;
+        for (DoubleWritable msg : vertex.getMsgList()) {
+            sum += msg.get();
+        }
+        assertEquals(45d, sum);
+        vertex.getMsgList().clear();
+        assertTrue(vertex.getMsgList().isEmpty());
+    }
+
+    /**
+     * Serialize and deserialize a vertex.
+     *
+     * @throws IOException
+     */
+    public void testSerialization() throws IOException {
+        TestVertex vertex = createVertex();
+        vertex.getMsgList().add(new DoubleWritable(2.5));
+        vertex.voteToHalt();
+        DataOutputBuffer output = new DataOutputBuffer();
+        vertex.write(output);
+
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        TestVertex readVertex = new TestVertex();
+        readVertex.readFields(input);
+        assertEquals(7, readVertex.getPrimitiveVertexId());
+        assertEquals(1.5, readVertex.getPrimitiveVertexValue());
+        assertEquals(4, readVertex.getNumOutEdges());
+        assertEquals(new FloatWritable(90), readVertex.getOutEdgeMap().get(
+            new LongWritable(9)).getEdgeValue());
+        assertEquals(1, readVertex.getMsgList().size());
+        assertEquals(new DoubleWritable(2.5), readVertex.getMsgList().get(0));
+        assertTrue(readVertex.isHalted());
+    }
+}
@@ -23,8 +23,13 @@ import java.io.IOException;
 import org.apache.giraph.examples.SimpleCheckpointVertex;
 import org.apache.giraph.examples.SimpleSuperstepVertex.SimpleSuperstepVertexOutputFormat;
 import org.apache.giraph.examples.SimpleSuperstepVertex.SimpleSuperstepVertexInputFormat;
+import org.apache.giraph.graph.BspService;
 import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -111,4 +116,58 @@ public class TestManualCheckpoint extends BspCase {
             assertTrue(idSum == idSumRestarted);
         }
     }
+
+    /**
+     * Write the header of a checkpoint metadata file and read back its
+     * version.
+     *
+     * @param fs File system to write to
+     * @param path Path of the metadata file
+     * @param marker First long of the file
+     * @return Version read back
+     * @throws IOException
+     */
+    private int readMetadataVersion(FileSystem fs, Path path, long marker)
+            throws IOException {
+        FSDataOutputStream output = fs.create(path, true);
+        output.writeLong(marker);
+        output.writeLong(3);
+        output.close();
+        FSDataInputStream input = fs.open(path);
+        try {
+            int version =
+                BspService.readCheckpointMetadataVersion(input, path);
+            assertEquals(3, input.readLong());
+            return version;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Checkpoint metadata without a version marker is read as version 1,
+     * and unknown versions are rejected.
+     *
+     * @throws IOException
+     */
+    public void testCheckpointMetadataVersion() throws IOException {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path path = new Path("/tmp/" + getCallingMethodName() + ".metadata");
+        try {
+            assertEquals(BspService.CHECKPOINT_METADATA_VERSION,
+                         readMetadataVersion(
+                             fs, path,
+                             -BspService.CHECKPOINT_METADATA_VERSION));
+            // The first layout started with the vertex range count
+            assertEquals(1, readMetadataVersion(fs, path, 3));
+            try {
+                readMetadataVersion(
+                    fs, path, -BspService.CHECKPOINT_METADATA_VERSION - 1);
+                fail("Read an unknown checkpoint metadata version");
+            } catch (IllegalStateException e) {
+            }
+        } finally {
+            fs.delete(path, false);
+        }
+    }
 }
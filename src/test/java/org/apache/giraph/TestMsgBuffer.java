@@ -0,0 +1,367 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.comm.CompressedPayload;
+import org.apache.giraph.comm.MsgBuffer;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+/**
+ * Ensure that serialized message buffers survive the trip to a peer.
+ */
+public class TestMsgBuffer extends TestCase {
+    /**
+     * Serialize a buffer and make sure the receiver gets back every
+     * message grouped by vertex index.
+     *
+     * @throws IOException
+     */
+    public void testSerialization() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        MsgBuffer<LongWritable, DoubleWritable> msgBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        assertTrue(msgBuffer.isEmpty());
+        for (long i = 0; i < 10; ++i) {
+            msgBuffer.add(new LongWritable(i % 3), new DoubleWritable(i));
+        }
+        assertEquals(10, msgBuffer.getNumMsgs());
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<LongWritable, DoubleWritable> readBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        assertEquals(10, readBuffer.getNumMsgs());
+        assertEquals(msgBuffer.getSize(), readBuffer.getSize());
+
+        Map<LongWritable, List<DoubleWritable>> msgMap =
+            readBuffer.getMsgMap();
+        assertEquals(3, msgMap.size());
+        assertEquals(4, msgMap.get(new LongWritable(0)).size());
+        assertEquals(3, msgMap.get(new LongWritable(1)).size());
+        assertEquals(3, msgMap.get(new LongWritable(2)).size());
+        double sum = 0;
+        for (DoubleWritable msg : msgMap.get(new LongWritable(2))) {
+            sum += msg.get();
+        }
+        assertEquals(2d + 5d + 8d, sum);
+    }
+
+    /**
+     * A broadcast message is serialized once with all its destination
+     * vertex indices (sorted, as deltas) and survives the trip to a peer.
+     *
+     * @throws IOException
+     */
+    public void testBroadcast() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        MsgBuffer<LongWritable, DoubleWritable> msgBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        List<LongWritable> vertexIndices = new ArrayList<LongWritable>();
+        for (long i = 9; i >= 0; --i) {
+            vertexIndices.add(new LongWritable(1000000 + i));
+        }
+        msgBuffer.addBroadcast(vertexIndices, new DoubleWritable(3));
+        msgBuffer.add(new LongWritable(1), new DoubleWritable(4));
+        assertFalse(msgBuffer.isEmpty());
+        assertEquals(1, msgBuffer.getNumBroadcasts());
+        assertEquals(1, msgBuffer.getNumMsgs());
+        assertEquals(10, msgBuffer.getNumBroadcastTargets());
+        // Broadcast: message length, message, count, first index and 9
+        // deltas of a byte, then one pair
+        assertEquals(1 + 8 + 1 + 4 + 9 + 8 + 8, msgBuffer.getSize());
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<LongWritable, DoubleWritable> readBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        assertEquals(1, readBuffer.getNumBroadcasts());
+        assertEquals(1, readBuffer.getMsgMap().size());
+
+        DataOutputBuffer broadcastOutput = new DataOutputBuffer();
+        readBuffer.writeBroadcasts(broadcastOutput);
+        MsgBuffer.BroadcastReader<LongWritable> reader =
+            new MsgBuffer.BroadcastReader<LongWritable>(
+                conf, broadcastOutput.getData(),
+                broadcastOutput.getLength());
+        assertEquals(10, reader.nextBroadcast());
+        DoubleWritable msg = new DoubleWritable();
+        input.reset(broadcastOutput.getData(), reader.getMsgStart(),
+                    reader.getMsgLength());
+        msg.readFields(input);
+        assertEquals(3d, msg.get());
+        LongWritable vertexIndex = reader.nextVertexIndex();
+        assertEquals(1000000, vertexIndex.get());
+        for (long i = 1; i < 10; ++i) {
+            assertSame(vertexIndex, reader.nextVertexIndex());
+            assertEquals(1000000 + i, vertexIndex.get());
+        }
+    }
+
+    /**
+     * Broadcast messages to other vertex indices keep their destinations
+     * as is.
+     *
+     * @throws IOException
+     */
+    public void testBroadcastTextIndices() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, Text.class, Text.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        MsgBuffer<Text, DoubleWritable> msgBuffer =
+            new MsgBuffer<Text, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        List<Text> vertexIndices = new ArrayList<Text>();
+        vertexIndices.add(new Text("b"));
+        vertexIndices.add(new Text("a"));
+        msgBuffer.addBroadcast(vertexIndices, new DoubleWritable(1));
+        msgBuffer.addBroadcast(vertexIndices.subList(1, 2),
+                               new DoubleWritable(2));
+        assertEquals(3, msgBuffer.getNumBroadcastTargets());
+
+        DataOutputBuffer broadcastOutput = new DataOutputBuffer();
+        msgBuffer.writeBroadcasts(broadcastOutput);
+        MsgBuffer.BroadcastReader<Text> reader =
+            new MsgBuffer.BroadcastReader<Text>(
+                conf, broadcastOutput.getData(),
+                broadcastOutput.getLength());
+        assertEquals(2, reader.nextBroadcast());
+        assertEquals(new Text("b"), reader.nextVertexIndex());
+        assertEquals(new Text("a"), reader.nextVertexIndex());
+        assertEquals(1, reader.nextBroadcast());
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(broadcastOutput.getData(), reader.getMsgStart(),
+                    reader.getMsgLength());
+        DoubleWritable msg = new DoubleWritable();
+        msg.readFields(input);
+        assertEquals(2d, msg.get());
+        assertEquals(new Text("a"), reader.nextVertexIndex());
+    }
+
+    /**
+     * A large buffer is compressed when a codec is configured and survives
+     * the trip to a peer.
+     *
+     * @throws IOException
+     */
+    public void testCompression() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        conf.setClass(GiraphJob.COMM_COMPRESSION_CODEC, DefaultCodec.class,
+                      DefaultCodec.class);
+        conf.setInt(GiraphJob.COMM_COMPRESSION_THRESHOLD, 1024);
+        MsgBuffer<LongWritable, DoubleWritable> msgBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        for (long i = 0; i < 1000; ++i) {
+            msgBuffer.add(new LongWritable(i % 10), new DoubleWritable(1));
+        }
+        CompressedPayload compressedPayload = CompressedPayload.get(conf);
+        compressedPayload.getAndResetStats();
+
+        // Another worker in the same JVM keeps its own statistics
+        Configuration otherConf = new Configuration(conf);
+        CompressedPayload.get(otherConf).getAndResetStats();
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        assertTrue(output.getLength() < msgBuffer.getSize() / 2);
+        assertEquals(0,
+            CompressedPayload.get(otherConf).getAndResetStats().rawBytes);
+        CompressedPayload.Stats stats = compressedPayload.getAndResetStats();
+        // The messages are grouped by vertex index before compression
+        assertTrue(stats.rawBytes > 0);
+        assertTrue(stats.rawBytes < msgBuffer.getSize());
+        assertTrue(stats.compressedBytes < stats.rawBytes);
+
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<LongWritable, DoubleWritable> readBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        assertEquals(1000, readBuffer.getNumMsgs());
+        assertEquals(msgBuffer.getSize(), readBuffer.getSize());
+        Map<LongWritable, List<DoubleWritable>> msgMap =
+            readBuffer.getMsgMap();
+        assertEquals(10, msgMap.size());
+        assertEquals(100, msgMap.get(new LongWritable(3)).size());
+    }
+
+    /**
+     * Messages to clustered {@link LongWritable} vertex indices only send
+     * every vertex index once, as a small delta, and keep their order.
+     *
+     * @throws IOException
+     */
+    public void testGroupedLongIndices() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        MsgBuffer<LongWritable, DoubleWritable> msgBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        for (long i = 0; i < 100; ++i) {
+            msgBuffer.add(new LongWritable(1000000 + (i * 7) % 10),
+                          new DoubleWritable(i));
+        }
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        // Only the messages are written once per message
+        assertTrue(output.getLength() < 100 * 8 + 10 * 16);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<LongWritable, DoubleWritable> readBuffer =
+            new MsgBuffer<LongWritable, DoubleWritable>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        assertEquals(100, readBuffer.getNumMsgs());
+        assertEquals(msgBuffer.getSize(), readBuffer.getSize());
+        Map<LongWritable, List<DoubleWritable>> msgMap =
+            readBuffer.getMsgMap();
+        assertEquals(10, msgMap.size());
+        List<DoubleWritable> msgList = msgMap.get(new LongWritable(1000003));
+        assertEquals(10, msgList.size());
+        for (int i = 1; i < msgList.size(); ++i) {
+            assertTrue(msgList.get(i - 1).get() < msgList.get(i).get());
+        }
+    }
+
+    /**
+     * Messages to other vertex indices are also grouped by vertex index.
+     *
+     * @throws IOException
+     */
+    public void testGroupedTextIndices() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, Text.class, Text.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        MsgBuffer<Text, DoubleWritable> msgBuffer =
+            new MsgBuffer<Text, DoubleWritable>();
+        msgBuffer.setConf(conf);
+        for (long i = 0; i < 30; ++i) {
+            msgBuffer.add(new Text("vertex" + (i % 3)),
+                          new DoubleWritable(i));
+        }
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        assertTrue(output.getLength() < msgBuffer.getSize());
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<Text, DoubleWritable> readBuffer =
+            new MsgBuffer<Text, DoubleWritable>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        Map<Text, List<DoubleWritable>> msgMap = readBuffer.getMsgMap();
+        assertEquals(3, msgMap.size());
+        assertEquals(10, msgMap.get(new Text("vertex1")).size());
+        assertEquals(1d, msgMap.get(new Text("vertex1")).get(0).get());
+    }
+
+    /**
+     * Messages of different lengths are split by the offsets recorded as
+     * they are added, on both sides.
+     *
+     * @throws IOException
+     */
+    public void testVariableLengthMessages() throws IOException {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, Text.class, Text.class);
+        MsgBuffer<LongWritable, Text> msgBuffer =
+            new MsgBuffer<LongWritable, Text>();
+        msgBuffer.setConf(conf);
+        StringBuilder msgString = new StringBuilder();
+        for (long i = 0; i < 40; ++i) {
+            msgString.append(i);
+            msgBuffer.add(new LongWritable(i % 4),
+                          new Text(msgString.toString()));
+        }
+
+        DataOutputBuffer output = new DataOutputBuffer();
+        msgBuffer.write(output);
+        DataInputBuffer input = new DataInputBuffer();
+        input.reset(output.getData(), output.getLength());
+        MsgBuffer<LongWritable, Text> readBuffer =
+            new MsgBuffer<LongWritable, Text>();
+        readBuffer.setConf(conf);
+        readBuffer.readFields(input);
+        assertEquals(msgBuffer.getSize(), readBuffer.getSize());
+        List<Map<LongWritable, List<Text>>> msgMaps =
+            new ArrayList<Map<LongWritable, List<Text>>>();
+        msgMaps.add(msgBuffer.getMsgMap());
+        msgMaps.add(readBuffer.getMsgMap());
+        msgMaps.add(readBuffer.getByteArrayMsgMap());
+        for (Map<LongWritable, List<Text>> msgMap : msgMaps) {
+            assertEquals(4, msgMap.size());
+            List<Text> msgList = msgMap.get(new LongWritable(3));
+            assertEquals(10, msgList.size());
+            msgString.setLength(0);
+            int i = 0;
+            for (Text msg : msgList) {
+                for (; i % 4 != 3; ++i) {
+                    msgString.append(i);
+                }
+                msgString.append(i++);
+                assertEquals(msgString.toString(), msg.toString());
+            }
+        }
+    }
+}
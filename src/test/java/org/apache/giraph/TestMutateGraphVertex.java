@@ -66,4 +66,66 @@ public class TestMutateGraphVertex extends BspCase {
         removeAndSetOutput(job, outputPath);
         assertTrue(job.run(true));
     }
+
+    /**
+     * Run the graph mutations with several in-process workers, so that
+     * mutation requests are batched to remote workers.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testMutateGraphInProcess()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleMutateGraphVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(SimplePageRankVertexOutputFormat.class);
+        Path outputPath = new Path("/tmp/" + getCallingMethodName());
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.runInProcess(3));
+    }
+
+    /**
+     * Run the graph mutations with the edges loaded as immutable, so that
+     * they are copied back to a mutable map on demand.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testMutateGraphImmutableEdges()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleMutateGraphVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(SimplePageRankVertexOutputFormat.class);
+        job.getConfiguration().setBoolean(GiraphJob.IMMUTABLE_EDGES, true);
+        Path outputPath = new Path("/tmp/" + getCallingMethodName());
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.runInProcess(3));
+    }
+
+    /**
+     * Run the graph mutations with the edges encoded in byte arrays, so that
+     * they are decoded to a mutable map on demand.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testMutateGraphByteArrayEdges()
+            throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob(getCallingMethodName());
+        setupConfiguration(job);
+        job.setVertexClass(SimpleMutateGraphVertex.class);
+        job.setVertexInputFormatClass(SimplePageRankVertexInputFormat.class);
+        job.setVertexOutputFormatClass(SimplePageRankVertexOutputFormat.class);
+        job.getConfiguration().setBoolean(GiraphJob.BYTE_ARRAY_EDGES, true);
+        Path outputPath = new Path("/tmp/" + getCallingMethodName());
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.runInProcess(3));
+    }
 }
@@ -0,0 +1,286 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.comm.CommunicationsInterface;
+import org.apache.giraph.comm.MsgBuffer;
+import org.apache.giraph.comm.MsgList;
+import org.apache.giraph.comm.MutationBuffer;
+import org.apache.giraph.comm.NettyClient;
+import org.apache.giraph.comm.NettyServer;
+import org.apache.giraph.comm.VertexChunk;
+import org.apache.giraph.graph.Edge;
+import org.apache.giraph.graph.GiraphJob;
+import org.apache.giraph.graph.MutableVertex;
+import org.apache.giraph.graph.VertexMutations;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+/**
+ * Run several Netty servers and clients in the same JVM on localhost.
+ */
+public class TestNettyTransport extends TestCase {
+    /** Port of the first server */
+    private static final int BASE_PORT = 31500;
+
+    /**
+     * Records the requests received by a server.
+     */
+    private static class RecordingCommunications implements
+            CommunicationsInterface<LongWritable, DoubleWritable,
+                                    FloatWritable, DoubleWritable> {
+        /** Received messages */
+        private final List<DoubleWritable> msgs =
+            new ArrayList<DoubleWritable>();
+        /** Received edges */
+        private final List<Edge<LongWritable, FloatWritable>> edges =
+            new ArrayList<Edge<LongWritable, FloatWritable>>();
+        /** Removed vertices */
+        private final List<LongWritable> removedVertices =
+            new ArrayList<LongWritable>();
+
+        @Override
+        public long getProtocolVersion(String protocol, long clientVersion) {
+            return versionID;
+        }
+
+        @Override
+        public synchronized void putMsg(LongWritable vertexIndex,
+                                        DoubleWritable msg) {
+            msgs.add(msg);
+        }
+
+        @Override
+        public synchronized void putMsgList(
+                LongWritable vertexIndex,
+                MsgList<DoubleWritable> msgList) {
+            msgs.addAll(msgList);
+        }
+
+        @Override
+        public synchronized void putMsgBuffer(
+                MsgBuffer<LongWritable, DoubleWritable> msgBuffer)
+                throws IOException {
+            for (List<DoubleWritable> msgList :
+                    msgBuffer.getMsgMap().values()) {
+                msgs.addAll(msgList);
+            }
+        }
+
+        @Override
+        public synchronized void putMutationBuffer(
+                MutationBuffer<LongWritable, DoubleWritable, FloatWritable,
+                               DoubleWritable> mutationBuffer)
+                throws IOException {
+            for (Entry<LongWritable,
+                       VertexMutations<LongWritable, DoubleWritable,
+                                       FloatWritable, DoubleWritable>> entry :
+                    mutationBuffer.getVertexMutationsMap().entrySet()) {
+                edges.addAll(entry.getValue().getAddedEdgeList());
+                for (int i = 0;
+                        i < entry.getValue().getRemovedVertexCount(); ++i) {
+                    removedVertices.add(entry.getKey());
+                }
+            }
+        }
+
+        @Override
+        public void putVertexChunk(
+                LongWritable vertexIndexMax,
+                VertexChunk<LongWritable, DoubleWritable, FloatWritable,
+                            DoubleWritable> vertexChunk) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void addEdge(
+                LongWritable vertexIndex,
+                Edge<LongWritable, FloatWritable> edge) {
+            edges.add(edge);
+        }
+
+        @Override
+        public synchronized void removeEdge(
+                LongWritable vertexIndex,
+                LongWritable destinationVertexIndex) {
+            throw new IllegalStateException("removeEdge: Unsupported");
+        }
+
+        @Override
+        public void addVertex(
+                MutableVertex<LongWritable, DoubleWritable, FloatWritable,
+                              DoubleWritable> vertex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void removeVertex(LongWritable vertexIndex) {
+            removedVertices.add(vertexIndex);
+        }
+
+        @Override
+        public String getName() {
+            return RecordingCommunications.class.getName();
+        }
+    }
+
+    /**
+     * Get a configuration with the vertex types set.
+     *
+     * @return Configuration
+     */
+    private static Configuration getConfiguration() {
+        Configuration conf = new Configuration();
+        conf.setClass(GiraphJob.VERTEX_INDEX_CLASS, LongWritable.class,
+                      LongWritable.class);
+        conf.setClass(GiraphJob.EDGE_VALUE_CLASS, FloatWritable.class,
+                      FloatWritable.class);
+        conf.setClass(GiraphJob.MESSAGE_VALUE_CLASS, DoubleWritable.class,
+                      DoubleWritable.class);
+        return conf;
+    }
+
+    /**
+     * Send requests from one client to each of several servers, with very
+     * few outstanding requests allowed so that senders block.
+     *
+     * @throws IOException
+     */
+    public void testSeveralServers() throws IOException {
+        final int numServers = 3;
+        final int numMsgs = 500;
+        Configuration conf = getConfiguration();
+        List<RecordingCommunications> targets =
+            new ArrayList<RecordingCommunications>();
+        List<NettyServer<LongWritable, DoubleWritable, FloatWritable,
+                         DoubleWritable>> servers =
+            new ArrayList<NettyServer<LongWritable, DoubleWritable,
+                                      FloatWritable, DoubleWritable>>();
+        List<NettyClient<LongWritable, DoubleWritable, FloatWritable,
+                         DoubleWritable>> clients =
+            new ArrayList<NettyClient<LongWritable, DoubleWritable,
+                                      FloatWritable, DoubleWritable>>();
+        ChannelFactory clientChannelFactory =
+            new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(),
+                2);
+        for (int i = 0; i < numServers; ++i) {
+            InetSocketAddress addr =
+                new InetSocketAddress("localhost", BASE_PORT + i);
+            RecordingCommunications target = new RecordingCommunications();
+            NettyServer<LongWritable, DoubleWritable, FloatWritable,
+                        DoubleWritable> server =
+                new NettyServer<LongWritable, DoubleWritable, FloatWritable,
+                                DoubleWritable>(conf, target, addr, 2, 2);
+            server.start();
+            targets.add(target);
+            servers.add(server);
+            clients.add(new NettyClient<LongWritable, DoubleWritable,
+                                        FloatWritable, DoubleWritable>(
+                clientChannelFactory, addr, 2));
+        }
+
+        try {
+            for (NettyClient<LongWritable, DoubleWritable, FloatWritable,
+                             DoubleWritable> client : clients) {
+                MsgBuffer<LongWritable, DoubleWritable> msgBuffer =
+                    new MsgBuffer<LongWritable, DoubleWritable>();
+                msgBuffer.setConf(conf);
+                MsgList<DoubleWritable> msgList =
+                    new MsgList<DoubleWritable>();
+                for (int i = 0; i < numMsgs; ++i) {
+                    client.putMsg(new LongWritable(i), new DoubleWritable(i));
+                    msgBuffer.add(new LongWritable(i), new DoubleWritable(i));
+                    msgList.add(new DoubleWritable(i));
+                }
+                client.putMsgBuffer(msgBuffer);
+                client.putMsgList(new LongWritable(0), msgList);
+                client.addEdge(new LongWritable(1),
+                               new Edge<LongWritable, FloatWritable>(
+                                   new LongWritable(2), new FloatWritable(3)));
+                client.removeVertex(new LongWritable(4));
+                MutationBuffer<LongWritable, DoubleWritable, FloatWritable,
+                               DoubleWritable> mutationBuffer =
+                    new MutationBuffer<LongWritable, DoubleWritable,
+                                       FloatWritable, DoubleWritable>();
+                mutationBuffer.setConf(conf);
+                mutationBuffer.addEdge(
+                    new LongWritable(5),
+                    new Edge<LongWritable, FloatWritable>(
+                        new LongWritable(6), new FloatWritable(7)));
+                mutationBuffer.removeVertex(new LongWritable(8));
+                client.putMutationBuffer(mutationBuffer);
+                client.waitAllRequests();
+            }
+
+            for (RecordingCommunications target : targets) {
+                synchronized (target) {
+                    assertEquals(3 * numMsgs, target.msgs.size());
+                    assertEquals(2, target.edges.size());
+                    assertEquals(new LongWritable(2),
+                                 target.edges.get(0).getDestVertexId());
+                    assertEquals(new FloatWritable(3),
+                                 target.edges.get(0).getEdgeValue());
+                    assertEquals(2, target.removedVertices.size());
+                    assertEquals(new LongWritable(4),
+                                 target.removedVertices.get(0));
+                    assertEquals(new FloatWritable(7),
+                                 target.edges.get(1).getEdgeValue());
+                    assertEquals(new LongWritable(8),
+                                 target.removedVertices.get(1));
+                }
+            }
+
+            // A request failing on the server is reported to the client
+            NettyClient<LongWritable, DoubleWritable, FloatWritable,
+                        DoubleWritable> client = clients.get(0);
+            client.removeEdge(new LongWritable(1), new LongWritable(2));
+            try {
+                client.waitAllRequests();
+                fail("testSeveralServers: Expected a failed request");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            for (NettyClient<LongWritable, DoubleWritable, FloatWritable,
+                             DoubleWritable> client : clients) {
+                client.close();
+            }
+            clientChannelFactory.releaseExternalResources();
+            for (NettyServer<LongWritable, DoubleWritable, FloatWritable,
+                             DoubleWritable> server : servers) {
+                server.stop();
+            }
+        }
+    }
+}
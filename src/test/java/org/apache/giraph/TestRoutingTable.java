@@ -0,0 +1,82 @@
+/*
+ * Licensed to Yahoo! under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  Yahoo! licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.giraph.comm.RoutingTable;
+import org.apache.giraph.graph.BspUtils;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Check the vertex index lookups of {@link RoutingTable}.
+ */
+public class TestRoutingTable extends TestCase {
+    /**
+     * Create a map of vertex range max indices to peer names.
+     *
+     * @return Map with the max indices 10, 20 and 30
+     */
+    private static NavigableMap<LongWritable, String> createRangePeerMap() {
+        NavigableMap<LongWritable, String> rangePeerMap =
+            new TreeMap<LongWritable, String>();
+        rangePeerMap.put(new LongWritable(10), "a");
+        rangePeerMap.put(new LongWritable(20), "b");
+        rangePeerMap.put(new LongWritable(30), "c");
+        return rangePeerMap;
+    }
+
+    /**
+     * Vertex indices go to the vertex range with the next max index, or
+     * the last one past the end.
+     */
+    public void testVertexRanges() {
+        RoutingTable<LongWritable, String> table =
+            new RoutingTable<LongWritable, String>(
+                3, createRangePeerMap(), null);
+        assertEquals(3, table.getSuperstep());
+        assertEquals("a", table.getPeer(new LongWritable(-5)));
+        assertEquals("a", table.getPeer(new LongWritable(10)));
+        assertEquals("b", table.getPeer(new LongWritable(11)));
+        assertEquals("b", table.getPeer(new LongWritable(20)));
+        assertEquals("c", table.getPeer(new LongWritable(25)));
+        assertEquals("c", table.getPeer(new LongWritable(30)));
+        assertEquals("c", table.getPeer(new LongWritable(100)));
+    }
+
+    /**
+     * With hash partitioning, vertex indices go to their hash partition.
+     */
+    public void testHashPartitions() {
+        RoutingTable<LongWritable, String> table =
+            new RoutingTable<LongWritable, String>(
+                0, createRangePeerMap(), Arrays.asList("x", "y"));
+        String[] peers = new String[] {"x", "y"};
+        for (long i = 0; i < 20; ++i) {
+            LongWritable vertexIndex = new LongWritable(i);
+            assertEquals(
+                peers[BspUtils.getHashPartitionId(vertexIndex, 2)],
+                table.getPeer(vertexIndex));
+        }
+    }
+}
@@ -123,4 +123,37 @@ public class TestVertexRangeBalancer extends BspCase {
             assertTrue(totalLen == correctLen);
         }
     }
+
+    /**
+     * Run a sample BSP job in this JVM with three workers, moving the
+     * vertex ranges between them every superstep in chunks of a few
+     * vertices.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public void testSuperstepBalancerInProcess()
+        throws IOException, InterruptedException, ClassNotFoundException {
+        GiraphJob job = new GiraphJob("testSuperstepBalancerInProcess");
+        setupConfiguration(job);
+        job.setVertexClass(SimpleCheckpointVertex.class);
+        job.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
+        job.setVertexOutputFormatClass(SimpleSuperstepVertexOutputFormat.class);
+        job.setVertexRangeBalancerClass(SuperstepBalancer.class);
+        job.getConfiguration().setInt(GiraphJob.MSG_BUFFER_SIZE, 64);
+        Path outputPath = new Path("/tmp/testSuperstepBalancerInProcess");
+        removeAndSetOutput(job, outputPath);
+        assertTrue(job.runInProcess(3));
+        if (getJobTracker() == null) {
+            FileSystem hdfs = FileSystem.get(job.getConfiguration());
+            int totalLen = 0;
+            for (FileStatus fileStatus : hdfs.listStatus(outputPath)) {
+                if (fileStatus.getPath().getName().startsWith("part-m-")) {
+                    totalLen += fileStatus.getLen();
+                }
+            }
+            assertEquals(118, totalLen);
+        }
+    }
 }